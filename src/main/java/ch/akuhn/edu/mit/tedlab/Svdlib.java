@@ -46,8 +46,15 @@ import static ch.akuhn.edu.mit.tedlab.Svdlib.storeVals.STORQ;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
 import java.util.Scanner;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class Svdlib {
 
@@ -332,6 +339,128 @@ public class Svdlib {
         return;
     }
 
+    /***********************************************************
+     * Computes the same products as svd_opb and svd_opa using several
+     * threads, with exactly the same results. A x is computed by blocks
+     * of rows, from a copy of A stored by rows, and A'y by blocks of
+     * columns, so that every entry of the result is summed by a single
+     * thread in the same order as the serial version. Work arrays and
+     * tasks are created once, so products do not allocate any vectors.
+     ***********************************************************/
+    static class ParallelMultiplier {
+        /* Number of blocks of rows or columns for each thread, so that
+         * threads that finish early can take more work. */
+        private static final int BLOCKS_PER_THREAD = 4;
+
+        private final SMat A;
+        private final SMat At; /* A transposed, so that rows of A are columns. */
+        private final double[] temp;
+        private final ExecutorService executor;
+        private final List<Callable<Void>> rowTasks = new ArrayList<Callable<Void>>();
+        private final List<Callable<Void>> colTasks = new ArrayList<Callable<Void>>();
+
+        /* Operands of the product being computed, set before tasks are run. */
+        private double[] x, y;
+
+        ParallelMultiplier(SMat A, int numThreads) {
+            this.A = A;
+            this.At = svdTransposeS(A);
+            this.temp = new double[A.rows];
+            this.executor = Executors.newFixedThreadPool(numThreads);
+            int numBlocks = numThreads * BLOCKS_PER_THREAD;
+            int[] rowBounds = blockBounds(At, numBlocks);
+            for (int b = 0; b < rowBounds.length - 1; b++) {
+                final int start = rowBounds[b], end = rowBounds[b + 1];
+                rowTasks.add(new Callable<Void>() {
+                    public Void call() {
+                        multiplyRows(start, end);
+                        return null;
+                    }
+                });
+            }
+            int[] colBounds = blockBounds(A, numBlocks);
+            for (int b = 0; b < colBounds.length - 1; b++) {
+                final int start = colBounds[b], end = colBounds[b + 1];
+                colTasks.add(new Callable<Void>() {
+                    public Void call() {
+                        multiplyColumns(start, end);
+                        return null;
+                    }
+                });
+            }
+        }
+
+        /* Divides the columns of S into blocks with similar numbers of
+         * non-zero entries, returning the first column of each block
+         * followed by S.cols. */
+        private static int[] blockBounds(SMat S, int numBlocks) {
+            List<Integer> bounds = new ArrayList<Integer>();
+            bounds.add(0);
+            long perBlock = Math.max(1, ((long) S.vals + numBlocks - 1) / numBlocks);
+            long nextBound = perBlock;
+            for (int i = 1; i < S.cols; i++) {
+                if (S.pointr[i] >= nextBound) {
+                    bounds.add(i);
+                    nextBound = S.pointr[i] + perBlock;
+                }
+            }
+            bounds.add(S.cols);
+            int[] result = new int[bounds.size()];
+            for (int b = 0; b < result.length; b++) result[b] = bounds.get(b);
+            return result;
+        }
+
+        /* Computes rows start to end of A x into y. */
+        private void multiplyRows(int start, int end) {
+            for (int i = start; i < end; i++) {
+                double sum = 0;
+                for (int j = At.pointr[i]; j < At.pointr[i+1]; j++)
+                    sum += At.value[j] * x[At.rowind[j]];
+                y[i] = sum;
+            }
+        }
+
+        /* Computes entries start to end of A'x into y. */
+        private void multiplyColumns(int start, int end) {
+            for (int i = start; i < end; i++) {
+                double sum = 0;
+                for (int j = A.pointr[i]; j < A.pointr[i+1]; j++)
+                    sum += A.value[j] * x[A.rowind[j]];
+                y[i] = sum;
+            }
+        }
+
+        private void run(List<Callable<Void>> tasks, double[] x, double[] y) {
+            this.x = x;
+            this.y = y;
+            try {
+                for (Future<Void> result : executor.invokeAll(tasks)) {
+                    result.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while multiplying sparse matrix", e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            }
+        }
+
+        /* Same as svd_opb: y = A'A x. */
+        void opb(double[] x, double[] y) {
+            run(rowTasks, x, temp);
+            run(colTasks, temp, y);
+        }
+
+        /* Same as svd_opa: y = A x. */
+        void opa(double[] x, double[] y) {
+            run(rowTasks, x, y);
+        }
+
+        void shutdown() {
+            executor.shutdownNow();
+        }
+    }
+
     /***********************************************************************
      * * random() * (double precision) *
      ***********************************************************************/
@@ -534,6 +663,8 @@ adapted from SVDPACKC, which is
 
     double[][] LanStore;
     double[] OPBTemp;
+    int numThreads = 1;
+    ParallelMultiplier multiplier;
     double eps, eps1, reps, eps34;
     long ierr;
     /*
@@ -793,6 +924,24 @@ LAS2         ritvec, lanso
         }
     }
 
+    /* Sets the number of threads used to multiply by the sparse matrix in
+     * svdLAS2. Results are the same for any number of threads. */
+    public void setNumThreads(int numThreads) {
+        this.numThreads = Math.max(1, numThreads);
+    }
+
+    /* Computes y = A'A x, using the parallel multiplier if there is one. */
+    void opb(SMat A, double[] x, double[] y) {
+        if (multiplier != null) multiplier.opb(x, y);
+        else svd_opb(A, x, y, OPBTemp);
+    }
+
+    /* Computes y = A x, using the parallel multiplier if there is one. */
+    void opa(SMat A, double[] x, double[] y) {
+        if (multiplier != null) multiplier.opa(x, y);
+        else svd_opa(A, x, y);
+    }
+
     public SVDRec svdLAS2A(SMat A, int dimensions) {
         double[] end = new double[] {-1.0e-30, 1.0e-30};
         double kappa = 1e-6;
@@ -872,42 +1021,48 @@ LAS2         ritvec, lanso
         LanStore = new double[iterations + MAXLL][];
         OPBTemp = svd_doubleArray(A.rows, false, "las2: OPBTemp");
 
-        /* Actually run the lanczos thing: */
-        int[] ref_neig = new int[] { 0 }; // XXX wrap neig 
-        steps = lanso(A, iterations, dimensions, end[0], end[1], ritz, bnd, wptr, 
-                ref_neig, n);
-        int neig = ref_neig[0]; // XXX unwrap neig
+        if (numThreads > 1) multiplier = new ParallelMultiplier(A, numThreads);
+        try {
+            /* Actually run the lanczos thing: */
+            int[] ref_neig = new int[] { 0 }; // XXX wrap neig 
+            steps = lanso(A, iterations, dimensions, end[0], end[1], ritz, bnd, wptr, 
+                    ref_neig, n);
+            int neig = ref_neig[0]; // XXX unwrap neig
+
+            /* Print some stuff. */
+            if (SVDVerbosity > 0) {
+                printf("NUMBER OF LANCZOS STEPS   = %6d\n" +
+                        "RITZ VALUES STABILIZED    = %6d\n", steps + 1, neig);
+            }
+            if (SVDVerbosity > 2) {
+                printf("\nCOMPUTED RITZ VALUES  (ERROR BNDS)\n");
+                for (i = 0; i <= steps; i++)
+                    printf("%3d  %22.14E  (%11.2E)\n", i + 1, ritz[i], bnd[i]);
+            }
 
-        /* Print some stuff. */
-        if (SVDVerbosity > 0) {
-            printf("NUMBER OF LANCZOS STEPS   = %6d\n" +
-                    "RITZ VALUES STABILIZED    = %6d\n", steps + 1, neig);
+            wptr[0] = null;
+            wptr[1] = null;
+            wptr[2] = null;
+            wptr[3] = null;
+            wptr[4] = null;
+            wptr[7] = null;
+            wptr[8] = null;
+
+            /* Compute eigenvectors */
+            kappa = svd_dmax(fabs(kappa), eps34);
+
+            R = new SVDRec();
+            R.d  = /*svd_imin(nsig, dimensions)*/dimensions;
+            R.Ut = new DMat(R.d, A.rows);
+            R.S  = svd_doubleArray(R.d, true, "las2: R->s");
+            R.Vt = new DMat(R.d, A.cols);
+
+            ritvec(n, A, R, kappa, ritz, bnd, wptr[6], wptr[9], wptr[5], steps, 
+                    neig);
+        } finally {
+            if (multiplier != null) multiplier.shutdown();
+            multiplier = null;
         }
-        if (SVDVerbosity > 2) {
-            printf("\nCOMPUTED RITZ VALUES  (ERROR BNDS)\n");
-            for (i = 0; i <= steps; i++)
-                printf("%3d  %22.14E  (%11.2E)\n", i + 1, ritz[i], bnd[i]);
-        }
-
-        wptr[0] = null;
-        wptr[1] = null;
-        wptr[2] = null;
-        wptr[3] = null;
-        wptr[4] = null;
-        wptr[7] = null;
-        wptr[8] = null;
-
-        /* Compute eigenvectors */
-        kappa = svd_dmax(fabs(kappa), eps34);
-
-        R = new SVDRec();
-        R.d  = /*svd_imin(nsig, dimensions)*/dimensions;
-        R.Ut = new DMat(R.d, A.rows);
-        R.S  = svd_doubleArray(R.d, true, "las2: R->s");
-        R.Vt = new DMat(R.d, A.cols);
-
-        ritvec(n, A, R, kappa, ritz, bnd, wptr[6], wptr[9], wptr[5], steps, 
-                neig);
 
         if (SVDVerbosity > 1) {
             printf("\nSINGULAR VALUES: ");
@@ -993,26 +1148,13 @@ imtql2
 
      ***********************************************************************/
 
-    static void rotateArray(double[][] a, int size, int x) {
-
-        // TODO fix me, in Java we cannot access a[] as a[][] !!!
-
-        int i, j, n, start;
-        double t1, t2;
+    /* Rotates the rows of a so that row x becomes the first row. The C version rotates
+     * a flat array, which cannot be done on a double[][] in Java, so rows are moved. */
+    static void rotateArray(double[][] a, int x) {
         if (x == 0) return;
-        j = start = 0;
-        t1 = a[0][0];
-        int len = a.length;
-        for (i = 0; i < size; i++) {
-            n = (j >= x) ? j - x : j + size - x;
-            t2 = a[n % len][n / len];
-            a[n % len][n / len] = t1;
-            t1 = t2;
-            j = n;
-            if (j == start) {
-                start = ++j;
-                t1 = a[j % len][j / len];
-            }
+        double[][] rows = a.clone();
+        for (int i = 0; i < a.length; i++) {
+            a[i] = rows[(i + x) % a.length];
         }
     }
 
@@ -1083,19 +1225,18 @@ singular values. */
 
         /* Rotate the singular vectors and values. */
         /* x is now the location of the highest singular value. */
-        rotateArray(R.Vt.value, R.Vt.rows * R.Vt.cols, 
-                x * R.Vt.cols);
+        rotateArray(R.Vt.value, x);
         R.d = svd_imin(R.d, nsig);
         for (x = 0; x < R.d; x++) {
             /* multiply by matrix B first */
-            svd_opb(A, R.Vt.value[x], xv2, OPBTemp);
+            opb(A, R.Vt.value[x], xv2);
             tmp0 = svd_ddot(n, R.Vt.value[x], 1, xv2, 1);
             svd_daxpy(n, -tmp0, R.Vt.value[x], 1, xv2, 1);
             tmp0 = Math.sqrt(tmp0);
             xnorm = Math.sqrt(svd_ddot(n, xv2, 1, xv2, 1));
 
             /* multiply by matrix A to get (scaled) left s-vector */
-            svd_opa(A, R.Vt.value[x], R.Ut.value[x]);
+            opa(A, R.Vt.value[x], R.Ut.value[x]);
             tmp1 = 1.0 / tmp0;
             svd_dscal(A.rows, tmp1, R.Ut.value[x], 1);
             xnorm *= tmp1;
@@ -1346,7 +1487,7 @@ UTILITY	svd_imin, svd_imax
             t = 1.0 / rnm;
             svd_datx(n, t, wptr[0], 1, wptr[1], 1);
             svd_dscal(n, t, wptr[3], 1);
-            svd_opb(A, wptr[3], wptr[0], OPBTemp);
+            opb(A, wptr[3], wptr[0]);
             svd_daxpy(n, -rnm, wptr[2], 1, wptr[0], 1);
             alf[j] = svd_ddot(n, wptr[0], 1, wptr[3], 1);
             svd_daxpy(n, -alf[j], wptr[1], 1, wptr[0], 1);
@@ -1598,7 +1739,7 @@ LAS		startv
         svd_dscal(n, t, wrkptr[3], 1);
 
         /* take the first step */
-        svd_opb(A, wrkptr[3], wrkptr[0], OPBTemp);
+        opb(A, wrkptr[3], wrkptr[0]);
         alf[0] = svd_ddot(n, wrkptr[0], 1, wrkptr[3], 1);
         svd_daxpy(n, -alf[0], wrkptr[1], 1, wrkptr[0], 1);
         t = svd_ddot(n, wrkptr[0], 1, wrkptr[3], 1);
@@ -1666,7 +1807,7 @@ MISC		random
             svd_dcopy(n, wptr[0], 1, wptr[3], 1);
 
             /* apply operator to put r in range (essential if m singular) */
-            svd_opb(A, wptr[3], wptr[0], OPBTemp);
+            opb(A, wptr[3], wptr[0]);
             svd_dcopy(n, wptr[0], 1, wptr[3], 1);
             rnm2 = svd_ddot(n, wptr[0], 1, wptr[3], 1);
             if (rnm2 > 0.0) break;
@@ -4,10 +4,12 @@ import static pitt.search.semanticvectors.LuceneUtils.LUCENE_VERSION;
 import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.document.SortedDocValuesField;
 import org.apache.lucene.document.TextField;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
 
 import pitt.search.semanticvectors.FlagConfig;
 import pitt.search.semanticvectors.utils.VerbatimLogger;
@@ -25,6 +27,9 @@ import java.nio.file.Path;
  * <subject>\t<predicate>\t<object> and produces a Lucene index, in which each 
  * "document" is a single tab-delimited predication (or triple) with the fields subject, 
  * predicate, and object.
+ * 
+ * The subject, predicate and object are also written as {@link SortedDocValuesField}s, so that
+ * {@link pitt.search.semanticvectors.PSI} can read them without loading stored fields.
  */
 public class LuceneIndexFromTriples {
 
@@ -102,6 +107,9 @@ public class LuceneIndexFromTriples {
         doc.add(new TextField("predicate", predicate, Field.Store.YES));
         doc.add(new TextField("object", object, Field.Store.YES));
         doc.add(new TextField("predication",subject+predicate+object, Field.Store.NO));
+        doc.add(new SortedDocValuesField("subject", new BytesRef(subject)));
+        doc.add(new SortedDocValuesField("predicate", new BytesRef(predicate)));
+        doc.add(new SortedDocValuesField("object", new BytesRef(object)));
         fsWriter.addDocument(doc);
       }
       catch (Exception e) {
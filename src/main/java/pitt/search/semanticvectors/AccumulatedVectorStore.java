@@ -0,0 +1,341 @@
+/**
+   Copyright (c) 2015, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+
+import pitt.search.semanticvectors.ElementalVectorStore.ElementalGenerationMethod;
+import pitt.search.semanticvectors.utils.VerbatimLogger;
+import pitt.search.semanticvectors.vectors.Vector;
+import pitt.search.semanticvectors.vectors.VectorUtils;
+
+/**
+ * Reads and writes the accumulated (unnormalized) vectors of a trained store in a companion
+ * file next to the store, so that more evidence can be added to them later, e.g., by
+ * {@link FlagConfig#incrementalupdate()}. Trainers write this file before normalizing if
+ * {@link FlagConfig#writeaccumulators()} is set.
+ *
+ * <p>The file has a header like other vector stores, which also records how elemental vectors
+ * were generated, followed by each key and its vector written using
+ * {@link VectorUtils#writeAccumulatedVector}, so real and complex vectors keep their magnitudes
+ * and binary vectors keep their voting records.
+ *
+ * <p>Accumulated stores trained on different parts of a corpus can be combined using
+ * {@link #merge}, or from the command line using {@link #main}, e.g., to distribute
+ * {@link BuildPositionalIndex} or {@link PSI} across several machines. This is only correct
+ * if every part used the same elemental vectors, so they must be reproducible, see
+ * {@link ElementalVectorStore#isReproducible}.
+ */
+public class AccumulatedVectorStore {
+  /** Appended to the name of a store to give the name of its accumulator file. */
+  public static final String ACCUMULATOR_EXTENSION = ".accumulators";
+  private static final String TEMP_EXTENSION = ".tmp";
+
+  /** Usage message printed if {@link #main} is called with ill-formed arguments. */
+  public static String usageMessage = "\nAccumulatedVectorStore class in package pitt.search.semanticvectors"
+      + "\nUsage: java pitt.search.semanticvectors.AccumulatedVectorStore [flags] OUTPUT_STORE PARTIAL_STORE ..."
+      + "\nAccumulatedVectorStore sums the accumulated vectors of the partial stores, written using"
+      + "\n-writeaccumulators, and writes the normalized results to OUTPUT_STORE and the sums to"
+      + "\nOUTPUT_STORE" + ACCUMULATOR_EXTENSION + " so they can be merged again."
+      + "\nThe flags must be the same as those used to train the partial stores, including"
+      + "\n-vectortype, -dimension and -elementalseed or -elementalmethod contenthash.";
+
+  // Private constructor. This class is not meant to be instantiated.
+  private AccumulatedVectorStore() {}
+
+  /** Returns the name of the accumulator file for the given store. */
+  public static String getFileName(String storeName) {
+    return storeName + ACCUMULATOR_EXTENSION;
+  }
+
+  /** Returns true if the given store has an accumulator file. */
+  public static boolean exists(String storeName) {
+    return new File(getFileName(storeName)).isFile();
+  }
+
+  /**
+   * Returns the header for accumulated vectors trained using {@code flagConfig}. Unlike the
+   * header of normalized stores, this records the elemental method and seed in every case,
+   * since vectors can only be accumulated further using the same elemental vectors.
+   */
+  public static String generateHeaderString(FlagConfig flagConfig) {
+    String header = VectorStoreWriter.generateHeaderString(flagConfig);
+    if (flagConfig.elementalmethod() != ElementalGenerationMethod.CONTENTHASH) {
+      header += " -elementalmethod " + flagConfig.elementalmethod().toString();
+    }
+    if (flagConfig.elementalmethod() == ElementalGenerationMethod.RANDOM
+        && flagConfig.elementalseed() >= 0) {
+      header += " -elementalseed " + flagConfig.elementalseed();
+    }
+    return header;
+  }
+
+  /**
+   * Writes accumulated vectors one at a time, for trainers that normalize each vector as soon
+   * as it is complete. Any previous accumulator file is only replaced when {@link #close} is called.
+   */
+  public static class Writer {
+    private final File file;
+    private final FSDirectory fsDirectory;
+    private final String tempName;
+    private final IndexOutput outputStream;
+    private int numVectors = 0;
+
+    /** Opens a writer for the accumulator file of the given store. */
+    public Writer(String storeName, FlagConfig flagConfig) throws IOException {
+      file = new File(getFileName(storeName));
+      String parentPath = file.getParent();
+      if (parentPath == null) parentPath = "";
+      fsDirectory = FSDirectory.open(FileSystems.getDefault().getPath(parentPath));
+      tempName = file.getName() + TEMP_EXTENSION;
+      outputStream = fsDirectory.createOutput(tempName, IOContext.DEFAULT);
+      outputStream.writeString(generateHeaderString(flagConfig));
+    }
+
+    /** Writes the given vector, which must not have been normalized yet. */
+    public void write(Object key, Vector vector) throws IOException {
+      outputStream.writeString(key.toString());
+      VectorUtils.writeAccumulatedVector(vector, outputStream);
+      numVectors++;
+    }
+
+    /** Finishes writing and replaces any previous accumulator file. */
+    public void close() throws IOException {
+      outputStream.close();
+      fsDirectory.sync(Collections.singleton(tempName));
+      fsDirectory.renameFile(tempName, file.getName());
+      fsDirectory.close();
+      VerbatimLogger.info("Wrote " + numVectors + " accumulated vectors to file: " + file + "\n");
+    }
+
+    /** Stops writing and deletes what has been written, leaving any previous accumulator file. */
+    public void abort() throws IOException {
+      outputStream.close();
+      fsDirectory.deleteFile(tempName);
+      fsDirectory.close();
+    }
+  }
+
+  /**
+   * Reads the accumulator file of a store one vector at a time, after checking that its header
+   * matches the current settings.
+   */
+  private static class Reader {
+    private final File file;
+    private final FlagConfig flagConfig;
+    private final FSDirectory fsDirectory;
+    private final IndexInput inputStream;
+
+    /**
+     * @throws IllegalArgumentException if the vectors were trained with different vector
+     *         settings or elemental vectors from {@code flagConfig}
+     */
+    Reader(String storeName, FlagConfig flagConfig) throws IOException {
+      this.file = new File(getFileName(storeName));
+      this.flagConfig = flagConfig;
+      String parentPath = file.getParent();
+      if (parentPath == null) parentPath = "";
+      fsDirectory = FSDirectory.open(FileSystems.getDefault().getPath(parentPath));
+      inputStream = fsDirectory.openInput(file.getName(), IOContext.READONCE);
+      String header = inputStream.readString();
+      String expectedHeader = generateHeaderString(flagConfig);
+      if (!header.equals(expectedHeader)) {
+        close();
+        throw new IllegalArgumentException("Accumulated vectors in file " + file + " have header '"
+            + header + "', which does not match the current settings '" + expectedHeader + "'.");
+      }
+    }
+
+    /** Returns the key of the next vector, or null if there are no more vectors. */
+    String readKey() throws IOException {
+      if (inputStream.getFilePointer() >= inputStream.length()) return null;
+      return inputStream.readString();
+    }
+
+    /** Returns the vector for the key just read. */
+    Vector readVector() throws IOException {
+      return VectorUtils.readAccumulatedVector(
+          flagConfig.vectortype(), flagConfig.dimension(), inputStream);
+    }
+
+    void close() throws IOException {
+      inputStream.close();
+      fsDirectory.close();
+    }
+  }
+
+  /**
+   * Writes the accumulated vectors for the given store, replacing any previous accumulator file
+   * only once the new one is complete. Must be called before the vectors are normalized.
+   */
+  public static void write(String storeName, FlagConfig flagConfig, VectorStore accumulators)
+      throws IOException {
+    Writer writer = new Writer(storeName, flagConfig);
+    Enumeration<ObjectVector> vecEnum = accumulators.getAllVectors();
+    while (vecEnum.hasMoreElements()) {
+      ObjectVector objectVector = vecEnum.nextElement();
+      writer.write(objectVector.getObject(), objectVector.getVector());
+    }
+    writer.close();
+  }
+
+  /**
+   * Reads the accumulated vectors for the given store.
+   *
+   * @throws IllegalArgumentException if they were trained with different vector settings or
+   *         elemental vectors from {@code flagConfig}
+   */
+  public static VectorStoreRAM read(String storeName, FlagConfig flagConfig) throws IOException {
+    VectorStoreRAM vectors = new VectorStoreRAM(flagConfig);
+    addVectors(storeName, flagConfig, vectors);
+    return vectors;
+  }
+
+  /**
+   * Copies the accumulated vectors for the given store to {@code writer}, one at a time,
+   * so that they are not all held in memory. Returns the number of vectors copied.
+   *
+   * @throws IllegalArgumentException if they were trained with different vector settings or
+   *         elemental vectors from {@code flagConfig}
+   */
+  public static int copy(String storeName, FlagConfig flagConfig, Writer writer)
+      throws IOException {
+    Reader reader = new Reader(storeName, flagConfig);
+    int numVectors = 0;
+    try {
+      String key;
+      while ((key = reader.readKey()) != null) {
+        writer.write(key, reader.readVector());
+        numVectors++;
+      }
+    } finally {
+      reader.close();
+    }
+    VerbatimLogger.info("Copied " + numVectors + " accumulated vectors from file: "
+        + getFileName(storeName) + "\n");
+    return numVectors;
+  }
+
+  /**
+   * Sums the accumulated vectors of the given stores by key, giving the vectors that would
+   * have been accumulated by training on all the corresponding parts of the corpus together.
+   * The results are not normalized, so that they can be merged again.
+   *
+   * @throws IllegalArgumentException if the stores were trained with different settings from
+   *         {@code flagConfig}, or if {@code flagConfig} does not give reproducible elemental vectors
+   */
+  public static VectorStoreRAM merge(List<String> storeNames, FlagConfig flagConfig)
+      throws IOException {
+    if (!ElementalVectorStore.isReproducible(flagConfig)) {
+      throw new IllegalArgumentException(
+          "Accumulated vectors can only be merged if every part used the same elemental vectors."
+          + " Please train and merge with -elementalseed, or with -elementalmethod contenthash.");
+    }
+    VectorStoreRAM merged = new VectorStoreRAM(flagConfig);
+    for (String storeName : storeNames) {
+      addVectors(storeName, flagConfig, merged);
+    }
+    return merged;
+  }
+
+  /**
+   * Reads the accumulated vectors for the given store into {@code target}, merging them with
+   * any vectors that {@code target} already has for the same keys.
+   */
+  private static void addVectors(String storeName, FlagConfig flagConfig, VectorStoreRAM target)
+      throws IOException {
+    Reader reader = new Reader(storeName, flagConfig);
+    try {
+      int numVectors = 0;
+      String key;
+      while ((key = reader.readKey()) != null) {
+        Vector vector = reader.readVector();
+        Vector existing = target.getVector(key);
+        if (existing != null) {
+          VectorUtils.mergeAccumulatedVectors(existing, vector);
+        } else {
+          target.putVector(key, vector);
+        }
+        numVectors++;
+      }
+      VerbatimLogger.info("Read " + numVectors + " accumulated vectors from file: "
+          + getFileName(storeName) + "\n");
+    } finally {
+      reader.close();
+    }
+  }
+
+  /**
+   * Merges partial stores from the command line, see {@link #usageMessage}.
+   */
+  public static void main(String[] args) throws IOException {
+    FlagConfig flagConfig;
+    try {
+      flagConfig = FlagConfig.getFlagConfig(args);
+      args = flagConfig.remainingArgs;
+    } catch (IllegalArgumentException e) {
+      System.err.println(usageMessage);
+      throw e;
+    }
+    if (args.length < 2) {
+      System.err.println(usageMessage);
+      throw new IllegalArgumentException("After parsing command line flags, there were "
+          + args.length + " arguments, instead of an output store and at least one partial store.");
+    }
+
+    String outputStore = args[0];
+    VectorStoreRAM merged = merge(Arrays.asList(args).subList(1, args.length), flagConfig);
+    write(outputStore, flagConfig, merged);
+
+    VerbatimLogger.info("Normalizing " + merged.getNumVectors() + " merged vectors.\n");
+    Enumeration<ObjectVector> vecEnum = merged.getAllVectors();
+    while (vecEnum.hasMoreElements()) {
+      vecEnum.nextElement().getVector().normalize();
+    }
+    VectorStoreWriter.writeVectors(outputStore, flagConfig, merged);
+  }
+}
@@ -63,7 +63,10 @@ public class BuildIndex {
       + "\n  -filternumbers [true or false]"
       + "\n  -trainingcycles [training cycles]"
       + "\n  -docindexing [incremental|inmemory|none] Switch between building doc vectors incrementally"
-      + "\n        (requires positional index), all in memory (default case), or not at all";
+      + "\n        (requires positional index), all in memory (default case), or not at all"
+      + "\n  -checkpointinterval [number of terms between checkpoints of partial term vectors]"
+      + "\n  -resume Continue from the last checkpoint (requires -elementalseed or -elementalmethod contenthash)"
+      + "\n  -writeaccumulators Also write vectors before normalization, for later updates or merges";
 
   /**
    * Builds term vector and document vector stores from a Lucene index.
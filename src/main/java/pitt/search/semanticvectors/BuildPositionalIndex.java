@@ -67,7 +67,12 @@ public class BuildPositionalIndex {
     + "\n  -minfrequency [minimum term frequency]"
     + "\n  -initialtermvectors [name of preexisting vectorstore for term vectors]"
     + "\n  -windowradius [window size]"
-    + "\n  -positionalmethod [positional indexing method: basic (default), directional (HAL), permutation (Sahlgren 2008)";
+    + "\n  -positionalmethod [positional indexing method: basic (default), directional (HAL), permutation (Sahlgren 2008)"
+    + "\n  -checkpointinterval [number of documents between checkpoints of partial term vectors]"
+    + "\n  -resume Continue from the last checkpoint (requires -elementalseed or -elementalmethod contenthash)"
+    + "\n  -incrementalupdate Add only documents not processed by earlier runs"
+    + " (requires -elementalseed or -elementalmethod contenthash)"
+    + "\n  -writeaccumulators Also write vectors before normalization, for later updates or merges";
 
   /**
    * Builds term vector stores from a Lucene index - this index must
@@ -103,27 +108,7 @@ public class BuildPositionalIndex {
       }
     }
 
-    String termFile = "";
-    switch (flagConfig.positionalmethod()) {
-    case BASIC:
-      termFile = flagConfig.termtermvectorsfile();
-      break;
-    case PROXIMITY:
-    	termFile = flagConfig.proximityvectorfile();
-    	break;
-    case PERMUTATION:
-      termFile = flagConfig.permutedvectorfile();
-      break;
-    case PERMUTATIONPLUSBASIC:
-      termFile = flagConfig.permplustermvectorfile();
-      break;
-    case DIRECTIONAL:
-      termFile = flagConfig.directionalvectorfile();
-      break;
-    default:
-      throw new IllegalArgumentException(
-          "Unrecognized -positionalmethod: " + flagConfig.positionalmethod());
-    }
+    String termFile = TermTermVectorsFromLucene.getStoreName(flagConfig);
 
     VerbatimLogger.info("Building positional index, Lucene index: " + luceneIndex
         + ", Seedlength: " + flagConfig.seedlength()
@@ -39,6 +39,15 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import pitt.search.semanticvectors.Search.SearchType;
 import pitt.search.semanticvectors.utils.VerbatimLogger;
@@ -77,6 +86,12 @@ import pitt.search.semanticvectors.vectors.VectorUtils;
  */
 
 public class CompareTermsBatch {
+  /** Number of input lines read and scored at a time. */
+  static final int LINE_BLOCK_SIZE = 10000;
+
+  /** Largest number of term strings whose vectors are kept for reuse. */
+  private static final int VECTOR_CACHE_SIZE = 10000;
+
   public static String usageMessage = "CompareTermsBatch class in package pitt.search.semanticvectors"
       + "\nUsage: java pitt.search.semanticvectors.CompareTermsBatch "
       + "\n   [-queryvectorfile vecfile] [-luceneindexpath path]"
@@ -88,7 +103,8 @@ public class CompareTermsBatch {
       + "\nFor each line of input from STDIN, this will split the input into two strings"
       + "\n   of terms at the separator, and output a similarity score to STDOUT."
       + "\nIf the term NOT is used in one of the lists, subsequent terms in "
-      + "\nthat list will be negated (as in Search class).";
+      + "\nthat list will be negated (as in Search class)."
+      + "\n-numthreads N scores pairs in N threads; scores are still output in input order.";
 
   /**
    * Main function for command line use.
@@ -140,53 +156,170 @@ public class CompareTermsBatch {
     }
 
     BufferedReader input = new BufferedReader(new InputStreamReader(System.in));
+    PairComparer pairComparer = new PairComparer(flagConfig, luceneUtils,
+        vecReader, elementalVecReader, semanticVecReader, predicateVecReader);
+
+    // Lines are read and scored a block at a time. While the worker threads score one
+    // block, the main thread reads the next block and then writes out the scores of the
+    // previous block, so scores are written in input order.
+    int numThreads = Math.max(1, flagConfig.numthreads());
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try {
+      List<String> lines = new ArrayList<String>();
+      List<String[]> pairs = new ArrayList<String[]>();
+      List<String> previousLines = new ArrayList<String>();
+      List<Future<double[]>> previousScores = new ArrayList<Future<double[]>>();
+      IllegalArgumentException badLine = null;
+
+      String line = input.readLine();
+      while (line != null && badLine == null) {
+        String[] elems = line.split(separator);
+        if (elems.length != 2) {
+          badLine = new IllegalArgumentException("The separator '" + separator +
+              "' must occur exactly once (found " + (elems.length - 1) + " occurrences)");
+        } else {
+          lines.add(line);
+          pairs.add(elems);
+          line = input.readLine();
+        }
 
-    String line;
-    while ((line = input.readLine()) != null) {
-      String[] elems = line.split(separator);
-      if (elems.length != 2) {
+        if (lines.size() == LINE_BLOCK_SIZE || line == null || badLine != null) {
+          List<Future<double[]>> scores = submitBlock(executor, pairComparer, pairs, numThreads);
+          writeScores(previousLines, previousScores);
+          previousLines = lines;
+          previousScores = scores;
+          lines = new ArrayList<String>();
+          pairs = new ArrayList<String[]>();
+        }
+      }
+      writeScores(previousLines, previousScores);
+
+      if (badLine != null) {
         System.err.println(usageMessage);
-        throw new IllegalArgumentException("The separator '" + separator +
-            "' must occur exactly once (found " + (elems.length - 1) + " occurrences)");
+        throw badLine;
       }
-      Vector vec1=null, vec2=null;
-      if (flagConfig.searchtype().equals(SearchType.BOUNDPRODUCT))
-      {
-      	vec1 = CompoundVectorBuilder.getBoundProductQueryVectorFromString(
-      	        flagConfig, elementalVecReader, semanticVecReader, predicateVecReader, luceneUtils, elems[0]);
-      	vec2 = CompoundVectorBuilder.getBoundProductQueryVectorFromString(
-      	    	flagConfig, elementalVecReader, semanticVecReader, predicateVecReader, luceneUtils, elems[1]);
-
-        double simScore = vec1.measureOverlap(vec2);
-        VerbatimLogger.info(String.format("Score = %7.6f. Terms: %s\n", simScore, line));
-        System.out.println(simScore);
-      	
-      } else  if (flagConfig.searchtype().equals(SearchType.BOUNDPRODUCTSUBSPACE))
-      {
-      	ArrayList<Vector> vecs1 = CompoundVectorBuilder.getBoundProductQuerySubspaceFromString(
-      	        flagConfig, elementalVecReader, semanticVecReader, predicateVecReader, elems[0]);
-      	vec2 = CompoundVectorBuilder.getBoundProductQueryVectorFromString(
-      	    	flagConfig, elementalVecReader, semanticVecReader, predicateVecReader, luceneUtils, elems[1]);
-          	
- 
-        double simScore = 	VectorUtils.compareWithProjection(vec2, vecs1);
-        VerbatimLogger.info(String.format("Score = %7.6f. Terms: %s\n", simScore, line));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Submits a block of term pairs to be scored, divided into one run of consecutive
+   * pairs for each thread.
+   */
+  private static List<Future<double[]>> submitBlock(ExecutorService executor,
+      final PairComparer pairComparer, List<String[]> pairs, int numThreads) {
+    List<Future<double[]>> scores = new ArrayList<Future<double[]>>();
+    int runLength = Math.max(1, (pairs.size() + numThreads - 1) / numThreads);
+    for (int start = 0; start < pairs.size(); start += runLength) {
+      final List<String[]> run = pairs.subList(start, Math.min(start + runLength, pairs.size()));
+      scores.add(executor.submit(new Callable<double[]>() {
+        @Override
+        public double[] call() {
+          double[] runScores = new double[run.size()];
+          for (int i = 0; i < runScores.length; ++i) {
+            runScores[i] = pairComparer.compare(run.get(i));
+          }
+          return runScores;
+        }
+      }));
+    }
+    return scores;
+  }
+
+  /** Waits for the scores of a block of lines and writes them out in order. */
+  private static void writeScores(List<String> lines, List<Future<double[]>> scores)
+      throws IOException {
+    int lineNumber = 0;
+    for (Future<double[]> runScores : scores) {
+      double[] simScores;
+      try {
+        simScores = runScores.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while waiting for comparison scores", e);
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof RuntimeException) {
+          throw (RuntimeException) e.getCause();
+        }
+        throw new IOException(e.getCause());
+      }
+      for (double simScore : simScores) {
+        VerbatimLogger.info(String.format("Score = %7.6f. Terms: %s\n", simScore, lines.get(lineNumber++)));
         System.out.println(simScore);
-      
-      	
       }
-      else {
-      
-      
-      vec1 = CompoundVectorBuilder.getQueryVectorFromString(
-          vecReader, luceneUtils, flagConfig, elems[0]);
-      vec2 = CompoundVectorBuilder.getQueryVectorFromString(
-          vecReader, luceneUtils, flagConfig, elems[1]);
-
-      double simScore = vec1.measureOverlap(vec2);
-      VerbatimLogger.info(String.format("Score = %7.6f. Terms: %s\n", simScore, line));
-      System.out.println(simScore);
+    }
+  }
+
+  /**
+   * Builds vectors for each side of a term pair and compares them. Vectors built for
+   * term strings are cached, since the same terms often appear in many pairs.
+   * May be used by many threads at once.
+   */
+  private static class PairComparer {
+    private final FlagConfig flagConfig;
+    private final LuceneUtils luceneUtils;
+    private final VectorStore vecReader, elementalVecReader, semanticVecReader, predicateVecReader;
+    private final Map<String, Vector> vectorCache = newCache();
+    private final Map<String, ArrayList<Vector>> subspaceCache = newCache();
+
+    PairComparer(FlagConfig flagConfig, LuceneUtils luceneUtils, VectorStore vecReader,
+        VectorStore elementalVecReader, VectorStore semanticVecReader, VectorStore predicateVecReader) {
+      this.flagConfig = flagConfig;
+      this.luceneUtils = luceneUtils;
+      this.vecReader = vecReader;
+      this.elementalVecReader = elementalVecReader;
+      this.semanticVecReader = semanticVecReader;
+      this.predicateVecReader = predicateVecReader;
+    }
+
+    /** Returns a least-recently-used cache holding up to {@link #VECTOR_CACHE_SIZE} entries. */
+    private static <V> Map<String, V> newCache() {
+      return Collections.synchronizedMap(new LinkedHashMap<String, V>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+          return size() > VECTOR_CACHE_SIZE;
+        }
+      });
+    }
+
+    /** Returns the similarity score of the two term strings in {@code elems}. */
+    double compare(String[] elems) {
+      if (flagConfig.searchtype().equals(SearchType.BOUNDPRODUCTSUBSPACE)) {
+        return VectorUtils.compareWithProjection(getVector(elems[1]), getSubspace(elems[0]));
+      }
+      return getVector(elems[0]).measureOverlap(getVector(elems[1]));
+    }
+
+    private Vector getVector(String terms) {
+      Vector vector = vectorCache.get(terms);
+      if (vector == null) {
+        if (flagConfig.searchtype().equals(SearchType.BOUNDPRODUCT)
+            || flagConfig.searchtype().equals(SearchType.BOUNDPRODUCTSUBSPACE)) {
+          vector = CompoundVectorBuilder.getBoundProductQueryVectorFromString(
+              flagConfig, elementalVecReader, semanticVecReader, predicateVecReader, luceneUtils, terms);
+        } else {
+          vector = CompoundVectorBuilder.getQueryVectorFromString(
+              vecReader, luceneUtils, flagConfig, terms);
+        }
+        // Comparing a cached vector must only read it, since it is shared by all threads.
+        VectorUtils.prepareForComparison(vector);
+        vectorCache.put(terms, vector);
+      }
+      return vector;
+    }
+
+    private ArrayList<Vector> getSubspace(String terms) {
+      ArrayList<Vector> subspace = subspaceCache.get(terms);
+      if (subspace == null) {
+        subspace = CompoundVectorBuilder.getBoundProductQuerySubspaceFromString(
+            flagConfig, elementalVecReader, semanticVecReader, predicateVecReader, terms);
+        for (Vector vector : subspace) {
+          VectorUtils.prepareForComparison(vector);
+        }
+        subspaceCache.put(terms, subspace);
       }
+      return subspace;
     }
   }
 }
@@ -38,12 +38,16 @@
 package pitt.search.semanticvectors;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.List;
 import java.util.StringTokenizer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
-import java.util.regex.Matcher;
+
+import org.apache.lucene.util.automaton.CharacterRunAutomaton;
 
 import pitt.search.semanticvectors.Search.SearchType;
 import pitt.search.semanticvectors.utils.VerbatimLogger;
@@ -71,6 +75,11 @@ public class CompoundVectorBuilder {
     /** Interpret query strings as regular expressions and include all vectors
      * whose objects match this regex in the query vector (not fully tested). */
     REGEX,
+    /** Include all vectors whose objects start with one of the query strings. */
+    PREFIX,
+    /** Interpret query strings as wildcard patterns, in which "*" matches any string
+     * and "?" any one character, and include all vectors whose objects match. */
+    WILDCARD,
   }
   
   public static final String NEGATION_TOKEN = "~NOT";
@@ -81,6 +90,39 @@ public class CompoundVectorBuilder {
   private static final Logger logger =
       Logger.getLogger(CompoundVectorBuilder.class.getCanonicalName());
 
+  /** Shared by all callers, created when a query is first built with caching enabled. */
+  private static QueryVectorCache queryVectorCache = null;
+
+  /**
+   * Returns the cache of query vectors built by the static methods of this class,
+   * or null if {@link FlagConfig#queryvectorcachesize()} has never been set.
+   */
+  public static synchronized QueryVectorCache getQueryVectorCache() {
+    return queryVectorCache;
+  }
+
+  /**
+   * Returns the query vector cache sized for {@code flagConfig}, or null if
+   * {@code flagConfig} does not ask for caching.
+   */
+  private static synchronized QueryVectorCache getQueryVectorCache(FlagConfig flagConfig) {
+    if (flagConfig.queryvectorcachesize() <= 0) return null;
+    if (queryVectorCache == null) {
+      queryVectorCache = new QueryVectorCache(
+          flagConfig.queryvectorcachesize(), flagConfig.queryvectorcachettl());
+    } else {
+      queryVectorCache.setLimits(flagConfig.queryvectorcachesize(), flagConfig.queryvectorcachettl());
+    }
+    return queryVectorCache;
+  }
+
+  /** Returns the flag values that change the vectors built for a query. */
+  private static String getCacheSettings(FlagConfig flagConfig) {
+    return flagConfig.vectortype() + ":" + flagConfig.dimension() + ":"
+        + flagConfig.suppressnegatedqueries() + ":" + flagConfig.vectorlookupsyntax() + ":"
+        + flagConfig.bindnotreleasehack() + ":" + flagConfig.searchtype();
+  }
+
   public CompoundVectorBuilder (VectorStore vecReader, LuceneUtils lUtils) {
     this.vecReader = vecReader;
     this.luceneUtils = lUtils;
@@ -199,6 +241,23 @@ public class CompoundVectorBuilder {
 
   public static Vector getBoundProductQueryVectorFromString(
       FlagConfig flagConfig, VectorStore elementalVectors, VectorStore semanticVectors, VectorStore predicateVectors, LuceneUtils lUtils, String queryString) {
+    QueryVectorCache cache = getQueryVectorCache(flagConfig);
+    if (cache == null) {
+      return buildBoundProductQueryVectorFromString(
+          flagConfig, elementalVectors, semanticVectors, predicateVectors, lUtils, queryString);
+    }
+    QueryVectorCache.Key key = new QueryVectorCache.Key("BOUNDPRODUCT", queryString.trim(),
+        getCacheSettings(flagConfig), elementalVectors, semanticVectors, predicateVectors, lUtils);
+    List<Vector> cached = cache.get(key);
+    if (cached != null) return cached.get(0);
+    Vector queryVector = buildBoundProductQueryVectorFromString(
+        flagConfig, elementalVectors, semanticVectors, predicateVectors, lUtils, queryString);
+    cache.put(key, Collections.singletonList(queryVector));
+    return queryVector;
+  }
+
+  private static Vector buildBoundProductQueryVectorFromString(
+      FlagConfig flagConfig, VectorStore elementalVectors, VectorStore semanticVectors, VectorStore predicateVectors, LuceneUtils lUtils, String queryString) {
     //allow for bundling of multiple concepts/relations - split initially at "+" to construct vectors to be superposed
 	  
 		if (queryString.contains("|")) return getBalancedBoundProductQueryVectorFromString(flagConfig, elementalVectors, semanticVectors, predicateVectors, lUtils, queryString); 
@@ -430,6 +489,23 @@ public class CompoundVectorBuilder {
    */
   public static ArrayList<Vector> getBoundProductQuerySubspaceFromString(
       FlagConfig flagConfig, VectorStore elementalVectors, VectorStore semanticVectors, VectorStore predicateVectors, String queryString) {
+    QueryVectorCache cache = getQueryVectorCache(flagConfig);
+    if (cache == null) {
+      return buildBoundProductQuerySubspaceFromString(
+          flagConfig, elementalVectors, semanticVectors, predicateVectors, queryString);
+    }
+    QueryVectorCache.Key key = new QueryVectorCache.Key("BOUNDPRODUCTSUBSPACE", queryString.trim(),
+        getCacheSettings(flagConfig), elementalVectors, semanticVectors, predicateVectors);
+    List<Vector> cached = cache.get(key);
+    if (cached != null) return new ArrayList<Vector>(cached);
+    ArrayList<Vector> disjunctSpace = buildBoundProductQuerySubspaceFromString(
+        flagConfig, elementalVectors, semanticVectors, predicateVectors, queryString);
+    cache.put(key, disjunctSpace);
+    return disjunctSpace;
+  }
+
+  private static ArrayList<Vector> buildBoundProductQuerySubspaceFromString(
+      FlagConfig flagConfig, VectorStore elementalVectors, VectorStore semanticVectors, VectorStore predicateVectors, String queryString) {
     ArrayList<Vector> disjunctSpace = new ArrayList<Vector>();
 
     //allow for bundling of multiple concepts/relations - split initially at "+" to construct vectors to be superposed
@@ -488,6 +564,28 @@ public class CompoundVectorBuilder {
    */
   public static Vector getQueryVector(
       VectorStore vecReader, LuceneUtils luceneUtils, FlagConfig flagConfig, String[] queryTerms) {
+    QueryVectorCache cache = getQueryVectorCache(flagConfig);
+    if (cache == null) {
+      return buildQueryVector(vecReader, luceneUtils, flagConfig, queryTerms);
+    }
+    // Empty terms left by splitting on repeated spaces add nothing to an exact-match query,
+    // but as regular expressions they match every vector, so they are only dropped for the former.
+    StringBuilder normalizedQuery = new StringBuilder();
+    for (String term : queryTerms) {
+      if (term.isEmpty() && flagConfig.vectorlookupsyntax() == VectorLookupSyntax.EXACTMATCH) continue;
+      normalizedQuery.append(term).append('\0');
+    }
+    QueryVectorCache.Key key = new QueryVectorCache.Key("TERMS", normalizedQuery.toString(),
+        getCacheSettings(flagConfig), vecReader, luceneUtils);
+    List<Vector> cached = cache.get(key);
+    if (cached != null) return cached.get(0);
+    Vector queryVector = buildQueryVector(vecReader, luceneUtils, flagConfig, queryTerms);
+    cache.put(key, Arrays.asList(queryVector));
+    return queryVector;
+  }
+
+  private static Vector buildQueryVector(
+      VectorStore vecReader, LuceneUtils luceneUtils, FlagConfig flagConfig, String[] queryTerms) {
     CompoundVectorBuilder builder = new CompoundVectorBuilder(vecReader, luceneUtils);
     Vector returnVector = VectorFactory.createZeroVector(
         flagConfig.vectortype(), flagConfig.dimension());
@@ -500,7 +598,7 @@ public class CompoundVectorBuilder {
         }
       }
     }
-    if (flagConfig.vectorlookupsyntax() == VectorLookupSyntax.REGEX) {
+    if (flagConfig.vectorlookupsyntax() != VectorLookupSyntax.EXACTMATCH) {
       returnVector = builder.getAdditiveQueryVectorRegex(flagConfig, queryTerms);
     } else {
       returnVector = builder.getAdditiveQueryVector(flagConfig, queryTerms);
@@ -550,7 +648,8 @@ public class CompoundVectorBuilder {
   /**
    * Returns a (possibly weighted) normalized query vector created by
    * adding together all vectors retrieved from vector store whose
-   * objects match a particular regular expression.
+   * objects match a particular regular expression, or prefix or wildcard
+   * pattern if {@link FlagConfig#vectorlookupsyntax()} says so.
    * 
    * @param flagConfig Used for (at least) vector type and dimension.
    * @param queryTerms String array of query terms to look up.
@@ -560,30 +659,66 @@ public class CompoundVectorBuilder {
     float weight = 1;
 
     for (int j = 0; j < queryTerms.length; ++j) {
-      // Compile a regular expression for matching anything containing this term.
-      Pattern pattern = Pattern.compile(queryTerms[j]);
-      logger.log(Level.FINER,"Query term pattern: {0}",pattern.pattern());
-      Enumeration<ObjectVector> vecEnum = vecReader.getAllVectors();
-      while (vecEnum.hasMoreElements()) {
-        // Test this element.
-        ObjectVector testElement = vecEnum.nextElement();
-        Matcher matcher = pattern.matcher(testElement.getObject().toString());
-        if (matcher.find()) {
-          Vector tmpVec = testElement.getVector();
-
-          if (luceneUtils != null) {
-            weight = luceneUtils.getGlobalTermWeightFromString(testElement.getObject().toString());
-          }
-          else { weight = 1; }
-
-          queryVec.superpose(tmpVec, weight, null);
+      for (ObjectVector testElement : getMatchingVectors(flagConfig.vectorlookupsyntax(), queryTerms[j])) {
+        Vector tmpVec = testElement.getVector();
+
+        if (luceneUtils != null) {
+          weight = luceneUtils.getGlobalTermWeightFromString(testElement.getObject().toString());
         }
+        else { weight = 1; }
+
+        queryVec.superpose(tmpVec, weight, null);
       }
     }
     queryVec.normalize();
     return queryVec;
   }
 
+  /**
+   * Returns the vectors whose objects match {@code queryTerm} under {@code syntax}, in the
+   * order in which the vector store enumerates them.  Stores held in memory are searched
+   * through their {@link KeyDictionary}; others are read through in full.
+   */
+  private List<ObjectVector> getMatchingVectors(VectorLookupSyntax syntax, String queryTerm) {
+    if (vecReader instanceof VectorStoreRAM) {
+      KeyDictionary dictionary = ((VectorStoreRAM) vecReader).getKeyDictionary();
+      switch (syntax) {
+        case PREFIX:
+          return dictionary.getVectorsWithPrefix(queryTerm);
+        case WILDCARD:
+          return dictionary.getVectorsMatchingWildcard(queryTerm);
+        default:
+          return dictionary.getVectorsFinding(Pattern.compile(queryTerm));
+      }
+    }
+
+    // Compile a regular expression or automaton for matching anything containing this term.
+    Pattern pattern = null;
+    CharacterRunAutomaton automaton = null;
+    switch (syntax) {
+      case PREFIX:
+        automaton = new CharacterRunAutomaton(KeyDictionary.getPrefixAutomaton(queryTerm));
+        break;
+      case WILDCARD:
+        automaton = new CharacterRunAutomaton(KeyDictionary.getWildcardAutomaton(queryTerm));
+        break;
+      default:
+        pattern = Pattern.compile(queryTerm);
+        logger.log(Level.FINER,"Query term pattern: {0}",pattern.pattern());
+    }
+    List<ObjectVector> matches = new ArrayList<ObjectVector>();
+    Enumeration<ObjectVector> vecEnum = vecReader.getAllVectors();
+    while (vecEnum.hasMoreElements()) {
+      // Test this element.
+      ObjectVector testElement = vecEnum.nextElement();
+      String object = testElement.getObject().toString();
+      if (pattern != null ? pattern.matcher(object).find() : automaton.run(object)) {
+        matches.add(testElement);
+      }
+    }
+    return matches;
+  }
+
   /**
    * Creates a vector, including orthogonalizing negated terms.
    * 
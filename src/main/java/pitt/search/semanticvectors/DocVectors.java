@@ -35,7 +35,6 @@
 
 package pitt.search.semanticvectors;
 
-import org.apache.lucene.index.CorruptIndexException;
 import org.apache.lucene.index.DocsEnum;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.index.TermsEnum;
@@ -82,7 +81,10 @@ public class DocVectors implements VectorStore {
 
   private static final Logger logger = Logger.getLogger(DocVectors.class.getCanonicalName());
   private FlagConfig flagConfig;
-  private VectorStoreRAM docVectors;
+  /** Doc vectors keyed by external doc ID. */
+  private VectorStoreOrdinal docVectors;
+  /** Ordinal in {@link #docVectors} for each Lucene document number. */
+  private int[] docOrdinals;
   private VectorStore termVectors;
   private LuceneUtils luceneUtils;
 
@@ -100,7 +102,7 @@ public class DocVectors implements VectorStore {
     this.flagConfig = flagConfig;
     this.luceneUtils = luceneUtils;
     this.termVectors = termVectors;
-    this.docVectors = new VectorStoreRAM(flagConfig);
+    this.docVectors = new VectorStoreOrdinal(flagConfig);
 
     initializeZeroDocVectors();
     trainDocVectors();
@@ -138,9 +140,8 @@ public class DocVectors implements VectorStore {
           if (docsEnum == null)  { continue; }
 
           while (docsEnum.nextDoc() != DocsEnum.NO_MORE_DOCS) {
-            String externalDocID = luceneUtils.getExternalDocId(docsEnum.docID());
             // Add vector from this term, taking freq into account.
-            Vector docVector = this.docVectors.getVector(externalDocID);
+            Vector docVector = this.docVectors.getVector(docOrdinals[docsEnum.docID()]);
             float localweight = docsEnum.freq();
 
             if (flagConfig.fieldweight()) {
@@ -163,6 +164,10 @@ public class DocVectors implements VectorStore {
       e.printStackTrace();
     }
 
+    if (flagConfig.writeaccumulators()) {
+      AccumulatedVectorStore.write(flagConfig.docvectorsfile(), flagConfig, docVectors);
+    }
+
     VerbatimLogger.info("\nNormalizing doc vectors ...\n");
     
     Enumeration<ObjectVector> docEnum = docVectors.getAllVectors();
@@ -171,14 +176,16 @@ public class DocVectors implements VectorStore {
   }
 
   /**
-   * Allocate doc vectors to zero vectors.
+   * Allocate doc vectors to zero vectors, and record the ordinal of each document's vector
+   * so that external doc IDs need not be looked up during training.
    */
   private void initializeZeroDocVectors() throws IOException {
     VerbatimLogger.info("Initializing new document vector store ... \n");
+    docOrdinals = new int[luceneUtils.getNumDocs()];
     for (int i = 0; i < luceneUtils.getNumDocs(); ++i) {
       String externalDocId = luceneUtils.getExternalDocId(i);
       Vector docVector = VectorFactory.createZeroVector(flagConfig.vectortype(), flagConfig.dimension());
-      this.docVectors.putVector(externalDocId, docVector);
+      docOrdinals[i] = this.docVectors.putVector(externalDocId, docVector);
     }
   }
 
@@ -189,15 +196,8 @@ public class DocVectors implements VectorStore {
     VectorStoreRAM outputVectors = new VectorStoreRAM(flagConfig);
 
     for (int i = 0; i < this.luceneUtils.getNumDocs(); ++i) {
-      try {
-        String externalDocId = luceneUtils.getExternalDocId(i);
-        Vector docVector = this.docVectors.getVector(externalDocId);
-        outputVectors.putVector(externalDocId, docVector);
-      } catch (CorruptIndexException e) {
-        e.printStackTrace();
-      } catch (IOException e) {
-        e.printStackTrace();
-      }
+      int ordinal = docOrdinals[i];
+      outputVectors.putVector(docVectors.getKey(ordinal), docVectors.getVector(ordinal));
     }
     return outputVectors;
   }
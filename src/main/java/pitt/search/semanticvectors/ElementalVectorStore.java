@@ -33,10 +33,8 @@
 package pitt.search.semanticvectors;
 
 import java.util.Enumeration;
-import java.util.Random;
 
 import pitt.search.semanticvectors.vectors.Vector;
-import pitt.search.semanticvectors.vectors.VectorFactory;
 
 /**
  * Encapsulates the generation of elemental vectors.
@@ -47,7 +45,7 @@ import pitt.search.semanticvectors.vectors.VectorFactory;
 public class ElementalVectorStore implements VectorStore{
 
   public enum ElementalGenerationMethod {
-    /** Generate elemental vectors randomly, and stores in a {@link VectorStoreRAM} */
+    /** Generate elemental vectors randomly, and stores in a {@link VectorStoreRandom} */
     RANDOM,
     /** Generate elemental vectors using a hash of the contents.
      * See {@link VectorStoreDeterministic}. */
@@ -57,7 +55,6 @@ public class ElementalVectorStore implements VectorStore{
     ORTHOGRAPHIC
   }
 
-  private Random random;
   private final FlagConfig flagConfig;
   private VectorStore backingStore;
 
@@ -68,8 +65,7 @@ public class ElementalVectorStore implements VectorStore{
     this.flagConfig = flagConfig;
     switch(flagConfig.elementalmethod()) {
     case RANDOM:
-      backingStore = new VectorStoreRAM(flagConfig);
-      random = new Random();
+      backingStore = new VectorStoreRandom(flagConfig);
       break;
     case CONTENTHASH:
       backingStore = new VectorStoreDeterministic(flagConfig);
@@ -80,6 +76,15 @@ public class ElementalVectorStore implements VectorStore{
     }
   }
   
+  /**
+   * Returns true if elemental vectors generated using the flags in {@code flagConfig} are the same
+   * in each run, which is required to add to vectors trained in an earlier run.
+   */
+  public static boolean isReproducible(FlagConfig flagConfig) {
+    return flagConfig.elementalmethod() != ElementalGenerationMethod.RANDOM
+        || flagConfig.elementalseed() >= 0;
+  }
+
   /**
    * Returns a vector for the given object, generating an appropriate elemental vector
    * if the term does not already have one.
@@ -88,14 +93,6 @@ public class ElementalVectorStore implements VectorStore{
   public Vector getVector(Object term) {
     switch(flagConfig.elementalmethod()) {
     case RANDOM:
-      Vector vector = backingStore.getVector(term);
-      if (vector == null) {
-        vector = VectorFactory.generateRandomVector(
-            flagConfig.vectortype(), flagConfig.dimension(), flagConfig.seedlength(), random);
-        VectorStoreRAM ramCache = (VectorStoreRAM) backingStore;
-        ramCache.putVector(term, vector);
-      }
-      return vector;
     case CONTENTHASH:
     case ORTHOGRAPHIC:
       return backingStore.getVector(term);
@@ -42,6 +42,7 @@ import java.util.Arrays;
 import java.util.logging.Logger;
 
 import pitt.search.semanticvectors.utils.VerbatimLogger;
+import pitt.search.semanticvectors.utils.ContentHash.HashMethod;
 import pitt.search.semanticvectors.vectors.RealVector;
 import pitt.search.semanticvectors.vectors.RealVector.RealBindMethod;
 /** Imports must include the declarations of all enums used as flag values */
@@ -49,6 +50,7 @@ import pitt.search.semanticvectors.vectors.VectorType;
 import pitt.search.semanticvectors.CompoundVectorBuilder.VectorLookupSyntax;
 import pitt.search.semanticvectors.DocVectors.DocIndexingStrategy;
 import pitt.search.semanticvectors.ElementalVectorStore.ElementalGenerationMethod;
+import pitt.search.semanticvectors.LSA.SvdMethod;
 import pitt.search.semanticvectors.LuceneUtils.TermWeight;
 import pitt.search.semanticvectors.Search.SearchType;
 import pitt.search.semanticvectors.TermTermVectorsFromLucene.PositionalMethod;
@@ -105,6 +107,24 @@ public class FlagConfig {
   private ElementalGenerationMethod elementalmethod = ElementalGenerationMethod.RANDOM;
   /** The method used for generating elemental vectors. */
   public ElementalGenerationMethod elementalmethod() { return elementalmethod; }
+
+  private int elementalseed = -1;
+  /** If non-negative, {@link ElementalGenerationMethod#RANDOM} elemental vectors are generated
+   * reproducibly from this seed and the key, whatever order and thread they are requested in,
+   * default value -1 (not reproducible). */
+  public int elementalseed() { return elementalseed; }
+
+  private int elementalcachesize = -1;
+  /** Maximum number of {@link ElementalGenerationMethod#CONTENTHASH} elemental vectors cached
+   * by {@link VectorStoreDeterministic}: 0 turns the cache off, so vectors are regenerated
+   * whenever needed, default value -1 (unbounded). */
+  public int elementalcachesize() { return elementalcachesize; }
+
+  private HashMethod contenthashmethod = HashMethod.BOBCAT;
+  /** The hash function used to generate {@link ElementalGenerationMethod#CONTENTHASH} elemental
+   * vectors, and seeded {@link ElementalGenerationMethod#RANDOM} ones, default value bobcat.
+   * Recorded in the header of vector stores built with content-hashed vectors. */
+  public HashMethod contenthashmethod() { return contenthashmethod; }
   
   public int seedlength = 10;
   /** Number of nonzero entries in a sparse random vector, default value 10 except for
@@ -155,6 +175,10 @@ public class FlagConfig {
   private String jsonfile = "";
   /** Output search results as graph representation of a connectivity matrix in JSON**/
   public String jsonfile() { return jsonfile;}
+
+  private int serverport = 8080;
+  /** Port on which {@link SearchServer} listens for queries, default value 8080. Use 0 for any free port. */
+  public int serverport() { return serverport; }
   
   /** Pathfinder parameters - default q = (n-1), default r = + infinity**/
   private int pathfinderQ = -1; 
@@ -166,14 +190,64 @@ public class FlagConfig {
   /** Search results with similarity scores below this value will not be included in search results, default value -1. */
   public double searchresultsminscore() { return searchresultsminscore; }
 
+  private int earlyabandonblocksize = 0;
+  /** Number of dimensions scored at a time by cosine search over real vectors, which stops
+   * scoring a vector once it cannot make the results, default 0 (score every vector in full).
+   * Results are the same either way. See {@link SearchPlan}. */
+  public int earlyabandonblocksize() { return earlyabandonblocksize; }
+
+  private int sketchbits = 0;
+  /** Number of bits in the binary sketches used by cosine search over real and complex vectors to
+   * choose {@link #sketchcandidates()} candidates, which are then scored exactly; a multiple of 64,
+   * default 0 (score every vector). Results may differ from those of exhaustive search.
+   * See {@link SearchPlan}. */
+  public int sketchbits() { return sketchbits; }
+
+  private int sketchcandidates = 2000;
+  /** Number of vectors chosen by their binary sketches to be scored exactly, if
+   * {@link #sketchbits()} is set, default value 2000. */
+  public int sketchcandidates() { return sketchcandidates; }
+
   private int numclusters = 10;
-  /** Number of clusters used in {@link ClusterResults} and {@link ClusterVectorStore}, default value 10. */
+  /** Number of clusters used in {@link ClusterResults} and {@link ClusterVectorStore}, and number of
+   * lists in an index built by {@link IvfIndex}, default value 10. */
   public int numclusters() { return numclusters; }
+
+  private int ivfnprobe = 1;
+  /** Number of lists, those with the nearest centroids, whose vectors are scored by
+   * {@link Search.SearchType#IVF} searches, default value 1. */
+  public int ivfnprobe() { return ivfnprobe; }
   
   private int trainingcycles = 0;
   /** Number of training cycles used for Reflective Random Indexing in {@link BuildIndex}. */
   public int trainingcycles() { return trainingcycles; }
   
+  private int numthreads = 1;
+  /** Number of worker threads used by trainers that support parallel training, default value 1. */
+  public int numthreads() { return numthreads; }
+
+  private int checkpointinterval = 0;
+  /** If positive, {@link BuildIndex}, {@link BuildPositionalIndex} and {@link PSI} write a checkpoint
+   * of their partial vectors each time this many terms, documents or predications respectively
+   * have been processed, see {@link TrainingCheckpoint}, default value 0 (no checkpoints). */
+  public int checkpointinterval() { return checkpointinterval; }
+
+  private boolean resume = false;
+  /** Tells trainers to continue from the last checkpoint written using {@link #checkpointinterval()},
+   * if there is one, default value false. */
+  public boolean resume() { return resume; }
+
+  private boolean incrementalupdate = false;
+  /** Tells {@link BuildPositionalIndex} to add only documents that were not processed by earlier runs,
+   * superposing them onto the accumulated term vectors saved by those runs, see
+   * {@link AccumulatedVectorStore}, and appending their document vectors, default value false. */
+  public boolean incrementalupdate() { return incrementalupdate; }
+
+  private boolean writeaccumulators = false;
+  /** Tells trainers to write their vectors before normalization to a companion file next to each
+   * store they train, see {@link AccumulatedVectorStore}, default value false. */
+  public boolean writeaccumulators() { return writeaccumulators; }
+
   private int windowradius = 5;
   /** Window radius used in {@link BuildPositionalIndex}, default value 5. */
   public int windowradius() { return windowradius; }
@@ -191,6 +265,16 @@ public class FlagConfig {
   /** Term weighting used when constructing document vectors, default value {@link TermWeight#NONE} */
   public LuceneUtils.TermWeight termweight() { return termweight; }
 
+  private boolean precomputetermweights = false;
+  /** Tells {@link LuceneUtils} to compute global term weights for every term in the contents fields
+   * when it is created, using {@link #numthreads()} threads, default value false. */
+  public boolean precomputetermweights() { return precomputetermweights; }
+
+  private String termweightsfile = "";
+  /** File from which precomputed global term weights are read, or to which they are written if it
+   * does not exist yet. Enforces {@link #precomputetermweights()} if set, default value empty. */
+  public String termweightsfile() { return termweightsfile; }
+
   private boolean porterstemmer = false;
   /** Tells {@link pitt.search.lucene.IndexFilePositions} to stem terms using Porter Stemmer, default value false. */
   public boolean porterstemmer() { return porterstemmer; }
@@ -268,6 +352,11 @@ public class FlagConfig {
   private PositionalMethod positionalmethod = PositionalMethod.BASIC;
   /** Method used for positional indexing. */
   public PositionalMethod positionalmethod() { return positionalmethod; }
+
+  private SvdMethod svdmethod = SvdMethod.LAS2;
+  /** Algorithm used by {@link LSA} to compute the singular value decomposition,
+   * default value {@link SvdMethod#LAS2}. */
+  public SvdMethod svdmethod() { return svdmethod; }
   
   private String stoplistfile = "";
   /** Path to file containing stopwords, one word per line, no default value. */
@@ -312,6 +401,15 @@ public class FlagConfig {
    * If this is set to {@code true}, all terms are treated as positive. */
   public boolean suppressnegatedqueries() { return suppressnegatedqueries; }
 
+  private int queryvectorcachesize = 0;
+  /** Number of query vectors built by {@link CompoundVectorBuilder} that are kept for reuse,
+   * default 0 (no caching). See {@link QueryVectorCache}. */
+  public int queryvectorcachesize() { return queryvectorcachesize; }
+
+  private int queryvectorcachettl = 0;
+  /** Number of seconds for which a cached query vector may be reused, default 0 (no expiry). */
+  public int queryvectorcachettl() { return queryvectorcachettl; }
+
   private String[] contentsfields = {"contents"};
   /** Fields to be indexed for their contents, e.g., "title,description,notes", default "contents". */
   public String[] contentsfields() { return contentsfields; }
@@ -457,7 +555,8 @@ public class FlagConfig {
   }
   
   /**
-   * Sets dimension and vectortype of target to be the same as that of source.
+   * Sets dimension and vectortype of target to be the same as that of source, and
+   * contenthashmethod if source was built from content-hashed elemental vectors.
    */
   public static void mergeWriteableFlags(FlagConfig source, FlagConfig target) {
     if (target.dimension != source.dimension)
@@ -470,6 +569,13 @@ public class FlagConfig {
       VerbatimLogger.info("Setting vectortype of target config to: " + source.vectortype + "\n");
       target.vectortype = source.vectortype;
     }
+    // The hash method is only recorded by stores built from content-hashed vectors.
+    if (source.elementalmethod == ElementalGenerationMethod.CONTENTHASH
+        && target.contenthashmethod != source.contenthashmethod)
+    {
+      VerbatimLogger.info("Setting contenthashmethod of target config to: " + source.contenthashmethod + "\n");
+      target.contenthashmethod = source.contenthashmethod;
+    }
     target.makeFlagsCompatible();
   }
   
@@ -502,6 +608,8 @@ public class FlagConfig {
     }
     
     if (searchvectorfile.isEmpty()) searchvectorfile = queryvectorfile;
+
+    if (!termweightsfile.isEmpty()) precomputetermweights = true;
     
     // This is a potentially dangerous pattern! An alternative would be to make this setting
     // part of each real vector, as with complex Modes. But they aren't so nice either.
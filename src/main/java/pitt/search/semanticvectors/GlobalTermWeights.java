@@ -0,0 +1,237 @@
+/**
+   Copyright (c) 2015, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.util.BytesRef;
+
+import pitt.search.semanticvectors.LuceneUtils.TermWeight;
+import pitt.search.semanticvectors.utils.VerbatimLogger;
+
+/**
+ * Global term weights for every term in some fields of a Lucene index, as computed by
+ * {@link LuceneUtils#precomputeGlobalTermWeights}. Terms are numbered across all the fields,
+ * and their weights are held in a {@link GlobalWeightsByOrdinal} indexed by this ordinal.
+ *
+ * <p>Instances are not changed once built, so lookups need no locking.
+ * Tables can be written to and read from a file, so that they only need computing once
+ * for each Lucene index and {@link FlagConfig#termweight()}.
+ */
+public class GlobalTermWeights {
+
+  /** The terms of a single field and their weights, in the same order. */
+  static class FieldWeights {
+    final List<BytesRef> terms;
+    final float[] weights;
+
+    FieldWeights(List<BytesRef> terms, float[] weights) {
+      this.terms = terms;
+      this.weights = weights;
+    }
+  }
+
+  private final TermWeight termWeight;
+  private final int numDocs;
+  private final String indexCommitId;
+  /** Position of each field in {@link #weights}. */
+  private final HashMap<String, Integer> fieldIndexes = new HashMap<String, Integer>();
+  /** Ordinal of each term, in any field. A HashMap rather than a BytesRefHash, for lock-free lookups. */
+  private final HashMap<BytesRef, Integer> ordinals = new HashMap<BytesRef, Integer>();
+  /** Each term, by ordinal. */
+  private final List<BytesRef> terms = new ArrayList<BytesRef>();
+  private final GlobalWeightsByOrdinal weights;
+
+  GlobalTermWeights(TermWeight termWeight, int numDocs, String indexCommitId,
+      Map<String, FieldWeights> fieldWeights) {
+    this.termWeight = termWeight;
+    this.numDocs = numDocs;
+    this.indexCommitId = indexCommitId;
+    String[] fields = fieldWeights.keySet().toArray(new String[fieldWeights.size()]);
+    this.weights = new GlobalWeightsByOrdinal(fields);
+    for (int fieldIndex = 0; fieldIndex < fields.length; ++fieldIndex) {
+      fieldIndexes.put(fields[fieldIndex], fieldIndex);
+      FieldWeights field = fieldWeights.get(fields[fieldIndex]);
+      for (int i = 0; i < field.terms.size(); ++i) {
+        BytesRef term = field.terms.get(i);
+        Integer ordinal = ordinals.get(term);
+        if (ordinal == null) {
+          ordinal = terms.size();
+          ordinals.put(term, ordinal);
+          terms.add(term);
+        }
+        weights.setWeight(fieldIndex, ordinal, field.weights[i]);
+      }
+    }
+    weights.ensureCapacity(terms.size());
+  }
+
+  /** Returns the terms and weights of each field in the table. */
+  private Map<String, FieldWeights> getFieldWeights() {
+    HashMap<String, FieldWeights> fieldWeights = new HashMap<String, FieldWeights>();
+    for (Map.Entry<String, Integer> field : fieldIndexes.entrySet()) {
+      int fieldIndex = field.getValue();
+      List<BytesRef> fieldTerms = new ArrayList<BytesRef>();
+      float[] fieldTermWeights = new float[terms.size()];
+      for (int ordinal = 0; ordinal < terms.size(); ++ordinal) {
+        float weight = weights.getWeight(fieldIndex, ordinal);
+        if (!Float.isNaN(weight)) {
+          fieldTermWeights[fieldTerms.size()] = weight;
+          fieldTerms.add(terms.get(ordinal));
+        }
+      }
+      fieldWeights.put(field.getKey(),
+          new FieldWeights(fieldTerms, Arrays.copyOf(fieldTermWeights, fieldTerms.size())));
+    }
+    return fieldWeights;
+  }
+
+  /** Returns a new table with the fields in this table and those in {@code moreFieldWeights}. */
+  GlobalTermWeights withFields(Map<String, FieldWeights> moreFieldWeights) {
+    Map<String, FieldWeights> allFieldWeights = getFieldWeights();
+    allFieldWeights.putAll(moreFieldWeights);
+    return new GlobalTermWeights(termWeight, numDocs, indexCommitId, allFieldWeights);
+  }
+
+  /** Returns true if the table contains weights for this field. */
+  public boolean containsField(String field) {
+    return fieldIndexes.containsKey(field);
+  }
+
+  /** Returns the weight of the given term, or {@link Float#NaN} if the term is not in the table. */
+  public float getWeight(Term term) {
+    Integer fieldIndex = fieldIndexes.get(term.field());
+    if (fieldIndex == null) return Float.NaN;
+    Integer ordinal = ordinals.get(term.bytes());
+    return ordinal == null ? Float.NaN : weights.getWeight(fieldIndex, ordinal);
+  }
+
+  /**
+   * Writes the table to the given file, with a header recording the term weighting,
+   * the number of documents and the commit of the Lucene index.
+   */
+  public void writeToFile(String fileName) throws IOException {
+    File file = new File(fileName);
+    String parentPath = file.getParent();
+    if (parentPath == null) parentPath = "";
+    FSDirectory fsDirectory = FSDirectory.open(FileSystems.getDefault().getPath(parentPath));
+    Map<String, FieldWeights> fieldWeights = getFieldWeights();
+    try {
+      IndexOutput outputStream = fsDirectory.createOutput(file.getName(), IOContext.DEFAULT);
+      try {
+        outputStream.writeString(generateHeaderString(termWeight, numDocs, indexCommitId));
+        outputStream.writeVInt(fieldWeights.size());
+        for (Map.Entry<String, FieldWeights> entry : fieldWeights.entrySet()) {
+          outputStream.writeString(entry.getKey());
+          FieldWeights field = entry.getValue();
+          outputStream.writeVInt(field.terms.size());
+          for (int i = 0; i < field.terms.size(); ++i) {
+            BytesRef term = field.terms.get(i);
+            outputStream.writeVInt(term.length);
+            outputStream.writeBytes(term.bytes, term.offset, term.length);
+            outputStream.writeInt(Float.floatToIntBits(field.weights[i]));
+          }
+        }
+      } finally {
+        outputStream.close();
+      }
+    } finally {
+      fsDirectory.close();
+    }
+    VerbatimLogger.info("Wrote global term weights for " + fieldWeights.size()
+        + " fields to file: " + fileName + "\n");
+  }
+
+  /**
+   * Reads a table written by {@link #writeToFile}. Returns null if the table was computed with
+   * a different term weighting, or for a different commit of the Lucene index (see
+   * {@link LuceneUtils#getIndexCommitId()}), in which case it should be recomputed.
+   */
+  public static GlobalTermWeights readFromFile(
+      String fileName, TermWeight termWeight, int numDocs, String indexCommitId) throws IOException {
+    File file = new File(fileName);
+    String parentPath = file.getParent();
+    if (parentPath == null) parentPath = "";
+    FSDirectory fsDirectory = FSDirectory.open(FileSystems.getDefault().getPath(parentPath));
+    IndexInput inputStream = fsDirectory.openInput(file.getName(), IOContext.READONCE);
+    try {
+      String header = inputStream.readString();
+      String expectedHeader = generateHeaderString(termWeight, numDocs, indexCommitId);
+      if (!header.equals(expectedHeader)) {
+        VerbatimLogger.warning("Global term weights in file " + fileName + " have header '" + header
+            + "', expected '" + expectedHeader + "'. Recomputing.\n");
+        return null;
+      }
+      HashMap<String, FieldWeights> fieldWeights = new HashMap<String, FieldWeights>();
+      int numFields = inputStream.readVInt();
+      for (int f = 0; f < numFields; ++f) {
+        String field = inputStream.readString();
+        int numTerms = inputStream.readVInt();
+        BytesRef[] terms = new BytesRef[numTerms];
+        float[] weights = new float[numTerms];
+        for (int i = 0; i < numTerms; ++i) {
+          byte[] bytes = new byte[inputStream.readVInt()];
+          inputStream.readBytes(bytes, 0, bytes.length);
+          terms[i] = new BytesRef(bytes);
+          weights[i] = Float.intBitsToFloat(inputStream.readInt());
+        }
+        fieldWeights.put(field, new FieldWeights(Arrays.asList(terms), weights));
+      }
+      VerbatimLogger.info("Read global term weights for " + numFields
+          + " fields from file: " + fileName + "\n");
+      return new GlobalTermWeights(termWeight, numDocs, indexCommitId, fieldWeights);
+    } finally {
+      inputStream.close();
+      fsDirectory.close();
+    }
+  }
+
+  private static String generateHeaderString(TermWeight termWeight, int numDocs, String indexCommitId) {
+    return "-termweight " + termWeight + " -numdocs " + numDocs + " -indexcommit " + indexCommitId;
+  }
+}
@@ -0,0 +1,113 @@
+/**
+   Copyright (c) 2015, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.util.Arrays;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * Global term weights for some fields of a Lucene index, indexed by field and then by term
+ * ordinal, where ordinals number terms densely, e.g., as in {@link VectorStoreOrdinal}.
+ * Training loops use this to look weights up by ordinal rather than by {@link Term}, and
+ * {@link GlobalTermWeights} uses it to hold precomputed weights. A weight that is not known,
+ * e.g., because the term is not in that field, is {@link Float#NaN}.
+ *
+ * <p>Once there is room for every ordinal, weights may be read, and computed by
+ * {@link #getWeight(int, int, BytesRef, LuceneUtils)}, from several threads at once: a weight
+ * may then be computed more than once, but always to the same value. Making room, with
+ * {@link #setWeight} or {@link #ensureCapacity}, is not thread-safe.
+ */
+public class GlobalWeightsByOrdinal {
+  private final String[] fields;
+  private final float[][] weights;
+
+  /** Creates an empty table for the given fields, which are then referred to by position. */
+  public GlobalWeightsByOrdinal(String[] fields) {
+    this.fields = fields;
+    this.weights = new float[fields.length][0];
+  }
+
+  /** Returns the fields of the table, in the order of their indexes. */
+  public String[] getFields() {
+    return fields;
+  }
+
+  /** Makes room for the weights of at least {@code numOrdinals} terms in every field. */
+  public void ensureCapacity(int numOrdinals) {
+    for (int fieldIndex = 0; fieldIndex < fields.length; ++fieldIndex) {
+      ensureCapacity(fieldIndex, numOrdinals);
+    }
+  }
+
+  private void ensureCapacity(int fieldIndex, int numOrdinals) {
+    float[] fieldWeights = weights[fieldIndex];
+    if (fieldWeights.length >= numOrdinals) return;
+    float[] copy = Arrays.copyOf(fieldWeights, Math.max(numOrdinals, 2 * fieldWeights.length));
+    Arrays.fill(copy, fieldWeights.length, copy.length, Float.NaN);
+    weights[fieldIndex] = copy;
+  }
+
+  /**
+   * Returns the weight of the term with the given ordinal in the field with the given index,
+   * or {@link Float#NaN} if it is not known. There must be room for the ordinal.
+   */
+  public float getWeight(int fieldIndex, int ordinal) {
+    return weights[fieldIndex][ordinal];
+  }
+
+  /** Sets the weight of the term with the given ordinal, making room for it if need be. */
+  public void setWeight(int fieldIndex, int ordinal, float weight) {
+    ensureCapacity(fieldIndex, ordinal + 1);
+    weights[fieldIndex][ordinal] = weight;
+  }
+
+  /**
+   * As {@link #getWeight(int, int)}, but if the weight is not known, computes it with
+   * {@link LuceneUtils#getGlobalTermWeight} and keeps it for next time.
+   *
+   * @param term the text of the term with this ordinal, read only if the weight is computed
+   */
+  public float getWeight(int fieldIndex, int ordinal, BytesRef term, LuceneUtils luceneUtils) {
+    float weight = weights[fieldIndex][ordinal];
+    if (Float.isNaN(weight)) {
+      weight = luceneUtils.getGlobalTermWeight(new Term(fields[fieldIndex], term.utf8ToString()));
+      weights[fieldIndex][ordinal] = weight;
+    }
+    return weight;
+  }
+}
@@ -39,13 +39,18 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.FileSystems;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.logging.Logger;
 
 import org.apache.lucene.index.*;
 import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
 import org.apache.lucene.store.IndexOutput;
 import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefHash;
 
 import pitt.search.semanticvectors.utils.VerbatimLogger;
 import pitt.search.semanticvectors.vectors.Vector;
@@ -54,10 +59,10 @@ import pitt.search.semanticvectors.vectors.VectorFactory;
 /**
  * Generates document vectors incrementally, writing each document vector to disk after
  * it is created. This saves memory compared with the implementation in {@link DocVectors}.
- * The training procedure still iterates through all the documents in the Lucene index,
- * so currently this class is purely an optimization, not an implementation of
- * incremental indexing in the sense of being able to add extra documents later after
- * an initial model has been built.   
+ * By default the training procedure iterates through all the documents in the Lucene index.
+ * If {@link FlagConfig#incrementalupdate()} is set, existing document vectors are kept
+ * and vectors are only created for documents whose IDs are not already in the file,
+ * so that documents added to the Lucene index later can be appended.
  *
  * @author Trevor Cohen, Dominic Widdows
  */
@@ -68,6 +73,21 @@ public class IncrementalDocVectors {
   private FlagConfig flagConfig;
   private VectorStore termVectorData;
   private LuceneUtils luceneUtils;
+  /**
+   * The vectors in {@link #termVectorData} of the terms seen so far in documents, keyed by
+   * ordinal, so that each term is looked up in {@link #termVectorData} only once.
+   */
+  private VectorStoreOrdinal termVectorsByOrdinal;
+  /** Terms seen so far in documents that have no vector in {@link #termVectorData}. */
+  private BytesRefHash termsWithoutVectors;
+  /**
+   * Global term weights, indexed by position in {@link FlagConfig#contentsfields()} and then
+   * by ordinal in {@link #termVectorsByOrdinal}. Computed when the term is first seen in that field.
+   */
+  private GlobalWeightsByOrdinal globalWeightsByOrdinal;
+
+  /** Appended to the name of the document vector file while it is being updated. */
+  private static final String TEMP_EXTENSION = ".tmp";
 
   private IncrementalDocVectors() {};
 
@@ -89,8 +109,33 @@ public class IncrementalDocVectors {
     incrementalDocVectors.trainIncrementalDocVectors();
   }
 
+  /**
+   * Returns the ordinal of the given term in {@link #termVectorsByOrdinal}, giving it one if this
+   * is the first time it is seen, or {@link VectorStoreOrdinal#NO_ORDINAL} if the term has no
+   * vector in {@link #termVectorData}. Terms in each document are looked up by their bytes,
+   * so strings are only created for terms not seen before.
+   */
+  private int getTermOrdinal(BytesRef term) {
+    int ordinal = termVectorsByOrdinal.getOrdinal(term);
+    if (ordinal != VectorStoreOrdinal.NO_ORDINAL || termsWithoutVectors.find(term) >= 0) {
+      return ordinal;
+    }
+    Vector termVector = termVectorData.getVector(term.utf8ToString());
+    if (termVector == null || termVector.getDimension() == 0) {
+      termsWithoutVectors.add(term);
+      return VectorStoreOrdinal.NO_ORDINAL;
+    }
+    ordinal = termVectorsByOrdinal.putVector(term, termVector);
+    globalWeightsByOrdinal.ensureCapacity(ordinal + 1);
+    return ordinal;
+  }
+
   private void trainIncrementalDocVectors() throws IOException {
     int numdocs = luceneUtils.getNumDocs();
+    String[] contentsFields = flagConfig.contentsfields();
+    termVectorsByOrdinal = new VectorStoreOrdinal(flagConfig);
+    termsWithoutVectors = new BytesRefHash();
+    globalWeightsByOrdinal = new GlobalWeightsByOrdinal(contentsFields);
 
     // Open file and write headers.
     File vectorFile = new File(
@@ -99,12 +144,47 @@ public class IncrementalDocVectors {
     if (parentPath == null) parentPath = "";
     FSDirectory fsDirectory = FSDirectory.open(FileSystems.getDefault().getPath(parentPath));
 
-    IndexOutput outputStream = fsDirectory.createOutput(vectorFile.getName(), IOContext.DEFAULT);
+    // When updating, existing vectors are copied to a new file which then replaces the old one.
+    boolean updating = flagConfig.incrementalupdate() && vectorFile.isFile();
+    // The accumulated vectors of existing documents cannot be recovered from their normalized
+    // vectors, so they must have been written by earlier runs.
+    if (updating && flagConfig.writeaccumulators()
+        && !AccumulatedVectorStore.exists(flagConfig.docvectorsfile())) {
+      throw new IllegalArgumentException("Cannot write accumulated vectors when updating "
+          + vectorFile + ", since earlier runs did not write them for its existing documents."
+          + " Please rebuild it with -writeaccumulators and without -incrementalupdate.");
+    }
+    String outputName = updating ? vectorFile.getName() + TEMP_EXTENSION : vectorFile.getName();
+    IndexOutput outputStream = fsDirectory.createOutput(outputName, IOContext.DEFAULT);
 
     VerbatimLogger.info("Writing vectors incrementally to file " + vectorFile + " ... ");
 
     // Write header giving number of dimension for all vectors.
     outputStream.writeString(VectorStoreWriter.generateHeaderString(flagConfig));
+    Set<String> existingDocIDs = Collections.emptySet();
+    if (updating) {
+      existingDocIDs = copyExistingVectors(fsDirectory, vectorFile.getName(), outputStream);
+    }
+    AccumulatedVectorStore.Writer accumulatorWriter = null;
+    if (flagConfig.writeaccumulators()) {
+      accumulatorWriter = new AccumulatedVectorStore.Writer(flagConfig.docvectorsfile(), flagConfig);
+      if (updating) {
+        int numCopied = AccumulatedVectorStore.copy(
+            flagConfig.docvectorsfile(), flagConfig, accumulatorWriter);
+        // Updates run without -writeaccumulators leave the accumulator file missing documents.
+        if (numCopied != existingDocIDs.size()) {
+          accumulatorWriter.abort();
+          outputStream.close();
+          fsDirectory.deleteFile(outputName);
+          fsDirectory.close();
+          throw new IllegalArgumentException("Accumulator file "
+              + AccumulatedVectorStore.getFileName(flagConfig.docvectorsfile()) + " has "
+              + numCopied + " vectors, but " + vectorFile + " has " + existingDocIDs.size()
+              + " document vectors, so it was not written by every earlier run."
+              + " Please rebuild it with -writeaccumulators and without -incrementalupdate.");
+        }
+      }
+    }
 
     // Iterate through documents.
     for (int dc = 0; dc < numdocs; dc++) {
@@ -116,10 +196,12 @@ public class IncrementalDocVectors {
       // Get filename and path to be used as document vector ID, defaulting to doc number only if
       // docidfield is not pupoulated.
       String docID = luceneUtils.getExternalDocId(dc);
+      if (existingDocIDs.contains(docID)) continue;
 
       Vector docVector = VectorFactory.createZeroVector(flagConfig.vectortype(), flagConfig.dimension());
 
-      for (String fieldName : flagConfig.contentsfields()) {
+      for (int fieldIndex = 0; fieldIndex < contentsFields.length; ++fieldIndex) {
+        String fieldName = contentsFields[fieldIndex];
         Terms terms = luceneUtils.getTermVector(dc, fieldName);
 
         if (terms == null) {
@@ -134,32 +216,27 @@ public class IncrementalDocVectors {
         TermsEnum termsEnum = terms.iterator(tmp);
         BytesRef bytes;
         while ((bytes = termsEnum.next()) != null) {
-          Term term = new Term(fieldName, bytes);
-          String termString = term.text();
+          // Exclude terms that are not represented in termVectorData.
+          int ordinal = getTermOrdinal(bytes);
+          if (ordinal == VectorStoreOrdinal.NO_ORDINAL) continue;
+
           DocsEnum docs = termsEnum.docs(null, null);
           docs.nextDoc();
           int freq = docs.freq();
 
-          try {
-            Vector termVector = termVectorData.getVector(termString);
-            if (termVector != null && termVector.getDimension() > 0) {
-              float localweight = luceneUtils.getLocalTermWeight(freq);
-              float globalweight = luceneUtils.getGlobalTermWeight(new Term(fieldName, termString));
-              float fieldweight = 1;
-
-              if (flagConfig.fieldweight()) {
-                //field weight: 1/sqrt(number of terms in field)
-                fieldweight = (float) (1 / Math.sqrt(terms.size()));
-              }
-
-              // Add contribution from this term, excluding terms that
-              // are not represented in termVectorData.
-              docVector.superpose(termVector, localweight * globalweight * fieldweight, null);
-            }
-          } catch (NullPointerException npe) {
-            // Don't normally print anything - too much data!
-            logger.finest("term " + termString + " not represented");
+          float globalweight =
+              globalWeightsByOrdinal.getWeight(fieldIndex, ordinal, bytes, luceneUtils);
+          float localweight = luceneUtils.getLocalTermWeight(freq);
+          float fieldweight = 1;
+
+          if (flagConfig.fieldweight()) {
+            //field weight: 1/sqrt(number of terms in field)
+            fieldweight = (float) (1 / Math.sqrt(terms.size()));
           }
+
+          // Add contribution from this term.
+          docVector.superpose(termVectorsByOrdinal.getVector(ordinal),
+              localweight * globalweight * fieldweight, null);
         }
       }
 
@@ -172,6 +249,9 @@ public class IncrementalDocVectors {
       }
 
       // All fields in document have been processed. Write out documentID and normalized vector.
+      if (accumulatorWriter != null) {
+        accumulatorWriter.write(docID, docVector);
+      }
       docVector.normalize();
       outputStream.writeString(docID);
       docVector.writeToLuceneStream(outputStream);
@@ -179,9 +259,50 @@ public class IncrementalDocVectors {
 
     VerbatimLogger.info("Finished writing vectors.\n");
     outputStream.close();
+    if (accumulatorWriter != null) {
+      accumulatorWriter.close();
+    }
+    if (updating) {
+      fsDirectory.sync(Collections.singleton(outputName));
+      fsDirectory.renameFile(outputName, vectorFile.getName());
+    }
     fsDirectory.close();
   }
 
+  /**
+   * Copies the vectors in an existing document vector file to {@code outputStream},
+   * and returns their document IDs.
+   *
+   * @throws IllegalArgumentException if the existing vectors have a different vector type
+   *         or dimension
+   */
+  private Set<String> copyExistingVectors(
+      FSDirectory fsDirectory, String fileName, IndexOutput outputStream) throws IOException {
+    Set<String> docIDs = new HashSet<String>();
+    IndexInput inputStream = fsDirectory.openInput(fileName, IOContext.READONCE);
+    try {
+      String header = inputStream.readString();
+      FlagConfig existingConfig = FlagConfig.parseFlagsFromString(header);
+      if (existingConfig.vectortype() != flagConfig.vectortype()
+          || existingConfig.dimension() != flagConfig.dimension()) {
+        throw new IllegalArgumentException("Existing document vectors in file " + fileName
+            + " have header '" + header + "', which does not match the current settings.");
+      }
+      Vector vector = VectorFactory.createZeroVector(flagConfig.vectortype(), flagConfig.dimension());
+      while (inputStream.getFilePointer() < inputStream.length()) {
+        String docID = inputStream.readString();
+        vector.readFromLuceneStream(inputStream);
+        outputStream.writeString(docID);
+        vector.writeToLuceneStream(outputStream);
+        docIDs.add(docID);
+      }
+    } finally {
+      inputStream.close();
+    }
+    VerbatimLogger.info("Kept " + docIDs.size() + " existing document vectors.\n");
+    return docIDs;
+  }
+
   public static void main(String[] args) throws Exception {
     FlagConfig flagConfig = FlagConfig.getFlagConfig(args);
     args = flagConfig.remainingArgs;
@@ -181,6 +181,10 @@ public class IncrementalTermVectors implements VectorStore {
       }
     } // Finish iterating through documents.
 
+    if (flagConfig.writeaccumulators()) {
+      AccumulatedVectorStore.write(flagConfig.termvectorsfile(), flagConfig, termVectorData);
+    }
+
     // Normalize vectors
     Enumeration<ObjectVector> allVectors = termVectorData.getAllVectors();
     while (allVectors.hasMoreElements()) {
@@ -0,0 +1,326 @@
+/**
+   Copyright (c) 2015, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexOutput;
+
+import pitt.search.semanticvectors.ClusterResults.Clusters;
+import pitt.search.semanticvectors.utils.VerbatimLogger;
+import pitt.search.semanticvectors.vectors.Vector;
+import pitt.search.semanticvectors.vectors.VectorFactory;
+import pitt.search.semanticvectors.vectors.VectorUtils;
+
+/**
+ * Builds an inverted-file (IVF) index of a vector store, for searching with
+ * {@link Search.SearchType#IVF}.
+ *
+ * <p>The vectors are clustered using k-means, as in {@link ClusterResults#kMeansCluster}, into
+ * {@link FlagConfig#numclusters()} lists, and each vector is written to the list of its nearest
+ * centroid. A search compares the query with the centroids and scores only the vectors in the
+ * {@link FlagConfig#ivfnprobe()} nearest lists, see {@link IvfVectorStore}. Any vector type
+ * may be indexed.
+ *
+ * <p>The index file is written using Lucene's I/O package, with these parts:
+ * <ol>
+ * <li>The header string written by {@link VectorStoreWriter#generateHeaderString}.
+ * <li>The object vectors of each list in turn, written as in a Lucene format vector store,
+ *     so that each list can be read in one pass.
+ * <li>The number of lists, then for each list its size, the file pointer of its first
+ *     object vector and its centroid.
+ * <li>The file pointer of the previous part, as a long.
+ * </ol>
+ *
+ * @see IvfVectorStore
+ */
+public class IvfIndex {
+  private static final Logger logger = Logger.getLogger(IvfIndex.class.getCanonicalName());
+
+  /** Suffix of IVF index files, used by {@link VectorStoreReader} to recognize them. */
+  public static final String FILE_EXTENSION = ".ivf";
+
+  /** Most k-means iterations made, if the clusters have not become stable sooner. */
+  public static final int MAX_ITERATIONS = 20;
+
+  /** Seed for choosing initial centroids, so that an index is built the same way every time. */
+  private static final long RANDOM_SEED = 0;
+
+  public static String usageMessage = "IvfIndex class in package pitt.search.semanticvectors"
+      + "\nUsage: java pitt.search.semanticvectors.IvfIndex"
+      + "\n                        -numclusters [number of inverted lists]"
+      + "\n                        -numthreads [number of threads used for clustering]"
+      + "\n                        VECTOR_STORE"
+      + "\nwhere VECTOR_STORE is the vector store to index, e.g., docvectors.bin."
+      + "\nThe index is written to VECTOR_STORE" + FILE_EXTENSION
+      + " (without any .bin or .txt suffix), e.g., docvectors" + FILE_EXTENSION + ","
+      + "\nand can be searched using -searchtype IVF -searchvectorfile docvectors" + FILE_EXTENSION;
+
+  /**
+   * Prints out {@link #usageMessage}
+   */
+  public static void usage() {
+    System.err.println(usageMessage);
+  }
+
+  /** Returns true if {@code storeName} is the name of an IVF index file. */
+  public static boolean isIvfFile(String storeName) {
+    return storeName.endsWith(FILE_EXTENSION);
+  }
+
+  /**
+   * Clusters vectors using k-means, to find the lists of an IVF index.
+   *
+   * <p>Unlike {@link ClusterResults#kMeansCluster}, the initial centroids are vectors chosen at
+   * random, and the number of iterations is limited to {@link #MAX_ITERATIONS}. Vectors are
+   * assigned to centroids using {@link FlagConfig#numthreads()} threads. A centroid that is
+   * left with no vectors keeps its previous value.
+   *
+   * @param objectVectors vectors to cluster, which must not be empty
+   * @return the centroids, at most {@link FlagConfig#numclusters()} of them, and the cluster
+   *         each vector belongs to
+   * @throws IOException if the clustering threads are interrupted
+   */
+  public static Clusters kMeansCluster(final ObjectVector[] objectVectors, FlagConfig flagConfig)
+      throws IOException {
+    if (objectVectors.length == 0) {
+      throw new IllegalArgumentException("Cannot cluster an empty vector store.");
+    }
+    if (flagConfig.numclusters() <= 0) {
+      throw new IllegalArgumentException("-numclusters must be positive.");
+    }
+    int numClusters = Math.min(flagConfig.numclusters(), objectVectors.length);
+    final Clusters clusters = new Clusters();
+    clusters.clusterMappings = new int[objectVectors.length];
+    clusters.centroids = new Vector[numClusters];
+
+    // Initialize centroids to distinct vectors chosen at random.
+    Random random = new Random(RANDOM_SEED);
+    int[] order = new int[objectVectors.length];
+    for (int i = 0; i < order.length; ++i) {
+      order[i] = i;
+    }
+    for (int i = 0; i < numClusters; ++i) {
+      int j = i + random.nextInt(order.length - i);
+      int swap = order[i];
+      order[i] = order[j];
+      order[j] = swap;
+      clusters.centroids[i] = objectVectors[order[i]].getVector().copy();
+    }
+
+    int numThreads = Math.max(1, flagConfig.numthreads());
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try {
+      for (int iteration = 1; ; ++iteration) {
+        // Centroids are compared by all threads at once, so they are put into the
+        // representation used for comparison first.
+        for (Vector centroid : clusters.centroids) {
+          VectorUtils.prepareForComparison(centroid);
+        }
+        int changes = assignToNearestCentroids(executor, numThreads, objectVectors, clusters);
+        logger.info("k-means iteration " + iteration + ": " + changes + " vectors changed cluster");
+        if ((changes == 0 && iteration > 1) || iteration == MAX_ITERATIONS) {
+          break;
+        }
+
+        Vector[] newCentroids = new Vector[numClusters];
+        for (int i = 0; i < objectVectors.length; ++i) {
+          int cluster = clusters.clusterMappings[i];
+          if (newCentroids[cluster] == null) {
+            newCentroids[cluster] = VectorFactory.createZeroVector(
+                flagConfig.vectortype(), flagConfig.dimension());
+          }
+          newCentroids[cluster].superpose(objectVectors[i].getVector(), 1, null);
+        }
+        for (int i = 0; i < numClusters; ++i) {
+          if (newCentroids[i] != null) {
+            newCentroids[i].normalize();
+            clusters.centroids[i] = newCentroids[i];
+          }
+        }
+      }
+    } finally {
+      executor.shutdown();
+    }
+    return clusters;
+  }
+
+  /**
+   * Maps each vector to its nearest centroid, and returns the number of vectors whose
+   * cluster changed.
+   */
+  private static int assignToNearestCentroids(ExecutorService executor, int numThreads,
+      final ObjectVector[] objectVectors, final Clusters clusters) throws IOException {
+    List<Future<Integer>> changes = new ArrayList<Future<Integer>>();
+    int runLength = Math.max(1, (objectVectors.length + numThreads - 1) / numThreads);
+    for (int start = 0; start < objectVectors.length; start += runLength) {
+      final int runStart = start;
+      final int runEnd = Math.min(objectVectors.length, start + runLength);
+      changes.add(executor.submit(new Callable<Integer>() {
+        @Override
+        public Integer call() {
+          int runChanges = 0;
+          for (int i = runStart; i < runEnd; ++i) {
+            int nearest = VectorUtils.getNearestVector(
+                objectVectors[i].getVector(), clusters.centroids);
+            if (nearest != clusters.clusterMappings[i]) {
+              clusters.clusterMappings[i] = nearest;
+              ++runChanges;
+            }
+          }
+          return runChanges;
+        }
+      }));
+    }
+    int totalChanges = 0;
+    for (Future<Integer> runChanges : changes) {
+      try {
+        totalChanges += runChanges.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while clustering vectors", e);
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof RuntimeException) {
+          throw (RuntimeException) e.getCause();
+        }
+        throw new IOException(e.getCause());
+      }
+    }
+    return totalChanges;
+  }
+
+  /**
+   * Writes an IVF index of the vectors, with one list for each of the centroids.
+   *
+   * @param indexFileName the name of the file to write to
+   * @param objectVectors the vectors to index
+   * @param clusters centroids of the lists, and the list each vector belongs to
+   */
+  public static void writeIndex(String indexFileName, FlagConfig flagConfig,
+      ObjectVector[] objectVectors, Clusters clusters) throws IOException {
+    VerbatimLogger.info("About to write IVF index of " + objectVectors.length + " vectors in "
+        + clusters.centroids.length + " lists to file: " + indexFileName + " ... ");
+    int numLists = clusters.centroids.length;
+    List<List<ObjectVector>> lists = new ArrayList<List<ObjectVector>>(numLists);
+    for (int i = 0; i < numLists; ++i) {
+      lists.add(new ArrayList<ObjectVector>());
+    }
+    for (int i = 0; i < objectVectors.length; ++i) {
+      lists.get(clusters.clusterMappings[i]).add(objectVectors[i]);
+    }
+
+    File indexFile = new File(indexFileName);
+    String parentPath = indexFile.getParent();
+    if (parentPath == null) parentPath = "";
+    FSDirectory fsDirectory = FSDirectory.open(FileSystems.getDefault().getPath(parentPath));
+    IndexOutput outputStream = fsDirectory.createOutput(indexFile.getName(), IOContext.DEFAULT);
+    try {
+      outputStream.writeString(VectorStoreWriter.generateHeaderString(flagConfig));
+      long[] listPointers = new long[numLists];
+      for (int i = 0; i < numLists; ++i) {
+        listPointers[i] = outputStream.getFilePointer();
+        for (ObjectVector objectVector : lists.get(i)) {
+          outputStream.writeString(objectVector.getObject().toString());
+          objectVector.getVector().writeToLuceneStream(outputStream);
+        }
+      }
+      long directoryPointer = outputStream.getFilePointer();
+      outputStream.writeVInt(numLists);
+      for (int i = 0; i < numLists; ++i) {
+        outputStream.writeVInt(lists.get(i).size());
+        outputStream.writeVLong(listPointers[i]);
+        clusters.centroids[i].writeToLuceneStream(outputStream);
+      }
+      outputStream.writeLong(directoryPointer);
+    } finally {
+      outputStream.close();
+      fsDirectory.close();
+    }
+    VerbatimLogger.info("finished writing index.\n");
+  }
+
+  /**
+   * Returns the name of the index file for a vector store, which is the name of the store
+   * without any .bin or .txt suffix, followed by {@link #FILE_EXTENSION}.
+   */
+  public static String getIndexFileName(String storeName) {
+    if (storeName.endsWith(".bin") || storeName.endsWith(".txt")) {
+      storeName = storeName.substring(0, storeName.length() - 4);
+    }
+    return storeName + FILE_EXTENSION;
+  }
+
+  /**
+   * Builds an IVF index of the vector store given as the only remaining argument.
+   * @see #usageMessage
+   */
+  public static void main(String[] args) throws IllegalArgumentException, IOException {
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(args);
+    args = flagConfig.remainingArgs;
+    if (args.length != 1) {
+      System.out.println("Wrong number of arguments.");
+      usage();
+      return;
+    }
+
+    CloseableVectorStore vecReader = VectorStoreReader.openVectorStore(args[0], flagConfig);
+    logger.info("Reading vectors into memory ...");
+    List<ObjectVector> vectorList = new ArrayList<ObjectVector>();
+    Enumeration<ObjectVector> vecEnum = vecReader.getAllVectors();
+    while (vecEnum.hasMoreElements()) {
+      vectorList.add(vecEnum.nextElement());
+    }
+    vecReader.close();
+    ObjectVector[] objectVectors = vectorList.toArray(new ObjectVector[vectorList.size()]);
+
+    Clusters clusters = kMeansCluster(objectVectors, flagConfig);
+    writeIndex(getIndexFileName(args[0]), flagConfig, objectVectors, clusters);
+  }
+}
@@ -0,0 +1,352 @@
+/**
+   Copyright (c) 2015, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.NoSuchElementException;
+import java.util.logging.Logger;
+
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+
+import pitt.search.semanticvectors.vectors.Vector;
+import pitt.search.semanticvectors.vectors.VectorFactory;
+import pitt.search.semanticvectors.vectors.VectorUtils;
+
+/**
+ * A vector store read from an IVF index file written by {@link IvfIndex}, whose vectors are
+ * divided into lists, each with a centroid. Searches using {@link Search.SearchType#IVF} score
+ * only the lists whose centroids are nearest the query, see
+ * {@link VectorSearcher.VectorSearcherIvf}. As a plain {@link VectorStore}, it enumerates
+ * all the vectors, one list after another.
+ *
+ * <p>The lists are read from disk each time they are used, in the same way as
+ * {@link VectorStoreReaderLucene}, or are read into memory when the store is opened.
+ * The centroids are always held in memory. Many threads may search the store at the same time.
+ */
+public class IvfVectorStore implements CloseableVectorStore {
+  private static final Logger logger = Logger.getLogger(IvfVectorStore.class.getCanonicalName());
+
+  private final String indexFileName;
+  private final FlagConfig flagConfig;
+  private Directory directory;
+  private ThreadLocal<IndexInput> threadLocalIndexInput;
+
+  private final long firstListPointer;
+  /** File pointer of the first object vector of each list, then of the end of the last list. */
+  private final long[] listPointers;
+  private final int[] listSizes;
+  private final Vector[] centroids;
+  private final int numVectors;
+  /** The vectors in each list, or null if they are read from disk. */
+  private final ObjectVector[][] lists;
+
+  /**
+   * Opens an IVF index file, setting the vector type and dimension in {@code flagConfig} to
+   * those of the index.
+   *
+   * @param indexFileName the name of the index file
+   * @param loadIntoMemory if true, all the vectors are read into memory now, and the file is
+   *        closed, otherwise lists are read from the file when they are used
+   * @throws IOException if the file cannot be read
+   */
+  public IvfVectorStore(String indexFileName, FlagConfig flagConfig, boolean loadIntoMemory)
+      throws IOException {
+    this.indexFileName = indexFileName;
+    this.flagConfig = flagConfig;
+    final File indexFile = new File(indexFileName);
+    String parentPath = indexFile.getParent();
+    if (parentPath == null) parentPath = "";
+    this.directory = FSDirectory.open(FileSystems.getDefault().getPath(parentPath));
+    this.threadLocalIndexInput = new ThreadLocal<IndexInput>() {
+      @Override
+      protected IndexInput initialValue() {
+        try {
+          return directory.openInput(indexFile.getName(), IOContext.READ);
+        } catch (IOException e) {
+          throw new RuntimeException(e.getMessage(), e);
+        }
+      }
+    };
+
+    try {
+      IndexInput indexInput = getIndexInput();
+      FlagConfig.mergeWriteableFlagsFromString(indexInput.readString(), flagConfig);
+      firstListPointer = indexInput.getFilePointer();
+      indexInput.seek(indexInput.length() - 8);
+      long directoryPointer = indexInput.readLong();
+      indexInput.seek(directoryPointer);
+      int numLists = indexInput.readVInt();
+      listPointers = new long[numLists + 1];
+      listSizes = new int[numLists];
+      centroids = new Vector[numLists];
+      int totalSize = 0;
+      for (int i = 0; i < numLists; ++i) {
+        listSizes[i] = indexInput.readVInt();
+        listPointers[i] = indexInput.readVLong();
+        centroids[i] = VectorFactory.createZeroVector(flagConfig.vectortype(), flagConfig.dimension());
+        centroids[i].readFromLuceneStream(indexInput);
+        // Centroids are compared with queries from many threads, so they are put into the
+        // representation used for comparison now.
+        VectorUtils.prepareForComparison(centroids[i]);
+        totalSize += listSizes[i];
+      }
+      // The last list ends where the list directory starts.
+      listPointers[numLists] = directoryPointer;
+      numVectors = totalSize;
+
+      if (loadIntoMemory) {
+        lists = new ObjectVector[numLists][];
+        for (int i = 0; i < numLists; ++i) {
+          lists[i] = new ObjectVector[listSizes[i]];
+          Enumeration<ObjectVector> listVectors = readList(i);
+          for (int j = 0; j < listSizes[i]; ++j) {
+            lists[i][j] = listVectors.nextElement();
+            VectorUtils.prepareForComparison(lists[i][j].getVector());
+          }
+        }
+        close();
+      } else {
+        lists = null;
+      }
+    } catch (IOException e) {
+      logger.warning("Cannot read IVF index file: " + indexFileName + "\n" + e.getMessage());
+      close();
+      throw e;
+    }
+  }
+
+  private IndexInput getIndexInput() {
+    return threadLocalIndexInput.get();
+  }
+
+  /** Returns the number of lists. */
+  public int getNumLists() {
+    return centroids.length;
+  }
+
+  /** Returns the number of vectors in list {@code list}. */
+  public int getListSize(int list) {
+    return listSizes[list];
+  }
+
+  /** Returns the centroid of list {@code list}, which must not be changed. */
+  public Vector getCentroid(int list) {
+    return centroids[list];
+  }
+
+  /**
+   * Returns the lists whose centroids are most similar to {@code queryVector}, most similar
+   * first.
+   *
+   * @param numLists the number of lists wanted, which is reduced to the number of lists in
+   *        the store if it is greater
+   */
+  public int[] getNearestLists(Vector queryVector, int numLists) {
+    numLists = Math.max(0, Math.min(numLists, centroids.length));
+    final double[] scores = new double[centroids.length];
+    Integer[] order = new Integer[centroids.length];
+    for (int i = 0; i < centroids.length; ++i) {
+      scores[i] = queryVector.measureOverlap(centroids[i]);
+      order[i] = i;
+    }
+    // A stable sort, so that lists with equal scores are probed in index order.
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        return Double.compare(scores[b], scores[a]);
+      }
+    });
+    int[] nearest = new int[numLists];
+    for (int i = 0; i < numLists; ++i) {
+      nearest[i] = order[i];
+    }
+    return nearest;
+  }
+
+  /** Returns an enumeration of the vectors in list {@code list}. */
+  public Enumeration<ObjectVector> getListVectors(int list) {
+    if (lists != null) {
+      return new ArrayEnumeration(lists[list]);
+    }
+    return readList(list);
+  }
+
+  /** Returns an enumeration that reads list {@code list} from the file. */
+  private Enumeration<ObjectVector> readList(int list) {
+    try {
+      getIndexInput().seek(listPointers[list]);
+    } catch (IOException e) {
+      throw new RuntimeException("Cannot read IVF index file: " + indexFileName, e);
+    }
+    return new VectorEnumeration(getIndexInput(), listPointers[list + 1]);
+  }
+
+  @Override
+  public Enumeration<ObjectVector> getAllVectors() {
+    if (lists == null) {
+      try {
+        getIndexInput().seek(firstListPointer);
+      } catch (IOException e) {
+        throw new RuntimeException("Cannot read IVF index file: " + indexFileName, e);
+      }
+      return new VectorEnumeration(getIndexInput(), listPointers[listPointers.length - 1]);
+    }
+    return new Enumeration<ObjectVector>() {
+      int list = 0;
+      int position = 0;
+
+      @Override
+      public boolean hasMoreElements() {
+        while (list < lists.length && position == lists[list].length) {
+          ++list;
+          position = 0;
+        }
+        return list < lists.length;
+      }
+
+      @Override
+      public ObjectVector nextElement() {
+        if (!hasMoreElements()) {
+          throw new NoSuchElementException();
+        }
+        return lists[list][position++];
+      }
+    };
+  }
+
+  /**
+   * Returns the vector for {@code object}, found by enumerating all the vectors,
+   * or null if there is none.
+   */
+  @Override
+  public Vector getVector(Object object) {
+    String target = object.toString();
+    Enumeration<ObjectVector> allVectors = getAllVectors();
+    while (allVectors.hasMoreElements()) {
+      ObjectVector objectVector = allVectors.nextElement();
+      if (objectVector.getObject().toString().equals(target)) {
+        return objectVector.getVector();
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public boolean containsVector(Object object) {
+    return getVector(object) != null;
+  }
+
+  @Override
+  public int getNumVectors() {
+    return numVectors;
+  }
+
+  @Override
+  public void close() {
+    if (directory == null) {
+      return;
+    }
+    try {
+      getIndexInput().close();
+      directory.close();
+    } catch (IOException e) {
+      logger.info("Cannot close resources from file: " + indexFileName + "\n" + e.getMessage());
+    }
+    directory = null;
+  }
+
+  /** Enumerates the object vectors in part of an index file, from the current pointer. */
+  private class VectorEnumeration implements Enumeration<ObjectVector> {
+    private final IndexInput indexInput;
+    private final long endPointer;
+
+    VectorEnumeration(IndexInput indexInput, long endPointer) {
+      this.indexInput = indexInput;
+      this.endPointer = endPointer;
+    }
+
+    @Override
+    public boolean hasMoreElements() {
+      return indexInput.getFilePointer() < endPointer;
+    }
+
+    @Override
+    public ObjectVector nextElement() {
+      if (!hasMoreElements()) {
+        throw new NoSuchElementException();
+      }
+      Vector vector = VectorFactory.createZeroVector(flagConfig.vectortype(), flagConfig.dimension());
+      try {
+        String object = indexInput.readString();
+        vector.readFromLuceneStream(indexInput);
+        return new ObjectVector(object, vector);
+      } catch (IOException e) {
+        throw new RuntimeException("Cannot read IVF index file: " + indexFileName, e);
+      }
+    }
+  }
+
+  /** Enumerates an array of object vectors. */
+  private static class ArrayEnumeration implements Enumeration<ObjectVector> {
+    private final ObjectVector[] objectVectors;
+    private int position = 0;
+
+    ArrayEnumeration(ObjectVector[] objectVectors) {
+      this.objectVectors = objectVectors;
+    }
+
+    @Override
+    public boolean hasMoreElements() {
+      return position < objectVectors.length;
+    }
+
+    @Override
+    public ObjectVector nextElement() {
+      if (position == objectVectors.length) {
+        throw new NoSuchElementException();
+      }
+      return objectVectors[position++];
+    }
+  }
+}
@@ -0,0 +1,378 @@
+/**
+   Copyright (c) 2015, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.WildcardQuery;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.IntsRefBuilder;
+import org.apache.lucene.util.automaton.Automata;
+import org.apache.lucene.util.automaton.Automaton;
+import org.apache.lucene.util.automaton.ByteRunAutomaton;
+import org.apache.lucene.util.automaton.Operations;
+import org.apache.lucene.util.automaton.RegExp;
+import org.apache.lucene.util.automaton.TooComplexToDeterminizeException;
+import org.apache.lucene.util.fst.Builder;
+import org.apache.lucene.util.fst.FST;
+import org.apache.lucene.util.fst.PositiveIntOutputs;
+import org.apache.lucene.util.fst.Util;
+
+/**
+ * Sorted dictionary of the keys in a vector store, held as a Lucene {@link FST}, for looking up
+ * all the vectors whose keys start with a prefix or match a wildcard or regular expression
+ * without reading every vector in the store.
+ *
+ * <p>Lookups walk the FST and a Lucene automaton for the expression together, so only
+ * branches of the key space that can still match are visited. Vectors are returned in the
+ * order in which the store enumerated them when the dictionary was built, so that adding them
+ * up gives exactly the same result as a scan through {@link VectorStore#getAllVectors()}.
+ *
+ * <p>The dictionary is a snapshot: it must be rebuilt if the store changes. A built
+ * dictionary may be searched from many threads at once.
+ *
+ * @see VectorStoreRAM#getKeyDictionary()
+ */
+public class KeyDictionary {
+
+  /** Object vectors in the order in which the store enumerated them. */
+  private final ObjectVector[] objectVectors;
+  /** Key of each object vector, as used for matching. */
+  private final String[] keys;
+  /** Positions in {@link #objectVectors}, sorted by the UTF-8 bytes of their keys. */
+  private final int[] sortedOrdinals;
+  /**
+   * Maps each distinct key to the first place in {@link #sortedOrdinals} where it appears,
+   * or is null if the store is empty.
+   */
+  private final FST<Long> fst;
+
+  /** Builds a dictionary of the vectors in {@code vectorEnumeration}. */
+  public KeyDictionary(Enumeration<ObjectVector> vectorEnumeration) {
+    List<ObjectVector> vectorList = new ArrayList<ObjectVector>();
+    while (vectorEnumeration.hasMoreElements()) {
+      vectorList.add(vectorEnumeration.nextElement());
+    }
+    objectVectors = vectorList.toArray(new ObjectVector[vectorList.size()]);
+    keys = new String[objectVectors.length];
+    final BytesRef[] keyBytes = new BytesRef[objectVectors.length];
+    Integer[] order = new Integer[objectVectors.length];
+    for (int i = 0; i < objectVectors.length; ++i) {
+      keys[i] = objectVectors[i].getObject().toString();
+      keyBytes[i] = new BytesRef(keys[i]);
+      order[i] = i;
+    }
+    // The FST needs its inputs in byte order, which differs from String order for keys
+    // containing supplementary characters. Equal keys stay in enumeration order.
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        int byBytes = keyBytes[a].compareTo(keyBytes[b]);
+        return byBytes != 0 ? byBytes : a.compareTo(b);
+      }
+    });
+    sortedOrdinals = new int[order.length];
+    for (int i = 0; i < order.length; ++i) {
+      sortedOrdinals[i] = order[i];
+    }
+
+    try {
+      Builder<Long> builder = new Builder<Long>(
+          FST.INPUT_TYPE.BYTE1, PositiveIntOutputs.getSingleton());
+      IntsRefBuilder scratch = new IntsRefBuilder();
+      for (int i = 0; i < sortedOrdinals.length; ++i) {
+        if (i > 0 && keys[sortedOrdinals[i]].equals(keys[sortedOrdinals[i - 1]])) continue;
+        builder.add(Util.toIntsRef(keyBytes[sortedOrdinals[i]], scratch), (long) i);
+      }
+      fst = builder.finish();
+    } catch (IOException e) {
+      // Only thrown when writing an FST to disk, which this one never is.
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /** Returns the number of vectors in the dictionary. */
+  public int size() {
+    return objectVectors.length;
+  }
+
+  /** Returns the vectors whose keys start with {@code prefix}. */
+  public List<ObjectVector> getVectorsWithPrefix(String prefix) {
+    return getVectorsMatching(getPrefixAutomaton(prefix));
+  }
+
+  /**
+   * Returns the vectors whose keys match {@code wildcard} in full, where {@code *} stands for
+   * any string, {@code ?} for any one character, and {@code \} escapes the next character,
+   * as in {@link WildcardQuery}.
+   */
+  public List<ObjectVector> getVectorsMatchingWildcard(String wildcard) {
+    return getVectorsMatching(getWildcardAutomaton(wildcard));
+  }
+
+  /**
+   * Returns the vectors whose keys contain a match for {@code pattern}, that is, those for
+   * which {@link java.util.regex.Matcher#find()} succeeds.
+   *
+   * <p>Patterns anchored with {@code ^} and written with the constructs that Java and Lucene
+   * regular expressions share are looked up through the FST, and the keys found are checked
+   * against {@code pattern}. Other patterns are checked against every key, though still
+   * without reading the vectors: a match that may start anywhere in a key prunes nothing
+   * from the FST, so walking it would only be slower than going through the keys.
+   */
+  public List<ObjectVector> getVectorsFinding(Pattern pattern) {
+    List<ObjectVector> candidates = null;
+    String luceneRegExp = toLuceneRegExp(pattern.pattern());
+    if (luceneRegExp != null && !luceneRegExp.startsWith(".*")) {
+      try {
+        candidates = getVectorsMatching(new RegExp(luceneRegExp, RegExp.NONE).toAutomaton());
+      } catch (IllegalArgumentException e) {
+        candidates = null;
+      } catch (TooComplexToDeterminizeException e) {
+        candidates = null;
+      }
+    }
+
+    List<ObjectVector> results = new ArrayList<ObjectVector>();
+    if (candidates != null) {
+      for (ObjectVector candidate : candidates) {
+        if (pattern.matcher(candidate.getObject().toString()).find()) results.add(candidate);
+      }
+      return results;
+    }
+    for (int i = 0; i < keys.length; ++i) {
+      if (pattern.matcher(keys[i]).find()) results.add(objectVectors[i]);
+    }
+    return results;
+  }
+
+  /** Returns the vectors whose keys are accepted by {@code automaton}. */
+  public List<ObjectVector> getVectorsMatching(Automaton automaton) {
+    List<ObjectVector> results = new ArrayList<ObjectVector>();
+    if (fst == null) return results;
+    ByteRunAutomaton runAutomaton = new ByteRunAutomaton(automaton);
+
+    // Positions in sortedOrdinals of the first of each group of equal matching keys.
+    List<Long> firstPositions = new ArrayList<Long>();
+    try {
+      FST.Arc<Long> root = fst.getFirstArc(new FST.Arc<Long>());
+      int initialState = runAutomaton.getInitialState();
+      if (root.isFinal() && runAutomaton.isAccept(initialState)) {
+        firstPositions.add(root.output + root.nextFinalOutput);
+      }
+      collectMatches(runAutomaton, initialState, root, root.output,
+          fst.getBytesReader(), firstPositions);
+    } catch (IOException e) {
+      // Reading an FST held in memory does not do I/O.
+      throw new IllegalStateException(e);
+    }
+
+    int[] ordinals = new int[objectVectors.length];
+    int numMatches = 0;
+    for (long firstPosition : firstPositions) {
+      int position = (int) firstPosition;
+      String key = keys[sortedOrdinals[position]];
+      do {
+        ordinals[numMatches++] = sortedOrdinals[position++];
+      } while (position < sortedOrdinals.length && keys[sortedOrdinals[position]].equals(key));
+    }
+    Arrays.sort(ordinals, 0, numMatches);
+    for (int i = 0; i < numMatches; ++i) {
+      results.add(objectVectors[ordinals[i]]);
+    }
+    return results;
+  }
+
+  /**
+   * Adds to {@code firstPositions} the output for every key below {@code arc} that
+   * {@code runAutomaton} accepts from {@code state}.
+   */
+  private void collectMatches(ByteRunAutomaton runAutomaton, int state, FST.Arc<Long> arc,
+      long output, FST.BytesReader reader, List<Long> firstPositions) throws IOException {
+    if (!FST.targetHasArcs(arc)) return;
+    FST.Arc<Long> child = fst.readFirstTargetArc(arc, new FST.Arc<Long>(), reader);
+    while (true) {
+      // The end of a key is seen as the parent being final, not as this extra arc.
+      if (child.label != FST.END_LABEL) {
+        int nextState = runAutomaton.step(state, child.label);
+        if (nextState != -1) {
+          long childOutput = output + child.output;
+          if (child.isFinal() && runAutomaton.isAccept(nextState)) {
+            firstPositions.add(childOutput + child.nextFinalOutput);
+          }
+          collectMatches(runAutomaton, nextState, child, childOutput, reader, firstPositions);
+        }
+      }
+      if (child.isLast()) return;
+      fst.readNextArc(child, reader);
+    }
+  }
+
+  /** Returns an automaton accepting strings that start with {@code prefix}. */
+  public static Automaton getPrefixAutomaton(String prefix) {
+    return Operations.concatenate(Automata.makeString(prefix), Automata.makeAnyString());
+  }
+
+  /** Returns an automaton accepting strings that match {@code wildcard}, as in {@link WildcardQuery}. */
+  public static Automaton getWildcardAutomaton(String wildcard) {
+    return WildcardQuery.toAutomaton(new Term("", wildcard));
+  }
+
+  /**
+   * Translates a Java regular expression into a Lucene {@link RegExp}, to be parsed with
+   * {@link RegExp#NONE}, that accepts every key in which the Java expression finds a match.
+   * The translation may accept more keys than that, so matches must be checked with the Java
+   * expression. Returns null for expressions using anything that Lucene does not share.
+   */
+  static String toLuceneRegExp(String javaRegex) {
+    StringBuilder body = new StringBuilder();
+    boolean anchored = false;
+    boolean topLevelAlternation = false;
+    int depth = 0;
+    int i = 0;
+    if (javaRegex.startsWith("^")) {
+      anchored = true;
+      i = 1;
+    }
+    while (i < javaRegex.length()) {
+      char c = javaRegex.charAt(i);
+      switch (c) {
+      case '\\':
+        // Escaped punctuation means the same in both; escaped letters and digits are classes,
+        // boundaries, back references and the like.
+        if (i + 1 >= javaRegex.length() || Character.isLetterOrDigit(javaRegex.charAt(i + 1))) {
+          return null;
+        }
+        body.append('\\').append(javaRegex.charAt(i + 1));
+        i += 2;
+        continue;
+      case '(':
+        if (i + 1 < javaRegex.length() && javaRegex.charAt(i + 1) == '?') return null;
+        ++depth;
+        body.append(c);
+        break;
+      case ')':
+        --depth;
+        body.append(c);
+        break;
+      case '|':
+        if (depth == 0) topLevelAlternation = true;
+        body.append(c);
+        break;
+      case '.': case '*': case '+': case '?':
+        // Lucene reads the lazy and possessive forms "*?" and "*+" as quantified quantifiers,
+        // which accept at least as much.
+        body.append(c);
+        break;
+      case '{':
+        int close = javaRegex.indexOf('}', i);
+        if (close < 0 || !javaRegex.substring(i + 1, close).matches("\\d+(,\\d*)?")) return null;
+        body.append(javaRegex, i, close + 1);
+        i = close + 1;
+        continue;
+      case '[':
+        int end = appendCharacterClass(javaRegex, i, body);
+        if (end < 0) return null;
+        i = end;
+        continue;
+      case '^': case '$':
+        return null;
+      default:
+        if (Character.isLetterOrDigit(c) || c > 127) {
+          body.append(c);
+        } else {
+          // Escape punctuation, since Lucene gives meaning to some that Java does not.
+          body.append('\\').append(c);
+        }
+      }
+      ++i;
+    }
+    // With "^a|b" the anchor applies only to the first alternative.
+    if (depth != 0 || (anchored && topLevelAlternation)) return null;
+    return (anchored ? "" : ".*") + "(" + body + ").*";
+  }
+
+  /**
+   * Appends the Lucene form of the simple character class starting at {@code start} to
+   * {@code body}, returning the position after the class, or -1 if it is not simple.
+   */
+  private static int appendCharacterClass(String javaRegex, int start, StringBuilder body) {
+    int i = start + 1;
+    body.append('[');
+    if (i < javaRegex.length() && javaRegex.charAt(i) == '^') {
+      body.append('^');
+      ++i;
+    }
+    boolean first = true;
+    while (i < javaRegex.length()) {
+      char c = javaRegex.charAt(i);
+      if (c == ']' && !first) {
+        body.append(']');
+        return i + 1;
+      }
+      if (c == ']' || c == '[' || c == '&') {
+        // Leading "]", nested classes and intersections.
+        return -1;
+      }
+      if (c == '\\') {
+        if (i + 1 >= javaRegex.length() || Character.isLetterOrDigit(javaRegex.charAt(i + 1))) {
+          return -1;
+        }
+        body.append('\\').append(javaRegex.charAt(i + 1));
+        i += 2;
+      } else if (c == '-' && !first && i + 1 < javaRegex.length() && javaRegex.charAt(i + 1) != ']') {
+        body.append('-');
+        ++i;
+      } else {
+        if (Character.isLetterOrDigit(c) || c > 127) {
+          body.append(c);
+        } else {
+          body.append('\\').append(c);
+        }
+        ++i;
+      }
+      first = false;
+    }
+    return -1;
+  }
+}
@@ -2,7 +2,6 @@ package pitt.search.semanticvectors;
 
 import org.apache.lucene.index.DocsEnum;
 import org.apache.lucene.index.Term;
-import org.apache.lucene.index.Terms;
 import org.apache.lucene.index.TermsEnum;
 import org.apache.lucene.store.IOContext;
 import org.apache.lucene.store.IndexOutput;
@@ -18,6 +17,13 @@ import pitt.search.semanticvectors.vectors.VectorType;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.FileSystems;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 
 import ch.akuhn.edu.mit.tedlab.*;
@@ -33,9 +39,23 @@ import ch.akuhn.edu.mit.tedlab.*;
 public class LSA {
   private static final Logger logger = Logger.getLogger(LSA.class.getCanonicalName());
 
+  /** Algorithms for computing the singular value decomposition. */
+  public enum SvdMethod {
+    /** Lanczos method from SVDLIBJ, see {@link Svdlib#svdLAS2A}. Uses -numthreads threads
+     * for products with the matrix, which does not change the results. */
+    LAS2,
+    /** Multithreaded random projection method, see {@link RandomizedSvd}. Faster but approximate. */
+    RANDOMIZED
+  }
+
   public static String usageMessage = "\nLSA class in package pitt.search.semanticvectors"
       + "\nUsage: java pitt.search.semanticvectors.LSA [other flags] -luceneindexpath PATH_TO_LUCENE_INDEX"
-      + "Use flags to configure dimension, min term frequency, etc. See online documentation for other available flags";
+      + "\nUse -numthreads to compute the SVD with several threads, and -svdmethod randomized for a"
+      + "\nfaster, approximate SVD."
+      + "\nUse flags to configure dimension, min term frequency, etc. See online documentation for other available flags";
+
+  /** Number of matrix columns (terms) processed by each task in {@link #smatFromIndex}. */
+  private static final int COLUMN_BATCH_SIZE = 1000;
 
   private FlagConfig flagConfig;
   /** Stores the list of terms in the same order as rows in the matrix. */
@@ -51,7 +71,7 @@ public class LSA {
    * @param luceneIndexDir Relative path to directory containing Lucene index.
    * @throws IOException 
    */
-  private LSA(String luceneIndexDir, FlagConfig flagConfig) throws IOException {
+  LSA(String luceneIndexDir, FlagConfig flagConfig) throws IOException {
     this.flagConfig = flagConfig;    
     this.luceneUtils = new LuceneUtils(flagConfig);
 
@@ -84,92 +104,128 @@ public class LSA {
         + " Number non-alphabet characters = " + flagConfig.maxnonalphabetchars() +  "\n");
   }
 
+  /** Work done for each column of the sparse matrix, see {@link #forEachColumn}. */
+  private interface ColumnTask {
+    void process(int column) throws IOException;
+  }
+
   /**
    * Converts the Lucene index into a sparse matrix.
    * Also populates termList as a side-effect.
+   *
+   * The terms dictionary is read once, and then the columns are built in parallel using
+   * {@link FlagConfig#numthreads()} threads, in two phases: the number of documents for
+   * each term is counted, so that each column's position in the matrix is known, and then
+   * the columns are filled in.
    * 
    * @returns sparse term-document matrix in the format expected by SVD library
    */
-  private SMat smatFromIndex() throws IOException {
-    TermsEnum termsEnumDummy = null; // Empty terms enum, encouraged for reuse in Lucene documentation.
-    SMat S;
-    Terms terms = this.luceneUtils.getTermsForField(contentsField);
-    TermsEnum termsEnumForCount = terms.iterator(termsEnumDummy);
+  SMat smatFromIndex() throws IOException {
+    // Read the terms dictionary once, keeping the terms that pass the filter as columns.
+    final List<BytesRef> columnTerms = new ArrayList<BytesRef>();
+    TermsEnum termsEnum = this.luceneUtils.getTermsForField(contentsField).iterator(null);
     int numTerms = 0;
-    while (termsEnumForCount.next() != null) {
+    BytesRef bytes;
+    while ((bytes = termsEnum.next()) != null) {
       numTerms++;
+      if (luceneUtils.termFilter(new Term(contentsField, bytes))) {
+        columnTerms.add(BytesRef.deepCopyOf(bytes));
+      }
     }
 
     VerbatimLogger.info(String.format(
         "There are %d terms (and %d docs).\n", numTerms, this.luceneUtils.getNumDocs()));
 
-    termList = new String[numTerms];
-    int[][] baseIndex = new int[numTerms][];
-    int nonZeroVals = 0, termCounter = 0;
-
-    terms = this.luceneUtils.getTermsForField(contentsField);
-    TermsEnum termsEnum = terms.iterator(termsEnumDummy);
-    BytesRef bytes;
-    
-    // This first loop is all setup and preparing counters.
-    while((bytes = termsEnum.next()) != null) {
-      Term term = new Term(contentsField, bytes);
-      if (luceneUtils.termFilter(term)) {
-        termList[termCounter] = term.text();
+    final int numColumns = columnTerms.size();
+    termList = new String[numColumns];
+    for (int column = 0; column < numColumns; ++column) {
+      termList[column] = columnTerms.get(column).utf8ToString();
+    }
 
-        // Create matrix of nonzero indices.
-        DocsEnum docsEnum = this.luceneUtils.getDocsForTerm(term);
+    // First phase: count the documents for each term, and get each term's global weight once.
+    final int[] columnSizes = new int[numColumns];
+    final float[] globalWeights = new float[numColumns];
+    forEachColumn(numColumns, new ColumnTask() {
+      @Override
+      public void process(int column) throws IOException {
+        Term term = new Term(contentsField, columnTerms.get(column));
+        globalWeights[column] = luceneUtils.getGlobalTermWeight(term);
+        DocsEnum docsEnum = luceneUtils.getDocsForTerm(term);
         int numDocsWithTerm = 0;
         while (docsEnum.nextDoc() != DocsEnum.NO_MORE_DOCS) {
           ++numDocsWithTerm;
-          ++nonZeroVals;
-        }
-        baseIndex[termCounter] = new int[numDocsWithTerm];
-
-        // Fill in matrix of nonzero indices, enumerating docsEnum again.
-        docsEnum = this.luceneUtils.getDocsForTerm(term);
-        int count = 0;
-        while (docsEnum.nextDoc() != DocsEnum.NO_MORE_DOCS) {
-          baseIndex[termCounter][count] = docsEnum.docID();
-          ++count;
         }
-        ++termCounter;	// Next term.
+        columnSizes[column] = numDocsWithTerm;
       }
-    }
-    
-    // Initialize "SVDLIBJ" sparse data structure.
-    S = new SMat(this.luceneUtils.getNumDocs(), termCounter, nonZeroVals);
+    });
 
-    // Populate "SVDLIBJ" sparse data structure.
-    termsEnum = terms.iterator(termsEnum);
-    termCounter = 0;
+    int nonZeroVals = 0;
+    for (int size : columnSizes) {
+      nonZeroVals += size;
+    }
+    // Initialize "SVDLIBJ" sparse data structure. The matrix is a document x term matrix,
+    // so that terms are columns, and pointr gives the index of the first entry of each column.
+    final SMat S = new SMat(this.luceneUtils.getNumDocs(), numColumns, nonZeroVals);
     int firstNonZero = 0; // Index of first non-zero entry (document) of each column (term).
-    while((bytes = termsEnum.next()) != null) {
-      Term term = new Term(contentsField, bytes);
-      if (this.luceneUtils.termFilter(term)) {
-        DocsEnum docsEnum = this.luceneUtils.getDocsForTerm(term);
-        S.pointr[termCounter] = firstNonZero;
+    for (int column = 0; column < numColumns; ++column) {
+      S.pointr[column] = firstNonZero;
+      firstNonZero += columnSizes[column];
+    }
+    S.pointr[S.cols] = S.vals;
 
+    // Second phase: populate "SVDLIBJ" sparse data structure. Each column has its own range.
+    forEachColumn(numColumns, new ColumnTask() {
+      @Override
+      public void process(int column) throws IOException {
+        DocsEnum docsEnum = luceneUtils.getDocsForTerm(new Term(contentsField, columnTerms.get(column)));
+        int entry = S.pointr[column];
         while (docsEnum.nextDoc() != DocsEnum.NO_MORE_DOCS) {
-          /** public int[] pointr; For each col (plus 1), index of
-            *  first non-zero entry.  we'll represent the matrix as a
-            *  document x term matrix such that terms are columns
-            *  (otherwise it would be difficult to extract this
-            *  information from the lucene index)
-            */
-          S.rowind[firstNonZero] = docsEnum.docID();  // set row index to document number
-          float value = docsEnum.freq() * luceneUtils.getGlobalTermWeight(term);
-          S.value[firstNonZero] = value;  // set value to frequency (with/without weighting)
-          firstNonZero++;
+          S.rowind[entry] = docsEnum.docID();  // set row index to document number
+          S.value[entry] = docsEnum.freq() * globalWeights[column];  // set value to frequency (with/without weighting)
+          ++entry;
         }
-        termCounter++;
       }
-    }
-    S.pointr[S.cols] = S.vals;
+    });
 
     return S;
   }
 
+  /**
+   * Runs {@code task} for every column, in batches of {@link #COLUMN_BATCH_SIZE} columns
+   * shared between {@link FlagConfig#numthreads()} threads.
+   */
+  private void forEachColumn(int numColumns, final ColumnTask task) throws IOException {
+    ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, flagConfig.numthreads()));
+    List<Future<Void>> results = new ArrayList<Future<Void>>();
+    for (int start = 0; start < numColumns; start += COLUMN_BATCH_SIZE) {
+      final int batchStart = start;
+      final int batchEnd = Math.min(start + COLUMN_BATCH_SIZE, numColumns);
+      results.add(executor.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws IOException {
+          for (int column = batchStart; column < batchEnd; ++column) {
+            task.process(column);
+          }
+          return null;
+        }
+      }));
+    }
+    executor.shutdown();
+    try {
+      for (Future<Void> result : results) {
+        result.get();
+      }
+    } catch (InterruptedException e) {
+      executor.shutdownNow();
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while building term-document matrix.", e);
+    } catch (ExecutionException e) {
+      executor.shutdownNow();
+      throw new IOException(
+          "Failed to build term-document matrix: " + e.getCause().getMessage(), e.getCause());
+    }
+  }
+
   private void writeOutput(DMat vT, DMat uT) throws IOException {
     // Open file and write headers.
     FSDirectory fsDirectory = FSDirectory.open(FileSystems.getDefault().getPath("."));
@@ -247,11 +303,21 @@ public class LSA {
     
     LSA lsaIndexer = new LSA(flagConfig.luceneindexpath(), flagConfig);
     SMat A = lsaIndexer.smatFromIndex();
-    Svdlib svd = new Svdlib();
 
-    VerbatimLogger.info("Starting SVD using algorithm LAS2 ...\n");
+    VerbatimLogger.info("Starting SVD using algorithm " + flagConfig.svdmethod() + " ...\n");
 
-    SVDRec svdR = svd.svdLAS2A(A, flagConfig.dimension());
+    SVDRec svdR;
+    switch (flagConfig.svdmethod()) {
+      case RANDOMIZED:
+        svdR = new RandomizedSvd(flagConfig.numthreads()).svd(A, flagConfig.dimension());
+        break;
+      case LAS2:
+      default:
+        Svdlib svd = new Svdlib();
+        svd.setNumThreads(flagConfig.numthreads());
+        svdR = svd.svdLAS2A(A, flagConfig.dimension());
+        break;
+    }
     DMat vT = svdR.Vt;
     DMat uT = svdR.Ut;
     lsaIndexer.writeOutput(vT, uT);
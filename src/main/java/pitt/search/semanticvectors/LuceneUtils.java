@@ -36,13 +36,20 @@
 package pitt.search.semanticvectors;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.nio.file.FileSystems;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.List;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 
 import org.apache.lucene.document.Document;
@@ -52,11 +59,17 @@ import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.DocsEnum;
 import org.apache.lucene.index.FieldInfos;
 import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.IndexCommit;
 import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.SegmentInfos;
 import org.apache.lucene.index.SlowCompositeReaderWrapper;
+import org.apache.lucene.index.SortedDocValues;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.StringHelper;
 import org.apache.lucene.util.Version;
 
 import pitt.search.semanticvectors.utils.StringUtils;
@@ -75,6 +88,10 @@ public class LuceneUtils {
   private LeafReader leafReader;
   private Hashtable<Term, Float> termEntropy = new Hashtable<Term, Float>();
   private Hashtable<Term, Float> termIDF = new Hashtable<>();
+  /** Number of terms whose weights are computed by each task in {@link #precomputeGlobalTermWeights}. */
+  private static final int TERM_WEIGHT_BATCH_SIZE = 1000;
+  /** Precomputed weights, used in preference to {@link #termIDF} and {@link #termEntropy} if set. */
+  private volatile GlobalTermWeights globalTermWeights = null;
   private TreeSet<String> stopwords = null;
   private TreeSet<String> startwords = null;
 
@@ -116,6 +133,9 @@ public class LuceneUtils {
     if (!flagConfig.startlistfile().isEmpty())
         loadStartWords(flagConfig.startlistfile());
 
+    if (flagConfig.precomputetermweights())
+      precomputeGlobalTermWeights(flagConfig.contentsfields());
+
     VerbatimLogger.info("Initialized LuceneUtils from Lucene index in directory: " + flagConfig.luceneindexpath() + "\n");
   }
 
@@ -221,6 +241,14 @@ public class LuceneUtils {
     return this.leafReader.getTermVector(docID, field);
   }
   
+  /**
+   * Gets the sorted doc values for a given field, or null if the field has no sorted doc values.
+   * The returned instance should only be used by the calling thread.
+   */
+  public SortedDocValues getSortedDocValues(String field) throws IOException {
+    return this.leafReader.getSortedDocValues(field);
+  }
+
   public FieldInfos getFieldInfos() {
     return this.leafReader.getFieldInfos();
   }
@@ -280,6 +308,11 @@ public class LuceneUtils {
    * @return Global term weight, or 1 if unavailable.
    */
   public float getGlobalTermWeight(Term term) {
+    GlobalTermWeights precomputedWeights = globalTermWeights;
+    if (precomputedWeights != null) {
+      float weight = precomputedWeights.getWeight(term);
+      if (!Float.isNaN(weight)) return weight;
+    }
     switch (flagConfig.termweight()) {
     case NONE:
     case SQRT:
@@ -294,6 +327,94 @@ public class LuceneUtils {
     return 1;
   }
 
+  /**
+   * Computes global term weights for every term in the given fields, which are then used by
+   * {@link #getGlobalTermWeight} without locking or further computation. Fields that already
+   * have precomputed weights are skipped, as are fields that are not in the index.
+   *
+   * <p>Weights are computed using {@link FlagConfig#numthreads()} threads. If
+   * {@link FlagConfig#termweightsfile()} is set, weights are read from this file if it
+   * was written for the same index and term weighting, and the file is (re)written if
+   * any weights had to be computed.
+   *
+   * @param fields the fields whose terms should have precomputed weights
+   */
+  public synchronized void precomputeGlobalTermWeights(String[] fields) throws IOException {
+    if (flagConfig.termweight() != TermWeight.IDF && flagConfig.termweight() != TermWeight.LOGENTROPY) {
+      return;
+    }
+    GlobalTermWeights weights = globalTermWeights;
+    String weightsFile = flagConfig.termweightsfile();
+    if (weights == null && !weightsFile.isEmpty() && new File(weightsFile).isFile()) {
+      weights = GlobalTermWeights.readFromFile(
+          weightsFile, flagConfig.termweight(), getNumDocs(), getIndexCommitId());
+    }
+
+    HashMap<String, GlobalTermWeights.FieldWeights> computedWeights =
+        new HashMap<String, GlobalTermWeights.FieldWeights>();
+    for (String field : fields) {
+      if ((weights != null && weights.containsField(field)) || leafReader.terms(field) == null) {
+        continue;
+      }
+      computedWeights.put(field, computeFieldWeights(field));
+    }
+
+    if (weights == null) {
+      weights = new GlobalTermWeights(
+          flagConfig.termweight(), getNumDocs(), getIndexCommitId(), computedWeights);
+    } else if (!computedWeights.isEmpty()) {
+      weights = weights.withFields(computedWeights);
+    }
+    globalTermWeights = weights;
+    if (!computedWeights.isEmpty() && !weightsFile.isEmpty()) {
+      weights.writeToFile(weightsFile);
+    }
+  }
+
+  /** Computes global term weights for every term in the field, in index order. */
+  private GlobalTermWeights.FieldWeights computeFieldWeights(final String field) throws IOException {
+    final List<BytesRef> terms = new ArrayList<BytesRef>();
+    TermsEnum termsEnum = getTermsForField(field).iterator(null);
+    BytesRef bytes;
+    while ((bytes = termsEnum.next()) != null) {
+      terms.add(BytesRef.deepCopyOf(bytes));
+    }
+    VerbatimLogger.info("Computing global term weights for " + terms.size()
+        + " terms in field '" + field + "' ...\n");
+
+    final float[] weights = new float[terms.size()];
+    ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, flagConfig.numthreads()));
+    List<Future<Void>> results = new ArrayList<Future<Void>>();
+    for (int start = 0; start < terms.size(); start += TERM_WEIGHT_BATCH_SIZE) {
+      final int batchStart = start;
+      final int batchEnd = Math.min(start + TERM_WEIGHT_BATCH_SIZE, terms.size());
+      results.add(executor.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws IOException {
+          for (int i = batchStart; i < batchEnd; ++i) {
+            Term term = new Term(field, terms.get(i));
+            weights[i] = flagConfig.termweight() == TermWeight.IDF ? computeIDF(term) : computeEntropy(term);
+          }
+          return null;
+        }
+      }));
+    }
+    executor.shutdown();
+    try {
+      for (Future<Void> result : results) {
+        result.get();
+      }
+    } catch (InterruptedException e) {
+      executor.shutdownNow();
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while computing term weights.", e);
+    } catch (ExecutionException e) {
+      executor.shutdownNow();
+      throw new IOException("Failed to compute term weights: " + e.getCause().getMessage(), e.getCause());
+    }
+    return new GlobalTermWeights.FieldWeights(terms, weights);
+  }
+
   /**
    * Gets a local term weight for a term based on its document frequency, depending on the setting for
    * {@link FlagConfig#termweight()}.
@@ -324,6 +445,17 @@ public class LuceneUtils {
    */
   public int getNumDocs() { return compositeReader.numDocs(); }
 
+  /**
+   * Returns a string that identifies the commit of the Lucene index that was opened, and so
+   * changes whenever the index does: the unique ID of the commit, or its segments file name
+   * for indexes written by versions of Lucene before 5.0, which do not record IDs.
+   */
+  public String getIndexCommitId() throws IOException {
+    IndexCommit commit = ((DirectoryReader) compositeReader).getIndexCommit();
+    byte[] id = SegmentInfos.readCommit(commit.getDirectory(), commit.getSegmentsFileName()).getId();
+    return id == null ? commit.getSegmentsFileName() : StringHelper.idToString(id);
+  }
+
   /**
    * Gets the IDF (i.e. log10(numdocs/doc frequency)) of a term
    *	@param term the term whose IDF you would like
@@ -348,6 +480,19 @@ public class LuceneUtils {
     }
   }
 
+  /**
+   * Computes the IDF returned by {@link #getIDF}, without caching, for
+   * {@link #precomputeGlobalTermWeights}, which fails rather than keep a weight of 1 if the
+   * document frequency cannot be read.
+   */
+  private float computeIDF(Term term) throws IOException {
+    int freq = compositeReader.docFreq(term);
+    if (freq == 0) {
+      return 0;
+    }
+    return (float) Math.log10(compositeReader.numDocs()/freq);
+  }
+
   /**
    * Gets the 1 - entropy (i.e. 1+ plogp) of a term,
    * a function that favors terms that are focally distributed
@@ -363,6 +508,13 @@ public class LuceneUtils {
   private float getEntropy(Term term){
     if(termEntropy.containsKey(term))
       return termEntropy.get(term);
+    float entropy = computeEntropy(term);
+    termEntropy.put(term, entropy);
+    return entropy;
+  }
+
+  /** Computes the entropy returned by {@link #getEntropy}, without caching. */
+  private float computeEntropy(Term term) {
     int gf = getGlobalTermFreq(term);
     double entropy = 0;
     try {
@@ -379,7 +531,6 @@ public class LuceneUtils {
     catch (IOException e) {
       logger.info("Couldn't get term entropy for term " + term.text());
     }
-    termEntropy.put(term, 1 + (float)entropy);
     return (float) (1 + entropy);
   }
 
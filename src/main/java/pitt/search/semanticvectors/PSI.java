@@ -36,8 +36,18 @@
 package pitt.search.semanticvectors;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Enumeration;
-import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 import org.apache.lucene.document.Document;
@@ -47,6 +57,7 @@ import org.apache.lucene.util.BytesRef;
 import pitt.search.semanticvectors.utils.VerbatimLogger;
 import pitt.search.semanticvectors.vectors.Vector;
 import pitt.search.semanticvectors.vectors.VectorFactory;
+import pitt.search.semanticvectors.vectors.VectorUtils;
 
 /**
  * Generates predication vectors incrementally.Requires as input an index containing 
@@ -60,12 +71,28 @@ public class PSI {
   private static final Logger logger = Logger.getLogger(PSI.class.getCanonicalName());
   private FlagConfig flagConfig;
   private ElementalVectorStore elementalItemVectors, predicateVectors;
-  private VectorStoreRAM semanticItemVectors;
+  /** Semantic vectors for each concept. Their ordinals also index the concept arrays below. */
+  private VectorStoreOrdinal semanticItemVectors;
+  private Vector[] elementalItemVectorsByOrdinal;
+  /** Global term weights for each concept in {@link #itemFields}, by ordinal. */
+  private GlobalWeightsByOrdinal itemWeights;
+  /** Elemental vectors for each predicate. Their ordinals also index {@link #inversePredicateVectors}. */
+  private VectorStoreOrdinal predicateVectorsByOrdinal;
+  private Vector[] inversePredicateVectors;
+  /**
+   * Maps the doc values ordinals of the subject, predicate and object fields to concept or
+   * predicate ordinals, or null if predications are read from stored fields.
+   */
+  private int[][] docValueOrdinals;
   private static final String SUBJECT_FIELD = "subject";
   private static final String PREDICATE_FIELD = "predicate";
   private static final String OBJECT_FIELD = "object";
   private static final String PREDICATION_FIELD = "predication";
+  /** Number of predications handed to a worker thread at a time, see {@link #trainPredicationsInParallel}. */
+  private static final int PREDICATION_BATCH_SIZE = 10000;
   private String[] itemFields = {SUBJECT_FIELD, OBJECT_FIELD};
+  /** Positions of the subject and object fields in {@link #itemFields}. */
+  private static final int SUBJECT_INDEX = 0, OBJECT_INDEX = 1;
   private LuceneUtils luceneUtils;
 
   private PSI() {};
@@ -83,13 +110,17 @@ public class PSI {
   }
 
   private void trainIncrementalPSIVectors() throws IOException {
+    TrainingCheckpoint.checkElementalVectorsReproducible(flagConfig);
     // Create elemental and semantic vectors for each concept, and elemental vectors for predicates
     elementalItemVectors = new ElementalVectorStore(flagConfig);
-    semanticItemVectors = new VectorStoreRAM(flagConfig);
+    semanticItemVectors = new VectorStoreOrdinal(flagConfig);
     predicateVectors = new ElementalVectorStore(flagConfig);
     flagConfig.setContentsfields(itemFields);
+    if (flagConfig.precomputetermweights()) {
+      luceneUtils.precomputeGlobalTermWeights(itemFields);
+    }
 
-    HashSet<String> addedConcepts = new HashSet<String>();
+    ArrayList<Vector> elementalVectors = new ArrayList<Vector>();
 
     for (String fieldName : itemFields) {
       Terms terms = luceneUtils.getTermsForField(fieldName);
@@ -110,16 +141,28 @@ public class PSI {
           continue;
         }
 
-        if (!addedConcepts.contains(term.text())) {
-          addedConcepts.add(term.text());
-          elementalItemVectors.getVector(term.text());  // Causes vector to be created.
-          semanticItemVectors.putVector(term.text(), VectorFactory.createZeroVector(
+        if (semanticItemVectors.getOrdinal(bytes) == VectorStoreOrdinal.NO_ORDINAL) {
+          semanticItemVectors.putVector(bytes, VectorFactory.createZeroVector(
               flagConfig.vectortype(), flagConfig.dimension()));
+          elementalVectors.add(elementalItemVectors.getVector(term.text()));  // Causes vector to be created.
         }
       }
     }
 
+    int numConcepts = semanticItemVectors.getNumVectors();
+    elementalItemVectorsByOrdinal = elementalVectors.toArray(new Vector[numConcepts]);
+    itemWeights = new GlobalWeightsByOrdinal(itemFields);
+    for (int i = 0; i < numConcepts; ++i) {
+      String concept = semanticItemVectors.getKey(i);
+      for (int fieldIndex = 0; fieldIndex < itemFields.length; ++fieldIndex) {
+        itemWeights.setWeight(fieldIndex, i,
+            luceneUtils.getGlobalTermWeight(new Term(itemFields[fieldIndex], concept)));
+      }
+    }
+
     // Now elemental vectors for the predicate field.
+    predicateVectorsByOrdinal = new VectorStoreOrdinal(flagConfig);
+    ArrayList<Vector> inverseVectors = new ArrayList<Vector>();
     Terms predicateTerms = luceneUtils.getTermsForField(PREDICATE_FIELD);
     String[] dummyArray = new String[] { PREDICATE_FIELD };  // To satisfy LuceneUtils.termFilter interface.
     TermsEnum termsEnum = predicateTerms.iterator(null);
@@ -131,19 +174,112 @@ public class PSI {
         continue;
       }
 
-      predicateVectors.getVector(term.text().trim());
+      String predicate = term.text().trim();
+      if (predicateVectorsByOrdinal.getOrdinal(predicate) != VectorStoreOrdinal.NO_ORDINAL) continue;
+      predicateVectorsByOrdinal.putVector(predicate, predicateVectors.getVector(predicate));
 
       // Add an inverse vector for the predicates.
-      predicateVectors.getVector(term.text().trim()+"-INV");
+      inverseVectors.add(predicateVectors.getVector(predicate + "-INV"));
+    }
+    inversePredicateVectors = inverseVectors.toArray(new Vector[inverseVectors.size()]);
+
+    TrainingCheckpoint checkpoint = null;
+    long predicationsToSkip = 0;
+    if (TrainingCheckpoint.isEnabled(flagConfig)) {
+      checkpoint = new TrainingCheckpoint(
+          flagConfig, flagConfig.semanticvectorfile(), "-numdocs " + luceneUtils.getNumDocs());
+      predicationsToSkip = restoreFromCheckpoint(checkpoint);
     }
 
-    String fieldName = PREDICATION_FIELD; 
-    // Iterate through documents (each document = one predication).
-    Terms allTerms = luceneUtils.getTermsForField(fieldName);
-    termsEnum = allTerms.iterator(null);
+    if (flagConfig.numthreads() > 1) {
+      trainPredicationsInParallel(checkpoint, predicationsToSkip);
+    } else {
+      trainPredicationsSerially(checkpoint, predicationsToSkip);
+    }
+    if (checkpoint != null) {
+      checkpoint.finish();
+    }
+
+    if (flagConfig.writeaccumulators()) {
+      AccumulatedVectorStore.write(flagConfig.semanticvectorfile(), flagConfig, semanticItemVectors);
+    }
+
+    //Normalize semantic vectors
+    for (int i = 0; i < numConcepts; ++i) {
+      semanticItemVectors.getVector(i).normalize();
+    }
+
+    // Elemental vectors are written from those recorded by ordinal, since the elemental stores
+    // do not enumerate every vector if -elementalcachesize bounds their caches.
+    VectorStoreRAM predicateVectorsByKey = new VectorStoreRAM(flagConfig);
+    for (int i = 0; i < predicateVectorsByOrdinal.getNumVectors(); ++i) {
+      String predicate = predicateVectorsByOrdinal.getKey(i);
+      predicateVectorsByKey.putVector(predicate, predicateVectorsByOrdinal.getVector(i));
+      predicateVectorsByKey.putVector(predicate + "-INV", inversePredicateVectors[i]);
+    }
+    VectorStoreWriter.writeVectors(flagConfig.elementalvectorfile(), flagConfig,
+        semanticItemVectors.getVectorsByKey(elementalItemVectorsByOrdinal, flagConfig));
+    VectorStoreWriter.writeVectors(flagConfig.semanticvectorfile(), flagConfig, semanticItemVectors);
+    VectorStoreWriter.writeVectors(flagConfig.predicatevectorfile(), flagConfig, predicateVectorsByKey);
+
+    VerbatimLogger.info("Finished writing vectors.\n");
+  }
+
+  /**
+   * Replaces the semantic vectors with those saved in the checkpoint, if resuming, and
+   * returns the number of unique predications already processed.
+   */
+  private long restoreFromCheckpoint(TrainingCheckpoint checkpoint) throws IOException {
+    VectorStoreRAM restoredVectors = checkpoint.restore();
+    if (restoredVectors == null) return 0;
+    Enumeration<ObjectVector> restoredEnum = restoredVectors.getAllVectors();
+    while (restoredEnum.hasMoreElements()) {
+      ObjectVector restored = restoredEnum.nextElement();
+      String concept = restored.getObject().toString();
+      if (semanticItemVectors.getOrdinal(concept) == VectorStoreOrdinal.NO_ORDINAL) {
+        throw new IllegalArgumentException(
+            "Checkpoint contains a vector for concept '" + concept + "', which is not in the index.");
+      }
+      semanticItemVectors.putVector(concept, restored.getVector());
+    }
+    return checkpoint.getCursor();
+  }
+
+  /**
+   * Advances {@code termsEnum} past the given number of predications, which were processed
+   * before the checkpoint being resumed.
+   */
+  private static void skipPredications(TermsEnum termsEnum, long predicationsToSkip)
+      throws IOException {
+    for (long i = 0; i < predicationsToSkip; ++i) {
+      if (termsEnum.next() == null) return;
+    }
+  }
+
+  /**
+   * Iterates through documents (each document = one predication), adding the contribution
+   * of each predication directly to {@link #semanticItemVectors}.
+   *
+   * @param checkpoint written periodically if not null
+   * @param predicationsToSkip number of predications processed before the checkpoint being resumed
+   */
+  private void trainPredicationsSerially(TrainingCheckpoint checkpoint, long predicationsToSkip)
+      throws IOException {
+    SortedDocValues[] docValues = getPredicationDocValues();
+    initializeDocValueOrdinals(docValues);
+    Vector[] semanticVectors = new Vector[semanticItemVectors.getNumVectors()];
+    for (int i = 0; i < semanticVectors.length; ++i) {
+      semanticVectors[i] = semanticItemVectors.getVector(i);
+    }
+    int[] predication = new int[3];
+
+    Terms allTerms = luceneUtils.getTermsForField(PREDICATION_FIELD);
+    TermsEnum termsEnum = allTerms.iterator(null);
+    skipPredications(termsEnum, predicationsToSkip);
+    BytesRef bytes;
+    long pc = predicationsToSkip;
     while((bytes = termsEnum.next()) != null) {
-      int pc = 0;
-      Term term = new Term(fieldName, bytes);
+      Term term = new Term(PREDICATION_FIELD, bytes);
       pc++;
 
       // Output progress counter.
@@ -153,55 +289,268 @@ public class PSI {
 
       DocsEnum termDocs = luceneUtils.getDocsForTerm(term);
       termDocs.nextDoc();
-      Document document = luceneUtils.getDoc(termDocs.docID());
+      trainOnPredication(termDocs.docID(), docValues, predication,
+          luceneUtils.getGlobalTermFreq(term), semanticVectors);
+      if (checkpoint != null && checkpoint.isDue(pc)) {
+        checkpoint.write(pc, semanticItemVectors);
+      }
+    } // Finish iterating through predications.
+  }
 
-      String subject = document.get(SUBJECT_FIELD);
-      String predicate = document.get(PREDICATE_FIELD);
-      String object = document.get(OBJECT_FIELD);
+  /**
+   * Returns the sorted doc values for the subject, predicate and object fields, in that order,
+   * or null if any of them is missing, e.g., because the index was built before
+   * {@link pitt.search.lucene.LuceneIndexFromTriples} wrote doc values.
+   * The doc values returned should only be used by the calling thread.
+   */
+  private SortedDocValues[] getPredicationDocValues() throws IOException {
+    SortedDocValues[] docValues = new SortedDocValues[] {
+        luceneUtils.getSortedDocValues(SUBJECT_FIELD),
+        luceneUtils.getSortedDocValues(PREDICATE_FIELD),
+        luceneUtils.getSortedDocValues(OBJECT_FIELD) };
+    for (SortedDocValues fieldValues : docValues) {
+      if (fieldValues == null) return null;
+    }
+    return docValues;
+  }
 
-      if (!(elementalItemVectors.containsVector(object)
-          && elementalItemVectors.containsVector(subject)
-          && predicateVectors.containsVector(predicate))) {	  
-          logger.info("skipping predication " + subject + " " + predicate + " " + object);
-          continue;
+  /**
+   * Initializes {@link #docValueOrdinals} from the given doc values, so that predications
+   * can be read as concept and predicate ordinals without creating any strings.
+   * Doc values ordinals are the same for every thread that reads the same index.
+   */
+  private void initializeDocValueOrdinals(SortedDocValues[] docValues) {
+    if (docValues == null) {
+      docValueOrdinals = null;
+      return;
+    }
+    VerbatimLogger.info("Reading predications from doc values.\n");
+    VectorStoreOrdinal[] stores = {semanticItemVectors, predicateVectorsByOrdinal, semanticItemVectors};
+    docValueOrdinals = new int[3][];
+    for (int i = 0; i < 3; ++i) {
+      docValueOrdinals[i] = new int[docValues[i].getValueCount()];
+      for (int ord = 0; ord < docValueOrdinals[i].length; ++ord) {
+        docValueOrdinals[i][ord] = stores[i].getOrdinal(docValues[i].lookupOrd(ord));
+      }
+    }
+  }
+
+  /**
+   * Returns the subject, predicate and object of the predication in the given document.
+   * These are read from {@code docValues} if available, otherwise from the stored fields.
+   */
+  private String[] getPredication(int docID, SortedDocValues[] docValues) throws IOException {
+    if (docValues != null) {
+      return new String[] {
+          docValues[0].get(docID).utf8ToString(),
+          docValues[1].get(docID).utf8ToString(),
+          docValues[2].get(docID).utf8ToString() };
+    }
+    Document document = luceneUtils.getDoc(docID);
+    return new String[] {
+        document.get(SUBJECT_FIELD), document.get(PREDICATE_FIELD), document.get(OBJECT_FIELD) };
+  }
+
+  /**
+   * Reads the ordinals of the subject, predicate and object of the predication in the given
+   * document into {@code predication}. Ordinals are {@link VectorStoreOrdinal#NO_ORDINAL}
+   * for concepts or predicates that have no vectors.
+   */
+  private void readPredicationOrdinals(int docID, SortedDocValues[] docValues, int[] predication)
+      throws IOException {
+    if (docValues != null) {
+      for (int i = 0; i < 3; ++i) {
+        int ord = docValues[i].getOrd(docID);
+        predication[i] = ord < 0 ? VectorStoreOrdinal.NO_ORDINAL : docValueOrdinals[i][ord];
+      }
+      return;
+    }
+    String[] terms = getPredication(docID, null);
+    // Lookups by key in VectorStoreOrdinal are not thread-safe.
+    synchronized (this) {
+      predication[0] = semanticItemVectors.getOrdinal(terms[0]);
+      predication[1] = predicateVectorsByOrdinal.getOrdinal(terms[1]);
+      predication[2] = semanticItemVectors.getOrdinal(terms[2]);
+    }
+  }
+
+  /**
+   * Adds the contribution of the predication in the given document to the semantic vectors in
+   * {@code targetVectors}, creating zero vectors for concepts that do not yet have one.
+   *
+   * @param docID Lucene document number of the predication
+   * @param docValues doc values for the predication fields, or null to use stored fields
+   * @param predication buffer for the ordinals of the subject, predicate and object
+   * @param predicationFreq number of times the predication occurs, used for weighting
+   * @param targetVectors semantic vectors to which the contributions are added, by concept ordinal
+   */
+  private void trainOnPredication(int docID, SortedDocValues[] docValues, int[] predication,
+      int predicationFreq, Vector[] targetVectors) throws IOException {
+    readPredicationOrdinals(docID, docValues, predication);
+    int subject = predication[0];
+    int predicate = predication[1];
+    int object = predication[2];
+
+    if (subject == VectorStoreOrdinal.NO_ORDINAL
+        || predicate == VectorStoreOrdinal.NO_ORDINAL
+        || object == VectorStoreOrdinal.NO_ORDINAL) {
+      String[] terms = getPredication(docID, docValues);
+      logger.info("skipping predication " + terms[0] + " " + terms[1] + " " + terms[2]);
+      return;
+    }
+
+    float sWeight = itemWeights.getWeight(SUBJECT_INDEX, subject);
+    float oWeight = itemWeights.getWeight(OBJECT_INDEX, object);
+    // TODO: Explain different weighting for predicates, log(occurrences of predication)
+    float pWeight = luceneUtils.getLocalTermWeight(predicationFreq);
+
+    Vector subjectSemanticvector = getOrCreateVector(targetVectors, subject);
+    Vector objectSemanticvector = getOrCreateVector(targetVectors, object);
+
+    Vector objToAdd = elementalItemVectorsByOrdinal[object].copy();
+    objToAdd.bind(predicateVectorsByOrdinal.getVector(predicate));
+    subjectSemanticvector.superpose(objToAdd, pWeight*oWeight, null);
+
+    Vector subjToAdd = elementalItemVectorsByOrdinal[subject].copy();
+    subjToAdd.bind(inversePredicateVectors[predicate]);
+    objectSemanticvector.superpose(subjToAdd, pWeight*sWeight, null);
+  }
+
+  private Vector getOrCreateVector(Vector[] vectors, int ordinal) {
+    if (vectors[ordinal] == null) {
+      vectors[ordinal] = VectorFactory.createZeroVector(flagConfig.vectortype(), flagConfig.dimension());
+    }
+    return vectors[ordinal];
+  }
+
+  /**
+   * Parallel version of {@link #trainPredicationsSerially}.
+   *
+   * <p>The calling thread enumerates the predication field and hands out batches of
+   * (document ID, predication frequency) pairs to {@link FlagConfig#numthreads()} workers.
+   * Each batch is sorted by document ID before it is queued, so that stored fields or
+   * doc values are read in index order, segment by segment. Each worker adds contributions to its own
+   * partial semantic vectors, and these are merged into {@link #semanticItemVectors}
+   * once all predications have been processed, before normalization. If checkpoints are
+   * written, training proceeds in rounds, and the partial vectors are merged at the end of
+   * each round so that the checkpoint includes them.
+   */
+  private void trainPredicationsInParallel(TrainingCheckpoint checkpoint, long predicationsToSkip)
+      throws IOException {
+    int numThreads = flagConfig.numthreads();
+    VerbatimLogger.info("Training predications using " + numThreads + " threads.\n");
+    initializeDocValueOrdinals(getPredicationDocValues());
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+
+    try {
+      Terms allTerms = luceneUtils.getTermsForField(PREDICATION_FIELD);
+      TermsEnum termsEnum = allTerms.iterator(null);
+      skipPredications(termsEnum, predicationsToSkip);
+      long pc = predicationsToSkip;
+      boolean finished = false;
+      while (!finished) {
+        final BlockingQueue<long[]> batches = new ArrayBlockingQueue<long[]>(2 * numThreads);
+        List<Future<Vector[]>> partialResults = startWorkers(executor, batches, numThreads);
+
+        BytesRef bytes;
+        long[] batch = new long[PREDICATION_BATCH_SIZE];
+        int batchSize = 0;
+        while ((bytes = termsEnum.next()) != null) {
+          pc++;
+          if ((pc % 10000 == 0) || (pc < 10000 && pc % 1000 == 0)) {
+            VerbatimLogger.info("Queued " + pc + " unique predications ... ");
+          }
+
+          // Only the first document for each predication is used, as in the serial implementation.
+          Term term = new Term(PREDICATION_FIELD, bytes);
+          DocsEnum termDocs = luceneUtils.getDocsForTerm(term);
+          termDocs.nextDoc();
+          int freq = luceneUtils.getGlobalTermFreq(term);
+          batch[batchSize++] = ((long) termDocs.docID() << 32) | (freq & 0xFFFFFFFFL);
+
+          if (batchSize == batch.length) {
+            Arrays.sort(batch);
+            queueBatch(batches, batch, partialResults);
+            batch = new long[PREDICATION_BATCH_SIZE];
+            batchSize = 0;
+          }
+          if (checkpoint != null && checkpoint.isDue(pc)) break;
+        }
+        finished = (bytes == null);
+        if (batchSize > 0) {
+          batch = Arrays.copyOf(batch, batchSize);
+          Arrays.sort(batch);
+          queueBatch(batches, batch, partialResults);
+        }
+        // An empty batch tells each worker that there are no more predications.
+        for (int i = 0; i < numThreads; ++i) {
+          queueBatch(batches, new long[0], partialResults);
         }
-      
-      float sWeight = 1;
-      float oWeight = 1;
-      float pWeight = 1;
-
-      sWeight = luceneUtils.getGlobalTermWeight(new Term(SUBJECT_FIELD, subject));
-      oWeight = luceneUtils.getGlobalTermWeight(new Term(OBJECT_FIELD, object));
-      // TODO: Explain different weighting for predicates, log(occurrences of predication)
-      pWeight = luceneUtils.getLocalTermWeight(luceneUtils.getGlobalTermFreq(term));
-
-      Vector subjectSemanticvector = semanticItemVectors.getVector(subject);
-      Vector objectSemanticvector = semanticItemVectors.getVector(object);
-      Vector subjectElementalvector = elementalItemVectors.getVector(subject);
-      Vector objectElementalvector = elementalItemVectors.getVector(object);
-      Vector predicateVector = predicateVectors.getVector(predicate);
-      Vector predicateVectorInv = predicateVectors.getVector(predicate+"-INV");
-
-      Vector objToAdd = objectElementalvector.copy();
-      objToAdd.bind(predicateVector);
-      subjectSemanticvector.superpose(objToAdd, pWeight*oWeight, null);
-
-      Vector subjToAdd = subjectElementalvector.copy();
-      subjToAdd.bind(predicateVectorInv);
-      objectSemanticvector.superpose(subjToAdd, pWeight*sWeight, null);
-    } // Finish iterating through predications.
 
-    //Normalize semantic vectors
-    Enumeration<ObjectVector> e = semanticItemVectors.getAllVectors();
-    while (e.hasMoreElements())	{
-      e.nextElement().getVector().normalize();
+        VerbatimLogger.info("\nMerging partial semantic vectors from " + numThreads + " threads.\n");
+        for (Future<Vector[]> partialResult : partialResults) {
+          Vector[] partialVectors = partialResult.get();
+          for (int i = 0; i < partialVectors.length; ++i) {
+            if (partialVectors[i] == null) continue;
+            VectorUtils.mergeAccumulatedVectors(semanticItemVectors.getVector(i), partialVectors[i]);
+          }
+        }
+        if (!finished) {
+          checkpoint.write(pc, semanticItemVectors);
+        }
+      }
+    } catch (InterruptedException e) {
+      executor.shutdownNow();
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while training predications.", e);
+    } catch (ExecutionException e) {
+      executor.shutdownNow();
+      throw new IOException("Failed to train predications: " + e.getCause().getMessage(), e.getCause());
+    } finally {
+      executor.shutdown();
     }
+  }
 
-    VectorStoreWriter.writeVectors(flagConfig.elementalvectorfile(), flagConfig, elementalItemVectors);
-    VectorStoreWriter.writeVectors(flagConfig.semanticvectorfile(), flagConfig, semanticItemVectors);
-    VectorStoreWriter.writeVectors(flagConfig.predicatevectorfile(), flagConfig, predicateVectors);
+  /**
+   * Starts {@code numThreads} workers, each of which trains on batches taken from
+   * {@code batches} until it takes an empty batch, and then returns its partial semantic vectors.
+   */
+  private List<Future<Vector[]>> startWorkers(
+      ExecutorService executor, final BlockingQueue<long[]> batches, int numThreads) {
+    List<Future<Vector[]>> partialResults = new ArrayList<Future<Vector[]>>();
+    for (int i = 0; i < numThreads; ++i) {
+      partialResults.add(executor.submit(new Callable<Vector[]>() {
+        @Override
+        public Vector[] call() throws Exception {
+          Vector[] partialVectors = new Vector[semanticItemVectors.getNumVectors()];
+          SortedDocValues[] docValues = docValueOrdinals == null ? null : getPredicationDocValues();
+          int[] predication = new int[3];
+          long[] batch;
+          while ((batch = batches.take()).length > 0) {
+            for (long docAndFreq : batch) {
+              trainOnPredication((int) (docAndFreq >>> 32), docValues, predication,
+                  (int) docAndFreq, partialVectors);
+            }
+          }
+          return partialVectors;
+        }
+      }));
+    }
+    return partialResults;
+  }
 
-    VerbatimLogger.info("Finished writing vectors.\n");
+  /**
+   * Puts the batch on the queue, checking periodically that the workers are still running
+   * so that a failed worker does not leave the calling thread blocked indefinitely.
+   */
+  private static void queueBatch(BlockingQueue<long[]> batches, long[] batch,
+      List<? extends Future<?>> workers) throws InterruptedException, ExecutionException {
+    while (!batches.offer(batch, 1, TimeUnit.SECONDS)) {
+      for (Future<?> worker : workers) {
+        // Rethrows any exception thrown by the worker.
+        if (worker.isDone()) worker.get();
+      }
+    }
   }
 
   public static void main(String[] args) throws IllegalArgumentException, IOException {
@@ -0,0 +1,245 @@
+/**
+   Copyright (c) 2015, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import pitt.search.semanticvectors.vectors.Vector;
+
+/**
+ * Bounded cache of query vectors built by {@link CompoundVectorBuilder}, so that popular
+ * queries are not looked up, weighted and superposed again each time they are used.
+ *
+ * <p>Entries are keyed by the kind of query, the query string, the settings used to build the
+ * vectors, and the identity of the vector stores and {@link LuceneUtils} they were built from.
+ * A store that is reopened is therefore a different store, and vectors built from it are not
+ * reused. The cache holds the least recently used entries up to
+ * {@link FlagConfig#queryvectorcachesize()}, each for at most
+ * {@link FlagConfig#queryvectorcachettl()} seconds if that is set.
+ *
+ * <p>Callers get copies of the cached vectors, which they are free to change. All methods
+ * may be called from many threads at once.
+ */
+public class QueryVectorCache {
+
+  /** Identifies the vectors built for one query. */
+  public static class Key {
+    private final String kind;
+    private final String query;
+    private final String settings;
+    // Held weakly, so that keys do not keep closed stores in memory.
+    private final List<WeakReference<Object>> sources;
+    private final int hashCode;
+
+    /**
+     * @param kind the method used to build the vectors
+     * @param query the query, normalized so that equivalent queries are equal strings
+     * @param settings flag values that change the vectors built
+     * @param sources the vector stores and LuceneUtils the vectors are built from (may be null)
+     */
+    public Key(String kind, String query, String settings, Object... sources) {
+      this.kind = kind;
+      this.query = query;
+      this.settings = settings;
+      this.sources = new ArrayList<WeakReference<Object>>(sources.length);
+      int hash = (kind.hashCode() * 31 + query.hashCode()) * 31 + settings.hashCode();
+      for (Object source : sources) {
+        this.sources.add(source == null ? null : new WeakReference<Object>(source));
+        hash = hash * 31 + System.identityHashCode(source);
+      }
+      this.hashCode = hash;
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Key)) return false;
+      Key otherKey = (Key) other;
+      if (hashCode != otherKey.hashCode || !kind.equals(otherKey.kind)
+          || !query.equals(otherKey.query) || !settings.equals(otherKey.settings)
+          || sources.size() != otherKey.sources.size()) {
+        return false;
+      }
+      for (int i = 0; i < sources.size(); ++i) {
+        WeakReference<Object> reference = sources.get(i);
+        WeakReference<Object> otherReference = otherKey.sources.get(i);
+        if (reference == null || otherReference == null) {
+          if (reference != otherReference) return false;
+          continue;
+        }
+        // A source that has been garbage collected matches nothing.
+        Object source = reference.get();
+        if (source == null || source != otherReference.get()) return false;
+      }
+      return true;
+    }
+  }
+
+  private static class Entry {
+    final List<Vector> vectors;
+    final long createdNanos;
+
+    Entry(List<Vector> vectors, long createdNanos) {
+      this.vectors = vectors;
+      this.createdNanos = createdNanos;
+    }
+  }
+
+  private int maxSize;
+  private long ttlNanos;
+  private long hits = 0, misses = 0, evictions = 0, expirations = 0;
+
+  private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+      if (size() > maxSize) {
+        ++evictions;
+        return true;
+      }
+      return false;
+    }
+  };
+
+  /**
+   * @param maxSize largest number of queries whose vectors are kept
+   * @param ttlSeconds seconds for which an entry may be reused, or 0 for no expiry
+   */
+  public QueryVectorCache(int maxSize, int ttlSeconds) {
+    setLimits(maxSize, ttlSeconds);
+  }
+
+  /** Changes the size and expiry limits, removing entries beyond the new size. */
+  public synchronized void setLimits(int maxSize, int ttlSeconds) {
+    if (maxSize <= 0) {
+      throw new IllegalArgumentException("Cache size must be positive, not " + maxSize);
+    }
+    this.maxSize = maxSize;
+    this.ttlNanos = ttlSeconds * 1000000000L;
+    while (entries.size() > maxSize) {
+      entries.remove(entries.keySet().iterator().next());
+      ++evictions;
+    }
+  }
+
+  /**
+   * Returns copies of the vectors cached for {@code key}, or null if there are none
+   * or they have expired.
+   */
+  public List<Vector> get(Key key) {
+    Entry entry;
+    synchronized (this) {
+      entry = entries.get(key);
+      if (entry != null && ttlNanos > 0 && System.nanoTime() - entry.createdNanos > ttlNanos) {
+        entries.remove(key);
+        ++expirations;
+        entry = null;
+      }
+      if (entry == null) {
+        ++misses;
+        return null;
+      }
+      ++hits;
+    }
+    return copyOf(entry.vectors);
+  }
+
+  /** Caches copies of {@code vectors}, which were built for {@code key}. */
+  public void put(Key key, List<Vector> vectors) {
+    Entry entry = new Entry(copyOf(vectors), System.nanoTime());
+    synchronized (this) {
+      entries.put(key, entry);
+    }
+  }
+
+  private static List<Vector> copyOf(List<Vector> vectors) {
+    List<Vector> copies = new ArrayList<Vector>(vectors.size());
+    for (Vector vector : vectors) {
+      copies.add(vector.copy());
+    }
+    return copies;
+  }
+
+  /** Removes all entries. Counts of hits and misses are kept. */
+  public synchronized void clear() {
+    entries.clear();
+  }
+
+  /** Returns the number of entries in the cache. */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /** Returns the number of lookups that found vectors. */
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  /** Returns the number of lookups that found no vectors, including expired ones. */
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+  /** Returns the number of entries removed to keep the cache within its size. */
+  public synchronized long getEvictions() {
+    return evictions;
+  }
+
+  /** Returns the number of entries removed because they were too old to reuse. */
+  public synchronized long getExpirations() {
+    return expirations;
+  }
+
+  /** Returns the fraction of lookups that found vectors, or 0 if there have been none. */
+  public synchronized double getHitRate() {
+    long lookups = hits + misses;
+    return lookups == 0 ? 0 : hits / (double) lookups;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format("QueryVectorCache: %d entries, %d hits, %d misses (hit rate %.3f), "
+        + "%d evictions, %d expirations", entries.size(), hits, misses, getHitRate(),
+        evictions, expirations);
+  }
+}
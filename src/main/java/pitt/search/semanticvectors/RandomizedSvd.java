@@ -0,0 +1,401 @@
+/**
+   Copyright (c) 2015, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import cern.colt.matrix.tdouble.DoubleMatrix1D;
+import cern.colt.matrix.tdouble.DoubleMatrix2D;
+import cern.colt.matrix.tdouble.algo.decomposition.DenseDoubleEigenvalueDecomposition;
+import cern.colt.matrix.tdouble.impl.DenseDoubleMatrix2D;
+
+import ch.akuhn.edu.mit.tedlab.DMat;
+import ch.akuhn.edu.mit.tedlab.SMat;
+import ch.akuhn.edu.mit.tedlab.SVDRec;
+
+import pitt.search.semanticvectors.utils.VerbatimLogger;
+
+/**
+ * Truncated singular value decomposition of a sparse matrix using random projections,
+ * following Halko, Martinsson and Tropp, "Finding structure with randomness: Probabilistic
+ * algorithms for constructing approximate matrix decompositions", SIAM Review 53(2), 2011.
+ *
+ * The matrix is multiplied by a block of random Gaussian vectors to find an orthonormal basis
+ * that approximately spans its leading left singular vectors, refined using a few power
+ * iterations, and the small matrix obtained by projecting onto this basis is then decomposed
+ * exactly. Nearly all of the work is in products between the sparse matrix and dense blocks
+ * of vectors, which are shared between threads by rows.
+ *
+ * Results are returned in the same {@link SVDRec} format as {@link ch.akuhn.edu.mit.tedlab.Svdlib},
+ * so this can be used in place of {@code svdLAS2A}, see {@link LSA.SvdMethod#RANDOMIZED}.
+ * The decomposition is approximate: the leading singular values and vectors are typically very
+ * close to those found by LAS2, and the accuracy falls off for the smallest ones.
+ */
+public class RandomizedSvd {
+  /** Number of random vectors used in addition to the number of dimensions requested. */
+  public static final int DEFAULT_OVERSAMPLING = 10;
+  /** Number of times the basis is refined by multiplying by the matrix and its transpose. */
+  public static final int DEFAULT_POWER_ITERATIONS = 2;
+  /** Seed for the random vectors, so that results are reproducible. */
+  public static final long DEFAULT_SEED = 0;
+
+  /** Number of rows of a dense block processed by each task. */
+  private static final int ROW_BATCH_SIZE = 1000;
+  /** Basis vectors with relative squared norm below this are treated as linearly dependent. */
+  private static final double RANK_TOLERANCE = 1e-12;
+
+  private final int numThreads;
+  private final int oversampling;
+  private final int powerIterations;
+  private final long seed;
+
+  private ExecutorService executor;
+
+  /** Creates a decomposer using the default parameters and the given number of threads. */
+  public RandomizedSvd(int numThreads) {
+    this(numThreads, DEFAULT_OVERSAMPLING, DEFAULT_POWER_ITERATIONS, DEFAULT_SEED);
+  }
+
+  public RandomizedSvd(int numThreads, int oversampling, int powerIterations, long seed) {
+    if (oversampling < 0 || powerIterations < 0) {
+      throw new IllegalArgumentException(
+          "Oversampling and power iterations must not be negative, got "
+          + oversampling + " and " + powerIterations + ".");
+    }
+    this.numThreads = Math.max(1, numThreads);
+    this.oversampling = oversampling;
+    this.powerIterations = powerIterations;
+    this.seed = seed;
+  }
+
+  /** Work done for each batch of rows of a dense block, see {@link #forEachBatch}. */
+  private interface BatchTask {
+    void process(int start, int end);
+  }
+
+  /**
+   * Computes the leading singular values and vectors of {@code A}.
+   *
+   * @param A sparse matrix in the column-major format used by SVDLIBJ
+   * @param dimensions number of singular values and vectors to compute. If this is more than
+   *        the smaller dimension of {@code A}, the remaining values and vectors are zero.
+   * @return decomposition with singular values in decreasing order
+   */
+  public synchronized SVDRec svd(SMat A, int dimensions) throws IOException {
+    int blockSize = Math.min(dimensions + oversampling, Math.min(A.rows, A.cols));
+    SMat At = transpose(A);
+    executor = Executors.newFixedThreadPool(numThreads);
+    try {
+      VerbatimLogger.info("Randomized SVD: sampling with " + blockSize + " random vectors.\n");
+      double[][] Q = orthonormalize(multiply(At, gaussianBlock(A.cols, blockSize)));
+      for (int i = 0; i < powerIterations; ++i) {
+        VerbatimLogger.info("Randomized SVD: power iteration " + (i + 1) + " of " + powerIterations + ".\n");
+        Q = orthonormalize(multiply(At, orthonormalize(multiply(A, Q))));
+      }
+      // Until now the basis only needs to span the right space. Orthonormalizing it again
+      // makes it accurately orthonormal, which the decomposition below relies on.
+      Q = orthonormalize(Q);
+
+      // The small matrix B = Q^T A is stored transposed as Z = A^T Q. Its left singular vectors
+      // and singular values are found from the eigendecomposition of B B^T = Z^T Z.
+      VerbatimLogger.info("Randomized SVD: decomposing projected matrix.\n");
+      final double[][] Z = multiply(A, Q);
+      double[][] gram = gram(Z);
+      DenseDoubleEigenvalueDecomposition eigen =
+          new DenseDoubleEigenvalueDecomposition(new DenseDoubleMatrix2D(gram));
+      final double[] eigenvalues = eigen.getRealEigenvalues().toArray();
+      DoubleMatrix2D eigenvectors = eigen.getV();
+
+      Integer[] order = new Integer[blockSize];
+      for (int j = 0; j < blockSize; ++j) {
+        order[j] = j;
+      }
+      Arrays.sort(order, new Comparator<Integer>() {
+        @Override
+        public int compare(Integer a, Integer b) {
+          return Double.compare(eigenvalues[b], eigenvalues[a]);
+        }
+      });
+
+      SVDRec svdRec = new SVDRec();
+      svdRec.d = dimensions;
+      svdRec.S = new double[dimensions];
+      final int rank = Math.min(dimensions, blockSize);
+      final double[][] leftRotation = new double[blockSize][rank];
+      final double[][] rightRotation = new double[blockSize][rank];
+      double largest = Math.max(eigenvalues[order[0]], 0);
+      for (int i = 0; i < rank; ++i) {
+        double eigenvalue = eigenvalues[order[i]];
+        if (eigenvalue <= largest * RANK_TOLERANCE) {
+          continue;
+        }
+        double singularValue = Math.sqrt(eigenvalue);
+        svdRec.S[i] = singularValue;
+        for (int j = 0; j < blockSize; ++j) {
+          leftRotation[j][i] = eigenvectors.getQuick(j, order[i]);
+          rightRotation[j][i] = eigenvectors.getQuick(j, order[i]) / singularValue;
+        }
+      }
+
+      // U = Q U_B and V = Z U_B / S, written transposed as in Svdlib.
+      svdRec.Ut = new DMat(dimensions, A.rows);
+      svdRec.Vt = new DMat(dimensions, A.cols);
+      multiplyTransposedInto(Q, leftRotation, svdRec.Ut);
+      multiplyTransposedInto(Z, rightRotation, svdRec.Vt);
+      return svdRec;
+    } finally {
+      executor.shutdownNow();
+      executor = null;
+    }
+  }
+
+  /** Returns {@code A} transposed, so that its rows can be read like columns. */
+  static SMat transpose(SMat A) {
+    SMat At = new SMat(A.cols, A.rows, A.vals);
+    for (int i = 0; i < A.vals; ++i) {
+      At.pointr[A.rowind[i] + 1]++;
+    }
+    for (int row = 0; row < A.rows; ++row) {
+      At.pointr[row + 1] += At.pointr[row];
+    }
+    int[] next = Arrays.copyOf(At.pointr, A.rows);
+    for (int col = 0; col < A.cols; ++col) {
+      for (int i = A.pointr[col]; i < A.pointr[col + 1]; ++i) {
+        int entry = next[A.rowind[i]]++;
+        At.rowind[entry] = col;
+        At.value[entry] = A.value[i];
+      }
+    }
+    return At;
+  }
+
+  /** Returns a {@code rows} x {@code cols} block of independent standard normal values. */
+  private double[][] gaussianBlock(int rows, int cols) {
+    Random random = new Random(seed);
+    double[][] block = new double[rows][cols];
+    for (int i = 0; i < rows; ++i) {
+      for (int j = 0; j < cols; ++j) {
+        block[i][j] = random.nextGaussian();
+      }
+    }
+    return block;
+  }
+
+  /**
+   * Returns the dense product M^T X, where M is sparse and X has one row for each row of M.
+   * Each column of M gives one row of the result, so that batches of columns are independent.
+   */
+  private double[][] multiply(final SMat M, final double[][] X) throws IOException {
+    final int width = X[0].length;
+    final double[][] result = new double[M.cols][width];
+    forEachBatch(M.cols, ROW_BATCH_SIZE, new BatchTask() {
+      @Override
+      public void process(int start, int end) {
+        for (int col = start; col < end; ++col) {
+          double[] resultRow = result[col];
+          for (int i = M.pointr[col]; i < M.pointr[col + 1]; ++i) {
+            double value = M.value[i];
+            double[] xRow = X[M.rowind[i]];
+            for (int j = 0; j < width; ++j) {
+              resultRow[j] += value * xRow[j];
+            }
+          }
+        }
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Returns the Gram matrix X^T X. Each thread sums the contributions of its own range of rows,
+   * and the partial sums are added in a fixed order.
+   */
+  private double[][] gram(final double[][] X) throws IOException {
+    final int width = X[0].length;
+    final int batchSize = (X.length + numThreads - 1) / numThreads;
+    final double[][][] partials = new double[numThreads][][];
+    forEachBatch(X.length, batchSize, new BatchTask() {
+      @Override
+      public void process(int start, int end) {
+        double[][] partial = new double[width][width];
+        for (int row = start; row < end; ++row) {
+          double[] xRow = X[row];
+          for (int j = 0; j < width; ++j) {
+            double xj = xRow[j];
+            if (xj == 0) {
+              continue;
+            }
+            double[] partialRow = partial[j];
+            for (int k = j; k < width; ++k) {
+              partialRow[k] += xj * xRow[k];
+            }
+          }
+        }
+        partials[start / batchSize] = partial;
+      }
+    });
+    double[][] gram = new double[width][width];
+    for (double[][] partial : partials) {
+      if (partial == null) {
+        continue;
+      }
+      for (int j = 0; j < width; ++j) {
+        for (int k = j; k < width; ++k) {
+          gram[j][k] += partial[j][k];
+        }
+      }
+    }
+    // Mirror the upper triangle so that the matrix is exactly symmetric.
+    for (int j = 0; j < width; ++j) {
+      for (int k = j + 1; k < width; ++k) {
+        gram[k][j] = gram[j][k];
+      }
+    }
+    return gram;
+  }
+
+  /**
+   * Returns a block with orthonormal columns spanning the same space as those of {@code X}.
+   * Uses the eigendecomposition of the Gram matrix, X^T X = W L W^T, so that X W L^(-1/2) is
+   * orthonormal up to rounding errors that grow with the condition number of {@code X}.
+   * Columns that are linearly dependent on the others are set to zero.
+   */
+  private double[][] orthonormalize(double[][] X) throws IOException {
+    int width = X[0].length;
+    DenseDoubleEigenvalueDecomposition eigen =
+        new DenseDoubleEigenvalueDecomposition(new DenseDoubleMatrix2D(gram(X)));
+    DoubleMatrix1D eigenvalues = eigen.getRealEigenvalues();
+    DoubleMatrix2D eigenvectors = eigen.getV();
+    double largest = eigenvalues.getMaxLocation()[0];
+    double[][] rotation = new double[width][width];
+    for (int k = 0; k < width; ++k) {
+      double eigenvalue = eigenvalues.getQuick(k);
+      if (eigenvalue <= largest * RANK_TOLERANCE) {
+        continue;
+      }
+      double scale = 1 / Math.sqrt(eigenvalue);
+      for (int j = 0; j < width; ++j) {
+        rotation[j][k] = eigenvectors.getQuick(j, k) * scale;
+      }
+    }
+    return multiply(X, rotation);
+  }
+
+  /** Returns the dense product X R. */
+  private double[][] multiply(final double[][] X, final double[][] R) throws IOException {
+    final int width = R[0].length;
+    final double[][] result = new double[X.length][width];
+    forEachBatch(X.length, ROW_BATCH_SIZE, new BatchTask() {
+      @Override
+      public void process(int start, int end) {
+        for (int row = start; row < end; ++row) {
+          multiplyRow(X[row], R, result[row]);
+        }
+      }
+    });
+    return result;
+  }
+
+  /** Writes the dense product X R transposed into the first columns of {@code target}. */
+  private void multiplyTransposedInto(final double[][] X, final double[][] R, final DMat target)
+      throws IOException {
+    final int width = R[0].length;
+    forEachBatch(X.length, ROW_BATCH_SIZE, new BatchTask() {
+      @Override
+      public void process(int start, int end) {
+        double[] resultRow = new double[width];
+        for (int row = start; row < end; ++row) {
+          Arrays.fill(resultRow, 0);
+          multiplyRow(X[row], R, resultRow);
+          for (int k = 0; k < width; ++k) {
+            target.value[k][row] = resultRow[k];
+          }
+        }
+      }
+    });
+  }
+
+  /** Adds the product of {@code xRow} and {@code R} to {@code resultRow}. */
+  private static void multiplyRow(double[] xRow, double[][] R, double[] resultRow) {
+    for (int j = 0; j < xRow.length; ++j) {
+      double xj = xRow[j];
+      if (xj == 0) {
+        continue;
+      }
+      double[] rRow = R[j];
+      for (int k = 0; k < resultRow.length; ++k) {
+        resultRow[k] += xj * rRow[k];
+      }
+    }
+  }
+
+  /** Runs {@code task} on consecutive batches of {@code batchSize} rows, using the thread pool. */
+  private void forEachBatch(int numRows, int batchSize, final BatchTask task) throws IOException {
+    List<Future<Void>> results = new ArrayList<Future<Void>>();
+    for (int start = 0; start < numRows; start += batchSize) {
+      final int batchStart = start;
+      final int batchEnd = Math.min(start + batchSize, numRows);
+      results.add(executor.submit(new Callable<Void>() {
+        @Override
+        public Void call() {
+          task.process(batchStart, batchEnd);
+          return null;
+        }
+      }));
+    }
+    try {
+      for (Future<Void> result : results) {
+        result.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while computing randomized SVD.", e);
+    } catch (ExecutionException e) {
+      throw new IOException(
+          "Failed to compute randomized SVD: " + e.getCause().getMessage(), e.getCause());
+    }
+  }
+}
@@ -182,10 +182,16 @@ public class Search {
      */
     
     
-    PROXIMITY
-  }
+    PROXIMITY,
 
-  private static LuceneUtils luceneUtils;
+    /**
+     * Builds a query as {@link SearchType#SUM} does, and searches only the vectors in the
+     * {@link FlagConfig#ivfnprobe()} lists of an IVF index whose centroids are most similar
+     * to the query. {@link FlagConfig#searchvectorfile()} must be an index built by {@link IvfIndex}.
+     * Uses {@link VectorSearcher.VectorSearcherIvf}.
+     */
+    IVF
+  }
 
   public static String usageMessage = "\nSearch class in package pitt.search.semanticvectors"
       + "\nUsage: java pitt.search.semanticvectors.Search [-queryvectorfile query_vector_file]"
@@ -198,50 +204,54 @@ public class Search {
       + "\n-luceneindexpath argument is needed if to get term weights from"
       + "\n    term frequency, doc frequency, etc. in lucene index."
       + "\n-searchtype can be one of SUM, SUBSPACE, MAXSIM, MINSIM"
-      + "\n    BALANCEDPERMUTATION, PERMUTATION, PRINTQUERY"
+      + "\n    BALANCEDPERMUTATION, PERMUTATION, PRINTQUERY, IVF"
       + "\n<QUERYTERMS> should be a list of words, separated by spaces."
       + "\n    If the term NOT is used, terms after that will be negated.";
 
   /**
-   * Takes a user's query, creates a query vector, and searches a vector store.
-   * @param flagConfig configuration object for controlling the search
-   * @return list containing search results.
+   * Vector stores and Lucene index used by {@link Search#runSearch(FlagConfig, Stores)}, opened
+   * once so that they can be shared by many searches, as in {@link SearchServer}, together with
+   * a {@link SearchPlan} for searching them, which is also shared.
+   * Stores that are not needed for the configured search are null.
    */
-  public static List<SearchResult> runSearch(FlagConfig flagConfig)
-      throws IllegalArgumentException {
-    /**
-     * The runSearch function has four main stages:
-     * i. Check flagConfig for null (but so far fails to check other dependencies).
-     * ii. Open corresponding vector and lucene indexes.
-     * iii. Based on search type, build query vector and perform search.
-     * iv. Return LinkedList of results, usually for main() to print out.
-     */
-    // Stage i. Check flagConfig for null, and there being at least some remaining query terms.
-    if (flagConfig == null) {
-      throw new NullPointerException("flagConfig cannot be null");
-    }
-    if (flagConfig.remainingArgs == null) {
-      throw new IllegalArgumentException("No query terms left after flag parsing!");
-    }
-
-    String[] queryArgs = flagConfig.remainingArgs;
-
+  public static class Stores {
     /** Principal vector store for finding query vectors. */
-    CloseableVectorStore queryVecReader = null;
+    private VectorStore queryVecReader;
     /** Auxiliary vector store used when searching for boundproducts. Used only in some searchtypes. */
-    CloseableVectorStore boundVecReader = null;
-
+    private VectorStore boundVecReader;
     /** Auxiliary vector stores used when searching for boundproducts. Used only in some searchtypes. */
-    CloseableVectorStore elementalVecReader = null, semanticVecReader = null, predicateVecReader = null;
-
+    private VectorStore elementalVecReader, semanticVecReader, predicateVecReader;
     /**
      * Vector store for searching. Defaults to being the same as queryVecReader.
      * May be different from queryVecReader, e.g., when using terms to search for documents.
      */
-    CloseableVectorStore searchVecReader = null;
+    private VectorStore searchVecReader;
+    private LuceneUtils luceneUtils;
+    /** Plan for searching searchVecReader, or null if there is no search store. */
+    private SearchPlan searchPlan;
 
-    // Stage ii. Open vector stores, and Lucene utils.
-    try {
+    private Stores() {}
+
+    /**
+     * Opens the vector stores and Lucene index configured in {@code flagConfig}, which is updated
+     * with the vector type and dimension of the stores.
+     *
+     * @param loadIntoMemory if true, vector stores are read into {@link VectorStoreRAM} instances,
+     *        otherwise they are read from disk each time they are used
+     * @throws IOException if any of the vector stores cannot be opened
+     */
+    public static Stores open(FlagConfig flagConfig, boolean loadIntoMemory) throws IOException {
+      Stores stores = new Stores();
+      stores.openStores(flagConfig, loadIntoMemory, false);
+      return stores;
+    }
+
+    /**
+     * @param singleQuery true if the stores will be used for only one query, so that the
+     *        search plan need not build indexes that later queries could use
+     */
+    private void openStores(FlagConfig flagConfig, boolean loadIntoMemory, boolean singleQuery)
+        throws IOException {
       // Default VectorStore implementation is (Lucene) VectorStoreReader.
       if (!flagConfig.elementalvectorfile().equals("elementalvectors") && !flagConfig.semanticvectorfile().equals("semanticvectors") && !flagConfig.predicatevectorfile().equals("predicatevectors")) {
         //for PSI search
@@ -253,14 +263,14 @@ public class Search {
           else if (flagConfig.elementalmethod().equals(ElementalGenerationMethod.CONTENTHASH)) elementalVecReader = new VectorStoreDeterministic(flagConfig);
           else VerbatimLogger.info("Please select either -elementalmethod orthographic OR -elementalmethod contenthash depending upon the deterministic approach you would like used.");
         }
-        else elementalVecReader = VectorStoreReader.openVectorStore(flagConfig.elementalvectorfile(), flagConfig);
+        else elementalVecReader = openStore(flagConfig.elementalvectorfile(), flagConfig, loadIntoMemory);
 
         VerbatimLogger.info("Opening elemental query vector store from file: " + flagConfig.elementalvectorfile() + "\n");
         VerbatimLogger.info("Opening semantic query vector store from file: " + flagConfig.semanticvectorfile() + "\n");
         VerbatimLogger.info("Opening predicate query vector store from file: " + flagConfig.predicatevectorfile() + "\n");
 
-        semanticVecReader = VectorStoreReader.openVectorStore(flagConfig.semanticvectorfile(), flagConfig);
-        predicateVecReader = VectorStoreReader.openVectorStore(flagConfig.predicatevectorfile(), flagConfig);
+        semanticVecReader = openStore(flagConfig.semanticvectorfile(), flagConfig, loadIntoMemory);
+        predicateVecReader = openStore(flagConfig.predicatevectorfile(), flagConfig, loadIntoMemory);
       }
       else {
         VerbatimLogger.info("Opening query vector store from file: " + flagConfig.queryvectorfile() + "\n");
@@ -269,12 +279,12 @@ public class Search {
           else if (flagConfig.elementalmethod().equals(ElementalGenerationMethod.CONTENTHASH)) queryVecReader = new VectorStoreDeterministic(flagConfig);
           else VerbatimLogger.info("Please select either -elementalmethod orthographic OR -elementalmethod contenthash depending upon the deterministic approach you would like used.");
         }
-        else queryVecReader = VectorStoreReader.openVectorStore(flagConfig.queryvectorfile(), flagConfig);
+        else queryVecReader = openStore(flagConfig.queryvectorfile(), flagConfig, loadIntoMemory);
       }
 
       if (flagConfig.boundvectorfile().length() > 0) {
         VerbatimLogger.info("Opening second query vector store from file: " + flagConfig.boundvectorfile() + "\n");
-        boundVecReader = VectorStoreReader.openVectorStore(flagConfig.boundvectorfile(), flagConfig);
+        boundVecReader = openStore(flagConfig.boundvectorfile(), flagConfig, loadIntoMemory);
       }
 
       // Open second vector store if search vectors are different from query vectors.
@@ -283,7 +293,15 @@ public class Search {
         searchVecReader = queryVecReader;
       } else {
         VerbatimLogger.info("Opening search vector store from file: " + flagConfig.searchvectorfile() + "\n");
-        searchVecReader = VectorStoreReader.openVectorStore(flagConfig.searchvectorfile(), flagConfig);
+        searchVecReader = openStore(flagConfig.searchvectorfile(), flagConfig, loadIntoMemory);
+      }
+
+      if (loadIntoMemory) {
+        // Stores are shared by searches in many threads, which must not convert their vectors.
+        for (VectorStore store : new VectorStore[] {queryVecReader, boundVecReader,
+            elementalVecReader, semanticVecReader, predicateVecReader, searchVecReader}) {
+          VectorStoreUtils.prepareForComparison(store);
+        }
       }
 
       if (!flagConfig.luceneindexpath().isEmpty()) {
@@ -294,11 +312,120 @@ public class Search {
               + ". Will continue without term weighting.");
         }
       }
+
+      if (searchVecReader != null) {
+        searchPlan = new SearchPlan(searchVecReader, luceneUtils, flagConfig, singleQuery);
+      }
+    }
+
+    private static VectorStore openStore(String storeName, FlagConfig flagConfig, boolean loadIntoMemory)
+        throws IOException {
+      if (loadIntoMemory && IvfIndex.isIvfFile(storeName)) {
+        return new IvfVectorStore(storeName, flagConfig, true);
+      }
+      if (loadIntoMemory) {
+        return VectorStoreRAM.readFromFile(flagConfig, storeName);
+      }
+      return VectorStoreReader.openVectorStore(storeName, flagConfig);
+    }
+
+    /** Returns the plan shared by searches of the search store, or null if there is none. */
+    SearchPlan getSearchPlan() {
+      return searchPlan;
+    }
+
+    /** Releases filesystem resources held by the vector stores. */
+    public void close() {
+      VectorStore[] stores = new VectorStore[] {queryVecReader, searchVecReader, boundVecReader,
+          elementalVecReader, semanticVecReader, predicateVecReader};
+      for (int i = 0; i < stores.length; ++i) {
+        if (!(stores[i] instanceof CloseableVectorStore)) {
+          continue;
+        }
+        // The same store may be used for more than one purpose.
+        boolean closedAlready = false;
+        for (int j = 0; j < i; ++j) {
+          closedAlready |= stores[j] == stores[i];
+        }
+        if (!closedAlready) {
+          ((CloseableVectorStore) stores[i]).close();
+        }
+      }
+    }
+  }
+
+  /** Checks that {@code flagConfig} is not null and that there are some remaining query terms. */
+  private static void checkQuery(FlagConfig flagConfig) throws IllegalArgumentException {
+    if (flagConfig == null) {
+      throw new NullPointerException("flagConfig cannot be null");
+    }
+    if (flagConfig.remainingArgs == null) {
+      throw new IllegalArgumentException("No query terms left after flag parsing!");
+    }
+  }
+
+  /**
+   * Takes a user's query, creates a query vector, and searches a vector store.
+   * @param flagConfig configuration object for controlling the search
+   * @return list containing search results.
+   */
+  public static List<SearchResult> runSearch(FlagConfig flagConfig)
+      throws IllegalArgumentException {
+    /**
+     * The runSearch function has four main stages:
+     * i. Check flagConfig for null (but so far fails to check other dependencies).
+     * ii. Open corresponding vector and lucene indexes.
+     * iii. Based on search type, build query vector and perform search.
+     * iv. Return LinkedList of results, usually for main() to print out.
+     */
+    // Stage i. Check flagConfig for null, and there being at least some remaining query terms.
+    checkQuery(flagConfig);
+
+    // Stage ii. Open vector stores, and Lucene utils.
+    Stores stores = new Stores();
+    try {
+      stores.openStores(flagConfig, false, true);
     }
     catch (IOException e) {
       e.printStackTrace();
     }
 
+    // Stages iii and iv.
+    try {
+      return runSearch(flagConfig, stores);
+    } finally {
+      // Release filesystem resources. Stores are opened here, but reopened in
+      // getSearchResultsVectors.
+      stores.close();
+    }
+  }
+
+  /**
+   * Takes a user's query, creates a query vector, and searches vector stores that are already
+   * open. Any number of searches may use the same stores at the same time.
+   *
+   * <p>Queries are built and scored using the flags that the stores were opened with, except
+   * for {@link FlagConfig#searchtype()}, {@link FlagConfig#numsearchresults()},
+   * {@link FlagConfig#searchresultsminscore()} and {@link FlagConfig#matchcase()}, which are
+   * taken from {@code flagConfig}, so that these may be set for each query.
+   * @param flagConfig configuration object for controlling the search, which must have the
+   *        vector type and dimension of the stores
+   * @param stores vector stores opened for the same configuration
+   * @return list containing search results.
+   */
+  public static LinkedList<SearchResult> runSearch(FlagConfig flagConfig, Stores stores)
+      throws IllegalArgumentException {
+    checkQuery(flagConfig);
+    String[] queryArgs = flagConfig.remainingArgs;
+    VectorStore queryVecReader = stores.queryVecReader;
+    VectorStore boundVecReader = stores.boundVecReader;
+    VectorStore elementalVecReader = stores.elementalVecReader;
+    VectorStore semanticVecReader = stores.semanticVecReader;
+    VectorStore predicateVecReader = stores.predicateVecReader;
+    VectorStore searchVecReader = stores.searchVecReader;
+    LuceneUtils luceneUtils = stores.luceneUtils;
+    SearchPlan searchPlan = stores.searchPlan;
+
     // This takes the slice of args from argc to end.
     if (!flagConfig.matchcase()) {
       for (int i = 0; i < queryArgs.length; ++i) {
@@ -309,76 +436,80 @@ public class Search {
     // Stage iii. Perform search according to which searchType was selected.
     // Most options have corresponding dedicated VectorSearcher subclasses.
     VectorSearcher vecSearcher;
-    LinkedList<SearchResult> results;
     VerbatimLogger.info("Searching term vectors, searchtype " + flagConfig.searchtype() + "\n");
 
     try {
       switch (flagConfig.searchtype()) {
         case SUM:
           vecSearcher = new VectorSearcher.VectorSearcherCosine(
-              queryVecReader, searchVecReader, luceneUtils, flagConfig, queryArgs);
+              queryVecReader, searchPlan, queryArgs);
           break;
         case SUBSPACE:
           vecSearcher = new VectorSearcher.VectorSearcherSubspaceSim(
-              queryVecReader, searchVecReader, luceneUtils, flagConfig, queryArgs);
+              queryVecReader, searchPlan, queryArgs);
           break;
         case MAXSIM:
           vecSearcher = new VectorSearcher.VectorSearcherMaxSim(
-              queryVecReader, searchVecReader, luceneUtils, flagConfig, queryArgs);
+              queryVecReader, searchPlan, queryArgs);
           break;
         case MINSIM:
           vecSearcher = new VectorSearcher.VectorSearcherMinSim(
-              queryVecReader, searchVecReader, luceneUtils, flagConfig, queryArgs);
+              queryVecReader, searchPlan, queryArgs);
           break;
         case BOUNDPRODUCT:
           if (queryArgs.length == 2) {
             vecSearcher = new VectorSearcher.VectorSearcherBoundProduct(
-                queryVecReader, boundVecReader, searchVecReader, luceneUtils, flagConfig, queryArgs[0],queryArgs[1]);
+                queryVecReader, boundVecReader, searchPlan, queryArgs[0],queryArgs[1]);
           } else {
             vecSearcher = new VectorSearcher.VectorSearcherBoundProduct(
-                elementalVecReader, semanticVecReader, predicateVecReader, searchVecReader, luceneUtils, flagConfig, queryArgs[0]);
+                elementalVecReader, semanticVecReader, predicateVecReader, searchPlan, queryArgs[0]);
           }
           break;
         case BOUNDPRODUCTSUBSPACE:
           if (queryArgs.length == 2) {
             vecSearcher = new VectorSearcher.VectorSearcherBoundProductSubSpace(
-                queryVecReader, boundVecReader, searchVecReader, luceneUtils, flagConfig, queryArgs[0], queryArgs[1]);
+                queryVecReader, boundVecReader, searchPlan, queryArgs[0], queryArgs[1]);
           } else {
             vecSearcher = new VectorSearcher.VectorSearcherBoundProductSubSpace(
-                elementalVecReader, semanticVecReader, predicateVecReader, searchVecReader, luceneUtils, flagConfig, queryArgs[0]);
+                elementalVecReader, semanticVecReader, predicateVecReader, searchPlan, queryArgs[0]);
           }
           break;
         case INTERSECTION:
            {
               vecSearcher = new VectorSearcher.VectorSearcherIntersection(
-                  elementalVecReader, semanticVecReader, predicateVecReader, searchVecReader, luceneUtils, flagConfig, queryArgs[0]);
+                  elementalVecReader, semanticVecReader, predicateVecReader, searchPlan, queryArgs[0]);
             }
             break;
         case BOUNDMINIMUM:
           if (queryArgs.length == 2) {
             vecSearcher = new VectorSearcher.VectorSearcherBoundMinimum(
-                queryVecReader, boundVecReader, searchVecReader, luceneUtils, flagConfig, queryArgs[0], queryArgs[1]);
+                queryVecReader, boundVecReader, searchPlan, queryArgs[0], queryArgs[1]);
           } else {
             vecSearcher = new VectorSearcher.VectorSearcherBoundMinimum(
-                elementalVecReader, semanticVecReader, predicateVecReader, searchVecReader, luceneUtils, flagConfig, queryArgs[0]);
+                elementalVecReader, semanticVecReader, predicateVecReader, searchPlan, queryArgs[0]);
           }
           break;
         case PERMUTATION:
           vecSearcher = new VectorSearcher.VectorSearcherPerm(
-              queryVecReader, searchVecReader, luceneUtils, flagConfig, queryArgs);
+              queryVecReader, searchPlan, queryArgs);
           break;
         case BALANCEDPERMUTATION:
           vecSearcher = new VectorSearcher.BalancedVectorSearcherPerm(
-              queryVecReader, searchVecReader, luceneUtils, flagConfig, queryArgs);
+              queryVecReader, searchPlan, queryArgs);
           break;
         case ANALOGY:
           vecSearcher = new VectorSearcher.AnalogySearcher(
-              queryVecReader, searchVecReader, luceneUtils, flagConfig, queryArgs);
+              queryVecReader, searchPlan, queryArgs);
           break;
         case PROXIMITY:
+            // Proximity scores are not reweighted by term weights, so this does not use the shared plan.
             vecSearcher = new VectorSearcher.VectorSearcherProximity(
                 queryVecReader, searchVecReader, boundVecReader, luceneUtils, flagConfig, queryArgs);
             break;
+        case IVF:
+          vecSearcher = new VectorSearcher.VectorSearcherIvf(
+              queryVecReader, searchPlan, queryArgs);
+          break;
         case LUCENE:
           vecSearcher = new VectorSearcher.VectorSearcherLucene(
               luceneUtils, flagConfig, queryArgs);
@@ -402,26 +533,8 @@ public class Search {
       return new LinkedList<>();
     }
 
-    results = vecSearcher.getNearestNeighbors(flagConfig.numsearchresults());
-
-    // Optional: Release filesystem resources. Temporarily removed because of errors in
-    // ThreadSafetyTest.
-    //
-    // This was not the cleanest control flow anyway, since these are
-    // opened in runSearch but also needed in getSearchResultsVectors.
-    // Really there should be a global variable for indexformat (text
-    // or lucene), and general "openIndexes" and "closeIndexes" methods.
-    if (queryVecReader != null) {
-      queryVecReader.close();
-    }
-    if (searchVecReader != null) {
-      searchVecReader.close();
-    }
-    if (boundVecReader != null) {
-      boundVecReader.close();
-    }
-
-    return results;
+    return vecSearcher.getNearestNeighbors(
+        flagConfig.numsearchresults(), flagConfig.searchresultsminscore());
   }
 
   /**
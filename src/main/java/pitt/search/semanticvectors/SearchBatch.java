@@ -43,6 +43,12 @@ import java.io.IOException;
 import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 
 import org.apache.lucene.analysis.TokenStream;
@@ -167,6 +173,18 @@ public class SearchBatch {
 
   private static LuceneUtils luceneUtils;
 
+  /**
+   * Number of queries read and searched at a time. Results for a block are printed
+   * when all of its queries have been searched, so this bounds the results held in memory.
+   */
+  private static final int QUERY_BLOCK_SIZE = 1000;
+
+  /**
+   * Largest number of queries searched by a single task. For {@link Search.SearchType#SUM} searches,
+   * the search store is read once for all these queries.
+   */
+  private static final int QUERIES_PER_SCAN = 64;
+
   public static String usageMessage = "\nSearch class in package pitt.search.semanticvectors"
       + "\nUsage: java pitt.search.semanticvectors.Search [-queryvectorfile query_vector_file]"
       + "\n                                               [-searchvectorfile search_vector_file]"
@@ -178,14 +196,16 @@ public class SearchBatch {
       + "\n-luceneindexpath argument is needed if to get term weights from"
       + "\n    term frequency, doc frequency, etc. in lucene index."
       + "\n-searchtype can be one of SUM, SUBSPACE, MAXSIM, MINSIM"
-      + "\n    BALANCEDPERMUTATION, PERMUTATION, PRINTQUERY"
+      + "\n    BALANCEDPERMUTATION, PERMUTATION, PRINTQUERY, IVF"
       + "\n<QUERYTERMS> should be a list of words, separated by spaces."
       + "\n    If the term NOT is used, terms after that will be negated.";
 
   /**
-   * Takes a user's query, creates a query vector, and searches a vector store.
-   * @param flagConfig configuration object for controlling the search
-   * @return list containing search results.
+   * Reads queries from a file, one per line, and searches a vector store for each of them.
+   * Queries are searched in parallel using {@link FlagConfig#numthreads()} threads, and
+   * results are printed in the order the queries appear in the file.
+   * @param flagConfig configuration object for controlling the search, whose first
+   *        remaining argument is the name of the query file
    */
   public static void runSearch(FlagConfig flagConfig)
       throws IllegalArgumentException {
@@ -255,6 +275,10 @@ public class SearchBatch {
         			else if (flagConfig.elementalmethod().equals(ElementalGenerationMethod.CONTENTHASH)) queryVecReader = new VectorStoreDeterministic(flagConfig);
         			else VerbatimLogger.info("Please select either -elementalmethod orthographic OR -elementalmethod contenthash depending upon the deterministic approach you would like used.");
         		}
+        		else if (IvfIndex.isIvfFile(flagConfig.queryvectorfile()))
+        		{
+        			queryVecReader = new IvfVectorStore(flagConfig.queryvectorfile(), flagConfig, true);
+        		}
         		else 
         		{queryVecReader = new VectorStoreRAM(flagConfig);
         	((VectorStoreRAM) queryVecReader).initFromFile(flagConfig.queryvectorfile());
@@ -275,6 +299,9 @@ public class SearchBatch {
       if (flagConfig.queryvectorfile().equals(flagConfig.searchvectorfile())
           || flagConfig.searchvectorfile().isEmpty()) {
         searchVecReader = queryVecReader;
+      } else if (IvfIndex.isIvfFile(flagConfig.searchvectorfile())) {
+        VerbatimLogger.info("Opening IVF index from file: " + flagConfig.searchvectorfile() + "\n");
+        searchVecReader = new IvfVectorStore(flagConfig.searchvectorfile(), flagConfig, true);
       } else {
         VerbatimLogger.info("Opening search vector store from file: " + flagConfig.searchvectorfile() + "\n");
         searchVecReader = new VectorStoreRAM(flagConfig);
@@ -295,84 +322,230 @@ public class SearchBatch {
       e.printStackTrace();
     }
 
+    final BatchStores batchStores = new BatchStores(queryVecReader, boundVecReader,
+        elementalVecReader, semanticVecReader, predicateVecReader, searchVecReader,
+        new SearchPlan(searchVecReader, luceneUtils, flagConfig));
+
+    // Stages iii and iv. Queries are searched in parallel, a block at a time, and
+    // the results for each block are printed in the order the queries were read.
+    // Each task searches a run of consecutive queries from the block.
+    int numThreads = Math.max(1, flagConfig.numthreads());
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
     try {
-		BufferedReader queryReader = new BufferedReader(new FileReader(new File(queryArgs[0])));
-		String queryString = queryReader.readLine();
-		int qcnt = 0;
-		
-	while (queryString != null)
-	{
-		ArrayList<String> queryTerms = new ArrayList<String>();
-		qcnt++;
-		
-		//have Lucene parse the query string, for consistency
-		StandardAnalyzer  analyzer = new StandardAnalyzer(new CharArraySet(new ArrayList<String>(), true));
-		TokenStream stream = analyzer.tokenStream(null, new StringReader(queryString));
-		CharTermAttribute cattr = stream.addAttribute(CharTermAttribute.class);
-		stream.reset();
-		
-		//for each token in the query string
-		while (stream.incrementToken()) 
-		{
-		
-			String term = cattr.toString();
-			
-			if (!luceneUtils.stoplistContains(term)) 
-			{
-				if (! flagConfig.matchcase()) term = term.toLowerCase();
-				queryTerms.add(term);
-			}
-		}
-		stream.end();
-		stream.close();
-		analyzer.close();
-	 
-		//transform to String[] array
-		queryArgs = queryTerms.toArray(new String[0]);
-		
-    // Stage iii. Perform search according to which searchType was selected.
-    // Most options have corresponding dedicated VectorSearcher subclasses.
-    VectorSearcher vecSearcher = null;
-    LinkedList<SearchResult> results;
-    VerbatimLogger.info("Searching term vectors, searchtype " + flagConfig.searchtype() + "\n");
+      BufferedReader queryReader = new BufferedReader(new FileReader(new File(queryArgs[0])));
+      String queryString = queryReader.readLine();
+      int qcnt = 0;
+      List<String[]> block = new ArrayList<String[]>();
+
+      while (queryString != null) {
+        block.add(parseQuery(queryString, flagConfig));
+        queryString = queryReader.readLine();
+
+        if (block.size() == QUERY_BLOCK_SIZE || queryString == null) {
+          int runLength = Math.min(QUERIES_PER_SCAN, (block.size() + numThreads - 1) / numThreads);
+          List<Future<List<LinkedList<SearchResult>>>> runs =
+              new ArrayList<Future<List<LinkedList<SearchResult>>>>();
+          for (int start = 0; start < block.size(); start += runLength) {
+            final List<String[]> run = new ArrayList<String[]>(
+                block.subList(start, Math.min(start + runLength, block.size())));
+            runs.add(executor.submit(new Callable<List<LinkedList<SearchResult>>>() {
+              @Override
+              public List<LinkedList<SearchResult>> call() {
+                return batchStores.search(run);
+              }
+            }));
+          }
+          for (Future<List<LinkedList<SearchResult>>> run : runs) {
+            for (LinkedList<SearchResult> results : getResults(run)) {
+              printResults(++qcnt, results, flagConfig);
+            }
+          }
+          block.clear();
+        }
+      }
+      queryReader.close();
+    } catch (FileNotFoundException e1) {
+      e1.printStackTrace();
+    } catch (IOException e) {
+      e.printStackTrace();
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Has Lucene parse the query string, for consistency with the indexed terms, and removes
+   * terms in the stoplist.
+   */
+  private static String[] parseQuery(String queryString, FlagConfig flagConfig) throws IOException {
+    ArrayList<String> queryTerms = new ArrayList<String>();
+    StandardAnalyzer analyzer = new StandardAnalyzer(new CharArraySet(new ArrayList<String>(), true));
+    TokenStream stream = analyzer.tokenStream(null, new StringReader(queryString));
+    CharTermAttribute cattr = stream.addAttribute(CharTermAttribute.class);
+    stream.reset();
+
+    // For each token in the query string.
+    while (stream.incrementToken()) {
+      String term = cattr.toString();
+      if (!luceneUtils.stoplistContains(term)) {
+        if (! flagConfig.matchcase()) term = term.toLowerCase();
+        queryTerms.add(term);
+      }
+    }
+    stream.end();
+    stream.close();
+    analyzer.close();
+
+    return queryTerms.toArray(new String[0]);
+  }
 
+  /**
+   * Waits for the results of a run of queries.
+   * @throws IOException if the search was interrupted or failed with a checked exception
+   */
+  private static List<LinkedList<SearchResult>> getResults(Future<List<LinkedList<SearchResult>>> result)
+      throws IOException {
     try {
-      switch (flagConfig.searchtype()) {
-      case SUM:
-        vecSearcher = new VectorSearcher.VectorSearcherCosine(
-            queryVecReader, searchVecReader, luceneUtils, flagConfig, queryArgs);
-        break;
-      case SUBSPACE:    
-        vecSearcher = new VectorSearcher.VectorSearcherSubspaceSim(
-            queryVecReader, searchVecReader, luceneUtils, flagConfig, queryArgs);
-        break;
-      case MAXSIM:
-        vecSearcher = new VectorSearcher.VectorSearcherMaxSim(
-            queryVecReader, searchVecReader, luceneUtils, flagConfig, queryArgs);
-        break;
-      case MINSIM:
-          vecSearcher = new VectorSearcher.VectorSearcherMinSim(
-              queryVecReader, searchVecReader, luceneUtils, flagConfig, queryArgs);
-          break;
-      case BOUNDPRODUCT:
-        if (queryArgs.length == 2) {
-          vecSearcher = new VectorSearcher.VectorSearcherBoundProduct(
-              queryVecReader, boundVecReader, searchVecReader, luceneUtils, flagConfig, queryArgs[0],queryArgs[1]);
-        } else {
-          vecSearcher = new VectorSearcher.VectorSearcherBoundProduct(
-              elementalVecReader, semanticVecReader, predicateVecReader, searchVecReader, luceneUtils, flagConfig, queryArgs[0]);
+      return result.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for search results", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    }
+  }
+
+  /** Prints the results of query number {@code qcnt}. */
+  private static void printResults(int qcnt, LinkedList<SearchResult> results, FlagConfig flagConfig) {
+    int cnt = 0;
+    if (results.size() > 0) {
+      VerbatimLogger.info("Search output follows ...\n");
+      for (SearchResult result: results) {
+        if (flagConfig.treceval() != -1) { //results in trec_eval format
+          System.out.println(
+              String.format("%s\t%s\t%s\t%s\t%f\t%s",
+                  qcnt,
+                  "Q0",
+                  result.getObjectVector().getObject().toString(),
+                  ++cnt,
+                  result.getScore(),
+                  "DEFAULT"));
         }
-        break;
-      case BOUNDPRODUCTSUBSPACE:
-        if (queryArgs.length == 2) {
-          vecSearcher = new VectorSearcher.VectorSearcherBoundProductSubSpace(
-              queryVecReader, boundVecReader, searchVecReader, luceneUtils, flagConfig, queryArgs[0], queryArgs[1]);
-        } else {
-          vecSearcher = new VectorSearcher.VectorSearcherBoundProductSubSpace(
-              elementalVecReader, semanticVecReader, predicateVecReader, searchVecReader, luceneUtils, flagConfig, queryArgs[0]);
+        else System.out.println(  //results in cosine:object format
+            String.format("%f:%s",
+                result.getScore(),
+                result.getObjectVector().getObject().toString()));
+      }
+    }
+  }
+
+  /**
+   * The vector stores opened for a batch of queries. Queries are searched using a
+   * {@link SearchPlan} shared by the whole batch, so any number of queries may be
+   * searched at the same time. The vectors of all the stores are converted to the
+   * representation they are compared in when the stores are gathered, so that searching
+   * in parallel only reads them.
+   */
+  private static class BatchStores {
+    private final VectorStore queryVecReader;
+    private final VectorStore boundVecReader;
+    private final VectorStore elementalVecReader, semanticVecReader, predicateVecReader;
+    private final VectorStore searchVecReader;
+    private final SearchPlan searchPlan;
+
+    BatchStores(VectorStore queryVecReader, VectorStore boundVecReader,
+        VectorStore elementalVecReader, VectorStore semanticVecReader,
+        VectorStore predicateVecReader, VectorStore searchVecReader, SearchPlan searchPlan) {
+      this.queryVecReader = queryVecReader;
+      this.boundVecReader = boundVecReader;
+      this.elementalVecReader = elementalVecReader;
+      this.semanticVecReader = semanticVecReader;
+      this.predicateVecReader = predicateVecReader;
+      this.searchVecReader = searchVecReader;
+      this.searchPlan = searchPlan;
+      for (VectorStore store : new VectorStore[] {queryVecReader, boundVecReader,
+          elementalVecReader, semanticVecReader, predicateVecReader, searchVecReader}) {
+        VectorStoreUtils.prepareForComparison(store);
+      }
+    }
+
+    /**
+     * Searches for each of a run of queries. {@link Search.SearchType#SUM} queries are scored
+     * together, reading the search store once, using {@link SearchPlan#getNearestNeighbors(List, int)}.
+     */
+    List<LinkedList<SearchResult>> search(List<String[]> queries) {
+      FlagConfig flagConfig = searchPlan.getFlagConfig();
+      List<LinkedList<SearchResult>> results = new ArrayList<LinkedList<SearchResult>>();
+      if (flagConfig.searchtype() != Search.SearchType.SUM) {
+        for (String[] queryArgs : queries) {
+          results.add(search(queryArgs));
         }
-        break;
-      case BOUNDMINIMUM:
+        return results;
+      }
+
+      VerbatimLogger.info("Searching term vectors, searchtype " + flagConfig.searchtype()
+          + " for " + queries.size() + " queries\n");
+      List<Vector> queryVectors = new ArrayList<Vector>();
+      for (String[] queryArgs : queries) {
+        queryVectors.add(CompoundVectorBuilder.getQueryVector(
+            queryVecReader, luceneUtils, flagConfig, queryArgs));
+      }
+      return searchPlan.getNearestNeighbors(queryVectors, flagConfig.numsearchresults());
+    }
+
+    /**
+     * Searches for one query, returning no results if the query vector is zero
+     * or the search fails.
+     */
+    LinkedList<SearchResult> search(String[] queryArgs) {
+      FlagConfig flagConfig = searchPlan.getFlagConfig();
+
+      // Stage iii. Perform search according to which searchType was selected.
+      // Most options have corresponding dedicated VectorSearcher subclasses.
+      VectorSearcher vecSearcher = null;
+      LinkedList<SearchResult> results;
+      VerbatimLogger.info("Searching term vectors, searchtype " + flagConfig.searchtype() + "\n");
+
+      try {
+        switch (flagConfig.searchtype()) {
+        case SUM:
+          vecSearcher = new VectorSearcher.VectorSearcherCosine(
+              queryVecReader, searchPlan, queryArgs);
+          break;
+        case SUBSPACE:
+          vecSearcher = new VectorSearcher.VectorSearcherSubspaceSim(
+              queryVecReader, searchPlan, queryArgs);
+          break;
+        case MAXSIM:
+          vecSearcher = new VectorSearcher.VectorSearcherMaxSim(
+              queryVecReader, searchPlan, queryArgs);
+          break;
+        case MINSIM:
+          vecSearcher = new VectorSearcher.VectorSearcherMinSim(
+              queryVecReader, searchPlan, queryArgs);
+          break;
+        case BOUNDPRODUCT:
+          if (queryArgs.length == 2) {
+            vecSearcher = new VectorSearcher.VectorSearcherBoundProduct(
+                queryVecReader, boundVecReader, searchVecReader, luceneUtils, flagConfig, queryArgs[0],queryArgs[1]);
+          } else {
+            vecSearcher = new VectorSearcher.VectorSearcherBoundProduct(
+                elementalVecReader, semanticVecReader, predicateVecReader, searchVecReader, luceneUtils, flagConfig, queryArgs[0]);
+          }
+          break;
+        case BOUNDPRODUCTSUBSPACE:
+          if (queryArgs.length == 2) {
+            vecSearcher = new VectorSearcher.VectorSearcherBoundProductSubSpace(
+                queryVecReader, boundVecReader, searchVecReader, luceneUtils, flagConfig, queryArgs[0], queryArgs[1]);
+          } else {
+            vecSearcher = new VectorSearcher.VectorSearcherBoundProductSubSpace(
+                elementalVecReader, semanticVecReader, predicateVecReader, searchVecReader, luceneUtils, flagConfig, queryArgs[0]);
+          }
+          break;
+        case BOUNDMINIMUM:
           if (queryArgs.length == 2) {
             vecSearcher = new VectorSearcher.VectorSearcherBoundMinimum(
                 queryVecReader, boundVecReader, searchVecReader, luceneUtils, flagConfig, queryArgs[0], queryArgs[1]);
@@ -381,82 +554,48 @@ public class SearchBatch {
                 elementalVecReader, semanticVecReader, predicateVecReader, searchVecReader, luceneUtils, flagConfig, queryArgs[0]);
           }
           break;
-      case PERMUTATION:
-        vecSearcher = new VectorSearcher.VectorSearcherPerm(
-            queryVecReader, searchVecReader, luceneUtils, flagConfig, queryArgs);
-        break;
-      case BALANCEDPERMUTATION:
-        vecSearcher = new VectorSearcher.BalancedVectorSearcherPerm(
-            queryVecReader, searchVecReader, luceneUtils, flagConfig, queryArgs);
-        break;
-      case ANALOGY:
-        vecSearcher = new VectorSearcher.AnalogySearcher(
-            queryVecReader, searchVecReader, luceneUtils, flagConfig, queryArgs);
-        break;
-      case LUCENE:
+        case PERMUTATION:
+          vecSearcher = new VectorSearcher.VectorSearcherPerm(
+              queryVecReader, searchPlan, queryArgs);
+          break;
+        case BALANCEDPERMUTATION:
+          vecSearcher = new VectorSearcher.BalancedVectorSearcherPerm(
+              queryVecReader, searchVecReader, luceneUtils, flagConfig, queryArgs);
+          break;
+        case ANALOGY:
+          vecSearcher = new VectorSearcher.AnalogySearcher(
+              queryVecReader, searchVecReader, luceneUtils, flagConfig, queryArgs);
+          break;
+        case IVF:
+          vecSearcher = new VectorSearcher.VectorSearcherIvf(
+              searchPlan, CompoundVectorBuilder.getQueryVector(
+                  queryVecReader, luceneUtils, flagConfig, queryArgs));
+          break;
+        case LUCENE:
           vecSearcher = new VectorSearcher.VectorSearcherLucene(
               luceneUtils, flagConfig, queryArgs);
           break;
-      case PRINTQUERY:    
-        Vector queryVector = CompoundVectorBuilder.getQueryVector(
-            queryVecReader, luceneUtils, flagConfig, queryArgs);
-        System.out.println(queryVector.toString());
-      default:
-        throw new IllegalArgumentException("Unknown search type: " + flagConfig.searchtype());
-      }
-    } catch (ZeroVectorException zve) {
-      logger.info(zve.getMessage());
+        case PRINTQUERY:
+          Vector queryVector = CompoundVectorBuilder.getQueryVector(
+              queryVecReader, luceneUtils, flagConfig, queryArgs);
+          System.out.println(queryVector.toString());
+        default:
+          throw new IllegalArgumentException("Unknown search type: " + flagConfig.searchtype());
         }
+      } catch (ZeroVectorException zve) {
+        logger.info(zve.getMessage());
+      }
 
-    results = new LinkedList<SearchResult>();
-    
-    try {
-    results = vecSearcher.getNearestNeighbors(flagConfig.numsearchresults());
-    	}
-    catch (Exception e)
-    	{
-    	//no search results returned
-    	}
-    
-    int cnt = 0;
-    // Print out results.
-    if (results.size() > 0) {
-      VerbatimLogger.info("Search output follows ...\n");
-      for (SearchResult result: results) {
-    	  
-    	  if (flagConfig.treceval() != -1) //results in trec_eval format
-    	  {  	System.out.println(
-    		  			String.format("%s\t%s\t%s\t%s\t%f\t%s",
-    		  				qcnt,
-    		  				"Q0",
-    		  				result.getObjectVector().getObject().toString(),
-    		                ++cnt,
-    		  			 	result.getScore(),
-    		  			 	"DEFAULT")
-    		  			 	 );
-    	  }
-    	  else System.out.println(  //results in cosine:object format
-    			  		String.format("%f:%s",
-    			  			result.getScore(),
-    			  			result.getObjectVector().getObject().toString()));
-      									}
-    }
-   queryString = queryReader.readLine();
-    
-	}
-    queryReader.close();
-    }
-    catch (FileNotFoundException e1) {
- 		// TODO Auto-generated catch block
- 		e1.printStackTrace();
- 	} catch (IOException e) {
-		// TODO Auto-generated catch block
-		e.printStackTrace();
-	}
-   
-
-  
+      results = new LinkedList<SearchResult>();
 
+      try {
+        results = vecSearcher.getNearestNeighbors(flagConfig.numsearchresults());
+      }
+      catch (Exception e) {
+        //no search results returned
+      }
+      return results;
+    }
   }
 
 
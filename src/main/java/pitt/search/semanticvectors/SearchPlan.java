@@ -0,0 +1,358 @@
+/**
+   Copyright (c) 2015, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import pitt.search.semanticvectors.VectorSearcher.NearestNeighborCollector;
+import pitt.search.semanticvectors.vectors.BinarySketchIndex;
+import pitt.search.semanticvectors.vectors.BlockNormIndex;
+import pitt.search.semanticvectors.vectors.QueryBlock;
+import pitt.search.semanticvectors.vectors.Vector;
+import pitt.search.semanticvectors.vectors.ZeroVectorException;
+
+/**
+ * The part of a search that does not depend on the query: the vector store to search, the
+ * Lucene index used for term weighting, and the flags that control scoring and ranking.
+ *
+ * <p>A search plan is not changed after it is built, so one plan can be shared by any number
+ * of {@link VectorSearcher}s searching at the same time in different threads. Each searcher
+ * holds the state of a single query. Building a plan may be expensive (e.g., when
+ * {@link FlagConfig#expandsearchspace()} is set), building a searcher from a plan is not.
+ *
+ * <p>Vectors in the search store are read but never changed by searching. Some vectors (e.g.,
+ * complex and sparse real vectors) convert themselves between representations when first
+ * compared, so the plan converts the vectors of an in-memory store when it is built, using
+ * {@link VectorStoreUtils#prepareForComparison}.
+ *
+ * <p>If {@link FlagConfig#earlyabandonblocksize()} is set, a plan for a store of real vectors
+ * also builds a {@link BlockNormIndex} of them, so that cosine search can stop scoring vectors
+ * that cannot make the results.
+ *
+ * <p>Likewise, if {@link FlagConfig#sketchbits()} is set, a plan for a store of real or complex
+ * vectors builds a {@link BinarySketchIndex} of them. Cosine search then compares binary
+ * sketches to choose {@link FlagConfig#sketchcandidates()} candidates, and scores only those.
+ * This is much faster for large stores, but may miss results that exhaustive search would
+ * find. The sketch index is used in preference to a {@link BlockNormIndex}.
+ *
+ * <p>These indexes are built when a {@link VectorSearcher.VectorSearcherCosine} first searches
+ * with the plan, so plans used only by other searchers, or only for blocks of queries, do not
+ * pay for them. They are kept for later searches with the same plan, so a plan should be
+ * shared by all the queries that search a store, as in {@link Search.Stores}. A plan built for
+ * a single query never builds them, since building either index reads every vector in the
+ * store, which costs more than an exhaustive search saves. A plan holds the vectors it found in
+ * the store when its indexes were built, and should be built again if the store changes.
+ */
+public class SearchPlan {
+  private static final Logger logger = Logger.getLogger(SearchPlan.class.getCanonicalName());
+
+  /** Number of search store vectors scored against a block of queries at a time. */
+  private static final int TILE_SIZE = 64;
+
+  private final VectorStore searchVecStore;
+  private final LuceneUtils luceneUtils;
+  private final FlagConfig flagConfig;
+  private final boolean singleQuery;
+
+  /** Indexes for cosine search, or null until first needed. */
+  private volatile CosineIndexes cosineIndexes;
+
+  /** Search store vectors in enumeration order, and the indexes of them that are wanted. */
+  private static class CosineIndexes {
+    private final ObjectVector[] indexedVectors;
+    private final BlockNormIndex blockNormIndex;
+    private final BinarySketchIndex binarySketchIndex;
+
+    private CosineIndexes(ObjectVector[] indexedVectors,
+        BlockNormIndex blockNormIndex, BinarySketchIndex binarySketchIndex) {
+      this.indexedVectors = indexedVectors;
+      this.blockNormIndex = blockNormIndex;
+      this.binarySketchIndex = binarySketchIndex;
+    }
+  }
+
+  /**
+   * @param searchVecStore The vector store to search.
+   * @param luceneUtils LuceneUtils object to use for term weighting. (May be null.)
+   * @param flagConfig Flag configuration (cannot be null).
+   */
+  public SearchPlan(VectorStore searchVecStore, LuceneUtils luceneUtils, FlagConfig flagConfig) {
+    this(searchVecStore, luceneUtils, flagConfig, false);
+  }
+
+  /**
+   * @param searchVecStore The vector store to search.
+   * @param luceneUtils LuceneUtils object to use for term weighting. (May be null.)
+   * @param flagConfig Flag configuration (cannot be null).
+   * @param singleQuery true if the plan will be used for only one query, in which case
+   *        cosine search does not build the indexes given by {@link FlagConfig#sketchbits()}
+   *        and {@link FlagConfig#earlyabandonblocksize()}
+   */
+  public SearchPlan(VectorStore searchVecStore, LuceneUtils luceneUtils, FlagConfig flagConfig,
+      boolean singleQuery) {
+    if (flagConfig == null) {
+      throw new NullPointerException("flagConfig cannot be null");
+    }
+    this.flagConfig = flagConfig;
+    this.luceneUtils = luceneUtils;
+    this.singleQuery = singleQuery;
+    if (flagConfig.expandsearchspace()) {
+      this.searchVecStore = VectorSearcher.expandSearchSpace(searchVecStore, flagConfig);
+    } else {
+      this.searchVecStore = searchVecStore;
+    }
+    VectorStoreUtils.prepareForComparison(this.searchVecStore);
+  }
+
+  /** Returns the indexes for cosine search, building them the first time they are asked for. */
+  private CosineIndexes getCosineIndexes() {
+    CosineIndexes indexes = cosineIndexes;
+    if (indexes == null) {
+      synchronized (this) {
+        indexes = cosineIndexes;
+        if (indexes == null) {
+          indexes = buildCosineIndexes();
+          cosineIndexes = indexes;
+        }
+      }
+    }
+    return indexes;
+  }
+
+  private CosineIndexes buildCosineIndexes() {
+    boolean canAbandonEarly = canAbandonEarly(searchVecStore, luceneUtils, flagConfig);
+    boolean canSketch = canSketch(searchVecStore, flagConfig);
+    if (!canAbandonEarly && !canSketch) {
+      return new CosineIndexes(null, null, null);
+    }
+    if (singleQuery) {
+      logger.info("Not building " + (canSketch ? "binary sketch" : "block norm")
+          + " index for a single query, searching exhaustively.");
+      return new CosineIndexes(null, null, null);
+    }
+    List<ObjectVector> objectVectors = new ArrayList<ObjectVector>();
+    Enumeration<ObjectVector> vecEnum = searchVecStore.getAllVectors();
+    while (vecEnum.hasMoreElements()) {
+      objectVectors.add(vecEnum.nextElement());
+    }
+    Vector[] vectors = new Vector[objectVectors.size()];
+    for (int i = 0; i < vectors.length; ++i) {
+      vectors[i] = objectVectors.get(i).getVector();
+    }
+    // Cosine search uses only the sketch index if there are both.
+    return new CosineIndexes(
+        objectVectors.toArray(new ObjectVector[vectors.length]),
+        canAbandonEarly && !canSketch
+            ? new BlockNormIndex(vectors, flagConfig.earlyabandonblocksize()) : null,
+        canSketch ? new BinarySketchIndex(vectors, flagConfig.sketchbits()) : null);
+  }
+
+  /**
+   * Returns true if cosine search may stop scoring vectors early: this is asked for, the store
+   * holds real vectors, and results depend only on the best scores. Scores are reweighted
+   * after comparison when term weights are used, and every score counts towards the
+   * statistics when {@link FlagConfig#stdev()} is set.
+   */
+  private static boolean canAbandonEarly(
+      VectorStore searchVecStore, LuceneUtils luceneUtils, FlagConfig flagConfig) {
+    if (flagConfig.earlyabandonblocksize() <= 0 || flagConfig.stdev()
+        || (luceneUtils != null && flagConfig.usetermweightsinsearch())) {
+      return false;
+    }
+    Enumeration<ObjectVector> vecEnum = searchVecStore.getAllVectors();
+    return vecEnum.hasMoreElements()
+        && BlockNormIndex.isSupported(vecEnum.nextElement().getVector().getVectorType());
+  }
+
+  /**
+   * Returns true if cosine search may choose candidates by their binary sketches: this is asked
+   * for, and the store holds real or complex vectors. Every score counts towards the statistics
+   * when {@link FlagConfig#stdev()} is set, so sketches are not used then.
+   */
+  private static boolean canSketch(VectorStore searchVecStore, FlagConfig flagConfig) {
+    if (flagConfig.sketchbits() <= 0 || flagConfig.stdev()) {
+      return false;
+    }
+    Enumeration<ObjectVector> vecEnum = searchVecStore.getAllVectors();
+    return vecEnum.hasMoreElements()
+        && BinarySketchIndex.isSupported(vecEnum.nextElement().getVector().getVectorType());
+  }
+
+  /** Returns the vector store searched, expanded if {@link FlagConfig#expandsearchspace()}. */
+  public VectorStore getSearchVecStore() {
+    return searchVecStore;
+  }
+
+  /** Returns the LuceneUtils object used for term weighting, which may be null. */
+  public LuceneUtils getLuceneUtils() {
+    return luceneUtils;
+  }
+
+  /** Returns the flag configuration used for scoring and ranking. */
+  public FlagConfig getFlagConfig() {
+    return flagConfig;
+  }
+
+  /**
+   * Returns the nearest neighbors of {@code queryVector} by cosine similarity, as
+   * {@link VectorSearcher.VectorSearcherCosine} would. May be called from many threads at once.
+   *
+   * @param queryVector vector representing the query, which is copied rather than changed
+   * @param numResults the number of results / length of the result list
+   * @throws ZeroVectorException if the query vector is zero
+   */
+  public LinkedList<SearchResult> getNearestNeighbors(Vector queryVector, int numResults)
+      throws ZeroVectorException {
+    return new VectorSearcher.VectorSearcherCosine(this, queryVector.copy())
+        .getNearestNeighbors(numResults);
+  }
+
+  /**
+   * Returns true if cosine search with this plan stops scoring vectors that cannot make the
+   * results. Builds the indexes for cosine search if they have not been built yet.
+   */
+  boolean hasBlockNormIndex() {
+    return getCosineIndexes().blockNormIndex != null;
+  }
+
+  /**
+   * Returns the nearest neighbors of {@code queryVector} by cosine similarity, using the
+   * {@link BlockNormIndex} to stop scoring each vector as soon as it cannot make the results.
+   * Results are the same as those of exhaustive search. Only for plans that
+   * {@link #hasBlockNormIndex()}.
+   */
+  LinkedList<SearchResult> getNearestNeighborsAbandoningEarly(
+      Vector queryVector, int numResults, double minScore) {
+    CosineIndexes indexes = getCosineIndexes();
+    ObjectVector[] indexedVectors = indexes.indexedVectors;
+    NearestNeighborCollector collector =
+        new NearestNeighborCollector(this, numResults, minScore, true);
+    BlockNormIndex.Scorer scorer = indexes.blockNormIndex.getScorer(queryVector);
+    for (int i = 0; i < indexedVectors.length; ++i) {
+      double score = scorer.measureOverlap(i, collector.getCutoff());
+      if (score != BlockNormIndex.ABANDONED) {
+        collector.add(score, indexedVectors[i]);
+      }
+    }
+    return collector.getResults();
+  }
+
+  /**
+   * Returns true if cosine search with this plan chooses candidates by their binary sketches.
+   * Builds the indexes for cosine search if they have not been built yet.
+   */
+  boolean hasBinarySketchIndex() {
+    return getCosineIndexes().binarySketchIndex != null;
+  }
+
+  /**
+   * Returns the nearest neighbors of the query of {@code searcher}, scoring with
+   * {@link VectorSearcher#getScore} only the {@link FlagConfig#sketchcandidates()} vectors
+   * (or {@code numResults}, if more) whose binary sketches are nearest that of
+   * {@code queryVector}. Only for plans that {@link #hasBinarySketchIndex()}.
+   */
+  LinkedList<SearchResult> getNearestNeighborsBySketch(
+      VectorSearcher searcher, Vector queryVector, int numResults, double minScore) {
+    CosineIndexes indexes = getCosineIndexes();
+    ObjectVector[] indexedVectors = indexes.indexedVectors;
+    NearestNeighborCollector collector =
+        new NearestNeighborCollector(this, numResults, minScore, false);
+    int numCandidates = Math.max(numResults, flagConfig.sketchcandidates());
+    for (int i : indexes.binarySketchIndex.getCandidates(queryVector, numCandidates)) {
+      collector.add(searcher.getScore(indexedVectors[i].getVector()), indexedVectors[i]);
+    }
+    return collector.getResults();
+  }
+
+  /**
+   * Returns the nearest neighbors of each of a block of query vectors by cosine similarity,
+   * reading the search store once for the whole block. Results for each query are the same
+   * as those of exhaustive search by {@link #getNearestNeighbors(Vector, int)}, except that a
+   * zero query vector gets no results rather than an exception. Every store vector is scored,
+   * so {@link FlagConfig#sketchbits()} and {@link FlagConfig#earlyabandonblocksize()} do not
+   * apply, and their indexes are not built. May be called from many threads at once.
+   *
+   * @param queryVectors vectors representing the queries, which are not changed
+   * @param numResults the number of results / length of the result list for each query
+   * @return a list of results for each query, in the same order as the queries
+   */
+  public List<LinkedList<SearchResult>> getNearestNeighbors(List<Vector> queryVectors, int numResults) {
+    List<LinkedList<SearchResult>> results = new ArrayList<LinkedList<SearchResult>>();
+    if (queryVectors.isEmpty()) {
+      return results;
+    }
+    QueryBlock queryBlock = new QueryBlock(queryVectors);
+    NearestNeighborCollector[] collectors = new NearestNeighborCollector[queryBlock.size()];
+    for (int q = 0; q < collectors.length; ++q) {
+      collectors[q] = new NearestNeighborCollector(this, numResults);
+    }
+
+    // Store vectors are scored a tile at a time, so that each tile stays in cache
+    // while it is compared with every query.
+    ObjectVector[] tile = new ObjectVector[TILE_SIZE];
+    Vector[] tileVectors = new Vector[TILE_SIZE];
+    double[][] scores = new double[queryBlock.size()][TILE_SIZE];
+    Enumeration<ObjectVector> vecEnum = searchVecStore.getAllVectors();
+    while (vecEnum.hasMoreElements()) {
+      int tileSize = 0;
+      while (tileSize < TILE_SIZE && vecEnum.hasMoreElements()) {
+        tile[tileSize] = vecEnum.nextElement();
+        tileVectors[tileSize] = tile[tileSize].getVector();
+        ++tileSize;
+      }
+      queryBlock.measureOverlaps(tileVectors, tileSize, scores);
+      for (int q = 0; q < collectors.length; ++q) {
+        if (queryBlock.isZeroQuery(q)) continue;
+        for (int t = 0; t < tileSize; ++t) {
+          collectors[q].add(scores[q][t], tile[t]);
+        }
+      }
+    }
+
+    for (int q = 0; q < collectors.length; ++q) {
+      if (queryBlock.isZeroQuery(q)) {
+        results.add(new LinkedList<SearchResult>());
+      } else {
+        results.add(collectors[q].getResults());
+      }
+    }
+    return results;
+  }
+}
@@ -0,0 +1,291 @@
+/**
+   Copyright (c) 2015, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Logger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import pitt.search.semanticvectors.utils.VerbatimLogger;
+
+/**
+ * Long-lived search service, which opens the configured vector stores once, reading them into
+ * memory, and then answers queries over HTTP with results in JSON.
+ *
+ * <p>Queries are sent as GET requests to {@link #SEARCH_PATH}, with the query terms in the
+ * {@code query} parameter, for example {@code /search?query=simon+peter}. The flags in
+ * {@link #QUERY_FLAGS} may also be given as parameters to override the server's flags for a
+ * single query, for example {@code /search?query=simon&searchtype=maxsim&numsearchresults=5}.
+ * Results are returned as
+ * <pre>{"query": "simon", "results": [{"object": "peter", "score": 0.87}, ...]}</pre>
+ * and errors as {@code {"error": "message"}} with an HTTP error status.
+ *
+ * <p>Queries are run concurrently using {@link FlagConfig#numthreads()} threads, and the port is
+ * set using {@link FlagConfig#serverport()}.
+ */
+public class SearchServer {
+  private static final Logger logger = Logger.getLogger(SearchServer.class.getCanonicalName());
+
+  public static String usageMessage = "\nSearchServer class in package pitt.search.semanticvectors"
+      + "\nUsage: java pitt.search.semanticvectors.SearchServer [-serverport PORT] [-numthreads N]"
+      + "\n                                                     [other search flags]"
+      + "\nOpens the vector stores given by the search flags, as used by Search, and answers"
+      + "\nqueries sent to http://host:PORT/search?query=QUERYTERMS with results in JSON."
+      + "\nsearchtype, numsearchresults and searchresultsminscore may be given as parameters"
+      + "\n    to override the server's flags for one query.";
+
+  /** Path on which queries are answered. */
+  public static final String SEARCH_PATH = "/search";
+
+  /** Request parameter giving the query terms. */
+  public static final String QUERY_PARAMETER = "query";
+
+  /** Flags that may be set for a single query, using request parameters with the same names. */
+  public static final List<String> QUERY_FLAGS = Arrays.asList(
+      "searchtype", "numsearchresults", "searchresultsminscore");
+
+  /** Flags given when the server was started, followed by the type and dimension of the stores. */
+  private final List<String> serverArgs;
+  private final Search.Stores stores;
+  private final HttpServer httpServer;
+  private final ExecutorService executor;
+
+  /**
+   * Opens the vector stores and binds the server to its port. Queries are answered once
+   * {@link #start()} is called.
+   *
+   * @param args command line flags, as used by {@link Search}, without query terms
+   * @throws IOException if the vector stores cannot be opened or the port is not available
+   */
+  public SearchServer(String[] args) throws IOException {
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(args);
+    if (flagConfig.remainingArgs != null && flagConfig.remainingArgs.length > 0) {
+      throw new IllegalArgumentException("SearchServer does not take query terms, got: "
+          + Arrays.toString(flagConfig.remainingArgs));
+    }
+    this.stores = Search.Stores.open(flagConfig, true);
+
+    this.serverArgs = new ArrayList<String>(Arrays.asList(args));
+    serverArgs.addAll(Arrays.asList(
+        "-vectortype", flagConfig.vectortype().toString(),
+        "-dimension", Integer.toString(flagConfig.dimension())));
+
+    this.httpServer = HttpServer.create(new InetSocketAddress(flagConfig.serverport()), 0);
+    this.executor = Executors.newFixedThreadPool(Math.max(1, flagConfig.numthreads()));
+    httpServer.setExecutor(executor);
+    httpServer.createContext(SEARCH_PATH, new SearchHandler());
+  }
+
+  /** Starts answering queries, in background threads. */
+  public void start() {
+    httpServer.start();
+  }
+
+  /** Stops answering queries, and releases the vector stores. */
+  public void stop() {
+    httpServer.stop(0);
+    executor.shutdown();
+    stores.close();
+  }
+
+  /** Returns the port the server is bound to. */
+  public int getPort() {
+    return httpServer.getAddress().getPort();
+  }
+
+  /**
+   * Runs the query given by request parameters, using the vector stores opened by the server.
+   *
+   * @throws IllegalArgumentException if the parameters are not a valid query
+   */
+  public List<SearchResult> runSearch(Map<String, String> parameters) {
+    String query = parameters.get(QUERY_PARAMETER);
+    if (query == null || query.trim().isEmpty()) {
+      throw new IllegalArgumentException("Parameter '" + QUERY_PARAMETER + "' must give query terms.");
+    }
+    List<String> args = new ArrayList<String>(serverArgs);
+    for (String flag : QUERY_FLAGS) {
+      if (parameters.containsKey(flag)) {
+        args.add("-" + flag);
+        args.add(parameters.get(flag));
+      }
+    }
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(args.toArray(new String[args.size()]));
+    if (flagConfig.remainingArgs != null && flagConfig.remainingArgs.length > 0) {
+      throw new IllegalArgumentException("Unexpected values in query flags: "
+          + Arrays.toString(flagConfig.remainingArgs));
+    }
+    // Query terms are never parsed as flags, even if they start with "-".
+    flagConfig.remainingArgs = query.trim().split("\\s+");
+    return Search.runSearch(flagConfig, stores);
+  }
+
+  /** Parses the parameters of a URL query string. */
+  static Map<String, String> parseParameters(String rawQuery) throws UnsupportedEncodingException {
+    Map<String, String> parameters = new HashMap<String, String>();
+    if (rawQuery == null) {
+      return parameters;
+    }
+    for (String pair : rawQuery.split("&")) {
+      if (pair.isEmpty()) {
+        continue;
+      }
+      int equals = pair.indexOf('=');
+      String name = equals < 0 ? pair : pair.substring(0, equals);
+      String value = equals < 0 ? "" : pair.substring(equals + 1);
+      parameters.put(URLDecoder.decode(name, "UTF-8"), URLDecoder.decode(value, "UTF-8"));
+    }
+    return parameters;
+  }
+
+  /** Returns the results as a JSON object. */
+  static String toJson(String query, List<SearchResult> results) {
+    StringBuilder json = new StringBuilder();
+    json.append("{\"query\": ").append(jsonString(query)).append(", \"results\": [");
+    for (int i = 0; i < results.size(); ++i) {
+      SearchResult result = results.get(i);
+      if (i > 0) {
+        json.append(", ");
+      }
+      double score = result.getScore();
+      json.append("{\"object\": ")
+          .append(jsonString(result.getObjectVector().getObject().toString()))
+          .append(", \"score\": ")
+          .append(Double.isNaN(score) || Double.isInfinite(score) ? "null" : Double.toString(score))
+          .append("}");
+    }
+    return json.append("]}").toString();
+  }
+
+  /** Returns {@code value} as a quoted JSON string. */
+  static String jsonString(String value) {
+    StringBuilder json = new StringBuilder("\"");
+    for (int i = 0; i < value.length(); ++i) {
+      char c = value.charAt(i);
+      switch (c) {
+        case '"':
+          json.append("\\\"");
+          break;
+        case '\\':
+          json.append("\\\\");
+          break;
+        case '\n':
+          json.append("\\n");
+          break;
+        case '\r':
+          json.append("\\r");
+          break;
+        case '\t':
+          json.append("\\t");
+          break;
+        default:
+          if (c < 0x20) {
+            json.append(String.format("\\u%04x", (int) c));
+          } else {
+            json.append(c);
+          }
+      }
+    }
+    return json.append('"').toString();
+  }
+
+  private class SearchHandler implements HttpHandler {
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+      int status;
+      String response;
+      try {
+        if (!exchange.getRequestMethod().equals("GET")) {
+          status = 405;
+          response = "{\"error\": \"Only GET requests are supported.\"}";
+        } else {
+          Map<String, String> parameters = parseParameters(exchange.getRequestURI().getRawQuery());
+          List<SearchResult> results = runSearch(parameters);
+          status = 200;
+          response = toJson(parameters.get(QUERY_PARAMETER), results);
+        }
+      } catch (IllegalArgumentException e) {
+        status = 400;
+        response = "{\"error\": " + jsonString(String.valueOf(e.getMessage())) + "}";
+      } catch (RuntimeException e) {
+        logger.warning("Failed to answer query " + exchange.getRequestURI() + ": " + e);
+        status = 500;
+        response = "{\"error\": " + jsonString(e.toString()) + "}";
+      }
+      byte[] bytes = response.getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+      exchange.sendResponseHeaders(status, bytes.length);
+      OutputStream body = exchange.getResponseBody();
+      try {
+        body.write(bytes);
+      } finally {
+        body.close();
+      }
+    }
+  }
+
+  /**
+   * Starts a server that answers queries until the process is stopped.
+   * @param args See {@link #usageMessage}
+   */
+  public static void main(String[] args) throws IOException {
+    SearchServer server;
+    try {
+      server = new SearchServer(args);
+    } catch (IllegalArgumentException e) {
+      System.err.println(usageMessage);
+      throw e;
+    }
+    server.start();
+    VerbatimLogger.info("Search server listening on port " + server.getPort()
+        + ", send queries to " + SEARCH_PATH + "?" + QUERY_PARAMETER + "=QUERYTERMS\n");
+  }
+}
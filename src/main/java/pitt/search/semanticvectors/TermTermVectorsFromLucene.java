@@ -35,10 +35,21 @@
 
 package pitt.search.semanticvectors;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Enumeration;
-import java.util.Hashtable;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import org.apache.lucene.index.DocsAndPositionsEnum;
 import org.apache.lucene.index.FieldInfos;
 import org.apache.lucene.index.Term;
@@ -81,7 +92,12 @@ public class TermTermVectorsFromLucene { //implements VectorStore {
 
   private FlagConfig flagConfig;
   private boolean retraining = false;
-  private VectorStoreRAM semanticTermVectors;
+  /**
+   * Semantic vectors, keyed by ordinal. The ordinals also index
+   * {@link #elementalVectorsByOrdinal} and {@link #globalWeightsByOrdinal},
+   * so that the sliding window loop needs no map lookups.
+   */
+  private VectorStoreOrdinal semanticTermVectors;
   private VectorStore elementalTermVectors;
   private LuceneUtils luceneUtils;
   /** Used only with {@link PositionalMethod#PROXIMITY}. */
@@ -93,11 +109,58 @@ public class TermTermVectorsFromLucene { //implements VectorStore {
    */
   private int[][] permutationCache;
 
+  /** Elemental vectors indexed by the ordinals in {@link #semanticTermVectors}. */
+  private Vector[] elementalVectorsByOrdinal;
+  /**
+   * Global term weights, indexed by position in {@link FlagConfig#contentsfields()} and then
+   * by term ordinal. Weights of terms that did not pass the filter in a field are computed
+   * when they are first seen in a document.
+   */
+  private GlobalWeightsByOrdinal globalWeightsByOrdinal;
+  /**
+   * Used only with {@link PositionalMethod#PROXIMITY}. Number vectors indexed by
+   * offset from the focus position plus {@link FlagConfig#windowradius()}.
+   */
+  private Vector[] proximityVectors;
+  /**
+   * Maps each position in the current document to the ordinal of the term in that position,
+   * or {@link #NONEXISTENT}. Reused across documents and grown as needed.
+   */
+  private int[] positionOrdinals = new int[0];
+
   static final short NONEXISTENT = -1;
+
+  /**
+   * Appended to the name of the store being trained to give the name of the file listing the
+   * external IDs of documents already processed, used by {@link FlagConfig#incrementalupdate()}.
+   */
+  public static final String PROCESSED_DOCS_EXTENSION = ".processeddocs";
   
   /** Returns the semantic (learned) vectors. */
   public VectorStore getSemanticTermVectors() { return this.semanticTermVectors; }
 
+  /**
+   * Returns the name of the store that {@link BuildPositionalIndex} writes term vectors to,
+   * which depends on {@link FlagConfig#positionalmethod()}.
+   */
+  public static String getStoreName(FlagConfig flagConfig) {
+    switch (flagConfig.positionalmethod()) {
+    case BASIC:
+      return flagConfig.termtermvectorsfile();
+    case PROXIMITY:
+      return flagConfig.proximityvectorfile();
+    case PERMUTATION:
+      return flagConfig.permutedvectorfile();
+    case PERMUTATIONPLUSBASIC:
+      return flagConfig.permplustermvectorfile();
+    case DIRECTIONAL:
+      return flagConfig.directionalvectorfile();
+    default:
+      throw new IllegalArgumentException(
+          "Unrecognized -positionalmethod: " + flagConfig.positionalmethod());
+    }
+  }
+
   /**
    * Constructs an instance using the given configs and elemental vectors.
    * @throws IOException
@@ -112,6 +175,12 @@ public class TermTermVectorsFromLucene { //implements VectorStore {
       VerbatimLogger.info("Reusing basic term vectors; number of terms: "
           + elementalTermVectors.getNumVectors() + "\n");
     } else {
+      TrainingCheckpoint.checkElementalVectorsReproducible(flagConfig);
+      if (flagConfig.incrementalupdate() && !ElementalVectorStore.isReproducible(flagConfig)) {
+        throw new IllegalArgumentException(
+            "Incremental updates require the same elemental vectors as earlier runs."
+            + " Please set -elementalseed, or use -elementalmethod contenthash.");
+      }
       this.elementalTermVectors = new ElementalVectorStore(flagConfig);
     }
     
@@ -210,27 +279,42 @@ public class TermTermVectorsFromLucene { //implements VectorStore {
               + "\nTry rebuilding Lucene index using pitt.search.lucene.IndexFilePositions");
     }
 
-    this.semanticTermVectors = new VectorStoreRAM(flagConfig);
+    this.semanticTermVectors = new VectorStoreOrdinal(flagConfig);
 
     // Iterate through an enumeration of terms and allocate initial term vectors.
     // If not retraining, create random elemental vectors as well.
+    // Each term is given an ordinal, and its vectors and weights are recorded by ordinal.
     int tc = 0;
-    for (String fieldName : flagConfig.contentsfields()) {
-      TermsEnum terms = this.luceneUtils.getTermsForField(fieldName).iterator(null);
+    String[] contentsFields = flagConfig.contentsfields();
+    ArrayList<Vector> elementalVectors = new ArrayList<Vector>();
+    globalWeightsByOrdinal = new GlobalWeightsByOrdinal(contentsFields);
+    for (int fieldIndex = 0; fieldIndex < contentsFields.length; ++fieldIndex) {
+      TermsEnum terms = this.luceneUtils.getTermsForField(contentsFields[fieldIndex]).iterator(null);
       BytesRef bytes;
       while((bytes = terms.next()) != null) {
-        Term term = new Term(fieldName, bytes);
+        Term term = new Term(contentsFields[fieldIndex], BytesRef.deepCopyOf(bytes));
         // Skip terms that don't pass the filter.
         if (!luceneUtils.termFilter(term)) continue;
 
         tc++;
-        Vector termVector = VectorFactory.createZeroVector(flagConfig.vectortype(), flagConfig.dimension());
-        // Place each term vector in the vector store.
-        this.semanticTermVectors.putVector(term.text(), termVector);
-        // Do the same for random index vectors unless retraining with trained term vectors
-        if (!retraining) {
-          this.elementalTermVectors.getVector(term.text());
+        int ordinal = semanticTermVectors.getOrdinal(term.bytes());
+        if (ordinal == VectorStoreOrdinal.NO_ORDINAL) {
+          Vector termVector = VectorFactory.createZeroVector(flagConfig.vectortype(), flagConfig.dimension());
+          // Place each term vector in the vector store.
+          ordinal = this.semanticTermVectors.putVector(term.bytes(), termVector);
+          // Record its elemental vector by ordinal; when retraining, this is its trained vector.
+          elementalVectors.add(this.elementalTermVectors.getVector(term.text()));
         }
+        globalWeightsByOrdinal.setWeight(fieldIndex, ordinal, luceneUtils.getGlobalTermWeight(term));
+      }
+    }
+    elementalVectorsByOrdinal = elementalVectors.toArray(new Vector[elementalVectors.size()]);
+    globalWeightsByOrdinal.ensureCapacity(semanticTermVectors.getNumVectors());
+    if (flagConfig.positionalmethod() == PositionalMethod.PROXIMITY) {
+      proximityVectors = new Vector[2 * flagConfig.windowradius() + 1];
+      for (int offset = -flagConfig.windowradius(); offset <= flagConfig.windowradius(); ++offset) {
+        if (offset == 0) continue;
+        proximityVectors[offset + flagConfig.windowradius()] = positionalNumberVectors.getVector(offset);
       }
     }
     VerbatimLogger.info("There are now elemental term vectors for " + tc + " terms (and "
@@ -239,19 +323,68 @@ public class TermTermVectorsFromLucene { //implements VectorStore {
     // Iterate through documents.
     int numdocs = luceneUtils.getNumDocs();
 
-    for (int dc = 0; dc < numdocs; ++dc) {
+    // Incremental updates add to the vectors accumulated by earlier runs, skipping the documents
+    // they processed. Documents are recorded by external ID, since Lucene renumbers documents
+    // when segments are merged.
+    String storeName = getStoreName(flagConfig);
+    Set<String> processedDocs = null;
+    List<String> newDocs = null;
+    if (flagConfig.incrementalupdate() && !retraining) {
+      restoreAccumulatedVectors(storeName);
+      processedDocs = readProcessedDocs(storeName);
+      newDocs = new ArrayList<String>();
+    }
+
+    // Checkpoints are only written when elemental vectors can be regenerated, not when retraining.
+    TrainingCheckpoint checkpoint = null;
+    int firstDoc = 0;
+    if (!retraining && TrainingCheckpoint.isEnabled(flagConfig)) {
+      checkpoint = new TrainingCheckpoint(flagConfig, storeName,
+          "-positionalmethod " + flagConfig.positionalmethod()
+          + " -windowradius " + flagConfig.windowradius() + " -numdocs " + numdocs);
+      firstDoc = restoreFromCheckpoint(checkpoint);
+    }
+    // Documents added before the checkpoint still need to be recorded as processed.
+    for (int dc = 0; processedDocs != null && dc < firstDoc; ++dc) {
+      String docID = luceneUtils.getExternalDocId(dc);
+      if (!processedDocs.contains(docID)) newDocs.add(docID);
+    }
+
+    for (int dc = firstDoc; dc < numdocs; ++dc) {
       // Output progress counter.
       if ((dc % 10000 == 0) || (dc < 10000 && dc % 1000 == 0)) {
         VerbatimLogger.info("Processed " + dc + " documents ... ");
       }
+      if (checkpoint != null && dc > firstDoc && checkpoint.isDue(dc)) {
+        checkpoint.write(dc, semanticTermVectors);
+      }
+
+      if (processedDocs != null) {
+        String docID = luceneUtils.getExternalDocId(dc);
+        if (processedDocs.contains(docID)) continue;
+        newDocs.add(docID);
+      }
 
-      for (String field: flagConfig.contentsfields()) {
-        Terms terms = luceneUtils.getTermVector(dc, field);
+      for (int fieldIndex = 0; fieldIndex < contentsFields.length; ++fieldIndex) {
+        Terms terms = luceneUtils.getTermVector(dc, contentsFields[fieldIndex]);
         if (terms == null) {VerbatimLogger.severe("No term vector for document "+dc); continue; }
-        processTermPositionVector(terms, field);
+        processTermPositionVector(terms, fieldIndex);
       }
     }
 
+    if (checkpoint != null) {
+      checkpoint.finish();
+    }
+
+    if (processedDocs != null || flagConfig.writeaccumulators()) {
+      AccumulatedVectorStore.write(storeName, flagConfig, semanticTermVectors);
+    }
+    if (processedDocs != null) {
+      VerbatimLogger.info("Added " + newDocs.size() + " new documents to "
+          + processedDocs.size() + " documents from earlier runs.\n");
+      appendProcessedDocs(storeName, newDocs);
+    }
+
     VerbatimLogger.info("Created " + semanticTermVectors.getNumVectors() + " term vectors ...\n");
     VerbatimLogger.info("Normalizing term vectors.\n");
     Enumeration<ObjectVector> e = semanticTermVectors.getAllVectors();
@@ -266,15 +399,94 @@ public class TermTermVectorsFromLucene { //implements VectorStore {
     if (((flagConfig.positionalmethod() == PositionalMethod.PERMUTATION
         || flagConfig.positionalmethod() == PositionalMethod.PERMUTATIONPLUSBASIC)) 
         && !retraining) {
+      // Written from the vectors recorded by ordinal, since the elemental store does not
+      // enumerate every vector if -elementalcachesize bounds its cache.
       VerbatimLogger.info("Normalizing and writing elemental vectors to " + flagConfig.elementalvectorfile() + "\n");
-      Enumeration<ObjectVector> f = elementalTermVectors.getAllVectors();
-      while (f.hasMoreElements())	{
-        f.nextElement().getVector().normalize();
+      for (Vector elementalVector : elementalVectorsByOrdinal) {
+        elementalVector.normalize();
       }
-      VectorStoreWriter.writeVectors(flagConfig.elementalvectorfile(), flagConfig, this.elementalTermVectors);
+      VectorStoreWriter.writeVectors(flagConfig.elementalvectorfile(), flagConfig,
+          semanticTermVectors.getVectorsByKey(elementalVectorsByOrdinal, flagConfig));
     }
   }
 
+  /**
+   * Replaces the semantic term vectors with those accumulated by earlier runs, if any.
+   * Terms that no longer pass the term filter are dropped.
+   */
+  private void restoreAccumulatedVectors(String storeName) throws IOException {
+    if (!AccumulatedVectorStore.exists(storeName)) return;
+    VectorStoreRAM accumulatedVectors = AccumulatedVectorStore.read(storeName, flagConfig);
+    int numDropped = 0;
+    Enumeration<ObjectVector> accumulatedEnum = accumulatedVectors.getAllVectors();
+    while (accumulatedEnum.hasMoreElements()) {
+      ObjectVector accumulated = accumulatedEnum.nextElement();
+      String term = accumulated.getObject().toString();
+      if (semanticTermVectors.getOrdinal(term) == VectorStoreOrdinal.NO_ORDINAL) {
+        numDropped++;
+        continue;
+      }
+      semanticTermVectors.putVector(term, accumulated.getVector());
+    }
+    if (numDropped > 0) {
+      VerbatimLogger.warning("Dropped accumulated vectors for " + numDropped
+          + " terms that no longer pass the term filter.\n");
+    }
+  }
+
+  /** Returns the external IDs of the documents processed by earlier runs. */
+  private static Set<String> readProcessedDocs(String storeName) throws IOException {
+    Set<String> processedDocs = new HashSet<String>();
+    File file = new File(storeName + PROCESSED_DOCS_EXTENSION);
+    if (!file.isFile()) return processedDocs;
+    BufferedReader reader = new BufferedReader(
+        new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        processedDocs.add(line);
+      }
+    } finally {
+      reader.close();
+    }
+    return processedDocs;
+  }
+
+  /** Appends the external IDs of newly processed documents to those from earlier runs. */
+  private static void appendProcessedDocs(String storeName, List<String> newDocs)
+      throws IOException {
+    Writer writer = new OutputStreamWriter(
+        new FileOutputStream(storeName + PROCESSED_DOCS_EXTENSION, true), StandardCharsets.UTF_8);
+    try {
+      for (String docID : newDocs) {
+        writer.write(docID);
+        writer.write('\n');
+      }
+    } finally {
+      writer.close();
+    }
+  }
+
+  /**
+   * Replaces the semantic term vectors with those saved in the checkpoint, if resuming, and
+   * returns the number of documents already processed.
+   */
+  private int restoreFromCheckpoint(TrainingCheckpoint checkpoint) throws IOException {
+    VectorStoreRAM restoredVectors = checkpoint.restore();
+    if (restoredVectors == null) return 0;
+    Enumeration<ObjectVector> restoredEnum = restoredVectors.getAllVectors();
+    while (restoredEnum.hasMoreElements()) {
+      ObjectVector restored = restoredEnum.nextElement();
+      String term = restored.getObject().toString();
+      if (semanticTermVectors.getOrdinal(term) == VectorStoreOrdinal.NO_ORDINAL) {
+        throw new IllegalArgumentException(
+            "Checkpoint contains a vector for term '" + term + "', which is not in the index.");
+      }
+      semanticTermVectors.putVector(term, restored.getVector());
+    }
+    return (int) checkpoint.getCursor();
+  }
+
   /**
    * For each term, add term index vector
    * for any term occurring within a window of size windowSize such
@@ -287,76 +499,95 @@ public class TermTermVectorsFromLucene { //implements VectorStore {
    * term frequencies and (3) term positions within a
    * document. The index of a particular term within this array
    * will be referred to as the 'local index' in comments.
+   *
+   * Positions are first copied into {@link #positionOrdinals}, so that the sliding
+   * window loop works entirely with term ordinals and allocates nothing, except for the
+   * bound copies needed by {@link PositionalMethod#PROXIMITY}.
    * @throws IOException 
    */
-  private void processTermPositionVector(Terms terms, String field)
+  private void processTermPositionVector(Terms terms, int fieldIndex)
       throws ArrayIndexOutOfBoundsException, IOException {
     if (terms == null) return;
 
-    ArrayList<String> localTerms = new ArrayList<String>();
-    ArrayList<Integer> freqs = new ArrayList<Integer>();
-    Hashtable<Integer, Integer> localTermPositions = new Hashtable<Integer, Integer>();
-
-    TermsEnum termsEnum = terms.iterator(null);
-    BytesRef text;
-    int termcount = 0;
-
-    while((text = termsEnum.next()) != null) {
-      String theTerm = text.utf8ToString();
-      if (!semanticTermVectors.containsVector(theTerm)) continue;
-      DocsAndPositionsEnum docsAndPositions = termsEnum.docsAndPositions(null, null);
-      if (docsAndPositions == null) return;
-      docsAndPositions.nextDoc();
-      freqs.add(docsAndPositions.freq());
-      localTerms.add(theTerm); 
-
-      for (int x = 0; x < docsAndPositions.freq(); x++) {
-        localTermPositions.put(new Integer(docsAndPositions.nextPosition()), termcount);
+    int maxPosition = -1;
+    int numPositions = 0;
+
+    try {
+      TermsEnum termsEnum = terms.iterator(null);
+      BytesRef text;
+
+      while((text = termsEnum.next()) != null) {
+        int ordinal = semanticTermVectors.getOrdinal(text);
+        if (ordinal == VectorStoreOrdinal.NO_ORDINAL) continue;
+        DocsAndPositionsEnum docsAndPositions = termsEnum.docsAndPositions(null, null);
+        if (docsAndPositions == null) return;
+        docsAndPositions.nextDoc();
+        globalWeightsByOrdinal.getWeight(fieldIndex, ordinal, text, luceneUtils);
+
+        int freq = docsAndPositions.freq();
+        for (int x = 0; x < freq; x++) {
+          int position = docsAndPositions.nextPosition();
+          if (position >= positionOrdinals.length) {
+            growPositionOrdinals(position + 1);
+          }
+          if (positionOrdinals[position] == NONEXISTENT) numPositions++;
+          positionOrdinals[position] = ordinal;
+          maxPosition = Math.max(maxPosition, position);
+        }
       }
 
-      termcount++;
+      PositionalMethod positionalMethod = flagConfig.positionalmethod();
+      int windowRadius = flagConfig.windowradius();
+
+      // Iterate through positions adding index vectors of terms
+      // occurring within window to term vector for focus term
+      for (int focusposn = 0; focusposn < numPositions; ++focusposn) {
+        int focusOrdinal = positionOrdinals[focusposn];
+        if (focusOrdinal == NONEXISTENT) continue;
+        Vector focusVector = semanticTermVectors.getVector(focusOrdinal);
+        int windowstart = Math.max(0, focusposn - windowRadius);
+        int windowend = Math.min(focusposn + windowRadius, numPositions - 1);
+
+        for (int cursor = windowstart; cursor <= windowend; cursor++) {
+          if (cursor == focusposn) continue;
+          int coOrdinal = positionOrdinals[cursor];
+          if (coOrdinal == NONEXISTENT) continue;
+          Vector toSuperpose = elementalVectorsByOrdinal[coOrdinal];
+          float globalweight = globalWeightsByOrdinal.getWeight(fieldIndex, coOrdinal);
+
+          // bind to appropriate position vector
+          if (positionalMethod == PositionalMethod.PROXIMITY) {
+            toSuperpose = toSuperpose.copy();
+            toSuperpose.bind(proximityVectors[cursor - focusposn + windowRadius]);
+          }
+
+          // calculate permutation required for either Sahlgren (2008) implementation
+          // encoding word order, or encoding direction as in Burgess and Lund's HAL
+          if (positionalMethod == PositionalMethod.BASIC
+              || positionalMethod == PositionalMethod.PERMUTATIONPLUSBASIC
+              || positionalMethod == PositionalMethod.PROXIMITY) {
+            focusVector.superpose(toSuperpose, globalweight, null);
+          }
+          if (positionalMethod == PositionalMethod.PERMUTATION
+              || positionalMethod == PositionalMethod.PERMUTATIONPLUSBASIC) {
+            int[] permutation = permutationCache[cursor - focusposn + windowRadius];
+            focusVector.superpose(toSuperpose, globalweight, permutation);
+          } else if (positionalMethod == PositionalMethod.DIRECTIONAL) {
+            int[] permutation = permutationCache[(int) Math.max(0, Math.signum(cursor - focusposn))];
+            focusVector.superpose(toSuperpose, globalweight, permutation);
+          }
+        } //end of current sliding window
+      } //end of all sliding windows
+    } finally {
+      // Clear the positions used by this document so that the buffer can be reused.
+      Arrays.fill(positionOrdinals, 0, maxPosition + 1, NONEXISTENT);
     }
+  }
 
-    // Iterate through positions adding index vectors of terms
-    // occurring within window to term vector for focus term
-    for (int focusposn = 0; focusposn < localTermPositions.size(); ++focusposn) {
-      if (localTermPositions.get(focusposn) == null) continue;
-      String focusterm = localTerms.get(localTermPositions.get(focusposn));
-      int windowstart = Math.max(0, focusposn - flagConfig.windowradius());
-      int windowend = Math.min(focusposn + flagConfig.windowradius(), localTermPositions.size() - 1);
-
-      for (int cursor = windowstart; cursor <= windowend; cursor++) {
-    	   if (cursor == focusposn) continue;
-        if (localTermPositions.get(cursor) == null) continue;
-        String coterm = localTerms.get(localTermPositions.get(cursor));
-        if (coterm == null) continue;
-        Vector toSuperpose = elementalTermVectors.getVector(coterm);
-        
-        float globalweight = luceneUtils.getGlobalTermWeight(new Term(field, coterm));
- 
-        // bind to appropriate position vector
-        if (flagConfig.positionalmethod() == PositionalMethod.PROXIMITY) {
-            toSuperpose =  elementalTermVectors.getVector(coterm).copy();
-            toSuperpose.bind(positionalNumberVectors.getVector(cursor-focusposn));
-             }
-
-        // calculate permutation required for either Sahlgren (2008) implementation
-        // encoding word order, or encoding direction as in Burgess and Lund's HAL
-        if (flagConfig.positionalmethod() == PositionalMethod.BASIC
-            || flagConfig.positionalmethod() == PositionalMethod.PERMUTATIONPLUSBASIC
-            	||flagConfig.positionalmethod() == PositionalMethod.PROXIMITY) {
-          semanticTermVectors.getVector(focusterm).superpose(toSuperpose, globalweight, null);
-        }
-        if (flagConfig.positionalmethod() == PositionalMethod.PERMUTATION
-            || flagConfig.positionalmethod() == PositionalMethod.PERMUTATIONPLUSBASIC) {
-          int[] permutation = permutationCache[cursor - focusposn + flagConfig.windowradius()];
-          semanticTermVectors.getVector(focusterm).superpose(toSuperpose, globalweight, permutation);
-        } else if (flagConfig.positionalmethod() == PositionalMethod.DIRECTIONAL) {
-          int[] permutation = permutationCache[(int) Math.max(0,Math.signum(cursor - focusposn))];
-          semanticTermVectors.getVector(focusterm).superpose(toSuperpose, globalweight, permutation);
-
-           }
-      } //end of current sliding window   
-    } //end of all sliding windows
+  /** Grows {@link #positionOrdinals} to hold at least {@code minLength} positions. */
+  private void growPositionOrdinals(int minLength) {
+    int oldLength = positionOrdinals.length;
+    positionOrdinals = Arrays.copyOf(positionOrdinals, Math.max(minLength, 2 * oldLength));
+    Arrays.fill(positionOrdinals, oldLength, positionOrdinals.length, NONEXISTENT);
   }
 }
@@ -46,6 +46,7 @@ import org.apache.lucene.index.Terms;
 import org.apache.lucene.index.TermsEnum;
 import org.apache.lucene.util.BytesRef;
 
+import pitt.search.semanticvectors.ElementalVectorStore.ElementalGenerationMethod;
 import pitt.search.semanticvectors.utils.VerbatimLogger;
 import pitt.search.semanticvectors.vectors.Vector;
 import pitt.search.semanticvectors.vectors.VectorFactory;
@@ -66,6 +67,8 @@ public class TermVectorsFromLucene {
   private VectorStore termVectors;
   private LuceneUtils luceneUtils;
   private VectorStore elementalDocVectors;
+  /** True if training should write checkpoints, see {@link TrainingCheckpoint}. */
+  private boolean checkpointTraining = false;
 
   private TermVectorsFromLucene(FlagConfig flagConfig) throws IOException {
     this.flagConfig = flagConfig;
@@ -109,7 +112,10 @@ public class TermVectorsFromLucene {
             "passed into constructor ...");
       }
     } else {
+      // Elemental doc vectors generated here can be regenerated, so training can be checkpointed.
+      TrainingCheckpoint.checkElementalVectorsReproducible(flagConfig);
       this.elementalDocVectors = new ElementalVectorStore(flagConfig);
+      this.checkpointTraining = TrainingCheckpoint.isEnabled(flagConfig);
     }
 
     trainTermVectors();
@@ -132,6 +138,26 @@ public class TermVectorsFromLucene {
       VerbatimLogger.info("There are " + tc + " terms (and " + luceneUtils.getNumDocs() + " docs).\n");
     }
 
+    // Checkpoints record the number of terms processed, counted across all fields.
+    TrainingCheckpoint checkpoint = null;
+    long termsToSkip = 0;
+    if (checkpointTraining) {
+      checkpoint = new TrainingCheckpoint(
+          flagConfig, flagConfig.termvectorsfile(), "-numdocs " + luceneUtils.getNumDocs());
+      VectorStoreRAM restoredVectors = checkpoint.restore();
+      if (restoredVectors != null && flagConfig.writeaccumulators()) {
+        throw new IllegalArgumentException("Cannot write accumulated vectors when resuming,"
+            + " since the checkpoint only contains normalized term vectors.");
+      }
+      if (restoredVectors != null) {
+        this.termVectors = restoredVectors;
+        termsToSkip = checkpoint.getCursor();
+      }
+    }
+    long termsProcessed = 0;
+    AccumulatedVectorStore.Writer accumulatorWriter = flagConfig.writeaccumulators()
+        ? new AccumulatedVectorStore.Writer(flagConfig.termvectorsfile(), flagConfig) : null;
+
     for(String fieldName : flagConfig.contentsfields()) {
       VerbatimLogger.info("Training term vectors for field " + fieldName + "\n");
       int tc = 0;
@@ -144,6 +170,14 @@ public class TermVectorsFromLucene {
         }
         tc++;
 
+        if (checkpoint != null && termsProcessed > termsToSkip && checkpoint.isDue(termsProcessed)) {
+          checkpoint.write(termsProcessed, termVectors);
+        }
+        // Skip terms already processed before the checkpoint being resumed.
+        if (++termsProcessed <= termsToSkip) {
+          continue;
+        }
+
         Term term = new Term(fieldName, bytes);
         // Skip terms that don't pass the filter.
         if (!luceneUtils.termFilter(term)) {
@@ -159,10 +193,19 @@ public class TermVectorsFromLucene {
           int freq = docsEnum.freq();
           termVector.superpose(elementalDocVectors.getVector(docID), freq, null);
         }
+        if (accumulatorWriter != null) {
+          accumulatorWriter.write(term.text(), termVector);
+        }
         termVector.normalize();
         ((VectorStoreRAM) termVectors).putVector(term.text(), termVector);
       }
     }
+    if (accumulatorWriter != null) {
+      accumulatorWriter.close();
+    }
+    if (checkpoint != null) {
+      checkpoint.finish();
+    }
     VerbatimLogger.info("\nCreated " + termVectors.getNumVectors() + " term vectors.\n");
   }
 
@@ -203,6 +246,12 @@ public class TermVectorsFromLucene {
       logger.info("Read in " + count + " vectors");
     } else {
       logger.info("Generating new elemental term vectors");
+      // These are the term vectors written out, so all of them must be kept.
+      if (flagConfig.elementalmethod() == ElementalGenerationMethod.CONTENTHASH
+          && flagConfig.elementalcachesize() >= 0) {
+        throw new IllegalArgumentException("Elemental term vectors used as term vectors are written"
+            + " out, so they must all be cached. Please leave -elementalcachesize unset.");
+      }
       this.termVectors = new ElementalVectorStore(flagConfig);
       for(String fieldName : flagConfig.contentsfields()) {
         TermsEnum terms = luceneUtils.getTermsForField(fieldName).iterator(termsEnum);
@@ -0,0 +1,250 @@
+/**
+   Copyright (c) 2015, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.RAMOutputStream;
+
+import pitt.search.semanticvectors.utils.VerbatimLogger;
+import pitt.search.semanticvectors.vectors.Vector;
+import pitt.search.semanticvectors.vectors.VectorUtils;
+
+/**
+ * Periodic checkpoints of the partial vectors of a long-running trainer, so that training can
+ * continue from the last checkpoint after a crash, see {@link FlagConfig#checkpointinterval()}
+ * and {@link FlagConfig#resume()}.
+ *
+ * <p>A checkpoint records a cursor, the number of terms, documents or predications processed
+ * so far, together with the accumulated (unnormalized) vectors at that point, see
+ * {@link VectorUtils#writeAccumulatedVector}. The vectors are serialized into memory by the
+ * training thread and written to disk by a background thread, so that training does not wait
+ * for the disk. Each checkpoint is written to a temporary file which then replaces the
+ * previous checkpoint, so a crash while writing leaves the previous checkpoint intact.
+ *
+ * <p>Resuming is only correct if the Lucene index and flags are unchanged, and if the trainer
+ * gets the same elemental vectors as before, see {@link #checkElementalVectorsReproducible}.
+ */
+public class TrainingCheckpoint {
+  /** Appended to the name of the store being trained to give the checkpoint file name. */
+  public static final String CHECKPOINT_EXTENSION = ".checkpoint";
+  private static final String TEMP_EXTENSION = ".tmp";
+
+  private final FlagConfig flagConfig;
+  private final String fileName;
+  private final String header;
+  private final FSDirectory directory;
+  private final ExecutorService writer;
+  private Future<?> pendingWrite;
+  private long cursor = 0;
+
+  /**
+   * Creates a checkpoint for the store with the given name.
+   *
+   * @param storeName name of the store being trained, e.g., {@link FlagConfig#termvectorsfile()}
+   * @param description settings that must be the same when resuming, e.g., the number
+   *        of documents in the index; recorded in the checkpoint header
+   */
+  public TrainingCheckpoint(FlagConfig flagConfig, String storeName, String description)
+      throws IOException {
+    this.flagConfig = flagConfig;
+    File checkpointFile = new File(storeName + CHECKPOINT_EXTENSION);
+    String parentPath = checkpointFile.getParent();
+    if (parentPath == null) parentPath = "";
+    this.directory = FSDirectory.open(FileSystems.getDefault().getPath(parentPath));
+    this.fileName = checkpointFile.getName();
+    this.header = VectorStoreWriter.generateHeaderString(flagConfig) + " " + description;
+    this.writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "checkpoint-writer");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+
+  /** Returns true if checkpoints are written or resumed using the flags in {@code flagConfig}. */
+  public static boolean isEnabled(FlagConfig flagConfig) {
+    return flagConfig.checkpointinterval() > 0 || flagConfig.resume();
+  }
+
+  /**
+   * Throws an exception if checkpoints are being written or resumed, but elemental vectors
+   * generated using the flags in {@code flagConfig} would differ between runs, so that resuming
+   * would mix incompatible vectors. Checked by trainers that generate their own elemental vectors.
+   */
+  public static void checkElementalVectorsReproducible(FlagConfig flagConfig) {
+    if (isEnabled(flagConfig) && !ElementalVectorStore.isReproducible(flagConfig)) {
+      throw new IllegalArgumentException(
+          "Checkpoints can only be resumed if elemental vectors are the same in each run."
+          + " Please set -elementalseed, or use -elementalmethod contenthash.");
+    }
+  }
+
+  /** Returns true if a checkpoint should be written after processing {@code processed} items. */
+  public boolean isDue(long processed) {
+    return flagConfig.checkpointinterval() > 0
+        && processed > 0 && processed % flagConfig.checkpointinterval() == 0;
+  }
+
+  /** Returns the cursor of the checkpoint read by {@link #restore}, or 0. */
+  public long getCursor() {
+    return cursor;
+  }
+
+  /**
+   * Reads the last checkpoint if {@link FlagConfig#resume()} is set, returning its vectors,
+   * and setting {@link #getCursor()}. Returns null if not resuming, or if there is no checkpoint.
+   *
+   * @throws IllegalArgumentException if the checkpoint was written with different settings
+   */
+  public VectorStoreRAM restore() throws IOException {
+    if (!flagConfig.resume()) return null;
+    if (!new File(directory.getDirectory().toFile(), fileName).isFile()) {
+      VerbatimLogger.info("No checkpoint " + fileName + " to resume from, starting from scratch.\n");
+      return null;
+    }
+    IndexInput inputStream = directory.openInput(fileName, IOContext.READONCE);
+    try {
+      String checkpointHeader = inputStream.readString();
+      if (!checkpointHeader.equals(header)) {
+        throw new IllegalArgumentException("Checkpoint " + fileName + " was written with settings '"
+            + checkpointHeader + "', which do not match the current settings '" + header + "'.");
+      }
+      cursor = inputStream.readVLong();
+      int numVectors = inputStream.readVInt();
+      VectorStoreRAM vectors = new VectorStoreRAM(flagConfig);
+      for (int i = 0; i < numVectors; ++i) {
+        String key = inputStream.readString();
+        vectors.putVector(key, VectorUtils.readAccumulatedVector(
+            flagConfig.vectortype(), flagConfig.dimension(), inputStream));
+      }
+      VerbatimLogger.info("Resuming from checkpoint " + fileName + " with " + numVectors
+          + " vectors, after " + cursor + " items.\n");
+      return vectors;
+    } finally {
+      inputStream.close();
+    }
+  }
+
+  /**
+   * Writes a checkpoint with the given cursor and vectors. Zero vectors are skipped.
+   * The vectors are serialized before this method returns, so training may continue to change
+   * them, while writing to disk happens in the background. If the previous checkpoint is still
+   * being written, waits for it first.
+   */
+  public void write(long cursor, VectorStore vectors) throws IOException {
+    final RAMOutputStream buffer = new RAMOutputStream();
+    buffer.writeString(header);
+    buffer.writeVLong(cursor);
+    int numVectors = 0;
+    Enumeration<ObjectVector> countEnum = vectors.getAllVectors();
+    while (countEnum.hasMoreElements()) {
+      if (!countEnum.nextElement().getVector().isZeroVector()) ++numVectors;
+    }
+    buffer.writeVInt(numVectors);
+    Enumeration<ObjectVector> vecEnum = vectors.getAllVectors();
+    while (vecEnum.hasMoreElements()) {
+      ObjectVector objectVector = vecEnum.nextElement();
+      Vector vector = objectVector.getVector();
+      if (vector.isZeroVector()) continue;
+      buffer.writeString(objectVector.getObject().toString());
+      VectorUtils.writeAccumulatedVector(vector, buffer);
+    }
+
+    waitForPendingWrite();
+    final long writtenCursor = cursor;
+    pendingWrite = writer.submit(new Callable<Void>() {
+      @Override
+      public Void call() throws IOException {
+        String tempName = fileName + TEMP_EXTENSION;
+        IndexOutput outputStream = directory.createOutput(tempName, IOContext.DEFAULT);
+        try {
+          buffer.writeTo(outputStream);
+        } finally {
+          outputStream.close();
+        }
+        directory.sync(Collections.singleton(tempName));
+        directory.renameFile(tempName, fileName);
+        VerbatimLogger.info("Wrote checkpoint " + fileName + " after " + writtenCursor + " items.\n");
+        return null;
+      }
+    });
+  }
+
+  /**
+   * Finishes training: waits for any checkpoint still being written and then deletes the
+   * checkpoint, since it is no longer needed.
+   */
+  public void finish() throws IOException {
+    waitForPendingWrite();
+    writer.shutdown();
+    if (new File(directory.getDirectory().toFile(), fileName).isFile()) {
+      directory.deleteFile(fileName);
+    }
+    directory.close();
+  }
+
+  /** Waits for the checkpoint being written in the background, if any. */
+  void waitForPendingWrite() throws IOException {
+    if (pendingWrite == null) return;
+    try {
+      pendingWrite.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while writing checkpoint " + fileName, e);
+    } catch (ExecutionException e) {
+      throw new IOException("Failed to write checkpoint " + fileName, e.getCause());
+    } finally {
+      pendingWrite = null;
+    }
+  }
+}
@@ -45,6 +45,7 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.Enumeration;
 import java.util.List;
+import java.util.PriorityQueue;
 import java.util.logging.Logger;
 
 import org.apache.lucene.document.Document;
@@ -74,13 +75,18 @@ import pitt.search.semanticvectors.vectors.ZeroVectorException;
  * Class for searching vector stores using different scoring functions.
  * Each VectorSearcher implements a particular scoring function which is
  * normally query dependent, so each query needs its own VectorSearcher.
+ *
+ * <p>The parts of a search that do not depend on the query are kept in a
+ * {@link SearchPlan}, which many VectorSearchers may share, in different threads
+ * at the same time. Scoring reads the vectors in the search store but does not change them.
  */
 abstract public class VectorSearcher {
   private static final Logger logger = Logger.getLogger(VectorSearcher.class.getCanonicalName());
 
-  private FlagConfig flagConfig;
-  private VectorStore searchVecStore;
-  private LuceneUtils luceneUtils;
+  private final SearchPlan searchPlan;
+  private final FlagConfig flagConfig;
+  private final VectorStore searchVecStore;
+  private final LuceneUtils luceneUtils;
 
   /**
    * Expand search space for dual-predicate searches
@@ -121,6 +127,7 @@ abstract public class VectorSearcher {
   /**
    * This needs to be filled in for each subclass. It takes an individual
    * vector and assigns it a relevance score for this VectorSearcher.
+   * Implementations must not change {@code testVector}, which belongs to the search store.
    */
   public abstract double getScore(Vector testVector);
 
@@ -133,12 +140,23 @@ abstract public class VectorSearcher {
    */
   public VectorSearcher(VectorStore queryVecStore,  VectorStore searchVecStore,
       LuceneUtils luceneUtils, FlagConfig flagConfig) {
-    this.flagConfig = flagConfig;
-    this.searchVecStore = searchVecStore;
-    this.luceneUtils = luceneUtils;
-    if (flagConfig.expandsearchspace()) {
-      this.searchVecStore = expandSearchSpace(searchVecStore, flagConfig);
-    }
+    this(new SearchPlan(searchVecStore, luceneUtils, flagConfig));
+  }
+
+  /**
+   * Initializes a searcher that searches using a shared search plan.
+   * @param searchPlan The vector store to search, term weighting, and flags (cannot be null).
+   */
+  public VectorSearcher(SearchPlan searchPlan) {
+    this.searchPlan = searchPlan;
+    this.flagConfig = searchPlan.getFlagConfig();
+    this.searchVecStore = searchPlan.getSearchVecStore();
+    this.luceneUtils = searchPlan.getLuceneUtils();
+  }
+
+  /** Returns the search plan used by this searcher, which may be shared with other searchers. */
+  public SearchPlan getSearchPlan() {
+    return searchPlan;
   }
 
   /**
@@ -151,29 +169,93 @@ abstract public class VectorSearcher {
    * @param numResults the number of results / length of the result list.
    */
   public LinkedList<SearchResult> getNearestNeighbors(int numResults) {
-    final double unsetScore = -Math.PI;
-    final int bufferSize = 1000;
-    final int indexSize = numResults + bufferSize;
-    LinkedList<SearchResult> results = new LinkedList<SearchResult>();
-    List<SearchResult> tmpResults = new ArrayList<SearchResult>(indexSize);
-    double score = -1;
-    double threshold = flagConfig.searchresultsminscore();
-    if (flagConfig.stdev()) threshold = 0;
-    //Counters for statistics to calculate standard deviation
-    double sum=0, sumsquared=0;
-    int count=0;
-    int pos = 0;
-    for(int i=0; i < indexSize; i++)
-    {
-      tmpResults.add(new SearchResult(unsetScore, null));
-    }
+    return getNearestNeighbors(numResults, flagConfig.searchresultsminscore());
+  }
 
+  /**
+   * As {@link #getNearestNeighbors(int)}, but keeps only results scoring above {@code minScore}
+   * rather than {@link FlagConfig#searchresultsminscore()}, so that a search plan can be shared
+   * by queries that set their own minimum score.
+   * @param numResults the number of results / length of the result list.
+   * @param minScore the minimum score of results.
+   */
+  public LinkedList<SearchResult> getNearestNeighbors(int numResults, double minScore) {
+    NearestNeighborCollector collector =
+        new NearestNeighborCollector(searchPlan, numResults, minScore, false);
     Enumeration<ObjectVector> vecEnum = searchVecStore.getAllVectors();
     while (vecEnum.hasMoreElements()) {
       // Test this element.
       ObjectVector testElement = vecEnum.nextElement();
-      score = getScore(testElement.getVector());
+      collector.add(getScore(testElement.getVector()), testElement);
+    }
+    return collector.getResults();
+  }
+
+  /**
+   * Collects the best scoring results of a nearest neighbor search, for one query.
+   * Used by {@link VectorSearcher#getNearestNeighbors(int)}, and by
+   * {@link SearchPlan#getNearestNeighbors(List, int)} for each query in a block.
+   */
+  static class NearestNeighborCollector {
+    private static final double UNSET_SCORE = -Math.PI;
+    private static final int BUFFER_SIZE = 1000;
+
+    private final FlagConfig flagConfig;
+    private final LuceneUtils luceneUtils;
+    private final int numResults;
+    private final double minScore;
+    private final int indexSize;
+    private final List<SearchResult> tmpResults;
+    private double threshold;
+    private int pos = 0;
+    /** The best scores so far, worst first, if needed for {@link #getCutoff()}. */
+    private final PriorityQueue<Double> bestScores;
+    //Counters for statistics to calculate standard deviation
+    private double sum = 0, sumsquared = 0;
+    private int count = 0;
+
+    NearestNeighborCollector(SearchPlan searchPlan, int numResults) {
+      this(searchPlan, numResults, searchPlan.getFlagConfig().searchresultsminscore(), false);
+    }
+
+    /**
+     * @param minScore the minimum score of results, or of standard deviations from the mean
+     *        if {@link FlagConfig#stdev()} is set
+     * @param keepBestScores true if {@link #getCutoff()} should take account of the best
+     *        scores so far, as well as of the minimum score
+     */
+    NearestNeighborCollector(
+        SearchPlan searchPlan, int numResults, double minScore, boolean keepBestScores) {
+      this.flagConfig = searchPlan.getFlagConfig();
+      this.luceneUtils = searchPlan.getLuceneUtils();
+      this.numResults = numResults;
+      this.minScore = minScore;
+      this.indexSize = numResults + BUFFER_SIZE;
+      this.tmpResults = new ArrayList<SearchResult>(indexSize);
+      this.threshold = minScore;
+      if (flagConfig.stdev()) threshold = 0;
+      for(int i=0; i < indexSize; i++)
+      {
+        tmpResults.add(new SearchResult(UNSET_SCORE, null));
+      }
+      this.bestScores = keepBestScores && numResults > 0
+          ? new PriorityQueue<Double>(numResults) : null;
+    }
 
+    /**
+     * Returns a score below which an element could not change the results, because it would
+     * not be kept or would rank below {@code numResults} elements already seen.
+     */
+    double getCutoff() {
+      double cutoff = Math.nextUp(threshold);
+      if (bestScores != null && bestScores.size() == numResults && bestScores.peek() > cutoff) {
+        cutoff = bestScores.peek();
+      }
+      return cutoff;
+    }
+
+    /** Adds a search store element with the score given to it by the query. */
+    void add(double score, ObjectVector testElement) {
       // This is a way of using the Lucene Index to get term and
       // document frequency information to reweight all results. It
       // seems to be good at moving excessively common terms further
@@ -193,32 +275,42 @@ abstract public class VectorSearcher {
       if (score > threshold) {
         // set existing object in buffer space
         tmpResults.get(numResults+pos++).set(score, testElement);
+        if (bestScores != null) {
+          if (bestScores.size() < numResults) {
+            bestScores.add(score);
+          } else if (score > bestScores.peek()) {
+            bestScores.poll();
+            bestScores.add(score);
+          }
+        }
       }
 
-      if(pos == bufferSize)
+      if(pos == BUFFER_SIZE)
       {
         pos = 0;
         Collections.sort(tmpResults);
         threshold = tmpResults.get(indexSize - 1).getScore();
       }
     }
-    
-    Collections.sort(tmpResults);
-    
-    for(int i = 0; i < numResults; i++)
-    {
-      SearchResult sr = tmpResults.get(i);
-      if(sr.getScore() == unsetScore)
+
+    /** Returns the best results collected, best first. */
+    LinkedList<SearchResult> getResults() {
+      LinkedList<SearchResult> results = new LinkedList<SearchResult>();
+      Collections.sort(tmpResults);
+
+      for(int i = 0; i < numResults; i++)
       {
-        break;
+        SearchResult sr = tmpResults.get(i);
+        if(sr.getScore() == UNSET_SCORE)
+        {
+          break;
+        }
+        results.add(sr);
       }
-      results.add(sr);
-    }
-    
-    if (flagConfig.stdev()) results = transformToStats(results, count, sum, sumsquared);
 
-    
-    return results;
+      if (flagConfig.stdev()) results = transformToStats(results, count, sum, sumsquared, minScore);
+      return results;
+    }
   }
 
   /**
@@ -272,7 +364,14 @@ abstract public class VectorSearcher {
      * Plain constructor that just fills in the query vector and vector store to be searched.
      */
     public VectorSearcherPlain(VectorStore searchVecStore, Vector queryVector, FlagConfig flagConfig) {
-      super(searchVecStore, searchVecStore, null, flagConfig);
+      this(new SearchPlan(searchVecStore, null, flagConfig), queryVector);
+    }
+
+    /**
+     * Constructor that fills in the query vector and a shared search plan.
+     */
+    public VectorSearcherPlain(SearchPlan searchPlan, Vector queryVector) {
+      super(searchPlan);
       this.queryVector = queryVector;
     }
 
@@ -299,9 +398,21 @@ abstract public class VectorSearcher {
         VectorStore queryVecStore, VectorStore searchVecStore,
         LuceneUtils luceneUtils, FlagConfig flagConfig, String[] queryTerms)
             throws ZeroVectorException {
-      super(queryVecStore, searchVecStore, luceneUtils, flagConfig);
+      this(queryVecStore, new SearchPlan(searchVecStore, luceneUtils, flagConfig, true), queryTerms);
+    }
+
+    /**
+     * @param queryVecStore Vector store to use for query generation.
+     * @param searchPlan The vector store to search, term weighting, and flags.
+     * @param queryTerms Terms that will be parsed into a query
+     * expression. If the string "NOT" appears, terms after this will be negated.
+     */
+    public VectorSearcherCosine(
+        VectorStore queryVecStore, SearchPlan searchPlan, String[] queryTerms)
+            throws ZeroVectorException {
+      super(searchPlan);
       this.queryVector = CompoundVectorBuilder.getQueryVector(
-          queryVecStore, luceneUtils, flagConfig, queryTerms);
+          queryVecStore, searchPlan.getLuceneUtils(), searchPlan.getFlagConfig(), queryTerms);
       if (this.queryVector.isZeroVector()) {
         throw new ZeroVectorException("Query vector is zero ... no results.");
       }
@@ -318,9 +429,18 @@ abstract public class VectorSearcher {
         VectorStore queryVecStore, VectorStore searchVecStore,
         LuceneUtils luceneUtils, FlagConfig flagConfig, Vector queryVector)
             throws ZeroVectorException {
-      super(queryVecStore, searchVecStore, luceneUtils, flagConfig);
+      this(new SearchPlan(searchVecStore, luceneUtils, flagConfig, true), queryVector);
+    }
+
+    /**
+     * @param searchPlan The vector store to search, term weighting, and flags.
+     * @param queryVector Vector representing query expression.
+     */
+    public VectorSearcherCosine(SearchPlan searchPlan, Vector queryVector)
+            throws ZeroVectorException {
+      super(searchPlan);
       this.queryVector = queryVector;
-      Vector testVector = searchVecStore.getAllVectors().nextElement().getVector();
+      Vector testVector = searchPlan.getSearchVecStore().getAllVectors().nextElement().getVector();
       IncompatibleVectorsException.checkVectorsCompatible(queryVector, testVector);
       if (this.queryVector.isZeroVector()) {
         throw new ZeroVectorException("Query vector is zero ... no results.");
@@ -331,6 +451,107 @@ abstract public class VectorSearcher {
     public double getScore(Vector testVector) {
       return this.queryVector.measureOverlap(testVector);
     }
+
+    /**
+     * As {@link VectorSearcher#getNearestNeighbors(int, double)}, but scores only the candidates
+     * chosen by a {@link pitt.search.semanticvectors.vectors.BinarySketchIndex}, or stops
+     * scoring vectors that cannot make the results, if the search plan has a
+     * {@link pitt.search.semanticvectors.vectors.BlockNormIndex}.
+     */
+    @Override
+    public LinkedList<SearchResult> getNearestNeighbors(int numResults, double minScore) {
+      if (getSearchPlan().hasBinarySketchIndex()) {
+        return getSearchPlan().getNearestNeighborsBySketch(this, queryVector, numResults, minScore);
+      }
+      if (getSearchPlan().hasBlockNormIndex()) {
+        return getSearchPlan().getNearestNeighborsAbandoningEarly(queryVector, numResults, minScore);
+      }
+      return super.getNearestNeighbors(numResults, minScore);
+    }
+  }
+
+  /**
+   * Class for searching an {@link IvfVectorStore} using cosine similarity, with a query built
+   * as in {@link VectorSearcherCosine}. Only the vectors in the {@link FlagConfig#ivfnprobe()}
+   * lists whose centroids are most similar to the query are scored, so results may leave out
+   * vectors that an exhaustive search would find.
+   */
+  static public class VectorSearcherIvf extends VectorSearcherCosine {
+    private final IvfVectorStore ivfVectorStore;
+
+    /**
+     * @param queryVecStore Vector store to use for query generation.
+     * @param searchVecStore The IVF index to search.
+     * @param luceneUtils LuceneUtils object to use for query weighting. (May be null.)
+     * @param queryTerms Terms that will be parsed into a query
+     * expression. If the string "NOT" appears, terms after this will be negated.
+     * @throws IllegalArgumentException if {@code searchVecStore} is not an {@link IvfVectorStore},
+     *         or if {@link FlagConfig#expandsearchspace()} is set
+     */
+    public VectorSearcherIvf(
+        VectorStore queryVecStore, VectorStore searchVecStore,
+        LuceneUtils luceneUtils, FlagConfig flagConfig, String[] queryTerms)
+            throws ZeroVectorException {
+      this(queryVecStore, new SearchPlan(checkIvfVectorStore(searchVecStore, flagConfig),
+          luceneUtils, flagConfig), queryTerms);
+    }
+
+    /**
+     * @param queryVecStore Vector store to use for query generation.
+     * @param searchPlan The IVF index to search, term weighting, and flags.
+     * @param queryTerms Terms that will be parsed into a query
+     * expression. If the string "NOT" appears, terms after this will be negated.
+     * @throws IllegalArgumentException if the search store is not an {@link IvfVectorStore},
+     *         or if {@link FlagConfig#expandsearchspace()} is set
+     */
+    public VectorSearcherIvf(VectorStore queryVecStore, SearchPlan searchPlan, String[] queryTerms)
+            throws ZeroVectorException {
+      super(queryVecStore, searchPlan, queryTerms);
+      this.ivfVectorStore = (IvfVectorStore) checkIvfVectorStore(
+          searchPlan.getSearchVecStore(), searchPlan.getFlagConfig());
+    }
+
+    /**
+     * @param searchPlan The IVF index to search, term weighting, and flags.
+     * @param queryVector Vector representing query expression.
+     * @throws IllegalArgumentException if the search store is not an {@link IvfVectorStore},
+     *         or if {@link FlagConfig#expandsearchspace()} is set
+     */
+    public VectorSearcherIvf(SearchPlan searchPlan, Vector queryVector)
+            throws ZeroVectorException {
+      super(searchPlan, queryVector);
+      this.ivfVectorStore = (IvfVectorStore) checkIvfVectorStore(
+          searchPlan.getSearchVecStore(), searchPlan.getFlagConfig());
+    }
+
+    private static VectorStore checkIvfVectorStore(VectorStore searchVecStore, FlagConfig flagConfig) {
+      if (flagConfig.expandsearchspace()) {
+        throw new IllegalArgumentException("Search type IVF cannot be used with -expandsearchspace,"
+            + " since expanding the search space replaces the IVF index with a store of its pairs.");
+      }
+      if (!(searchVecStore instanceof IvfVectorStore)) {
+        throw new IllegalArgumentException("Search type IVF needs an index built by IvfIndex,"
+            + " given by -searchvectorfile NAME" + IvfIndex.FILE_EXTENSION);
+      }
+      return searchVecStore;
+    }
+
+    /** Scores the vectors in the lists whose centroids are most similar to the query. */
+    @Override
+    public LinkedList<SearchResult> getNearestNeighbors(int numResults, double minScore) {
+      NearestNeighborCollector collector =
+          new NearestNeighborCollector(getSearchPlan(), numResults, minScore, false);
+      int[] lists = ivfVectorStore.getNearestLists(
+          queryVector, getSearchPlan().getFlagConfig().ivfnprobe());
+      for (int list : lists) {
+        Enumeration<ObjectVector> vecEnum = ivfVectorStore.getListVectors(list);
+        while (vecEnum.hasMoreElements()) {
+          ObjectVector testElement = vecEnum.nextElement();
+          collector.add(getScore(testElement.getVector()), testElement);
+        }
+      }
+      return collector.getResults();
+    }
   }
 
   /**
@@ -342,7 +563,15 @@ abstract public class VectorSearcher {
     public VectorSearcherBoundProduct(VectorStore queryVecStore, VectorStore boundVecStore,
         VectorStore searchVecStore, LuceneUtils luceneUtils, FlagConfig flagConfig, String term1, String term2)
             throws ZeroVectorException {
-      super(queryVecStore, searchVecStore, luceneUtils, flagConfig);
+      this(queryVecStore, boundVecStore,
+          new SearchPlan(searchVecStore, luceneUtils, flagConfig), term1, term2);
+    }
+
+    public VectorSearcherBoundProduct(VectorStore queryVecStore, VectorStore boundVecStore,
+        SearchPlan searchPlan, String term1, String term2)
+            throws ZeroVectorException {
+      super(searchPlan);
+      FlagConfig flagConfig = searchPlan.getFlagConfig();
 
       this.queryVector = CompoundVectorBuilder.getQueryVectorFromString(queryVecStore, null, flagConfig, term1);
 
@@ -357,7 +586,16 @@ abstract public class VectorSearcher {
     public VectorSearcherBoundProduct(VectorStore elementalVecStore, VectorStore semanticVecStore, VectorStore predicateVecStore,
         VectorStore searchVecStore, LuceneUtils luceneUtils, FlagConfig flagConfig, String term1)
             throws ZeroVectorException {
-      super(semanticVecStore, searchVecStore, luceneUtils, flagConfig);
+      this(elementalVecStore, semanticVecStore, predicateVecStore,
+          new SearchPlan(searchVecStore, luceneUtils, flagConfig), term1);
+    }
+
+    public VectorSearcherBoundProduct(VectorStore elementalVecStore, VectorStore semanticVecStore, VectorStore predicateVecStore,
+        SearchPlan searchPlan, String term1)
+            throws ZeroVectorException {
+      super(searchPlan);
+      LuceneUtils luceneUtils = searchPlan.getLuceneUtils();
+      FlagConfig flagConfig = searchPlan.getFlagConfig();
 
       this.queryVector = CompoundVectorBuilder.getBoundProductQueryVectorFromString(
           flagConfig, elementalVecStore, semanticVecStore, predicateVecStore, luceneUtils, term1);
@@ -424,7 +662,15 @@ abstract public class VectorSearcher {
     public VectorSearcherBoundProductSubSpace(VectorStore queryVecStore, VectorStore boundVecStore,
         VectorStore searchVecStore, LuceneUtils luceneUtils, FlagConfig flagConfig, String term1, String term2)
             throws ZeroVectorException {
-      super(queryVecStore, searchVecStore, luceneUtils, flagConfig);
+      this(queryVecStore, boundVecStore,
+          new SearchPlan(searchVecStore, luceneUtils, flagConfig), term1, term2);
+    }
+
+    public VectorSearcherBoundProductSubSpace(VectorStore queryVecStore, VectorStore boundVecStore,
+        SearchPlan searchPlan, String term1, String term2)
+            throws ZeroVectorException {
+      super(searchPlan);
+      FlagConfig flagConfig = searchPlan.getFlagConfig();
 
       disjunctSpace = new ArrayList<Vector>();
       Vector queryVector = queryVecStore.getVector(term1).copy();
@@ -440,11 +686,18 @@ abstract public class VectorSearcher {
     public VectorSearcherBoundProductSubSpace(VectorStore elementalVecStore, VectorStore semanticVecStore, VectorStore predicateVecStore,
         VectorStore searchVecStore, LuceneUtils luceneUtils, FlagConfig flagConfig, String term1)
             throws ZeroVectorException {
-      super(semanticVecStore, searchVecStore, luceneUtils, flagConfig);
+      this(elementalVecStore, semanticVecStore, predicateVecStore,
+          new SearchPlan(searchVecStore, luceneUtils, flagConfig), term1);
+    }
+
+    public VectorSearcherBoundProductSubSpace(VectorStore elementalVecStore, VectorStore semanticVecStore, VectorStore predicateVecStore,
+        SearchPlan searchPlan, String term1)
+            throws ZeroVectorException {
+      super(searchPlan);
 
       disjunctSpace = new ArrayList<Vector>();
       this.disjunctSpace = CompoundVectorBuilder.getBoundProductQuerySubspaceFromString(
-          flagConfig, elementalVecStore, semanticVecStore, predicateVecStore, term1);
+          searchPlan.getFlagConfig(), elementalVecStore, semanticVecStore, predicateVecStore, term1);
 
     }
 
@@ -471,7 +724,15 @@ abstract public class VectorSearcher {
     public VectorSearcherBoundMinimum(VectorStore queryVecStore, VectorStore boundVecStore,
         VectorStore searchVecStore, LuceneUtils luceneUtils, FlagConfig flagConfig, String term1, String term2)
             throws ZeroVectorException {
-      super(queryVecStore, searchVecStore, luceneUtils, flagConfig);
+      this(queryVecStore, boundVecStore,
+          new SearchPlan(searchVecStore, luceneUtils, flagConfig), term1, term2);
+    }
+
+    public VectorSearcherBoundMinimum(VectorStore queryVecStore, VectorStore boundVecStore,
+        SearchPlan searchPlan, String term1, String term2)
+            throws ZeroVectorException {
+      super(searchPlan);
+      FlagConfig flagConfig = searchPlan.getFlagConfig();
 
       disjunctSpace = new ArrayList<Vector>();
       Vector queryVector = queryVecStore.getVector(term1).copy();
@@ -487,11 +748,19 @@ abstract public class VectorSearcher {
     public VectorSearcherBoundMinimum(VectorStore elementalVecStore, VectorStore semanticVecStore, VectorStore predicateVecStore, 
 	        VectorStore searchVecStore, LuceneUtils luceneUtils, FlagConfig flagConfig, String term1)
 	            throws ZeroVectorException {
-	      super(semanticVecStore, searchVecStore, luceneUtils, flagConfig);
-
-	     this.disjunctSpace =  CompoundVectorBuilder.getBoundProductQuerySubspaceFromString(flagConfig, elementalVecStore, semanticVecStore, predicateVecStore, term1);
+	      this(elementalVecStore, semanticVecStore, predicateVecStore,
+	          new SearchPlan(searchVecStore, luceneUtils, flagConfig), term1);
 	    }
 
+    public VectorSearcherBoundMinimum(VectorStore elementalVecStore, VectorStore semanticVecStore, VectorStore predicateVecStore,
+        SearchPlan searchPlan, String term1)
+            throws ZeroVectorException {
+      super(searchPlan);
+
+      this.disjunctSpace = CompoundVectorBuilder.getBoundProductQuerySubspaceFromString(
+          searchPlan.getFlagConfig(), elementalVecStore, semanticVecStore, predicateVecStore, term1);
+    }
+
     public VectorSearcherBoundMinimum(VectorStore queryVecStore, VectorStore boundVecStore,
         VectorStore searchVecStore, LuceneUtils luceneUtils, FlagConfig flagConfig, ArrayList<Vector> incomingDisjunctSpace)
             throws ZeroVectorException {
@@ -528,10 +797,19 @@ abstract public class VectorSearcher {
   public VectorSearcherIntersection(VectorStore elementalVecStore, VectorStore semanticVecStore, VectorStore predicateVecStore, 
 	        VectorStore searchVecStore, LuceneUtils luceneUtils, FlagConfig flagConfig, String term1)
 	            throws ZeroVectorException {
-	      super(semanticVecStore, searchVecStore, luceneUtils, flagConfig);
-	      
-	     this.intersection=CompoundVectorBuilder.getBoundProductQueryIntersectionFromString(flagConfig, elementalVecStore, semanticVecStore, predicateVecStore, luceneUtils, term1);   
+	      this(elementalVecStore, semanticVecStore, predicateVecStore,
+	          new SearchPlan(searchVecStore, luceneUtils, flagConfig), term1);
 	    }
+
+  public VectorSearcherIntersection(VectorStore elementalVecStore, VectorStore semanticVecStore, VectorStore predicateVecStore,
+      SearchPlan searchPlan, String term1)
+          throws ZeroVectorException {
+    super(searchPlan);
+
+    this.intersection = CompoundVectorBuilder.getBoundProductQueryIntersectionFromString(
+        searchPlan.getFlagConfig(), elementalVecStore, semanticVecStore, predicateVecStore,
+        searchPlan.getLuceneUtils(), term1);
+  }
   
   
   public double getScore(Vector testVector) {
@@ -561,7 +839,21 @@ abstract public class VectorSearcher {
         FlagConfig flagConfig,
         String[] queryTerms)
             throws ZeroVectorException {
-      super(queryVecStore, searchVecStore, luceneUtils, flagConfig);
+      this(queryVecStore, new SearchPlan(searchVecStore, luceneUtils, flagConfig), queryTerms);
+    }
+
+    /**
+     * @param queryVecStore Vector store to use for query generation.
+     * @param searchPlan The vector store to search, term weighting, and flags.
+     * @param queryTerms Terms that will be parsed and used to generate a query subspace.
+     */
+    public VectorSearcherSubspaceSim(VectorStore queryVecStore,
+        SearchPlan searchPlan,
+        String[] queryTerms)
+            throws ZeroVectorException {
+      super(searchPlan);
+      LuceneUtils luceneUtils = searchPlan.getLuceneUtils();
+      FlagConfig flagConfig = searchPlan.getFlagConfig();
       this.disjunctSpace = new ArrayList<Vector>();
       this.vectorType = flagConfig.vectortype();
       
@@ -613,7 +905,21 @@ abstract public class VectorSearcher {
         FlagConfig flagConfig,
         String[] queryTerms)
             throws ZeroVectorException {
-      super(queryVecStore, searchVecStore, luceneUtils, flagConfig);
+      this(queryVecStore, new SearchPlan(searchVecStore, luceneUtils, flagConfig), queryTerms);
+    }
+
+    /**
+     * @param queryVecStore Vector store to use for query generation.
+     * @param searchPlan The vector store to search, term weighting, and flags.
+     * @param queryTerms Terms that will be parsed and used to generate a query subspace.
+     */
+    public VectorSearcherMaxSim(VectorStore queryVecStore,
+        SearchPlan searchPlan,
+        String[] queryTerms)
+            throws ZeroVectorException {
+      super(searchPlan);
+      LuceneUtils luceneUtils = searchPlan.getLuceneUtils();
+      FlagConfig flagConfig = searchPlan.getFlagConfig();
       this.disjunctVectors = new ArrayList<Vector>();
 
       for (int i = 0; i < queryTerms.length; ++i) {
@@ -699,7 +1005,21 @@ abstract public class VectorSearcher {
         FlagConfig flagConfig,
         String[] queryTerms)
             throws ZeroVectorException {
-      super(queryVecStore, searchVecStore, luceneUtils, flagConfig);
+      this(queryVecStore, new SearchPlan(searchVecStore, luceneUtils, flagConfig), queryTerms);
+    }
+
+    /**
+     * @param queryVecStore Vector store to use for query generation.
+     * @param searchPlan The vector store to search, term weighting, and flags.
+     * @param queryTerms Terms that will be parsed and used to generate a query subspace.
+     */
+    public VectorSearcherMinSim(VectorStore queryVecStore,
+        SearchPlan searchPlan,
+        String[] queryTerms)
+            throws ZeroVectorException {
+      super(searchPlan);
+      LuceneUtils luceneUtils = searchPlan.getLuceneUtils();
+      FlagConfig flagConfig = searchPlan.getFlagConfig();
       this.disjunctVectors = new ArrayList<Vector>();
 
       for (int i = 0; i < queryTerms.length; ++i) {
@@ -789,7 +1109,22 @@ abstract public class VectorSearcher {
         FlagConfig flagConfig,
         String[] queryTerms)
             throws IllegalArgumentException, ZeroVectorException {
-      super(queryVecStore, searchVecStore, luceneUtils, flagConfig);
+      this(queryVecStore, new SearchPlan(searchVecStore, luceneUtils, flagConfig), queryTerms);
+    }
+
+    /**
+     * @param queryVecStore Vector store to use for query generation.
+     * @param searchPlan The vector store to search, term weighting, and flags.
+     * @param queryTerms Terms that will be parsed into a query
+     * expression. If the string "?" appears, terms best fitting into this position will be returned
+     */
+    public VectorSearcherPerm(VectorStore queryVecStore,
+        SearchPlan searchPlan,
+        String[] queryTerms)
+            throws IllegalArgumentException, ZeroVectorException {
+      super(searchPlan);
+      LuceneUtils luceneUtils = searchPlan.getLuceneUtils();
+      FlagConfig flagConfig = searchPlan.getFlagConfig();
 
       try {
         theAvg = pitt.search.semanticvectors.CompoundVectorBuilder.
@@ -823,7 +1158,13 @@ abstract public class VectorSearcher {
     public AnalogySearcher(
         VectorStore queryVecStore, VectorStore searchVecStore,
         LuceneUtils luceneUtils, FlagConfig flagConfig, String[] queryTriple) {
-      super(queryVecStore, searchVecStore, luceneUtils, flagConfig);
+      this(queryVecStore, new SearchPlan(searchVecStore, luceneUtils, flagConfig), queryTriple);
+    }
+
+    public AnalogySearcher(VectorStore queryVecStore, SearchPlan searchPlan, String[] queryTriple) {
+      super(searchPlan);
+      LuceneUtils luceneUtils = searchPlan.getLuceneUtils();
+      FlagConfig flagConfig = searchPlan.getFlagConfig();
       Vector term0 = CompoundVectorBuilder.getQueryVectorFromString(queryVecStore, luceneUtils, flagConfig, queryTriple[0]);
       Vector term1 = CompoundVectorBuilder.getQueryVectorFromString(queryVecStore, luceneUtils, flagConfig, queryTriple[1]);
       Vector term2 = CompoundVectorBuilder.getQueryVectorFromString(queryVecStore, luceneUtils, flagConfig, queryTriple[2]);
@@ -870,7 +1211,25 @@ abstract public class VectorSearcher {
         VectorStore queryVecStore, VectorStore searchVecStore, LuceneUtils luceneUtils,
         FlagConfig flagConfig, String[] queryTerms)
             throws IllegalArgumentException, ZeroVectorException {
-      super(queryVecStore, searchVecStore, luceneUtils, flagConfig);
+      this(queryVecStore, new SearchPlan(searchVecStore, luceneUtils, flagConfig), queryTerms);
+    }
+
+    /**
+     * @param queryVecStore Vector store to use for query generation (this is also reversed).
+     * @param searchPlan The vector store to search (this is also reversed), term weighting,
+     *        and flags.
+     * @param queryTerms Terms that will be parsed into a query
+     * expression. If the string "?" appears, terms best fitting into this position will be returned
+     */
+    public BalancedVectorSearcherPerm(
+        VectorStore queryVecStore, SearchPlan searchPlan, String[] queryTerms)
+            throws IllegalArgumentException, ZeroVectorException {
+      super(searchPlan);
+      LuceneUtils luceneUtils = searchPlan.getLuceneUtils();
+      FlagConfig flagConfig = searchPlan.getFlagConfig();
+      VectorStore searchVecStore = searchPlan.getSearchVecStore();
+      this.queryVecStore = queryVecStore;
+      this.searchVecStore = searchVecStore;
       specialFlagConfig = flagConfig;
       specialLuceneUtils = luceneUtils;
       try {
@@ -896,12 +1255,13 @@ abstract public class VectorSearcher {
      * {@code VectorSearcher.getNearestNeighbors} method.
      *
      * @param numResults the number of results / length of the result list.
+     * @param minScore the minimum score of results.
      */
     @Override
-    public LinkedList<SearchResult> getNearestNeighbors(int numResults) {
+    public LinkedList<SearchResult> getNearestNeighbors(int numResults, double minScore) {
       LinkedList<SearchResult> results = new LinkedList<SearchResult>();
       double score, score1, score2 = -1;
-      double threshold = specialFlagConfig.searchresultsminscore();
+      double threshold = minScore;
       if (specialFlagConfig.stdev())
         threshold = 0;
 
@@ -955,17 +1315,19 @@ abstract public class VectorSearcher {
           }
         }
       }
-      if (specialFlagConfig.stdev()) results = transformToStats(results, count, sum, sumsquared);
+      if (specialFlagConfig.stdev()) results = VectorSearcher.transformToStats(results, count, sum, sumsquared, minScore);
       return results;
     }
 
+    /**
+     * Store vectors are not normalized before scoring: measureOverlap already
+     * divides by the norms, and normalizing would change vectors in the shared stores.
+     */
     @Override
     public double getScore(Vector testVector) {
-      testVector.normalize();
       return oneDirection.measureOverlap(testVector);
     }
     public double getScore2(Vector testVector) {
-      testVector.normalize();
       return (otherDirection.measureOverlap(testVector));
     }
   }
@@ -1021,9 +1383,10 @@ abstract public class VectorSearcher {
    * {@code VectorSearcher.getNearestNeighbors} method.
    *
    * @param numResults the number of results / length of the result list.
+   * @param minScore not used, since results are scored by Lucene.
    */
   @Override
-  public LinkedList<SearchResult> getNearestNeighbors(int numResults) {
+  public LinkedList<SearchResult> getNearestNeighbors(int numResults, double minScore) {
     LinkedList<SearchResult> results = new LinkedList<SearchResult>();
     
     BooleanQuery mtq = new BooleanQuery();
@@ -1142,6 +1505,11 @@ public double getScore(Vector testVector) {
    */
   public LinkedList<SearchResult> transformToStats(
       LinkedList<SearchResult> rawResults,int count, double sum, double sumsq) {
+    return transformToStats(rawResults, count, sum, sumsq, flagConfig.searchresultsminscore());
+  }
+
+  private static LinkedList<SearchResult> transformToStats(
+      LinkedList<SearchResult> rawResults, int count, double sum, double sumsq, double minScore) {
     LinkedList<SearchResult> transformedResults = new LinkedList<SearchResult>();
     double variancesquared = sumsq - (Math.pow(sum,2)/count);
     double stdev = Math.sqrt(variancesquared/(count));
@@ -1152,7 +1520,7 @@ public double getScore(Vector testVector) {
       SearchResult temp = iterator.next();
       double score = temp.getScore();
       score = new Double((score-mean)/stdev).floatValue();
-      if (score > flagConfig.searchresultsminscore())
+      if (score > minScore)
         transformedResults.add(new SearchResult(score, temp.getObjectVector()));
     }
     return transformedResults;
@@ -1,10 +1,14 @@
 package pitt.search.semanticvectors;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
-import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
 
-import pitt.search.semanticvectors.utils.Bobcat;
+import pitt.search.semanticvectors.utils.ContentHash;
 import pitt.search.semanticvectors.vectors.Vector;
 import pitt.search.semanticvectors.vectors.VectorFactory;
 import pitt.search.semanticvectors.vectors.VectorType;
@@ -12,7 +16,16 @@ import pitt.search.semanticvectors.vectors.VectorType;
 /**
  * This class provides methods for retrieving vectors that are computed on the
  * fly in a deterministic way. To save time, vectors are cached by default.
- * Methods exist to disable/enable caching and to clear the cache.
+ * Methods exist to disable/enable caching and to clear the cache, and
+ * {@link FlagConfig#elementalcachesize()} can be used to bound the cache or to turn it off,
+ * in which case elemental vectors take no memory at all. Only cached vectors are
+ * returned by {@link #getAllVectors()}, so stores with a bounded cache must not be
+ * written out: training classes that write elemental vectors write those they
+ * recorded themselves instead.
+ * <p>
+ * 
+ * Vectors are generated using a random number generator local to each thread,
+ * so instances can be shared by training threads without contention.
  * <p>
  * 
  * Deterministic vector computation bases on the idea of generating a hash code
@@ -24,6 +37,10 @@ import pitt.search.semanticvectors.vectors.VectorType;
  * eliminates the need to cache and/or distribute elemental term vectors for
  * repeatedly conducted or distributed experiments.
  * <p>
+ *
+ * The hash function is chosen by {@link FlagConfig#contenthashmethod()}, and
+ * vectors are only reproducible using the same hash function.
+ * <p>
  * 
  * The serialization currently presumes that the object (in the ObjectVectors)
  * should be serialized as a String.
@@ -37,22 +54,50 @@ import pitt.search.semanticvectors.vectors.VectorType;
  * @see ObjectVector
  **/
 public class VectorStoreDeterministic implements VectorStore, CloseableVectorStore {
+  /** Random number generator for each thread, reseeded for each vector generated. */
+  private static final ThreadLocal<Random> RANDOM = new ThreadLocal<Random>() {
+    @Override
+    protected Random initialValue() {
+      return new Random();
+    }
+  };
+
   private FlagConfig flagConfig;
-  private Hashtable<Object, ObjectVector> objectVectors;
-  private Random random = new Random();
+  /** Cached vectors, or null if the cache is turned off. */
+  private Map<Object, ObjectVector> objectVectors;
   private VectorType vectorType;
   private int dimension;
   private boolean cacheVectors = true;
 
   public VectorStoreDeterministic(FlagConfig flagConfig) {
     this.flagConfig = flagConfig;
-    this.objectVectors = new Hashtable<Object, ObjectVector>();
     this.vectorType = flagConfig.vectortype();
     this.dimension = flagConfig.dimension();
+    final int cacheSize = flagConfig.elementalcachesize();
+    if (cacheSize < 0) {
+      this.objectVectors = new ConcurrentHashMap<Object, ObjectVector>();
+    } else if (cacheSize == 0) {
+      this.objectVectors = Collections.emptyMap();
+      this.cacheVectors = false;
+    } else {
+      // Access-ordered, so that the least recently used vector is evicted first.
+      this.objectVectors = Collections.synchronizedMap(
+          new LinkedHashMap<Object, ObjectVector>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Object, ObjectVector> eldest) {
+              return size() > cacheSize;
+            }
+          });
+    }
   }
 
   public Enumeration<ObjectVector> getAllVectors() {
-    return this.objectVectors.elements();
+    // Copied while holding the lock, as required for synchronized maps.
+    synchronized (this.objectVectors) {
+      return Collections.enumeration(new ArrayList<ObjectVector>(this.objectVectors.values()));
+    }
   }
 
   @Override
@@ -70,13 +115,14 @@ public class VectorStoreDeterministic implements VectorStore, CloseableVectorSto
    /**
     * Enable or disable vector caching. Enabled cache speeds up repeated
     * querying of the same vector, but increases memory footprint. Cache can be
-    * cleared with {@link #clear()}. By default the cache is enabled.
+    * cleared with {@link #clear()}. By default the cache is enabled, unless
+    * {@link FlagConfig#elementalcachesize()} is 0.
     * 
     * @param cacheVectors <code>true</code> to enable the cache,
     *        <code>false</code> otherwise
     */
    public void enableVectorCache(boolean cacheVectors) {
-     this.cacheVectors = cacheVectors;
+     this.cacheVectors = cacheVectors && flagConfig.elementalcachesize() != 0;
    }
 
    /**
@@ -94,7 +140,8 @@ public class VectorStoreDeterministic implements VectorStore, CloseableVectorSto
      if (objectVector != null) {
        return objectVector.getVector();
      } else {
-       random.setSeed(Bobcat.asLong(desiredObject.toString()));
+       Random random = RANDOM.get();
+       random.setSeed(ContentHash.hash(flagConfig.contenthashmethod(), desiredObject.toString()));
        Vector v = VectorFactory.generateRandomVector(vectorType,
            dimension, flagConfig.seedlength(), random);
        if (cacheVectors)
@@ -0,0 +1,176 @@
+/**
+   Copyright (c) 2015, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.NoSuchElementException;
+
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefHash;
+
+import pitt.search.semanticvectors.vectors.IncompatibleVectorsException;
+import pitt.search.semanticvectors.vectors.Vector;
+import pitt.search.semanticvectors.vectors.VectorFactory;
+
+/**
+ * Vector store used during training, which gives each key a dense integer ordinal
+ * (0, 1, 2, ... in the order in which keys are added) and holds the vectors in an array
+ * indexed by ordinal.
+ *
+ * <p>Training loops resolve each term to its ordinal once, up front, and then use
+ * {@link #getVector(int)}, which avoids the synchronized {@code Hashtable} lookup in
+ * {@link VectorStoreRAM} for every co-occurrence. Keys are held as UTF-8 bytes, so they can
+ * be looked up directly with the {@link BytesRef}s returned by Lucene, and are only
+ * converted to {@code String}s by {@link #getKey} and {@link #getAllVectors}, e.g.,
+ * when the store is written out.
+ *
+ * <p>{@link #getVector(int)} may be called from several threads once the store is built.
+ * Lookups by key are not thread-safe.
+ */
+public class VectorStoreOrdinal implements VectorStore {
+  /** Returned by {@link #getOrdinal} for keys that are not in the store. */
+  public static final int NO_ORDINAL = -1;
+
+  private final BytesRefHash keys = new BytesRefHash();
+  private Vector[] vectors = new Vector[16];
+  /** Used for checking compatibility of new vectors. */
+  private final Vector zeroVector;
+
+  public VectorStoreOrdinal(FlagConfig flagConfig) {
+    this.zeroVector = VectorFactory.createZeroVector(flagConfig.vectortype(), flagConfig.dimension());
+  }
+
+  /**
+   * Adds a single vector with the given key and value, and returns the ordinal of the key.
+   * Overwrites any existing vector with this key, keeping its ordinal.
+   */
+  public int putVector(BytesRef key, Vector vector) {
+    IncompatibleVectorsException.checkVectorsCompatible(zeroVector, vector);
+    int ordinal = keys.add(key);
+    if (ordinal < 0) {
+      ordinal = -ordinal - 1;
+    } else if (ordinal == vectors.length) {
+      vectors = Arrays.copyOf(vectors, 2 * vectors.length);
+    }
+    vectors[ordinal] = vector;
+    return ordinal;
+  }
+
+  /** As {@link #putVector(BytesRef, Vector)}, with a {@code String} key. */
+  public int putVector(String key, Vector vector) {
+    return putVector(new BytesRef(key), vector);
+  }
+
+  /** Returns the ordinal of the given key, or {@link #NO_ORDINAL} if it is not in the store. */
+  public int getOrdinal(BytesRef key) {
+    return keys.find(key);
+  }
+
+  /** As {@link #getOrdinal(BytesRef)}, with a {@code String} key. */
+  public int getOrdinal(String key) {
+    return getOrdinal(new BytesRef(key));
+  }
+
+  /** Returns the vector with the given ordinal. */
+  public Vector getVector(int ordinal) {
+    return vectors[ordinal];
+  }
+
+  /** Returns the key with the given ordinal, as a {@code String}. */
+  public String getKey(int ordinal) {
+    return keys.get(ordinal, new BytesRef()).utf8ToString();
+  }
+
+  /**
+   * Returns a store of the given vectors, each keyed by the key with the same ordinal in this
+   * store, e.g., to write out elemental vectors recorded by ordinal during training.
+   */
+  public VectorStoreRAM getVectorsByKey(Vector[] vectorsByOrdinal, FlagConfig flagConfig) {
+    VectorStoreRAM vectorsByKey = new VectorStoreRAM(flagConfig);
+    for (int ordinal = 0; ordinal < keys.size(); ++ordinal) {
+      vectorsByKey.putVector(getKey(ordinal), vectorsByOrdinal[ordinal]);
+    }
+    return vectorsByKey;
+  }
+
+  /**
+   * Returns the vector for this object, which should be a {@code String} or a
+   * {@link BytesRef}, or null if not found.
+   */
+  @Override
+  public Vector getVector(Object object) {
+    int ordinal = getOrdinalForObject(object);
+    return ordinal == NO_ORDINAL ? null : vectors[ordinal];
+  }
+
+  @Override
+  public boolean containsVector(Object object) {
+    return getOrdinalForObject(object) != NO_ORDINAL;
+  }
+
+  private int getOrdinalForObject(Object object) {
+    if (object instanceof BytesRef) return getOrdinal((BytesRef) object);
+    if (object instanceof String) return getOrdinal((String) object);
+    return NO_ORDINAL;
+  }
+
+  /** Returns all the object vectors in the store in ordinal order, with {@code String} keys. */
+  @Override
+  public Enumeration<ObjectVector> getAllVectors() {
+    return new Enumeration<ObjectVector>() {
+      private int ordinal = 0;
+
+      @Override
+      public boolean hasMoreElements() {
+        return ordinal < keys.size();
+      }
+
+      @Override
+      public ObjectVector nextElement() {
+        if (!hasMoreElements()) throw new NoSuchElementException();
+        ObjectVector objectVector = new ObjectVector(getKey(ordinal), vectors[ordinal]);
+        ordinal++;
+        return objectVector;
+      }
+    };
+  }
+
+  @Override
+  public int getNumVectors() {
+    return keys.size();
+  }
+}
@@ -69,6 +69,8 @@ public class VectorStoreRAM implements VectorStore {
   private int dimension;
   /** Used for checking compatibility of new vectors. */
   private Vector zeroVector;
+  /** Built when first needed, and discarded whenever the store changes. */
+  private volatile KeyDictionary keyDictionary;
   
   public VectorStoreRAM(FlagConfig flagConfig) {
     this.objectVectors = new Hashtable<Object, ObjectVector>();
@@ -103,6 +105,7 @@ public class VectorStoreRAM implements VectorStore {
       this.objectVectors.put(objectVector.getObject().toString(), objectVector);
     }
     vectorReaderDisk.close();
+    keyDictionary = null;
     logger.log(Level.FINE, "Cached {0} vectors.", objectVectors.size());
   }
   
@@ -114,6 +117,7 @@ public class VectorStoreRAM implements VectorStore {
     IncompatibleVectorsException.checkVectorsCompatible(zeroVector, vector);
     ObjectVector objectVector = new ObjectVector(key, vector);
     this.objectVectors.put(key, objectVector);
+    keyDictionary = null;
   }
 
   @Override
@@ -157,7 +161,9 @@ public class VectorStoreRAM implements VectorStore {
   public Vector removeVector(Object desiredObject) {
     ObjectVector objectVector = this.objectVectors.get(desiredObject);
     if (objectVector != null) {
-      return objectVectors.remove(desiredObject).getVector();
+      Vector vector = objectVectors.remove(desiredObject).getVector();
+      keyDictionary = null;
+      return vector;
     } else {
       return null;
     }
@@ -167,5 +173,17 @@ public class VectorStoreRAM implements VectorStore {
   public boolean containsVector(Object object) {
 	  return objectVectors.containsKey(object);
   }
+
+  /**
+   * Returns a dictionary of the keys in this store, for looking up vectors by prefix,
+   * wildcard or regular expression. The dictionary is built on first use and rebuilt
+   * after the store changes.
+   */
+  public synchronized KeyDictionary getKeyDictionary() {
+    if (keyDictionary == null) {
+      keyDictionary = new KeyDictionary(objectVectors.elements());
+    }
+    return keyDictionary;
+  }
   
 }
@@ -0,0 +1,153 @@
+/**
+   Copyright (c) 2015, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import pitt.search.semanticvectors.utils.ContentHash;
+import pitt.search.semanticvectors.utils.ContentHash.HashMethod;
+import pitt.search.semanticvectors.vectors.Vector;
+import pitt.search.semanticvectors.vectors.VectorFactory;
+import pitt.search.semanticvectors.vectors.VectorType;
+
+/**
+ * Vector store that generates a random elemental vector the first time each key is requested,
+ * and returns the same vector for that key thereafter. Used by {@link ElementalVectorStore}
+ * for {@link ElementalVectorStore.ElementalGenerationMethod#RANDOM}.
+ *
+ * <p>The store may be shared by training threads: each key's vector is generated exactly once,
+ * by whichever thread requests it first, while other threads requesting the same key wait for it.
+ * Vectors are generated using a per-thread random number generator, unless
+ * {@link FlagConfig#elementalseed()} is set, in which case each vector is generated from the
+ * seed and a hash of its key, so results do not depend on the order in which keys are requested.
+ */
+public class VectorStoreRandom implements VectorStore {
+  private final ConcurrentHashMap<Object, LazyVector> objectVectors =
+      new ConcurrentHashMap<Object, LazyVector>();
+  private final VectorType vectorType;
+  private final int dimension;
+  private final int seedLength;
+  private final int elementalSeed;
+  private final HashMethod hashMethod;
+
+  /** Holds the vector for a key, generating it on first access. */
+  private class LazyVector {
+    private final Object key;
+    private volatile Vector vector;
+
+    LazyVector(Object key) {
+      this.key = key;
+    }
+
+    Vector getVector() {
+      Vector result = vector;
+      if (result == null) {
+        synchronized (this) {
+          result = vector;
+          if (result == null) {
+            result = generateVector(key);
+            vector = result;
+          }
+        }
+      }
+      return result;
+    }
+  }
+
+  public VectorStoreRandom(FlagConfig flagConfig) {
+    this.vectorType = flagConfig.vectortype();
+    this.dimension = flagConfig.dimension();
+    this.seedLength = flagConfig.seedlength();
+    this.elementalSeed = flagConfig.elementalseed();
+    this.hashMethod = flagConfig.contenthashmethod();
+  }
+
+  private Vector generateVector(Object key) {
+    Random random;
+    if (elementalSeed >= 0) {
+      random = new Random(ContentHash.hash(hashMethod, key.toString()) ^ (elementalSeed * 0x9E3779B97F4A7C15L));
+    } else {
+      random = ThreadLocalRandom.current();
+    }
+    return VectorFactory.generateRandomVector(vectorType, dimension, seedLength, random);
+  }
+
+  /**
+   * Returns the vector for the given key, generating a random vector if the key
+   * does not already have one.
+   */
+  @Override
+  public Vector getVector(Object key) {
+    LazyVector lazyVector = objectVectors.get(key);
+    if (lazyVector == null) {
+      LazyVector newVector = new LazyVector(key);
+      lazyVector = objectVectors.putIfAbsent(key, newVector);
+      if (lazyVector == null) lazyVector = newVector;
+    }
+    return lazyVector.getVector();
+  }
+
+  @Override
+  public boolean containsVector(Object key) {
+    return objectVectors.containsKey(key);
+  }
+
+  @Override
+  public Enumeration<ObjectVector> getAllVectors() {
+    final Iterator<LazyVector> iterator = objectVectors.values().iterator();
+    return new Enumeration<ObjectVector>() {
+      @Override
+      public boolean hasMoreElements() {
+        return iterator.hasNext();
+      }
+
+      @Override
+      public ObjectVector nextElement() {
+        LazyVector lazyVector = iterator.next();
+        return new ObjectVector(lazyVector.key, lazyVector.getVector());
+      }
+    };
+  }
+
+  @Override
+  public int getNumVectors() {
+    return objectVectors.size();
+  }
+}
@@ -47,12 +47,16 @@ public class VectorStoreReader {
    * Opens a vector store for reading, setting flags appropriately.
    * 
    * @param storeName The name/path of the vector store to read (doesn't need ".txt" or ".bin" suffix).
+   *        Names ending with {@link IvfIndex#FILE_EXTENSION} are opened as {@link IvfVectorStore}s.
    * @param flagConfig Supplies expected file format; vectortype and dimension will be set to the values
    *        given in the header line of the vector store.
    * @return Vector store object backed by the file given.
    * @throws IOException If the file is not found, or the header line cannot be parsed.
    */
   public static CloseableVectorStore openVectorStore(String storeName, FlagConfig flagConfig) throws IOException {
+    if (IvfIndex.isIvfFile(storeName)) {
+      return new IvfVectorStore(storeName, flagConfig, false);
+    }
     CloseableVectorStore vectorStore = null;
     storeName = VectorStoreUtils.getStoreFileName(storeName, flagConfig);
     switch (flagConfig.indexfileformat()) {
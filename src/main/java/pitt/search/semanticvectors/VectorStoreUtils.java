@@ -33,6 +33,10 @@
    SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  **/package pitt.search.semanticvectors;
 
+import java.util.Enumeration;
+
+import pitt.search.semanticvectors.vectors.VectorUtils;
+
  public class VectorStoreUtils {
 
    public enum VectorStoreFormat {
@@ -70,4 +74,21 @@
        throw new IllegalStateException("Unknown -indexfileformat: " + flagConfig.indexfileformat());
      }
    }
+ 
+   /**
+    * Converts the vectors held in memory by {@code vectorStore} to the representation they are
+    * compared in, using {@link VectorUtils#prepareForComparison}, so that the store can be
+    * searched by several threads at once. Stores read from disk
+    * ({@link CloseableVectorStore}s) are left alone, since they create new vectors each time
+    * they are read.
+    */
+   public static void prepareForComparison(VectorStore vectorStore) {
+     if (vectorStore == null || vectorStore instanceof CloseableVectorStore) {
+       return;
+     }
+     Enumeration<ObjectVector> vecEnum = vectorStore.getAllVectors();
+     while (vecEnum.hasMoreElements()) {
+       VectorUtils.prepareForComparison(vecEnum.nextElement().getVector());
+     }
+   }
  }
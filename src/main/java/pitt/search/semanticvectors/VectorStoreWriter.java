@@ -39,6 +39,7 @@ import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.store.IOContext;
 import org.apache.lucene.store.IndexOutput;
 
+import pitt.search.semanticvectors.ElementalVectorStore.ElementalGenerationMethod;
 import pitt.search.semanticvectors.utils.VerbatimLogger;
 
 import java.io.BufferedWriter;
@@ -65,14 +66,21 @@ public class VectorStoreWriter {
 
   /**
    * Generates a single string containing global header information for a vector store.
-   * This includes the vector type and the dimension.
+   * This includes the vector type and the dimension, and for stores built using
+   * content-hashed elemental vectors, the hash method used.
    * 
    * String created is in the form that {@code Flags} would expect to parse, e.g.,
    * "-vectortype real -dimension 100".
    */
   public static String generateHeaderString(FlagConfig flagConfig) {
-    return "-vectortype " + flagConfig.vectortype().toString()
+    String header = "-vectortype " + flagConfig.vectortype().toString()
         + " -dimension " + Integer.toString(flagConfig.dimension());
+    if (flagConfig.elementalmethod() == ElementalGenerationMethod.CONTENTHASH) {
+      // Recorded so that elemental vectors can be regenerated when the store is used.
+      header += " -elementalmethod " + flagConfig.elementalmethod().toString()
+          + " -contenthashmethod " + flagConfig.contenthashmethod().toString();
+    }
+    return header;
   }
 
   /**
@@ -0,0 +1,265 @@
+/**
+   Copyright (c) 2015, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors.utils;
+
+import java.nio.charset.Charset;
+
+/**
+ * Hash functions for generating elemental vectors from the contents of their keys, see
+ * {@link pitt.search.semanticvectors.VectorStoreDeterministic}. The method used is chosen by
+ * {@link pitt.search.semanticvectors.FlagConfig#contenthashmethod()}.
+ *
+ * <p>{@link HashMethod#MURMUR3} and {@link HashMethod#XXHASH} are fast non-cryptographic hashes,
+ * implemented here following the published reference algorithms (MurmurHash3 x64 128-bit and
+ * xxHash64, both with seed 0), applied to the UTF-8 bytes of the key. {@link HashMethod#BOBCAT}
+ * is the original method, see {@link Bobcat}, and is kept as the default so that existing
+ * vectors can still be regenerated.
+ */
+public class ContentHash {
+
+  /** Hash methods available for content-hashed elemental vectors. */
+  public enum HashMethod {
+    /** The Bobcat hash, see {@link Bobcat#asLong}. Uses 48 bits. */
+    BOBCAT,
+    /** The first 64 bits of MurmurHash3 x64 128-bit. */
+    MURMUR3,
+    /** xxHash64. */
+    XXHASH
+  }
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private static final long MURMUR_C1 = 0x87c37b91114253d5L;
+  private static final long MURMUR_C2 = 0x4cf5ad432745937fL;
+
+  private static final long XX_PRIME1 = 0x9E3779B185EBCA87L;
+  private static final long XX_PRIME2 = 0xC2B2AE3D27D4EB4FL;
+  private static final long XX_PRIME3 = 0x165667B19E3779F9L;
+  private static final long XX_PRIME4 = 0x85EBCA77C2B2AE63L;
+  private static final long XX_PRIME5 = 0x27D4EB2F165667C5L;
+
+  // Private constructor. This class is not meant to be instantiated.
+  private ContentHash() {}
+
+  /**
+   * Returns the hash of the given text using the given method.
+   */
+  public static long hash(HashMethod method, String text) {
+    switch (method) {
+    case BOBCAT:
+      return Bobcat.asLong(text);
+    case MURMUR3:
+      return murmur3(text.getBytes(UTF8))[0];
+    case XXHASH:
+      return xxHash64(text.getBytes(UTF8));
+    default:
+      throw new IllegalArgumentException("Unrecognized hash method: " + method);
+    }
+  }
+
+  /**
+   * Returns the 128-bit MurmurHash3 (x64 variant, seed 0) of the given bytes, as two longs.
+   */
+  @SuppressWarnings("fallthrough")
+  public static long[] murmur3(byte[] data) {
+    int length = data.length;
+    int numBlocks = length / 16;
+    long h1 = 0;
+    long h2 = 0;
+
+    for (int i = 0; i < numBlocks; ++i) {
+      long k1 = getLongLittleEndian(data, i * 16);
+      long k2 = getLongLittleEndian(data, i * 16 + 8);
+
+      k1 *= MURMUR_C1;
+      k1 = Long.rotateLeft(k1, 31);
+      k1 *= MURMUR_C2;
+      h1 ^= k1;
+      h1 = Long.rotateLeft(h1, 27);
+      h1 += h2;
+      h1 = h1 * 5 + 0x52dce729;
+
+      k2 *= MURMUR_C2;
+      k2 = Long.rotateLeft(k2, 33);
+      k2 *= MURMUR_C1;
+      h2 ^= k2;
+      h2 = Long.rotateLeft(h2, 31);
+      h2 += h1;
+      h2 = h2 * 5 + 0x38495ab5;
+    }
+
+    // Tail. Each case falls through to the next, as in the reference implementation.
+    int tail = numBlocks * 16;
+    long k1 = 0;
+    long k2 = 0;
+    switch (length & 15) {
+    case 15: k2 ^= (long) (data[tail + 14] & 0xff) << 48;
+    case 14: k2 ^= (long) (data[tail + 13] & 0xff) << 40;
+    case 13: k2 ^= (long) (data[tail + 12] & 0xff) << 32;
+    case 12: k2 ^= (long) (data[tail + 11] & 0xff) << 24;
+    case 11: k2 ^= (long) (data[tail + 10] & 0xff) << 16;
+    case 10: k2 ^= (long) (data[tail + 9] & 0xff) << 8;
+    case 9:
+      k2 ^= (long) (data[tail + 8] & 0xff);
+      k2 *= MURMUR_C2;
+      k2 = Long.rotateLeft(k2, 33);
+      k2 *= MURMUR_C1;
+      h2 ^= k2;
+    case 8: k1 ^= (long) (data[tail + 7] & 0xff) << 56;
+    case 7: k1 ^= (long) (data[tail + 6] & 0xff) << 48;
+    case 6: k1 ^= (long) (data[tail + 5] & 0xff) << 40;
+    case 5: k1 ^= (long) (data[tail + 4] & 0xff) << 32;
+    case 4: k1 ^= (long) (data[tail + 3] & 0xff) << 24;
+    case 3: k1 ^= (long) (data[tail + 2] & 0xff) << 16;
+    case 2: k1 ^= (long) (data[tail + 1] & 0xff) << 8;
+    case 1:
+      k1 ^= (long) (data[tail] & 0xff);
+      k1 *= MURMUR_C1;
+      k1 = Long.rotateLeft(k1, 31);
+      k1 *= MURMUR_C2;
+      h1 ^= k1;
+    default:
+      break;
+    }
+
+    // Finalization.
+    h1 ^= length;
+    h2 ^= length;
+    h1 += h2;
+    h2 += h1;
+    h1 = fmix64(h1);
+    h2 = fmix64(h2);
+    h1 += h2;
+    h2 += h1;
+    return new long[] { h1, h2 };
+  }
+
+  private static long fmix64(long k) {
+    k ^= k >>> 33;
+    k *= 0xff51afd7ed558ccdL;
+    k ^= k >>> 33;
+    k *= 0xc4ceb9fe1a85ec53L;
+    k ^= k >>> 33;
+    return k;
+  }
+
+  /**
+   * Returns the xxHash64 (seed 0) of the given bytes.
+   */
+  public static long xxHash64(byte[] data) {
+    int length = data.length;
+    int offset = 0;
+    long hash;
+
+    if (length >= 32) {
+      long v1 = XX_PRIME1 + XX_PRIME2;
+      long v2 = XX_PRIME2;
+      long v3 = 0;
+      long v4 = -XX_PRIME1;
+      int limit = length - 32;
+      do {
+        v1 = xxRound(v1, getLongLittleEndian(data, offset));
+        v2 = xxRound(v2, getLongLittleEndian(data, offset + 8));
+        v3 = xxRound(v3, getLongLittleEndian(data, offset + 16));
+        v4 = xxRound(v4, getLongLittleEndian(data, offset + 24));
+        offset += 32;
+      } while (offset <= limit);
+
+      hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7)
+          + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+      hash = xxMergeRound(hash, v1);
+      hash = xxMergeRound(hash, v2);
+      hash = xxMergeRound(hash, v3);
+      hash = xxMergeRound(hash, v4);
+    } else {
+      hash = XX_PRIME5;
+    }
+
+    hash += length;
+
+    while (offset + 8 <= length) {
+      hash ^= xxRound(0, getLongLittleEndian(data, offset));
+      hash = Long.rotateLeft(hash, 27) * XX_PRIME1 + XX_PRIME4;
+      offset += 8;
+    }
+    if (offset + 4 <= length) {
+      hash ^= (getIntLittleEndian(data, offset) & 0xffffffffL) * XX_PRIME1;
+      hash = Long.rotateLeft(hash, 23) * XX_PRIME2 + XX_PRIME3;
+      offset += 4;
+    }
+    while (offset < length) {
+      hash ^= (data[offset] & 0xff) * XX_PRIME5;
+      hash = Long.rotateLeft(hash, 11) * XX_PRIME1;
+      ++offset;
+    }
+
+    hash ^= hash >>> 33;
+    hash *= XX_PRIME2;
+    hash ^= hash >>> 29;
+    hash *= XX_PRIME3;
+    hash ^= hash >>> 32;
+    return hash;
+  }
+
+  private static long xxRound(long accumulator, long input) {
+    accumulator += input * XX_PRIME2;
+    accumulator = Long.rotateLeft(accumulator, 31);
+    return accumulator * XX_PRIME1;
+  }
+
+  private static long xxMergeRound(long hash, long value) {
+    hash ^= xxRound(0, value);
+    return hash * XX_PRIME1 + XX_PRIME4;
+  }
+
+  private static long getLongLittleEndian(byte[] data, int offset) {
+    return (data[offset] & 0xffL)
+        | (data[offset + 1] & 0xffL) << 8
+        | (data[offset + 2] & 0xffL) << 16
+        | (data[offset + 3] & 0xffL) << 24
+        | (data[offset + 4] & 0xffL) << 32
+        | (data[offset + 5] & 0xffL) << 40
+        | (data[offset + 6] & 0xffL) << 48
+        | (data[offset + 7] & 0xffL) << 56;
+  }
+
+  private static int getIntLittleEndian(byte[] data, int offset) {
+    return (data[offset] & 0xff)
+        | (data[offset + 1] & 0xff) << 8
+        | (data[offset + 2] & 0xff) << 16
+        | (data[offset + 3] & 0xff) << 24;
+  }
+}
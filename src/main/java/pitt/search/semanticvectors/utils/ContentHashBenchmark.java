@@ -0,0 +1,84 @@
+/**
+   Copyright (c) 2015, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors.utils;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import pitt.search.semanticvectors.utils.ContentHash.HashMethod;
+
+/**
+ * Compares the speed of the {@link ContentHash} methods on a large synthetic vocabulary,
+ * and counts the distinct hash values each produces.
+ *
+ * <p>Usage: {@code java pitt.search.semanticvectors.utils.ContentHashBenchmark [vocabularysize]},
+ * default vocabulary size 1000000.
+ */
+public class ContentHashBenchmark {
+
+  private static final int NUM_TRIALS = 3;
+
+  public static void main(String[] args) {
+    int vocabularySize = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+    String[] vocabulary = new String[vocabularySize];
+    for (int i = 0; i < vocabularySize; ++i) {
+      // Varying lengths, with some terms longer than a single hash block.
+      vocabulary[i] = (i % 7 == 0) ? "compoundterm_" + i + "_" + (vocabularySize - i) : "term" + i;
+    }
+
+    for (HashMethod method : HashMethod.values()) {
+      long total = 0;
+      long bestTime = Long.MAX_VALUE;
+      for (int trial = 0; trial < NUM_TRIALS; ++trial) {
+        long start = System.nanoTime();
+        for (String term : vocabulary) {
+          total += ContentHash.hash(method, term);
+        }
+        bestTime = Math.min(bestTime, System.nanoTime() - start);
+      }
+
+      Set<Long> distinctHashes = new HashSet<Long>();
+      for (String term : vocabulary) {
+        distinctHashes.add(ContentHash.hash(method, term));
+      }
+      // The checksum is printed so that the hashing cannot be optimized away.
+      VerbatimLogger.info(String.format(
+          "%s: %.1f ns per term, %d distinct hashes for %d terms (checksum %d)%n",
+          method, (double) bestTime / vocabularySize,
+          distinctHashes.size(), vocabularySize, total));
+    }
+  }
+}
@@ -0,0 +1,220 @@
+/**
+   Copyright (c) 2015, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors.vectors;
+
+import java.util.Random;
+
+import org.apache.lucene.util.FixedBitSet;
+
+/**
+ * Binary sketches of real or complex vectors, for choosing the candidates of a cosine search
+ * cheaply before scoring them exactly.
+ *
+ * <p>The sketch of a vector is a {@link BinaryVector} whose bits are the signs of the vector's
+ * projections onto fixed random hyperplanes. The fraction of bits in which two sketches differ
+ * estimates the angle between the two vectors divided by pi, so sketches that are close in
+ * Hamming distance, as counted by {@link BinaryVectorUtils#xorCount}, belong to vectors that
+ * are likely to be close in cosine similarity.
+ *
+ * <p>Complex vectors are sketched from their cartesian coordinates, with each coordinate scaled
+ * to length one, because {@link ComplexVector#measureOverlap} compares phase angles and
+ * ignores magnitudes.
+ *
+ * <p>The index does not change the vectors it is built from, and may be used by several
+ * threads at once.
+ */
+public class BinarySketchIndex {
+  /** Seed for the random hyperplanes, so that a query is sketched the same way every time. */
+  private static final long RANDOM_SEED = 0;
+
+  private final VectorType vectorType;
+  private final int dimension;
+  /** A zero vector of the type and dimension of the sketched vectors, to check queries with. */
+  private final Vector zeroVector;
+  private final int numBits;
+  /** The random hyperplanes, one row of real or cartesian coordinates for each bit. */
+  private final float[][] hyperplanes;
+  private final BinaryVector[] sketches;
+
+  /** Returns true if vectors of this type can be sketched. */
+  public static boolean isSupported(VectorType vectorType) {
+    switch (vectorType) {
+    case REAL:
+    case COMPLEX:
+    case COMPLEXFLAT:
+      return true;
+    default:
+      return false;
+    }
+  }
+
+  /**
+   * Sketches vectors, which must all have the same supported type and dimension.
+   *
+   * @param vectors the vectors to sketch, whose positions in the array are used as their
+   *        identifiers in {@link #getCandidates}
+   * @param numBits the number of bits in each sketch, a positive multiple of 64
+   */
+  public BinarySketchIndex(Vector[] vectors, int numBits) {
+    if (vectors.length == 0) {
+      throw new IllegalArgumentException("Cannot sketch an empty array of vectors.");
+    }
+    if (numBits <= 0 || numBits % 64 != 0) {
+      throw new IllegalArgumentException(
+          "Number of sketch bits should be a positive multiple of 64: " + numBits);
+    }
+    this.vectorType = vectors[0].getVectorType();
+    if (!isSupported(vectorType)) {
+      throw new IllegalArgumentException("Cannot sketch vectors of type " + vectorType);
+    }
+    this.dimension = vectors[0].getDimension();
+    this.zeroVector = VectorFactory.createZeroVector(vectorType, dimension);
+    this.numBits = numBits;
+
+    int numCoordinates = vectorType == VectorType.REAL ? dimension : 2 * dimension;
+    Random random = new Random(RANDOM_SEED);
+    this.hyperplanes = new float[numBits][numCoordinates];
+    for (int bit = 0; bit < numBits; ++bit) {
+      for (int i = 0; i < numCoordinates; ++i) {
+        hyperplanes[bit][i] = (float) random.nextGaussian();
+      }
+    }
+
+    this.sketches = new BinaryVector[vectors.length];
+    for (int v = 0; v < vectors.length; ++v) {
+      IncompatibleVectorsException.checkVectorsCompatible(vectors[0], vectors[v]);
+      sketches[v] = sketch(vectors[v]);
+    }
+  }
+
+  /** Returns the number of vectors sketched. */
+  public int size() {
+    return sketches.length;
+  }
+
+  /** Returns the number of bits in each sketch. */
+  public int getNumBits() {
+    return numBits;
+  }
+
+  /** Returns the sketch of {@code vector}, which is not changed. */
+  public BinaryVector sketch(Vector vector) {
+    float[] coordinates = getSketchCoordinates(vector);
+    FixedBitSet bits = new FixedBitSet(numBits);
+    for (int bit = 0; bit < numBits; ++bit) {
+      float[] hyperplane = hyperplanes[bit];
+      double projection = 0;
+      for (int i = 0; i < coordinates.length; ++i) {
+        projection += hyperplane[i] * coordinates[i];
+      }
+      if (projection > 0) {
+        bits.set(bit);
+      }
+    }
+    return new BinaryVector(bits);
+  }
+
+  /** Returns the coordinates that are projected onto the hyperplanes. */
+  private float[] getSketchCoordinates(Vector vector) {
+    if (vector.getVectorType() == VectorType.REAL) {
+      // A copy if the vector is sparse, so the vector is not changed.
+      return ((RealVector) vector).getCoordinates();
+    }
+    ComplexVector complexVector = ((ComplexVector) vector).copy();
+    complexVector.toCartesian();
+    float[] coordinates = complexVector.getCoordinates().clone();
+    for (int i = 0; i < coordinates.length; i += 2) {
+      double length = Math.sqrt(coordinates[i] * coordinates[i]
+          + coordinates[i + 1] * coordinates[i + 1]);
+      if (length > 0) {
+        coordinates[i] /= length;
+        coordinates[i + 1] /= length;
+      }
+    }
+    return coordinates;
+  }
+
+  /**
+   * Returns the positions of the {@code numCandidates} vectors whose sketches are nearest to
+   * the sketch of {@code queryVector}, in increasing order of position. Of vectors at equal
+   * Hamming distance, those at earlier positions are chosen.
+   *
+   * @param queryVector the query, of the type and dimension of the sketched vectors, which is
+   *        not changed
+   * @param numCandidates the number of candidates wanted; all vectors are returned if there
+   *        are no more than this
+   */
+  public int[] getCandidates(Vector queryVector, int numCandidates) {
+    IncompatibleVectorsException.checkVectorsCompatible(queryVector, zeroVector);
+    if (numCandidates >= sketches.length) {
+      int[] all = new int[sketches.length];
+      for (int v = 0; v < all.length; ++v) {
+        all[v] = v;
+      }
+      return all;
+    }
+    numCandidates = Math.max(0, numCandidates);
+
+    FixedBitSet querySketch = sketch(queryVector).getCoordinates();
+    int[] distances = new int[sketches.length];
+    int[] counts = new int[numBits + 1];
+    for (int v = 0; v < sketches.length; ++v) {
+      distances[v] = (int) BinaryVectorUtils.xorCount(querySketch, sketches[v].getCoordinates());
+      ++counts[distances[v]];
+    }
+
+    // Find the greatest distance that is needed, and how many vectors at that distance are.
+    int cutoffDistance = 0;
+    int closer = 0;
+    while (closer + counts[cutoffDistance] < numCandidates) {
+      closer += counts[cutoffDistance];
+      ++cutoffDistance;
+    }
+    int atCutoff = numCandidates - closer;
+
+    int[] candidates = new int[numCandidates];
+    int found = 0;
+    for (int v = 0; v < sketches.length && found < numCandidates; ++v) {
+      if (distances[v] < cutoffDistance) {
+        candidates[found++] = v;
+      } else if (distances[v] == cutoffDistance && atCutoff > 0) {
+        candidates[found++] = v;
+        --atCutoff;
+      }
+    }
+    return candidates;
+  }
+}
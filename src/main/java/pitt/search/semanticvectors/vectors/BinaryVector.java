@@ -352,6 +352,53 @@ public class BinaryVector implements Vector {
     }
   }
 
+  /**
+   * Adds the voting record of {@code other} to the voting record of this vector, so that
+   * the result is the same as if every vector superposed onto {@code other} had been
+   * superposed onto this vector instead. Neither vector should have been normalized.
+   *
+   * Used to combine partial semantic vectors accumulated separately, e.g., by different
+   * training threads. If the two voting records use different numbers of decimal places,
+   * the counts from {@code other} are rescaled, which may involve rounding.
+   */
+  public void mergeVotingRecord(BinaryVector other) {
+    IncompatibleVectorsException.checkVectorsCompatible(this, other);
+    if (other.isSparse) {
+      // Elemental vectors have no voting record, and count as a single vote.
+      superpose(other, 1, null);
+      return;
+    }
+    if (isSparse) {
+      decimalPlaces = other.decimalPlaces;
+      elementalToSemantic();
+    }
+
+    if (decimalPlaces == other.decimalPlaces) {
+      // Each row of the other record adds 2^row votes in the dimensions where it has a 1.
+      while (votingRecord.size() < other.votingRecord.size()) {
+        votingRecord.add(new FixedBitSet(dimension));
+      }
+      for (int x = 0; x < other.votingRecord.size(); ++x) {
+        superposeBitSetFromRowFloor(other.votingRecord.get(x), x);
+      }
+      minimum += other.minimum;
+      totalNumberOfVotes += other.totalNumberOfVotes;
+    } else {
+      int votesBefore = totalNumberOfVotes;
+      double otherScale = Math.pow(10, -other.decimalPlaces);
+      for (int x = 0; x < other.votingRecord.size(); ++x) {
+        superposeBitSet(other.votingRecord.get(x), Math.pow(2, x) * otherScale);
+      }
+      if (other.minimum > 0) {
+        FixedBitSet allDimensions = new FixedBitSet(dimension);
+        allDimensions.set(0, dimension);
+        superposeBitSet(allDimensions, other.minimum * otherScale);
+      }
+      totalNumberOfVotes = votesBefore + (int) Math.round(
+          other.totalNumberOfVotes * Math.pow(10, decimalPlaces - other.decimalPlaces));
+    }
+  }
+
   /**
    * Reverses a string - simplifies the decoding of the binary vector for the 'exact' method
    * although it wouldn't be difficult to reverse the counter instead
@@ -748,6 +795,60 @@ public class BinaryVector implements Vector {
     this.isSparse = true;
   }
 
+  /**
+   * Writes the bits and the voting record of this vector to the output stream, so that
+   * superposition can be continued after reading it with {@link #readVotingRecordFromLuceneStream}.
+   * Unlike {@link #writeToLuceneStream}, the accumulated votes are not lost.
+   */
+  public void writeVotingRecordToLuceneStream(IndexOutput outputStream) throws IOException {
+    writeBitSet(bitSet, outputStream);
+    outputStream.writeByte((byte) (isSparse ? 0 : 1));
+    if (isSparse) return;
+    outputStream.writeInt(decimalPlaces);
+    outputStream.writeInt(totalNumberOfVotes);
+    outputStream.writeInt(minimum);
+    outputStream.writeVInt(votingRecord.size());
+    for (FixedBitSet row : votingRecord) {
+      writeBitSet(row, outputStream);
+    }
+  }
+
+  /**
+   * Reads a vector written by {@link #writeVotingRecordToLuceneStream}, including its voting record.
+   */
+  public void readVotingRecordFromLuceneStream(IndexInput inputStream) throws IOException {
+    this.bitSet = readBitSet(inputStream);
+    this.isSparse = inputStream.readByte() == 0;
+    if (isSparse) {
+      votingRecord = null;
+      return;
+    }
+    decimalPlaces = inputStream.readInt();
+    totalNumberOfVotes = inputStream.readInt();
+    minimum = inputStream.readInt();
+    int numRows = inputStream.readVInt();
+    votingRecord = new ArrayList<FixedBitSet>(numRows);
+    for (int i = 0; i < numRows; ++i) {
+      votingRecord.add(readBitSet(inputStream));
+    }
+    tempSet = new FixedBitSet(dimension);
+  }
+
+  private void writeBitSet(FixedBitSet bits, IndexOutput outputStream) throws IOException {
+    long[] bitArray = bits.getBits();
+    for (int i = 0; i < dimension / 64; ++i) {
+      outputStream.writeLong(bitArray[i]);
+    }
+  }
+
+  private FixedBitSet readBitSet(IndexInput inputStream) throws IOException {
+    long[] bitArray = new long[dimension / 64];
+    for (int i = 0; i < bitArray.length; ++i) {
+      bitArray[i] = inputStream.readLong();
+    }
+    return new FixedBitSet(bitArray, dimension);
+  }
+
   @Override
   /**
    * Writes vector to a string of the form 010 etc. (no delimiters). 
@@ -0,0 +1,205 @@
+/**
+   Copyright (c) 2015, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors.vectors;
+
+/**
+ * Real vectors prepared for cosine search that gives up on a vector as soon as it cannot
+ * score highly enough to matter, rather than always taking the full dot product.
+ *
+ * <p>Coordinates are split into blocks of a fixed number of dimensions, and the norm of every
+ * vector from the start of each block to the end is stored. After each block of the dot
+ * product, the Cauchy-Schwarz inequality bounds what the remaining blocks can add by the
+ * product of the remaining norms of the query and the vector. If even that cannot bring the
+ * score up to the cutoff given by the caller, the rest of the vector is skipped.
+ *
+ * <p>Scores that are computed in full are exactly those of
+ * {@code queryVector.measureOverlap(testVector)}, and a vector is only skipped if its score
+ * would have been below the cutoff, so search results are the same as with exhaustive
+ * scoring. The index does not change the vectors it is built from, and may be used by
+ * several threads at once.
+ */
+public class BlockNormIndex {
+  /** Returned by {@link Scorer#measureOverlap} for vectors that cannot reach the cutoff. */
+  public static final double ABANDONED = Double.NEGATIVE_INFINITY;
+
+  /**
+   * Allowance for rounding, relative to the product of the norms. Products of float
+   * coordinates are rounded to about 6e-8 of their size, and the dot product and norms are
+   * summed in doubles, so the computed score never exceeds the bound by this much.
+   */
+  private static final double ROUNDING_ALLOWANCE = 1e-6;
+
+  private final int dimension;
+  private final int blockSize;
+  private final int numBlocks;
+  private final float[][] coordinates;
+  /** Squared norms, summed as in {@link RealVector#measureOverlap}. */
+  private final double[] norms;
+  private final boolean[] zeros;
+  /**
+   * Entry {@code v * numBlocks + b} is the norm of vector {@code v} from the start of
+   * block {@code b} to the end.
+   */
+  private final double[] remainingNorms;
+
+  /** Returns true if vectors of this type can be searched with an index. */
+  public static boolean isSupported(VectorType vectorType) {
+    return vectorType == VectorType.REAL;
+  }
+
+  /**
+   * @param vectors real vectors of the same dimension, which are not changed
+   * @param blockSize number of dimensions scored between checks against the cutoff
+   * @throws IncompatibleVectorsException if vectors are not real or differ in dimension
+   */
+  public BlockNormIndex(Vector[] vectors, int blockSize) {
+    if (blockSize <= 0) {
+      throw new IllegalArgumentException("Block size must be positive, not " + blockSize);
+    }
+    this.dimension = vectors.length == 0 ? 0 : vectors[0].getDimension();
+    this.blockSize = blockSize;
+    this.numBlocks = (dimension + blockSize - 1) / blockSize;
+    this.coordinates = new float[vectors.length][];
+    this.norms = new double[vectors.length];
+    this.zeros = new boolean[vectors.length];
+    this.remainingNorms = new double[vectors.length * numBlocks];
+    for (int v = 0; v < vectors.length; ++v) {
+      if (!isSupported(vectors[v].getVectorType())) {
+        throw new IncompatibleVectorsException(
+            "Only real vectors can be indexed, not " + vectors[v].getVectorType());
+      }
+      IncompatibleVectorsException.checkVectorsCompatible(vectors[0], vectors[v]);
+      coordinates[v] = ((RealVector) vectors[v]).getCoordinates();
+      norms[v] = squaredNorm(coordinates[v]);
+      zeros[v] = isZero(coordinates[v]);
+      fillRemainingNorms(coordinates[v], remainingNorms, v * numBlocks);
+    }
+  }
+
+  /** Returns the number of vectors in the index. */
+  public int size() {
+    return coordinates.length;
+  }
+
+  /**
+   * Returns a scorer of the indexed vectors against {@code queryVector}, which is not changed.
+   * @throws IncompatibleVectorsException if the query is not real or differs in dimension
+   */
+  public Scorer getScorer(Vector queryVector) {
+    return new Scorer(queryVector);
+  }
+
+  /** Scores the indexed vectors against one query. Not for use by several threads at once. */
+  public class Scorer {
+    private final float[] queryCoordinates;
+    private final double queryNorm;
+    private final boolean queryZero;
+    private final double[] queryRemainingNorms;
+
+    private Scorer(Vector queryVector) {
+      if (queryVector.getVectorType() != VectorType.REAL || queryVector.getDimension() != dimension) {
+        throw new IncompatibleVectorsException("Query vector does not match the indexed vectors.");
+      }
+      queryCoordinates = ((RealVector) queryVector).getCoordinates();
+      queryNorm = squaredNorm(queryCoordinates);
+      queryZero = isZero(queryCoordinates);
+      queryRemainingNorms = new double[numBlocks];
+      fillRemainingNorms(queryCoordinates, queryRemainingNorms, 0);
+    }
+
+    /**
+     * Returns the cosine similarity of the query and indexed vector number {@code v}, or
+     * {@link #ABANDONED} if it is certain to be less than {@code cutoff}.
+     */
+    public double measureOverlap(int v, double cutoff) {
+      if (queryZero || zeros[v]) {
+        return 0;
+      }
+      float[] testCoordinates = coordinates[v];
+      double denominator = Math.sqrt(queryNorm * norms[v]);
+      // The bound cannot be trusted if the norms have underflowed or overflowed.
+      boolean canAbandon = denominator > 0 && !Double.isInfinite(denominator);
+      double allowance = ROUNDING_ALLOWANCE * Math.sqrt(queryNorm) * Math.sqrt(norms[v]);
+      int offset = v * numBlocks;
+
+      double result = 0;
+      int start = 0;
+      for (int b = 1; b < numBlocks; ++b) {
+        int end = start + blockSize;
+        for (int i = start; i < end; ++i) {
+          result += queryCoordinates[i] * testCoordinates[i];
+        }
+        start = end;
+        if (canAbandon) {
+          double bound = result + queryRemainingNorms[b] * remainingNorms[offset + b] + allowance;
+          if (bound / denominator < cutoff) {
+            return ABANDONED;
+          }
+        }
+      }
+      for (int i = start; i < dimension; ++i) {
+        result += queryCoordinates[i] * testCoordinates[i];
+      }
+      return result / Math.sqrt(queryNorm * norms[v]);
+    }
+  }
+
+  private double squaredNorm(float[] vectorCoordinates) {
+    double norm = 0;
+    for (int i = 0; i < dimension; ++i) {
+      norm += vectorCoordinates[i] * vectorCoordinates[i];
+    }
+    return norm;
+  }
+
+  /** Fills in the norm from the start of each block to the end, summing from the end. */
+  private void fillRemainingNorms(float[] vectorCoordinates, double[] target, int offset) {
+    double remaining = 0;
+    for (int b = numBlocks - 1; b >= 0; --b) {
+      for (int i = Math.min(dimension, (b + 1) * blockSize) - 1; i >= b * blockSize; --i) {
+        remaining += (double) vectorCoordinates[i] * vectorCoordinates[i];
+      }
+      target[offset + b] = Math.sqrt(remaining);
+    }
+  }
+
+  private static boolean isZero(float[] vectorCoordinates) {
+    for (float coordinate : vectorCoordinates) {
+      if (coordinate != 0) return false;
+    }
+    return true;
+  }
+}
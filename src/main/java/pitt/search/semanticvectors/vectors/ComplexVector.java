@@ -827,6 +827,18 @@ public class ComplexVector implements Vector {
       this.opMode = opMode;
     }
 
+    /**
+     * Converts this vector to the representation that {@link #measureOverlap} compares it in,
+     * given the current dominant mode.
+     */
+    void toComparisonMode() {
+      if (DOMINANT_MODE == Mode.CARTESIAN || hermitian) {
+        toCartesian();
+      } else {
+        toDensePolar();
+      }
+    }
+
     //temporary - hermitian mode of operation to be properly integrated later
     private final boolean hermitian = false;
 }
@@ -0,0 +1,240 @@
+/**
+   Copyright (c) 2015, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors.vectors;
+
+import java.util.List;
+
+import org.apache.lucene.util.FixedBitSet;
+
+/**
+ * A block of query vectors that are scored together against the same test vectors, so that
+ * each test vector is read once for the whole block rather than once for each query.
+ *
+ * <p>Scores are exactly those of {@code queryVector.measureOverlap(testVector)} for each query.
+ * Real vectors are scored with a tiled loop over dense coordinates, binary vectors by counting
+ * the differing bits of each query in turn, and other vector types with
+ * {@link Vector#measureOverlap}.
+ *
+ * <p>For real and binary vectors, scoring changes neither the block nor the test vectors,
+ * so one block may be used by several threads at once.
+ */
+public class QueryBlock {
+  private final Vector[] queryVectors;
+  private final boolean[] zeroQueries;
+  private final VectorType vectorType;
+  private final int dimension;
+
+  /** Dense coordinates and squared norms of real query vectors. */
+  private float[][] realCoordinates;
+  private double[] realNorms;
+
+  /** Bits of binary query vectors. */
+  private long[][] binaryBits;
+
+  /**
+   * @param queryVectors query vectors, which must all have the same type and dimension
+   * @throws IncompatibleVectorsException if query vectors have different types or dimensions
+   */
+  public QueryBlock(List<Vector> queryVectors) {
+    if (queryVectors.isEmpty()) {
+      throw new IllegalArgumentException("A query block needs at least one query vector.");
+    }
+    this.queryVectors = queryVectors.toArray(new Vector[queryVectors.size()]);
+    this.vectorType = this.queryVectors[0].getVectorType();
+    this.dimension = this.queryVectors[0].getDimension();
+    this.zeroQueries = new boolean[this.queryVectors.length];
+    for (int q = 0; q < this.queryVectors.length; ++q) {
+      IncompatibleVectorsException.checkVectorsCompatible(this.queryVectors[0], this.queryVectors[q]);
+      zeroQueries[q] = this.queryVectors[q].isZeroVector();
+    }
+
+    switch (vectorType) {
+    case REAL:
+      realCoordinates = new float[this.queryVectors.length][];
+      realNorms = new double[this.queryVectors.length];
+      for (int q = 0; q < this.queryVectors.length; ++q) {
+        realCoordinates[q] = ((RealVector) this.queryVectors[q]).getCoordinates();
+        realNorms[q] = squaredNorm(realCoordinates[q]);
+      }
+      break;
+    case BINARY:
+      binaryBits = new long[this.queryVectors.length][];
+      for (int q = 0; q < this.queryVectors.length; ++q) {
+        binaryBits[q] = ((BinaryVector) this.queryVectors[q]).getCoordinates().getBits();
+      }
+      break;
+    default:
+      break;
+    }
+  }
+
+  /** Returns the number of query vectors in the block. */
+  public int size() {
+    return queryVectors.length;
+  }
+
+  /** Returns true if query number {@code q} is a zero vector, which scores 0 against everything. */
+  public boolean isZeroQuery(int q) {
+    return zeroQueries[q];
+  }
+
+  /**
+   * Scores test vectors against every query in the block.
+   *
+   * @param testVectors test vectors, of the same type and dimension as the queries
+   * @param numTestVectors number of test vectors to score, from the start of {@code testVectors}
+   * @param scores filled in so that {@code scores[q][t]} is the overlap of query {@code q} with
+   *        test vector {@code t}; must have at least {@link #size()} rows of
+   *        {@code numTestVectors} entries
+   * @throws IncompatibleVectorsException if a test vector does not match the queries
+   */
+  public void measureOverlaps(Vector[] testVectors, int numTestVectors, double[][] scores) {
+    for (int t = 0; t < numTestVectors; ++t) {
+      IncompatibleVectorsException.checkVectorsCompatible(queryVectors[0], testVectors[t]);
+    }
+    switch (vectorType) {
+    case REAL:
+      measureRealOverlaps(testVectors, numTestVectors, scores);
+      return;
+    case BINARY:
+      measureBinaryOverlaps(testVectors, numTestVectors, scores);
+      return;
+    default:
+      for (int q = 0; q < queryVectors.length; ++q) {
+        for (int t = 0; t < numTestVectors; ++t) {
+          scores[q][t] = queryVectors[q].measureOverlap(testVectors[t]);
+        }
+      }
+    }
+  }
+
+  /**
+   * Cosine similarity as in {@link RealVector#measureOverlap}, with the products and sums
+   * taken in the same order so that scores are identical.
+   */
+  private void measureRealOverlaps(Vector[] testVectors, int numTestVectors, double[][] scores) {
+    float[][] testCoordinates = new float[numTestVectors][];
+    double[] testNorms = new double[numTestVectors];
+    boolean[] testZeros = new boolean[numTestVectors];
+    for (int t = 0; t < numTestVectors; ++t) {
+      testCoordinates[t] = ((RealVector) testVectors[t]).getCoordinates();
+      testNorms[t] = squaredNorm(testCoordinates[t]);
+      // A nonzero vector may still have a squared norm of 0 if its entries underflow.
+      testZeros[t] = isZero(testCoordinates[t]);
+    }
+
+    // Four queries are scored together against each test vector. Each score is still summed
+    // in coordinate order, but the four independent sums keep the processor busier than one.
+    int q = 0;
+    for (; q + 4 <= queryVectors.length; q += 4) {
+      float[] query0 = realCoordinates[q], query1 = realCoordinates[q + 1],
+          query2 = realCoordinates[q + 2], query3 = realCoordinates[q + 3];
+      for (int t = 0; t < numTestVectors; ++t) {
+        float[] coordinates = testCoordinates[t];
+        double result0 = 0, result1 = 0, result2 = 0, result3 = 0;
+        for (int i = 0; i < dimension; ++i) {
+          float coordinate = coordinates[i];
+          result0 += query0[i] * coordinate;
+          result1 += query1[i] * coordinate;
+          result2 += query2[i] * coordinate;
+          result3 += query3[i] * coordinate;
+        }
+        scores[q][t] = realScore(q, result0, testNorms[t], testZeros[t]);
+        scores[q + 1][t] = realScore(q + 1, result1, testNorms[t], testZeros[t]);
+        scores[q + 2][t] = realScore(q + 2, result2, testNorms[t], testZeros[t]);
+        scores[q + 3][t] = realScore(q + 3, result3, testNorms[t], testZeros[t]);
+      }
+    }
+    for (; q < queryVectors.length; ++q) {
+      float[] queryCoordinates = realCoordinates[q];
+      for (int t = 0; t < numTestVectors; ++t) {
+        float[] coordinates = testCoordinates[t];
+        double result = 0;
+        for (int i = 0; i < dimension; ++i) {
+          result += queryCoordinates[i] * coordinates[i];
+        }
+        scores[q][t] = realScore(q, result, testNorms[t], testZeros[t]);
+      }
+    }
+  }
+
+  private double realScore(int q, double result, double testNorm, boolean testZero) {
+    if (zeroQueries[q] || testZero) {
+      return 0;
+    }
+    return result / Math.sqrt(realNorms[q] * testNorm);
+  }
+
+  /**
+   * Overlap as in {@link BinaryVector#measureOverlap}, counting the bits in which each
+   * query differs from the test vector.
+   */
+  private void measureBinaryOverlaps(Vector[] testVectors, int numTestVectors, double[][] scores) {
+    int numWords = FixedBitSet.bits2words(dimension);
+    for (int t = 0; t < numTestVectors; ++t) {
+      BinaryVector testVector = (BinaryVector) testVectors[t];
+      boolean testZero = testVector.isZeroVector();
+      long[] testBits = testVector.getCoordinates().getBits();
+      for (int q = 0; q < queryVectors.length; ++q) {
+        if (zeroQueries[q] || testZero) {
+          scores[q][t] = 0;
+          continue;
+        }
+        long[] queryBits = binaryBits[q];
+        long hammingDistance = 0;
+        for (int i = 0; i < numWords; ++i) {
+          hammingDistance += Long.bitCount(queryBits[i] ^ testBits[i]);
+        }
+        scores[q][t] = 2*(0.5 - (hammingDistance / (double) dimension));
+      }
+    }
+  }
+
+  private double squaredNorm(float[] coordinates) {
+    double norm = 0;
+    for (int i = 0; i < dimension; ++i) {
+      norm += coordinates[i] * coordinates[i];
+    }
+    return norm;
+  }
+
+  private static boolean isZero(float[] coordinates) {
+    for (float coordinate : coordinates) {
+      if (coordinate != 0) return false;
+    }
+    return true;
+  }
+}
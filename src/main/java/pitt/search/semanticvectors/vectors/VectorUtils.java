@@ -35,11 +35,15 @@
 
 package pitt.search.semanticvectors.vectors;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
 import java.util.logging.Logger;
 
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+
 /**
  * This class provides some standard vector methods. Many old methods have been removed
  * and are now implemented in vector and util classes for real, complex, and binary vectors.
@@ -48,6 +52,20 @@ public class VectorUtils {
   @SuppressWarnings("unused")
   private static final Logger logger = Logger.getLogger(VectorUtils.class.getCanonicalName());
 
+  /**
+   * Converts {@code vector} in place to the representation that {@link Vector#measureOverlap}
+   * would convert it to (e.g., sparse real vectors to dense, complex vectors to the dominant
+   * mode). Afterwards, comparing the vector only reads it, so it can be compared in several
+   * threads at once. Does nothing if the vector is in that representation already.
+   */
+  public static void prepareForComparison(Vector vector) {
+    if (vector instanceof RealVector) {
+      ((RealVector) vector).sparseToDense();
+    } else if (vector instanceof ComplexVector) {
+      ((ComplexVector) vector).toComparisonMode();
+    }
+  }
+
   /**
    * Get nearest vector from list of candidates.
    * @param vector The vector whose nearest neighbor is to be found.
@@ -138,6 +156,71 @@ public class VectorUtils {
     }
   }
 
+  /**
+   * Adds the accumulated (unnormalized) contents of {@code partial} to {@code target}, so that
+   * the result is as if all the vectors superposed onto {@code partial} had been superposed
+   * onto {@code target}. For binary vectors, this merges voting records, see
+   * {@link BinaryVector#mergeVotingRecord}.
+   */
+  public static void mergeAccumulatedVectors(Vector target, Vector partial) {
+    IncompatibleVectorsException.checkVectorsCompatible(target, partial);
+    switch (target.getVectorType()) {
+    case REAL:
+    case COMPLEX:
+    case COMPLEXFLAT:
+      target.superpose(partial, 1, null);
+      return;
+    case BINARY:
+      ((BinaryVector) target).mergeVotingRecord((BinaryVector) partial);
+      return;
+    default:
+      throw new IncompatibleVectorsException("Type not recognized: " + target.getVectorType());
+    }
+  }
+
+  /**
+   * Writes the accumulated (unnormalized) state of {@code vector} to the output stream, so that
+   * superposition can be continued after reading it with {@link #readAccumulatedVector}.
+   * Real and complex vectors are written as by {@link Vector#writeToLuceneStream}, which keeps
+   * their magnitudes. Binary vectors also write their voting records, see
+   * {@link BinaryVector#writeVotingRecordToLuceneStream}.
+   */
+  public static void writeAccumulatedVector(Vector vector, IndexOutput outputStream)
+      throws IOException {
+    switch (vector.getVectorType()) {
+    case REAL:
+    case COMPLEX:
+    case COMPLEXFLAT:
+      vector.writeToLuceneStream(outputStream);
+      return;
+    case BINARY:
+      ((BinaryVector) vector).writeVotingRecordToLuceneStream(outputStream);
+      return;
+    default:
+      throw new IncompatibleVectorsException("Type not recognized: " + vector.getVectorType());
+    }
+  }
+
+  /**
+   * Reads a vector written by {@link #writeAccumulatedVector}.
+   */
+  public static Vector readAccumulatedVector(
+      VectorType vectorType, int dimension, IndexInput inputStream) throws IOException {
+    Vector vector = VectorFactory.createZeroVector(vectorType, dimension);
+    switch (vectorType) {
+    case REAL:
+    case COMPLEX:
+    case COMPLEXFLAT:
+      vector.readFromLuceneStream(inputStream);
+      return vector;
+    case BINARY:
+      ((BinaryVector) vector).readVotingRecordFromLuceneStream(inputStream);
+      return vector;
+    default:
+      throw new IncompatibleVectorsException("Type not recognized: " + vectorType);
+    }
+  }
+
   /**
    * Generates a basic sparse vector
    * with mainly zeros and some 1 and -1 entries (seedLength/2 of each)
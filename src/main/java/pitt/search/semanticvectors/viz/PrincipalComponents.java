@@ -62,6 +62,14 @@ public class PrincipalComponents {
   int dimension;
 
   public PrincipalComponents (ObjectVector[] vectorInput) {
+    this(vectorInput, 1);
+  }
+
+  /**
+   * Computes principal components using {@code numThreads} threads for the SVD,
+   * which gives the same results as a single thread.
+   */
+  public PrincipalComponents (ObjectVector[] vectorInput, int numThreads) {
     this.vectorInput = vectorInput;
     this.dimension = vectorInput[0].getVector().getDimension();
     double[][] vectorArray = new double[vectorInput.length][dimension];
@@ -84,6 +92,7 @@ public class PrincipalComponents {
     matrix.value = vectorArray;
     System.err.println("Created matrix ... performing svd ...");
     Svdlib svd = new Svdlib();
+    svd.setNumThreads(numThreads);
     System.err.println("Starting SVD using algorithm LAS2");
     svdR = svd.svdLAS2A(Svdlib.svdConvertDtoS(matrix), matrix.cols);
   }
@@ -116,7 +125,7 @@ public class PrincipalComponents {
 
     // Get search results, perform clustering, and print out results.
     ObjectVector[] resultsVectors = Search.getSearchResultVectors(flagConfig);
-    PrincipalComponents pcs = new PrincipalComponents(resultsVectors);
+    PrincipalComponents pcs = new PrincipalComponents(resultsVectors, flagConfig.numthreads());
     pcs.plotVectors();
   }
 }
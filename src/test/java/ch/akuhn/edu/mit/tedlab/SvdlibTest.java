@@ -0,0 +1,175 @@
+/**
+   Copyright (c) 2015, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package ch.akuhn.edu.mit.tedlab;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import cern.colt.matrix.tdouble.algo.decomposition.DenseDoubleEigenvalueDecomposition;
+import cern.colt.matrix.tdouble.impl.DenseDoubleMatrix2D;
+
+public class SvdlibTest extends TestCase {
+
+  /** Returns a random sparse matrix with roughly {@code density} of its entries set. */
+  private static SMat randomSparseMatrix(int rows, int cols, double density, long seed) {
+    return Svdlib.svdConvertDtoS(randomDenseMatrix(rows, cols, density, seed));
+  }
+
+  /** Returns a dense matrix with roughly {@code density} of its entries set. */
+  private static DMat randomDenseMatrix(int rows, int cols, double density, long seed) {
+    Random random = new Random(seed);
+    DMat dense = new DMat(rows, cols);
+    for (int row = 0; row < rows; ++row) {
+      for (int col = 0; col < cols; ++col) {
+        if (random.nextDouble() < density) {
+          dense.value[row][col] = random.nextDouble();
+        }
+      }
+    }
+    return dense;
+  }
+
+  private static void assertSameResults(SVDRec expected, SVDRec actual) {
+    assertEquals(expected.d, actual.d);
+    assertTrue(Arrays.equals(expected.S, actual.S));
+    for (int i = 0; i < expected.d; ++i) {
+      assertTrue(Arrays.equals(expected.Ut.value[i], actual.Ut.value[i]));
+      assertTrue(Arrays.equals(expected.Vt.value[i], actual.Vt.value[i]));
+    }
+  }
+
+  @Test
+  public void testParallelMultiplierMatchesSerialProducts() {
+    SMat matrix = randomSparseMatrix(57, 43, 0.1, 1);
+    Svdlib.ParallelMultiplier multiplier = new Svdlib.ParallelMultiplier(matrix, 3);
+    try {
+      Random random = new Random(2);
+      double[] x = new double[matrix.cols];
+      for (int i = 0; i < x.length; ++i) {
+        x[i] = random.nextGaussian();
+      }
+      double[] expected = new double[matrix.cols];
+      double[] actual = new double[matrix.cols];
+      Svdlib.svd_opb(matrix, x, expected, new double[matrix.rows]);
+      multiplier.opb(x, actual);
+      assertTrue(Arrays.equals(expected, actual));
+
+      expected = new double[matrix.rows];
+      actual = new double[matrix.rows];
+      Svdlib.svd_opa(matrix, x, expected);
+      multiplier.opa(x, actual);
+      assertTrue(Arrays.equals(expected, actual));
+    } finally {
+      multiplier.shutdown();
+    }
+  }
+
+  @Test
+  public void testThreadsDoNotChangeResults() {
+    // The wide matrix is transposed inside svdLAS2, the tall one is not.
+    for (SMat matrix : new SMat[] {
+        randomSparseMatrix(300, 80, 0.05, 3), randomSparseMatrix(80, 300, 0.05, 4)}) {
+      SVDRec serial = new Svdlib().svdLAS2A(matrix, 10);
+      Svdlib svd = new Svdlib();
+      svd.setNumThreads(4);
+      assertSameResults(serial, svd.svdLAS2A(matrix, 10));
+    }
+  }
+
+  @Test
+  public void testSingularValuesAreInDecreasingOrder() {
+    // Singular values of a diagonal matrix are its entries, which are shuffled here.
+    double[] entries = {3, 7, 1, 9, 4, 6, 2, 8, 5};
+    DMat dense = new DMat(entries.length, entries.length + 3);
+    for (int i = 0; i < entries.length; ++i) {
+      dense.value[i][i] = entries[i];
+    }
+    SVDRec svd = new Svdlib().svdLAS2A(Svdlib.svdConvertDtoS(dense), 4);
+    assertEquals(4, svd.d);
+    for (int i = 0; i < 4; ++i) {
+      assertEquals(9.0 - i, svd.S[i], 1e-10);
+      // The singular vectors are columns of the identity.
+      int index = Arrays.asList(3, 7, 1, 5).get(i);
+      assertEquals(1.0, Math.abs(svd.Ut.value[i][index]), 1e-10);
+    }
+  }
+
+  @Test
+  public void testRotateArrayMovesRowToFront() {
+    double[][] rows = {{0, 1}, {2, 3}, {4, 5}, {6, 7}};
+    Svdlib.rotateArray(rows, 3);
+    assertTrue(Arrays.deepEquals(new double[][] {{6, 7}, {0, 1}, {2, 3}, {4, 5}}, rows));
+  }
+
+  @Test
+  public void testSingularTripletsMatchDenseDecomposition() {
+    // Lanczos converges more singular values than requested here, so ritvec has to rotate the
+    // singular vectors to put the largest first.
+    DMat dense = randomDenseMatrix(60, 40, 0.2, 3);
+    SMat matrix = Svdlib.svdConvertDtoS(dense);
+    SVDRec svd = new Svdlib().svdLAS2A(matrix, 3);
+    assertEquals(3, svd.d);
+
+    double[][] gram = new double[matrix.cols][matrix.cols];
+    for (int i = 0; i < matrix.cols; ++i) {
+      for (int j = 0; j < matrix.cols; ++j) {
+        for (int row = 0; row < matrix.rows; ++row) {
+          gram[i][j] += dense.value[row][i] * dense.value[row][j];
+        }
+      }
+    }
+    double[] eigenvalues = new DenseDoubleEigenvalueDecomposition(
+        new DenseDoubleMatrix2D(gram)).getRealEigenvalues().toArray();
+    Arrays.sort(eigenvalues);
+
+    for (int i = 0; i < svd.d; ++i) {
+      double expected = Math.sqrt(eigenvalues[eigenvalues.length - 1 - i]);
+      assertEquals(expected, svd.S[i], 1e-10 * expected);
+      // Each pair of singular vectors satisfies A v = s u.
+      for (int row = 0; row < matrix.rows; ++row) {
+        double product = 0;
+        for (int col = 0; col < matrix.cols; ++col) {
+          product += dense.value[row][col] * svd.Vt.value[i][col];
+        }
+        assertEquals(svd.S[i] * svd.Ut.value[i][row], product, 1e-10 * svd.S[0]);
+      }
+    }
+  }
+}
@@ -0,0 +1,207 @@
+/**
+   Copyright (c) 2015, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.lucene;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Enumeration;
+
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.store.FSDirectory;
+import org.junit.After;
+import org.junit.Test;
+
+import pitt.search.semanticvectors.FlagConfig;
+import pitt.search.semanticvectors.LuceneUtils;
+import pitt.search.semanticvectors.ObjectVector;
+import pitt.search.semanticvectors.PSI;
+import pitt.search.semanticvectors.VectorStoreRAM;
+import pitt.search.semanticvectors.vectors.RealVector;
+import pitt.search.semanticvectors.vectors.Vector;
+
+import static org.junit.Assert.*;
+
+public class LuceneIndexFromTriplesTest {
+
+  private static final String TRIPLES_FILE = "triplestest.txt";
+  private static final String DOC_VALUES_INDEX = "triplestest_index";
+  private static final String STORED_FIELDS_INDEX = "triplestest_storedfields_index";
+  private static final String[] VECTOR_STORES = {"elemental", "semantic", "predicate"};
+
+  private static final String[] TRIPLES = {
+    "Abraham\tbegat\tIsaac",
+    "Isaac\tbegat\tJacob",
+    "Isaac\tbegat\tJacob",
+    "Jacob\tbegat\tJudah",
+    "Jacob\tson of\tIsaac",
+    "Judah\tson of\tJacob",
+    "Jacob\tlived in\tLand of Canaan",
+    "Isaac\tlived in\tLand of Canaan",
+    "Isaac\tbegat",
+  };
+
+  @After
+  public void tearDown() {
+    for (String indexPath : new String[] {DOC_VALUES_INDEX, STORED_FIELDS_INDEX}) {
+      File indexDirectory = new File(indexPath);
+      File[] files = indexDirectory.listFiles();
+      if (files != null) {
+        for (File file : files) file.delete();
+      }
+      indexDirectory.delete();
+      for (String store : VECTOR_STORES) {
+        new File(storeName(indexPath, store, 1) + ".bin").delete();
+        new File(storeName(indexPath, store, 2) + ".bin").delete();
+      }
+    }
+    new File(TRIPLES_FILE).delete();
+    // FlagConfig sets the real bind method globally, so put back the default for later tests.
+    RealVector.setBindType(RealVector.RealBindMethod.CONVOLUTION);
+  }
+
+  private static String storeName(String indexPath, String store, int numThreads) {
+    return indexPath + "_" + store + "vectors" + numThreads;
+  }
+
+  private static void writeTriplesFile() throws IOException {
+    FileWriter writer = new FileWriter(TRIPLES_FILE);
+    for (String triple : TRIPLES) {
+      writer.write(triple + "\n");
+    }
+    writer.close();
+  }
+
+  private static IndexWriter openWriter(String indexPath) throws IOException {
+    return new IndexWriter(FSDirectory.open(FileSystems.getDefault().getPath(indexPath)),
+        new IndexWriterConfig(new WhitespaceAnalyzer()));
+  }
+
+  /** Writes the triples as stored fields only, as indexes were built before doc values. */
+  private static void writeStoredFieldsIndex() throws IOException {
+    IndexWriter writer = openWriter(STORED_FIELDS_INDEX);
+    for (String triple : TRIPLES) {
+      String[] fields = triple.split("\t");
+      if (fields.length < 3) continue;
+      String subject = fields[0].toLowerCase().replaceAll(" ", "_");
+      String predicate = fields[1].toUpperCase().replaceAll(" ", "_");
+      String object = fields[2].toLowerCase().replaceAll(" ", "_");
+      Document doc = new Document();
+      doc.add(new TextField("subject", subject, Field.Store.YES));
+      doc.add(new TextField("predicate", predicate, Field.Store.YES));
+      doc.add(new TextField("object", object, Field.Store.YES));
+      doc.add(new TextField("predication", subject + predicate + object, Field.Store.NO));
+      writer.addDocument(doc);
+    }
+    writer.close();
+  }
+
+  private static FlagConfig psiConfig(String indexPath, int numThreads) {
+    return FlagConfig.getFlagConfig(new String[] {
+        "-luceneindexpath", indexPath, "-vectortype", "real", "-dimension", "200",
+        "-seedlength", "10", "-elementalmethod", "contenthash", "-termweight", "idf",
+        "-numthreads", Integer.toString(numThreads),
+        "-elementalvectorfile", storeName(indexPath, "elemental", numThreads),
+        "-semanticvectorfile", storeName(indexPath, "semantic", numThreads),
+        "-predicatevectorfile", storeName(indexPath, "predicate", numThreads)});
+  }
+
+  @Test
+  public void testIndexDocWritesSortedDocValues() throws IOException {
+    writeTriplesFile();
+    IndexWriter writer = openWriter(DOC_VALUES_INDEX);
+    LuceneIndexFromTriples.indexDoc(writer, new File(TRIPLES_FILE));
+    writer.close();
+
+    LuceneUtils luceneUtils = new LuceneUtils(psiConfig(DOC_VALUES_INDEX, 1));
+    // The line with only two fields is skipped.
+    assertEquals(TRIPLES.length - 1, luceneUtils.getNumDocs());
+    SortedDocValues subjects = luceneUtils.getSortedDocValues("subject");
+    SortedDocValues predicates = luceneUtils.getSortedDocValues("predicate");
+    SortedDocValues objects = luceneUtils.getSortedDocValues("object");
+    for (int docID = 0; docID < luceneUtils.getNumDocs(); ++docID) {
+      Document document = luceneUtils.getDoc(docID);
+      assertEquals(document.get("subject"), subjects.get(docID).utf8ToString());
+      assertEquals(document.get("predicate"), predicates.get(docID).utf8ToString());
+      assertEquals(document.get("object"), objects.get(docID).utf8ToString());
+    }
+    assertEquals("land_of_canaan", objects.get(6).utf8ToString());
+    assertEquals("LIVED_IN", predicates.get(6).utf8ToString());
+  }
+
+  @Test
+  public void testPsiReadsDocValuesLikeStoredFields() throws IOException {
+    writeTriplesFile();
+    IndexWriter writer = openWriter(DOC_VALUES_INDEX);
+    LuceneIndexFromTriples.indexDoc(writer, new File(TRIPLES_FILE));
+    writer.close();
+    writeStoredFieldsIndex();
+
+    PSI.createIncrementalPSIVectors(psiConfig(DOC_VALUES_INDEX, 1));
+    PSI.createIncrementalPSIVectors(psiConfig(STORED_FIELDS_INDEX, 1));
+    PSI.createIncrementalPSIVectors(psiConfig(DOC_VALUES_INDEX, 2));
+    for (String store : VECTOR_STORES) {
+      assertArrayEquals(store,
+          Files.readAllBytes(Paths.get(storeName(STORED_FIELDS_INDEX, store, 1) + ".bin")),
+          Files.readAllBytes(Paths.get(storeName(DOC_VALUES_INDEX, store, 1) + ".bin")));
+    }
+
+    // Training in parallel sums the same contributions in a different order.
+    FlagConfig flagConfig = psiConfig(DOC_VALUES_INDEX, 1);
+    VectorStoreRAM serialVectors = VectorStoreRAM.readFromFile(
+        flagConfig, storeName(DOC_VALUES_INDEX, "semantic", 1) + ".bin");
+    VectorStoreRAM parallelVectors = VectorStoreRAM.readFromFile(
+        flagConfig, storeName(DOC_VALUES_INDEX, "semantic", 2) + ".bin");
+    assertEquals(5, serialVectors.getNumVectors());
+    assertEquals(serialVectors.getNumVectors(), parallelVectors.getNumVectors());
+    Enumeration<ObjectVector> serialEnum = serialVectors.getAllVectors();
+    while (serialEnum.hasMoreElements()) {
+      ObjectVector serial = serialEnum.nextElement();
+      Vector parallel = parallelVectors.getVector(serial.getObject());
+      assertFalse(serial.getVector().isZeroVector());
+      assertEquals(1, serial.getVector().measureOverlap(parallel), 1e-5);
+    }
+  }
+}
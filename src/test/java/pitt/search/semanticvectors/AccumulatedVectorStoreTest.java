@@ -0,0 +1,244 @@
+/**
+   Copyright (c) 2015, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import pitt.search.semanticvectors.vectors.Vector;
+import pitt.search.semanticvectors.vectors.VectorFactory;
+import pitt.search.semanticvectors.vectors.VectorType;
+
+public class AccumulatedVectorStoreTest extends TestCase {
+
+  private static final String STORE_NAME = "accumulatedtestvectors";
+  private static final String OTHER_STORE_NAME = "otheraccumulatedtestvectors";
+
+  @Override
+  protected void tearDown() {
+    new File(AccumulatedVectorStore.getFileName(STORE_NAME)).delete();
+    new File(AccumulatedVectorStore.getFileName(OTHER_STORE_NAME)).delete();
+  }
+
+  private static FlagConfig getFlagConfig(VectorType vectorType, int dimension) {
+    return FlagConfig.getFlagConfig(new String[] {
+        "-vectortype", vectorType.toString(), "-dimension", Integer.toString(dimension)});
+  }
+
+  /**
+   * Superposes steps {@code from} to {@code to} of a sequence of weighted elemental vectors
+   * from {@code random} onto {@code vector}.
+   */
+  private static void accumulate(Vector vector, Random random, int from, int to) {
+    int seedLength = vector.getVectorType() == VectorType.BINARY ? vector.getDimension() / 2 : 10;
+    for (int i = from; i < to; ++i) {
+      vector.superpose(VectorFactory.generateRandomVector(
+          vector.getVectorType(), vector.getDimension(), seedLength, random), 1 + (i % 3), null);
+    }
+  }
+
+  private void checkAccumulationContinuesAfterReading(VectorType vectorType, int dimension)
+      throws IOException {
+    FlagConfig flagConfig = getFlagConfig(vectorType, dimension);
+    Vector expected = VectorFactory.createZeroVector(vectorType, dimension);
+    accumulate(expected, new Random(0), 0, 10);
+
+    Random random = new Random(0);
+    Vector partial = VectorFactory.createZeroVector(vectorType, dimension);
+    accumulate(partial, random, 0, 5);
+    VectorStoreRAM vectors = new VectorStoreRAM(flagConfig);
+    vectors.putVector("term", partial);
+    assertFalse(AccumulatedVectorStore.exists(STORE_NAME));
+    AccumulatedVectorStore.write(STORE_NAME, flagConfig, vectors);
+    assertTrue(AccumulatedVectorStore.exists(STORE_NAME));
+
+    VectorStoreRAM restored = AccumulatedVectorStore.read(STORE_NAME, flagConfig);
+    assertEquals(1, restored.getNumVectors());
+    Vector continued = restored.getVector("term");
+    accumulate(continued, random, 5, 10);
+
+    expected.normalize();
+    continued.normalize();
+    assertEquals(expected.writeToString(), continued.writeToString());
+  }
+
+  @Test
+  public void testRealVectors() throws IOException {
+    checkAccumulationContinuesAfterReading(VectorType.REAL, 100);
+  }
+
+  @Test
+  public void testComplexVectors() throws IOException {
+    checkAccumulationContinuesAfterReading(VectorType.COMPLEX, 100);
+  }
+
+  @Test
+  public void testBinaryVectors() throws IOException {
+    checkAccumulationContinuesAfterReading(VectorType.BINARY, 128);
+  }
+
+  @Test
+  public void testWriterReplacesPreviousFileOnClose() throws IOException {
+    FlagConfig flagConfig = getFlagConfig(VectorType.REAL, 100);
+    VectorStoreRAM vectors = new VectorStoreRAM(flagConfig);
+    vectors.putVector("old", VectorFactory.generateRandomVector(
+        VectorType.REAL, 100, 10, new Random(0)));
+    AccumulatedVectorStore.write(STORE_NAME, flagConfig, vectors);
+
+    AccumulatedVectorStore.Writer writer = new AccumulatedVectorStore.Writer(STORE_NAME, flagConfig);
+    writer.write("new", VectorFactory.generateRandomVector(VectorType.REAL, 100, 10, new Random(1)));
+    assertTrue(AccumulatedVectorStore.read(STORE_NAME, flagConfig).containsVector("old"));
+    writer.close();
+    VectorStoreRAM restored = AccumulatedVectorStore.read(STORE_NAME, flagConfig);
+    assertEquals(1, restored.getNumVectors());
+    assertTrue(restored.containsVector("new"));
+  }
+
+  @Test
+  public void testCopyWritesEveryVectorAndAbortKeepsPreviousFile() throws IOException {
+    FlagConfig flagConfig = getFlagConfig(VectorType.REAL, 100);
+    VectorStoreRAM vectors = new VectorStoreRAM(flagConfig);
+    Random random = new Random(0);
+    for (int i = 0; i < 3; ++i) {
+      Vector vector = VectorFactory.createZeroVector(VectorType.REAL, 100);
+      accumulate(vector, random, 0, 5);
+      vectors.putVector("vector" + i, vector);
+    }
+    AccumulatedVectorStore.write(STORE_NAME, flagConfig, vectors);
+
+    AccumulatedVectorStore.Writer writer = new AccumulatedVectorStore.Writer(OTHER_STORE_NAME, flagConfig);
+    assertEquals(3, AccumulatedVectorStore.copy(STORE_NAME, flagConfig, writer));
+    writer.close();
+    VectorStoreRAM copied = AccumulatedVectorStore.read(OTHER_STORE_NAME, flagConfig);
+    assertEquals(3, copied.getNumVectors());
+    for (int i = 0; i < 3; ++i) {
+      assertEquals(vectors.getVector("vector" + i).writeToString(),
+          copied.getVector("vector" + i).writeToString());
+    }
+
+    writer = new AccumulatedVectorStore.Writer(OTHER_STORE_NAME, flagConfig);
+    writer.write("new", VectorFactory.createZeroVector(VectorType.REAL, 100));
+    writer.abort();
+    assertEquals(3, AccumulatedVectorStore.read(OTHER_STORE_NAME, flagConfig).getNumVectors());
+    assertFalse(new File(AccumulatedVectorStore.getFileName(OTHER_STORE_NAME) + ".tmp").exists());
+  }
+
+  @Test
+  public void testReadRejectsDifferentDimension() throws IOException {
+    FlagConfig flagConfig = getFlagConfig(VectorType.REAL, 100);
+    VectorStoreRAM vectors = new VectorStoreRAM(flagConfig);
+    vectors.putVector("term", VectorFactory.generateRandomVector(
+        VectorType.REAL, 100, 10, new Random(0)));
+    AccumulatedVectorStore.write(STORE_NAME, flagConfig, vectors);
+    try {
+      AccumulatedVectorStore.read(STORE_NAME, getFlagConfig(VectorType.REAL, 200));
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage().contains("-dimension 100"));
+    }
+  }
+
+  private void checkMergeSumsPartialStores(VectorType vectorType) throws IOException {
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(new String[] {
+        "-vectortype", vectorType.toString(), "-dimension", "100", "-elementalseed", "1"});
+    Vector expected = VectorFactory.createZeroVector(vectorType, 100);
+    accumulate(expected, new Random(0), 0, 10);
+
+    Random random = new Random(0);
+    Vector firstPartial = VectorFactory.createZeroVector(vectorType, 100);
+    accumulate(firstPartial, random, 0, 5);
+    Vector secondPartial = VectorFactory.createZeroVector(vectorType, 100);
+    accumulate(secondPartial, random, 5, 10);
+    VectorStoreRAM firstStore = new VectorStoreRAM(flagConfig);
+    firstStore.putVector("shared", firstPartial);
+    firstStore.putVector("first", VectorFactory.createZeroVector(vectorType, 100));
+    VectorStoreRAM secondStore = new VectorStoreRAM(flagConfig);
+    secondStore.putVector("shared", secondPartial);
+    secondStore.putVector("second", VectorFactory.createZeroVector(vectorType, 100));
+    AccumulatedVectorStore.write(STORE_NAME, flagConfig, firstStore);
+    AccumulatedVectorStore.write(OTHER_STORE_NAME, flagConfig, secondStore);
+
+    VectorStoreRAM merged = AccumulatedVectorStore.merge(
+        Arrays.asList(STORE_NAME, OTHER_STORE_NAME), flagConfig);
+    assertEquals(3, merged.getNumVectors());
+    assertTrue(merged.containsVector("first"));
+    assertTrue(merged.containsVector("second"));
+    Vector mergedVector = merged.getVector("shared");
+    expected.normalize();
+    mergedVector.normalize();
+    // Summing in a different order may change the last bits of each coordinate.
+    assertEquals(1, expected.measureOverlap(mergedVector), 1e-5);
+  }
+
+  @Test
+  public void testMergeRealVectors() throws IOException {
+    checkMergeSumsPartialStores(VectorType.REAL);
+  }
+
+  @Test
+  public void testMergeComplexVectors() throws IOException {
+    checkMergeSumsPartialStores(VectorType.COMPLEX);
+  }
+
+  @Test
+  public void testMergeRejectsDifferentElementalVectors() throws IOException {
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(new String[] {
+        "-dimension", "100", "-elementalseed", "1"});
+    VectorStoreRAM vectors = new VectorStoreRAM(flagConfig);
+    vectors.putVector("term", VectorFactory.createZeroVector(VectorType.REAL, 100));
+    AccumulatedVectorStore.write(STORE_NAME, flagConfig, vectors);
+    try {
+      AccumulatedVectorStore.merge(Arrays.asList(STORE_NAME), FlagConfig.getFlagConfig(
+          new String[] {"-dimension", "100", "-elementalseed", "2"}));
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage().contains("-elementalseed 1"));
+    }
+    try {
+      AccumulatedVectorStore.merge(Arrays.asList(STORE_NAME), FlagConfig.getFlagConfig(
+          new String[] {"-dimension", "100"}));
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage().contains("-elementalseed"));
+    }
+  }
+}
@@ -0,0 +1,130 @@
+/**
+   Copyright (c) 2015, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+package pitt.search.semanticvectors;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Test;
+
+import pitt.search.semanticvectors.vectors.RealVector;
+
+import static org.junit.Assert.*;
+
+public class CompareTermsBatchTest {
+
+  private static final String STORE_NAME = "comparetermsbatchtestvectors";
+
+  private static final int DIMENSION = 20;
+  private static final int NUM_TERMS = 50;
+
+  @After
+  public void tearDown() {
+    new File(STORE_NAME + ".bin").delete();
+  }
+
+  /**
+   * Runs the comparison of the input lines, and returns the scores written out. The last input
+   * line must be bad, and the rest are checked to have been scored anyway.
+   */
+  private static List<String> runCompare(String input, int numThreads) throws IOException {
+    InputStream systemIn = System.in;
+    PrintStream systemOut = System.out;
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    try {
+      System.setIn(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)));
+      System.setOut(new PrintStream(output, true));
+      CompareTermsBatch.main(new String[] {
+          "-queryvectorfile", STORE_NAME, "-numthreads", "" + numThreads});
+      fail("The last line has no separator, so should not be accepted.");
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("must occur exactly once"));
+    } finally {
+      System.setIn(systemIn);
+      System.setOut(systemOut);
+    }
+    List<String> scores = new ArrayList<String>();
+    for (String line : new String(output.toByteArray(), StandardCharsets.UTF_8).split("\n")) {
+      if (!line.isEmpty()) scores.add(line);
+    }
+    return scores;
+  }
+
+  @Test
+  public void testScoresAreWrittenInInputOrder() throws IOException {
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(
+        new String[] {"-vectortype", "real", "-dimension", "" + DIMENSION});
+    Random random = new Random(0);
+    VectorStoreRAM store = new VectorStoreRAM(flagConfig);
+    for (int i = 0; i < NUM_TERMS; ++i) {
+      float[] coordinates = new float[DIMENSION];
+      for (int j = 0; j < DIMENSION; ++j) {
+        coordinates[j] = (float) random.nextGaussian();
+      }
+      store.putVector("term" + i, new RealVector(coordinates));
+    }
+    VectorStoreWriter.writeVectors(STORE_NAME, flagConfig, store);
+
+    // More lines than a block, so that one block is scored while the next is read. There are
+    // few terms, so each term occurs in many lines and its cached vector is shared.
+    int numLines = CompareTermsBatch.LINE_BLOCK_SIZE + 500;
+    StringBuilder input = new StringBuilder();
+    double[] expected = new double[numLines];
+    for (int i = 0; i < numLines; ++i) {
+      int term1 = random.nextInt(NUM_TERMS);
+      int term2 = random.nextInt(NUM_TERMS);
+      input.append("term").append(term1).append("|term").append(term2).append("\n");
+      expected[i] = store.getVector("term" + term1).measureOverlap(store.getVector("term" + term2));
+    }
+    input.append("term1 term2\n");
+
+    List<String> sequential = runCompare(input.toString(), 1);
+    List<String> parallel = runCompare(input.toString(), 4);
+    assertEquals(numLines, sequential.size());
+    for (int i = 0; i < numLines; ++i) {
+      assertEquals("line " + i, expected[i], Double.parseDouble(sequential.get(i)), 1e-5);
+    }
+    assertEquals(sequential, parallel);
+  }
+}
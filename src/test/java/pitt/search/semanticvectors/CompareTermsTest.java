@@ -4,10 +4,19 @@ import static org.junit.Assert.*;
 
 import java.io.IOException;
 
+import org.junit.After;
 import org.junit.Test;
 
+import pitt.search.semanticvectors.vectors.RealVector;
+
 public class CompareTermsTest {
   private static final double TOL = 0.01;
+
+  /** FlagConfig sets the real bind method globally, so put back the default for later tests. */
+  @After
+  public void tearDown() {
+    RealVector.setBindType(RealVector.RealBindMethod.CONVOLUTION);
+  }
   
   @Test
   public void testCompareTermsOrthographic() throws IOException {
@@ -27,4 +27,50 @@ public class ElementalVectorStoreTest {
       assertNotNull(fooVector);
     }
   }
+
+  @Test
+  public void testConcurrentRandomGenerationGivesOneVectorPerKey() throws Exception {
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(new String[] {"-elementalmethod", "random"});
+    final ElementalVectorStore store = new ElementalVectorStore(flagConfig);
+    final int numKeys = 100;
+    int numThreads = 8;
+    final Vector[][] results = new Vector[numThreads][numKeys];
+    Thread[] threads = new Thread[numThreads];
+    for (int t = 0; t < numThreads; ++t) {
+      final int thread = t;
+      threads[t] = new Thread() {
+        @Override
+        public void run() {
+          for (int i = 0; i < numKeys; ++i) {
+            results[thread][i] = store.getVector("key" + ((i + thread) % numKeys));
+          }
+        }
+      };
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(numKeys, store.getNumVectors());
+    for (int t = 0; t < numThreads; ++t) {
+      for (int i = 0; i < numKeys; ++i) {
+        assertSame(store.getVector("key" + ((i + t) % numKeys)), results[t][i]);
+      }
+    }
+  }
+
+  @Test
+  public void testElementalSeedIsReproducible() {
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(
+        new String[] {"-elementalmethod", "random", "-elementalseed", "7"});
+    ElementalVectorStore store1 = new ElementalVectorStore(flagConfig);
+    ElementalVectorStore store2 = new ElementalVectorStore(flagConfig);
+    store2.getVector("bar");
+    assertEquals(1, store1.getVector("foo").measureOverlap(store2.getVector("foo")), 0.0001);
+
+    FlagConfig otherSeedConfig = FlagConfig.getFlagConfig(
+        new String[] {"-elementalmethod", "random", "-elementalseed", "8"});
+    ElementalVectorStore store3 = new ElementalVectorStore(otherSeedConfig);
+    assertTrue(store1.getVector("foo").measureOverlap(store3.getVector("foo")) < 0.5);
+  }
 }
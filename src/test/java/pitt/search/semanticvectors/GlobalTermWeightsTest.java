@@ -0,0 +1,150 @@
+/**
+   Copyright (c) 2015, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class GlobalTermWeightsTest {
+
+  private static final String INDEX_PATH = "globaltermweightstest_index";
+  private static final String WEIGHTS_FILE = "globaltermweightstest.bin";
+
+  private static final String[] DOCUMENTS = {
+    "abraham begat isaac",
+    "isaac begat jacob and esau",
+    "jacob begat judah and his brethren",
+    "judah begat phares and zara of thamar",
+  };
+
+  @After
+  public void tearDown() {
+    File indexDirectory = new File(INDEX_PATH);
+    File[] files = indexDirectory.listFiles();
+    if (files != null) {
+      for (File file : files) file.delete();
+    }
+    indexDirectory.delete();
+    new File(WEIGHTS_FILE).delete();
+  }
+
+  /** Adds documents with the given texts, replacing any with the same IDs, and commits. */
+  private static void writeDocuments(String[] texts) throws IOException {
+    FSDirectory directory = FSDirectory.open(FileSystems.getDefault().getPath(INDEX_PATH));
+    IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()));
+    for (int i = 0; i < texts.length; ++i) {
+      Document document = new Document();
+      document.add(new StringField("path", "doc" + i, Field.Store.YES));
+      document.add(new TextField("contents", texts[i], Field.Store.NO));
+      writer.updateDocument(new Term("path", "doc" + i), document);
+    }
+    writer.close();
+    directory.close();
+  }
+
+  private static LuceneUtils openLuceneUtils(String termWeight, boolean precompute)
+      throws IOException {
+    String args = "-termweight " + termWeight + " -luceneindexpath " + INDEX_PATH;
+    if (precompute) args += " -numthreads 2 -termweightsfile " + WEIGHTS_FILE;
+    return new LuceneUtils(FlagConfig.getFlagConfig(args.split("\\s+")));
+  }
+
+  /** Checks that every term in the index has the same weight with and without precomputing. */
+  private static void checkWeightsMatch(LuceneUtils expectedUtils, LuceneUtils actualUtils)
+      throws IOException {
+    TermsEnum terms = expectedUtils.getTermsForField("contents").iterator(null);
+    BytesRef bytes;
+    int numTerms = 0;
+    while ((bytes = terms.next()) != null) {
+      Term term = new Term("contents", BytesRef.deepCopyOf(bytes));
+      assertEquals(term.text(),
+          expectedUtils.getGlobalTermWeight(term), actualUtils.getGlobalTermWeight(term), 0);
+      ++numTerms;
+    }
+    assertTrue(numTerms > 0);
+  }
+
+  @Test
+  public void testPrecomputedWeightsMatchComputedWeights() throws IOException {
+    writeDocuments(DOCUMENTS);
+    for (String termWeight : new String[] {"idf", "logentropy"}) {
+      new File(WEIGHTS_FILE).delete();
+      LuceneUtils plainUtils = openLuceneUtils(termWeight, false);
+      LuceneUtils precomputedUtils = openLuceneUtils(termWeight, true);
+      assertTrue(new File(WEIGHTS_FILE).isFile());
+      // A second instance reads the weights from the file written by the first.
+      LuceneUtils readUtils = openLuceneUtils(termWeight, true);
+      checkWeightsMatch(plainUtils, precomputedUtils);
+      checkWeightsMatch(plainUtils, readUtils);
+    }
+  }
+
+  @Test
+  public void testWeightsFileIsRecomputedForNewCommit() throws IOException {
+    writeDocuments(DOCUMENTS);
+    LuceneUtils firstUtils = openLuceneUtils("idf", true);
+    String firstCommitId = firstUtils.getIndexCommitId();
+    float jacobWeight = firstUtils.getGlobalTermWeight(new Term("contents", "jacob"));
+
+    // Replacing a document keeps the number of documents, but changes the weights.
+    String[] changedDocuments = DOCUMENTS.clone();
+    changedDocuments[3] = "judah begat jacob";
+    writeDocuments(changedDocuments);
+    LuceneUtils plainUtils = openLuceneUtils("idf", false);
+    LuceneUtils changedUtils = openLuceneUtils("idf", true);
+    assertEquals(firstUtils.getNumDocs(), changedUtils.getNumDocs());
+    assertFalse(firstCommitId.equals(changedUtils.getIndexCommitId()));
+    assertFalse(jacobWeight == changedUtils.getGlobalTermWeight(new Term("contents", "jacob")));
+    checkWeightsMatch(plainUtils, changedUtils);
+  }
+}
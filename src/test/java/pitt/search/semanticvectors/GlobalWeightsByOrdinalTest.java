@@ -0,0 +1,62 @@
+/**
+   Copyright (c) 2015, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class GlobalWeightsByOrdinalTest {
+
+  @Test
+  public void testUnknownWeightsAreNaN() {
+    GlobalWeightsByOrdinal weights = new GlobalWeightsByOrdinal(new String[] {"contents", "title"});
+    assertArrayEquals(new String[] {"contents", "title"}, weights.getFields());
+    weights.setWeight(0, 5, 2.5f);
+    weights.ensureCapacity(20);
+    assertEquals(2.5f, weights.getWeight(0, 5), 0);
+    for (int ordinal = 0; ordinal < 20; ++ordinal) {
+      if (ordinal != 5) assertTrue(Float.isNaN(weights.getWeight(0, ordinal)));
+      assertTrue(Float.isNaN(weights.getWeight(1, ordinal)));
+    }
+
+    // Growing keeps the weights already set.
+    weights.setWeight(1, 100, 1.0f);
+    assertEquals(2.5f, weights.getWeight(0, 5), 0);
+    assertEquals(1.0f, weights.getWeight(1, 100), 0);
+    assertTrue(Float.isNaN(weights.getWeight(1, 99)));
+  }
+}
@@ -0,0 +1,179 @@
+/**
+   Copyright (c) 2015, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.util.Random;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.FSDirectory;
+import org.junit.After;
+import org.junit.Test;
+
+import pitt.search.semanticvectors.vectors.Vector;
+import pitt.search.semanticvectors.vectors.VectorFactory;
+import pitt.search.semanticvectors.vectors.VectorType;
+
+import static org.junit.Assert.*;
+
+public class IncrementalDocVectorsTest {
+
+  private static final String INDEX_PATH = "incrementaldocvectorstest_index";
+  private static final String DOC_VECTORS = "incrementaldocvectorstest_docvectors";
+
+  private static final String[] DOCUMENTS = {
+    "in the beginning was the word",
+    "and the word was with god",
+    "the same was in the beginning with god",
+  };
+
+  @After
+  public void tearDown() {
+    File indexDirectory = new File(INDEX_PATH);
+    File[] files = indexDirectory.listFiles();
+    if (files != null) {
+      for (File file : files) file.delete();
+    }
+    indexDirectory.delete();
+    new File(DOC_VECTORS + ".bin").delete();
+    new File(AccumulatedVectorStore.getFileName(DOC_VECTORS)).delete();
+  }
+
+  /** Adds the documents from {@code start} up to {@code end} to the index. */
+  private static void addDocuments(int start, int end) throws IOException {
+    FieldType termVectorsType = new FieldType();
+    termVectorsType.setIndexOptions(IndexOptions.DOCS_AND_FREQS);
+    termVectorsType.setTokenized(true);
+    termVectorsType.setStoreTermVectors(true);
+    FSDirectory directory = FSDirectory.open(FileSystems.getDefault().getPath(INDEX_PATH));
+    IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()));
+    for (int i = start; i < end; ++i) {
+      Document document = new Document();
+      document.add(new StringField("path", "doc" + i, Field.Store.YES));
+      document.add(new Field("contents", DOCUMENTS[i], termVectorsType));
+      writer.addDocument(document);
+    }
+    writer.close();
+    directory.close();
+  }
+
+  private static void buildDocVectors(boolean writeAccumulators) throws IOException {
+    String args = "-luceneindexpath " + INDEX_PATH + " -vectortype real -dimension 100"
+        + " -docvectorsfile " + DOC_VECTORS + " -incrementalupdate";
+    if (writeAccumulators) args += " -writeaccumulators";
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(args.split(" "));
+    VectorStoreRAM termVectors = new VectorStoreRAM(flagConfig);
+    Random random = new Random(0);
+    for (String word : "in the beginning was word and with god same".split(" ")) {
+      termVectors.putVector(word, VectorFactory.generateRandomVector(
+          VectorType.REAL, 100, 10, random));
+    }
+    IncrementalDocVectors.createIncrementalDocVectors(
+        termVectors, flagConfig, new LuceneUtils(flagConfig));
+  }
+
+  private static VectorStoreRAM readDocVectors() throws IOException {
+    return VectorStoreRAM.readFromFile(FlagConfig.getFlagConfig(new String[] {
+        "-vectortype", "real", "-dimension", "100"}), DOC_VECTORS + ".bin");
+  }
+
+  private static VectorStoreRAM readAccumulators() throws IOException {
+    return AccumulatedVectorStore.read(DOC_VECTORS, FlagConfig.getFlagConfig(new String[] {
+        "-vectortype", "real", "-dimension", "100"}));
+  }
+
+  @Test
+  public void testUpdateCarriesAccumulatorsForward() throws IOException {
+    addDocuments(0, 2);
+    buildDocVectors(true);
+    addDocuments(2, 3);
+    buildDocVectors(true);
+
+    VectorStoreRAM docVectors = readDocVectors();
+    VectorStoreRAM accumulators = readAccumulators();
+    assertEquals(3, docVectors.getNumVectors());
+    assertEquals(3, accumulators.getNumVectors());
+    for (int i = 0; i < 3; ++i) {
+      Vector accumulated = accumulators.getVector("doc" + i);
+      accumulated.normalize();
+      assertEquals(docVectors.getVector("doc" + i).writeToString(), accumulated.writeToString());
+    }
+  }
+
+  @Test
+  public void testUpdateWithoutAccumulatorsFails() throws IOException {
+    addDocuments(0, 2);
+    buildDocVectors(false);
+    addDocuments(2, 3);
+    try {
+      buildDocVectors(true);
+      fail("Expected an IllegalArgumentException.");
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage().contains("did not write them"));
+    }
+    assertEquals(2, readDocVectors().getNumVectors());
+    assertFalse(new File(AccumulatedVectorStore.getFileName(DOC_VECTORS)).exists());
+  }
+
+  @Test
+  public void testUpdateWithOutOfDateAccumulatorsFails() throws IOException {
+    addDocuments(0, 1);
+    buildDocVectors(true);
+    // This update does not add the second document to the accumulators.
+    addDocuments(1, 2);
+    buildDocVectors(false);
+    addDocuments(2, 3);
+    try {
+      buildDocVectors(true);
+      fail("Expected an IllegalArgumentException.");
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage().contains("not written by every earlier run"));
+    }
+    assertEquals(2, readDocVectors().getNumVectors());
+    assertEquals(1, readAccumulators().getNumVectors());
+    assertFalse(new File(DOC_VECTORS + ".bin.tmp").exists());
+    assertFalse(new File(AccumulatedVectorStore.getFileName(DOC_VECTORS) + ".tmp").exists());
+  }
+}
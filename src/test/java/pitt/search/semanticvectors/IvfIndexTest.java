@@ -0,0 +1,214 @@
+/**
+   Copyright (c) 2015, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Test;
+
+import pitt.search.semanticvectors.ClusterResults.Clusters;
+import pitt.search.semanticvectors.vectors.Vector;
+import pitt.search.semanticvectors.vectors.VectorFactory;
+import pitt.search.semanticvectors.vectors.VectorType;
+
+import static org.junit.Assert.*;
+
+public class IvfIndexTest {
+
+  private static final String INDEX_NAME = "ivfindextest" + IvfIndex.FILE_EXTENSION;
+
+  @After
+  public void tearDown() {
+    new File(INDEX_NAME).delete();
+  }
+
+  private static ObjectVector[] randomVectors(
+      VectorType type, int dimension, int numEntries, int numVectors, Random random) {
+    ObjectVector[] objectVectors = new ObjectVector[numVectors];
+    for (int i = 0; i < numVectors; ++i) {
+      objectVectors[i] = new ObjectVector("vector" + i,
+          VectorFactory.generateRandomVector(type, dimension, numEntries, random));
+    }
+    return objectVectors;
+  }
+
+  private static FlagConfig buildIndex(ObjectVector[] objectVectors, String... args)
+      throws Exception {
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(args);
+    Clusters clusters = IvfIndex.kMeansCluster(objectVectors, flagConfig);
+    IvfIndex.writeIndex(INDEX_NAME, flagConfig, objectVectors, clusters);
+    return flagConfig;
+  }
+
+  private static List<SearchResult> searchAllVectors(
+      ObjectVector[] objectVectors, Vector queryVector, FlagConfig flagConfig, int numResults)
+      throws Exception {
+    VectorStoreRAM store = new VectorStoreRAM(flagConfig);
+    for (ObjectVector objectVector : objectVectors) {
+      store.putVector(objectVector.getObject(), objectVector.getVector());
+    }
+    return new VectorSearcher.VectorSearcherCosine(
+        new SearchPlan(store, null, flagConfig), queryVector.copy()).getNearestNeighbors(numResults);
+  }
+
+  @Test
+  public void testIndexHoldsEveryVectorOnce() throws Exception {
+    ObjectVector[] objectVectors = randomVectors(VectorType.REAL, 64, 64, 300, new Random(0));
+    FlagConfig flagConfig = buildIndex(
+        objectVectors, "-vectortype", "real", "-dimension", "64", "-numclusters", "7", "-numthreads", "3");
+    for (boolean loadIntoMemory : new boolean[] {false, true}) {
+      IvfVectorStore store = new IvfVectorStore(INDEX_NAME, flagConfig, loadIntoMemory);
+      assertEquals(7, store.getNumLists());
+      assertEquals(300, store.getNumVectors());
+      int listSizes = 0;
+      Set<Object> objects = new HashSet<Object>();
+      for (int list = 0; list < store.getNumLists(); ++list) {
+        listSizes += store.getListSize(list);
+        Enumeration<ObjectVector> listVectors = store.getListVectors(list);
+        while (listVectors.hasMoreElements()) {
+          assertTrue(objects.add(listVectors.nextElement().getObject()));
+        }
+      }
+      assertEquals(300, listSizes);
+      assertEquals(300, objects.size());
+
+      Enumeration<ObjectVector> allVectors = store.getAllVectors();
+      int count = 0;
+      while (allVectors.hasMoreElements()) {
+        allVectors.nextElement();
+        ++count;
+      }
+      assertEquals(300, count);
+      assertEquals(objectVectors[42].getVector().measureOverlap(store.getVector("vector42")), 1, 1e-6);
+      assertNull(store.getVector("missing"));
+      store.close();
+    }
+  }
+
+  @Test
+  public void testProbingAllListsMatchesExhaustiveSearch() throws Exception {
+    Object[][] settings = {
+        {VectorType.REAL, 64, 64},
+        {VectorType.COMPLEX, 32, 32},
+        {VectorType.BINARY, 128, 64}};
+    for (Object[] setting : settings) {
+      VectorType type = (VectorType) setting[0];
+      int dimension = (Integer) setting[1];
+      Random random = new Random(2);
+      ObjectVector[] objectVectors = randomVectors(type, dimension, (Integer) setting[2], 200, random);
+      FlagConfig flagConfig = buildIndex(objectVectors, "-vectortype", type.toString(),
+          "-dimension", "" + dimension, "-numclusters", "5", "-ivfnprobe", "5");
+      IvfVectorStore store = new IvfVectorStore(INDEX_NAME, flagConfig, true);
+      SearchPlan searchPlan = new SearchPlan(store, null, flagConfig);
+      for (int q = 0; q < 5; ++q) {
+        Vector queryVector = objectVectors[random.nextInt(objectVectors.length)].getVector().copy();
+        List<SearchResult> expected = searchAllVectors(objectVectors, queryVector, flagConfig, 10);
+        List<SearchResult> actual = new VectorSearcher.VectorSearcherIvf(
+            searchPlan, queryVector.copy()).getNearestNeighbors(10);
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); ++i) {
+          assertEquals(type + " result " + i, expected.get(i).getScore(), actual.get(i).getScore(), 1e-6);
+        }
+        assertEquals(expected.get(0).getObjectVector().getObject(),
+            actual.get(0).getObjectVector().getObject());
+      }
+      store.close();
+    }
+  }
+
+  @Test
+  public void testProbingOneListSearchesNearestList() throws Exception {
+    ObjectVector[] objectVectors = randomVectors(VectorType.REAL, 64, 64, 300, new Random(3));
+    FlagConfig flagConfig = buildIndex(
+        objectVectors, "-vectortype", "real", "-dimension", "64", "-numclusters", "6");
+    CloseableVectorStore store = VectorStoreReader.openVectorStore(INDEX_NAME, flagConfig);
+    assertTrue(store instanceof IvfVectorStore);
+    IvfVectorStore ivfStore = (IvfVectorStore) store;
+    SearchPlan searchPlan = new SearchPlan(store, null, flagConfig);
+
+    Vector queryVector = objectVectors[17].getVector().copy();
+    int nearestList = ivfStore.getNearestLists(queryVector, 1)[0];
+    List<ObjectVector> listVectors = new ArrayList<ObjectVector>();
+    Enumeration<ObjectVector> listEnumeration = ivfStore.getListVectors(nearestList);
+    while (listEnumeration.hasMoreElements()) {
+      listVectors.add(listEnumeration.nextElement());
+    }
+    List<SearchResult> expected = searchAllVectors(
+        listVectors.toArray(new ObjectVector[listVectors.size()]), queryVector, flagConfig, 5);
+    LinkedList<SearchResult> actual = new VectorSearcher.VectorSearcherIvf(
+        searchPlan, queryVector).getNearestNeighbors(5);
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); ++i) {
+      assertEquals(expected.get(i).getObjectVector().getObject(),
+          actual.get(i).getObjectVector().getObject());
+    }
+    // The query is one of the indexed vectors, and is in the list of its nearest centroid.
+    assertEquals("vector17", actual.getFirst().getObjectVector().getObject());
+    store.close();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testSearchNeedsIvfStore() throws Exception {
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(new String[] {"-dimension", "64"});
+    VectorStoreRAM store = new VectorStoreRAM(flagConfig);
+    store.putVector("a", VectorFactory.generateRandomVector(VectorType.REAL, 64, 64, new Random(0)));
+    new VectorSearcher.VectorSearcherIvf(new SearchPlan(store, null, flagConfig), store.getVector("a"));
+  }
+
+  @Test
+  public void testSearchRejectsExpandedSearchSpace() throws Exception {
+    ObjectVector[] objectVectors = randomVectors(VectorType.REAL, 64, 64, 20, new Random(4));
+    FlagConfig flagConfig = buildIndex(objectVectors, "-vectortype", "real", "-dimension", "64",
+        "-numclusters", "2", "-expandsearchspace");
+    IvfVectorStore store = new IvfVectorStore(INDEX_NAME, flagConfig, true);
+    try {
+      new VectorSearcher.VectorSearcherIvf(store, store, null, flagConfig, new String[] {"vector1"});
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage().contains("-expandsearchspace"));
+    } finally {
+      store.close();
+    }
+  }
+}
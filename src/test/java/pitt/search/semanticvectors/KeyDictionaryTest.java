@@ -0,0 +1,166 @@
+/**
+   Copyright (c) 2015, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import org.apache.lucene.util.automaton.CharacterRunAutomaton;
+import org.junit.Test;
+
+import pitt.search.semanticvectors.CompoundVectorBuilder.VectorLookupSyntax;
+import pitt.search.semanticvectors.vectors.Vector;
+import pitt.search.semanticvectors.vectors.VectorFactory;
+import pitt.search.semanticvectors.vectors.VectorType;
+
+public class KeyDictionaryTest {
+
+  private static final String[] PATTERNS = {
+    "", "a", "ab", "^a", "^ab|c", "b.c", "a+b", "a*b?c", "(ab|ba)c", "[a-c]d", "[^ab]",
+    "a{2}", "a{1,2}b", "\\.", "a.b", "x-y", "é", "\\d", "(?i)AB", "c$", "\\bab", "[a&&b]", "a*?b",
+  };
+
+  private static VectorStoreRAM createStore(FlagConfig flagConfig, int numVectors) {
+    Random random = new Random(0);
+    String alphabet = "abcdé.-x y";
+    VectorStoreRAM store = new VectorStoreRAM(flagConfig);
+    while (store.getNumVectors() < numVectors) {
+      StringBuilder key = new StringBuilder();
+      int length = random.nextInt(6);
+      for (int i = 0; i < length; ++i) {
+        key.append(alphabet.charAt(random.nextInt(alphabet.length())));
+      }
+      store.putVector(key.toString(), VectorFactory.generateRandomVector(
+          flagConfig.vectortype(), flagConfig.dimension(), 2, random));
+    }
+    return store;
+  }
+
+  private static List<ObjectVector> scanFinding(VectorStore store, Pattern pattern) {
+    List<ObjectVector> results = new ArrayList<ObjectVector>();
+    for (Enumeration<ObjectVector> e = store.getAllVectors(); e.hasMoreElements(); ) {
+      ObjectVector objectVector = e.nextElement();
+      if (pattern.matcher(objectVector.getObject().toString()).find()) results.add(objectVector);
+    }
+    return results;
+  }
+
+  private static List<ObjectVector> scanMatching(VectorStore store, CharacterRunAutomaton automaton) {
+    List<ObjectVector> results = new ArrayList<ObjectVector>();
+    for (Enumeration<ObjectVector> e = store.getAllVectors(); e.hasMoreElements(); ) {
+      ObjectVector objectVector = e.nextElement();
+      if (automaton.run(objectVector.getObject().toString())) results.add(objectVector);
+    }
+    return results;
+  }
+
+  @Test
+  public void testLookupsMatchScan() {
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(new String[] {"-vectortype", "real", "-dimension", "4"});
+    VectorStoreRAM store = createStore(flagConfig, 500);
+    KeyDictionary dictionary = store.getKeyDictionary();
+    assertEquals(500, dictionary.size());
+
+    for (String pattern : PATTERNS) {
+      assertEquals(pattern, scanFinding(store, Pattern.compile(pattern)),
+          dictionary.getVectorsFinding(Pattern.compile(pattern)));
+    }
+    for (String prefix : new String[] {"", "a", "ab", "é", "zz"}) {
+      assertEquals(prefix,
+          scanMatching(store, new CharacterRunAutomaton(KeyDictionary.getPrefixAutomaton(prefix))),
+          dictionary.getVectorsWithPrefix(prefix));
+    }
+    for (String wildcard : new String[] {"*", "a*", "?b*", "*c", "a?c", "\\*"}) {
+      assertEquals(wildcard,
+          scanMatching(store, new CharacterRunAutomaton(KeyDictionary.getWildcardAutomaton(wildcard))),
+          dictionary.getVectorsMatchingWildcard(wildcard));
+    }
+  }
+
+  @Test
+  public void testTranslatesOnlySharedSyntax() {
+    assertEquals(".*(ab).*", KeyDictionary.toLuceneRegExp("ab"));
+    assertEquals("(ab).*", KeyDictionary.toLuceneRegExp("^ab"));
+    assertEquals(".*(a\\\"\\@).*", KeyDictionary.toLuceneRegExp("a\"@"));
+    assertNotNull(KeyDictionary.toLuceneRegExp("[^a-c\\]]{2,}"));
+    assertNull(KeyDictionary.toLuceneRegExp("\\d"));
+    assertNull(KeyDictionary.toLuceneRegExp("(?i)a"));
+    assertNull(KeyDictionary.toLuceneRegExp("a$"));
+    assertNull(KeyDictionary.toLuceneRegExp("^a|b"));
+    assertNull(KeyDictionary.toLuceneRegExp("[[a]]"));
+  }
+
+  @Test
+  public void testDictionaryRebuiltAfterChange() {
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(new String[] {"-vectortype", "real", "-dimension", "4"});
+    VectorStoreRAM store = createStore(flagConfig, 10);
+    KeyDictionary dictionary = store.getKeyDictionary();
+    assertSame(dictionary, store.getKeyDictionary());
+    store.putVector("zebra", VectorFactory.createZeroVector(VectorType.REAL, 4));
+    assertEquals(1, store.getKeyDictionary().getVectorsWithPrefix("zeb").size());
+    store.removeVector("zebra");
+    assertEquals(0, store.getKeyDictionary().getVectorsWithPrefix("zeb").size());
+  }
+
+  @Test
+  public void testQueryVectorsMatchScanningStore() {
+    for (VectorLookupSyntax syntax : new VectorLookupSyntax[] {
+        VectorLookupSyntax.REGEX, VectorLookupSyntax.PREFIX, VectorLookupSyntax.WILDCARD}) {
+      FlagConfig flagConfig = FlagConfig.getFlagConfig(new String[] {
+          "-vectortype", "real", "-dimension", "4", "-vectorlookupsyntax", syntax.toString()});
+      final VectorStoreRAM store = createStore(flagConfig, 200);
+      // Hides the dictionary, so that lookups read through the whole store.
+      VectorStore scanningStore = new VectorStore() {
+        public Vector getVector(Object object) { return store.getVector(object); }
+        public boolean containsVector(Object object) { return store.containsVector(object); }
+        public Enumeration<ObjectVector> getAllVectors() { return store.getAllVectors(); }
+        public int getNumVectors() { return store.getNumVectors(); }
+      };
+      String[] queryTerms = {"a", "b*"};
+      assertEquals(syntax.toString(),
+          CompoundVectorBuilder.getQueryVector(scanningStore, null, flagConfig, queryTerms).toString(),
+          CompoundVectorBuilder.getQueryVector(store, null, flagConfig, queryTerms).toString());
+    }
+  }
+}
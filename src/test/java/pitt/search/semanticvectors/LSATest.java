@@ -0,0 +1,113 @@
+/**
+   Copyright (c) 2015, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+package pitt.search.semanticvectors;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.util.Random;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.FSDirectory;
+import org.junit.After;
+import org.junit.Test;
+
+import ch.akuhn.edu.mit.tedlab.SMat;
+
+import static org.junit.Assert.*;
+
+public class LSATest {
+
+  private static final String INDEX_PATH = "lsatest_index";
+
+  /** More terms than are processed by a single task, so that columns are built in parallel. */
+  private static final int NUM_TERMS = 3000;
+
+  @After
+  public void tearDown() {
+    File indexDirectory = new File(INDEX_PATH);
+    File[] files = indexDirectory.listFiles();
+    if (files != null) {
+      for (File file : files) file.delete();
+    }
+    indexDirectory.delete();
+  }
+
+  private static void writeIndex() throws IOException {
+    FSDirectory directory = FSDirectory.open(FileSystems.getDefault().getPath(INDEX_PATH));
+    IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()));
+    Random random = new Random(0);
+    for (int i = 0; i < 200; ++i) {
+      StringBuilder contents = new StringBuilder();
+      for (int j = 0; j < 60; ++j) {
+        contents.append(" term").append(random.nextInt(NUM_TERMS));
+      }
+      Document document = new Document();
+      document.add(new StringField("path", "doc" + i, Field.Store.YES));
+      document.add(new TextField("contents", contents.toString(), Field.Store.NO));
+      writer.addDocument(document);
+    }
+    writer.close();
+    directory.close();
+  }
+
+  private static SMat smatFromIndex(int numThreads) throws IOException {
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(new String[] {
+        "-luceneindexpath", INDEX_PATH, "-dimension", "10", "-termweight", "logentropy",
+        "-numthreads", "" + numThreads});
+    return new LSA(INDEX_PATH, flagConfig).smatFromIndex();
+  }
+
+  @Test
+  public void testParallelMatrixMatchesSequentialMatrix() throws IOException {
+    writeIndex();
+    SMat sequential = smatFromIndex(1);
+    SMat parallel = smatFromIndex(4);
+    assertEquals(200, sequential.rows);
+    assertTrue(sequential.cols > 2000);
+    assertEquals(sequential.rows, parallel.rows);
+    assertEquals(sequential.cols, parallel.cols);
+    assertEquals(sequential.vals, parallel.vals);
+    assertArrayEquals(sequential.pointr, parallel.pointr);
+    assertArrayEquals(sequential.rowind, parallel.rowind);
+    assertArrayEquals(sequential.value, parallel.value, 0);
+  }
+}
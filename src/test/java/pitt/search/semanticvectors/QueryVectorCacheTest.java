@@ -0,0 +1,135 @@
+/**
+   Copyright (c) 2015, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import pitt.search.semanticvectors.vectors.RealVector;
+import pitt.search.semanticvectors.vectors.Vector;
+
+public class QueryVectorCacheTest {
+
+  private static final double TOL = 0.0001;
+
+  private static List<Vector> vectors(float... coordinates) {
+    return Arrays.asList((Vector) new RealVector(coordinates));
+  }
+
+  @Test
+  public void testHitsMissesAndEviction() {
+    QueryVectorCache cache = new QueryVectorCache(2, 0);
+    Object store = new Object();
+    QueryVectorCache.Key keyA = new QueryVectorCache.Key("TERMS", "a", "", store);
+    QueryVectorCache.Key keyB = new QueryVectorCache.Key("TERMS", "b", "", store);
+    QueryVectorCache.Key keyC = new QueryVectorCache.Key("TERMS", "c", "", store);
+
+    assertNull(cache.get(keyA));
+    cache.put(keyA, vectors(1, 0));
+    cache.put(keyB, vectors(0, 1));
+    assertEquals(1, cache.get(new QueryVectorCache.Key("TERMS", "a", "", store))
+        .get(0).measureOverlap(new RealVector(new float[] {1, 0})), TOL);
+    // "b" is now least recently used, so adding "c" evicts it.
+    cache.put(keyC, vectors(1, 1));
+    assertNull(cache.get(keyB));
+    assertEquals(2, cache.size());
+    assertEquals(1, cache.getHits());
+    assertEquals(2, cache.getMisses());
+    assertEquals(1, cache.getEvictions());
+    assertEquals(1 / 3.0, cache.getHitRate(), TOL);
+  }
+
+  @Test
+  public void testKeysDistinguishSourcesAndSettings() {
+    QueryVectorCache cache = new QueryVectorCache(10, 0);
+    Object store = new Object();
+    cache.put(new QueryVectorCache.Key("TERMS", "a", "real:2", store), vectors(1, 0));
+    assertNull(cache.get(new QueryVectorCache.Key("TERMS", "a", "real:2", new Object())));
+    assertNull(cache.get(new QueryVectorCache.Key("TERMS", "a", "real:3", store)));
+    assertNull(cache.get(new QueryVectorCache.Key("BOUNDPRODUCT", "a", "real:2", store)));
+    assertNull(cache.get(new QueryVectorCache.Key("TERMS", "a", "real:2", store, null)));
+  }
+
+  @Test
+  public void testCallersGetCopies() {
+    QueryVectorCache cache = new QueryVectorCache(10, 0);
+    QueryVectorCache.Key key = new QueryVectorCache.Key("TERMS", "a", "", (Object) null);
+    List<Vector> original = vectors(1, 0);
+    cache.put(key, original);
+    original.get(0).superpose(new RealVector(new float[] {0, 1}), 1, null);
+
+    Vector first = cache.get(key).get(0);
+    first.superpose(new RealVector(new float[] {0, 1}), 1, null);
+    Vector second = cache.get(key).get(0);
+    assertNotSame(first, second);
+    assertEquals(1, second.measureOverlap(new RealVector(new float[] {1, 0})), TOL);
+  }
+
+  @Test
+  public void testExpiry() throws InterruptedException {
+    QueryVectorCache cache = new QueryVectorCache(10, 1);
+    QueryVectorCache.Key key = new QueryVectorCache.Key("TERMS", "a", "");
+    cache.put(key, vectors(1, 0));
+    assertEquals(1, cache.get(key).size());
+    Thread.sleep(1100);
+    assertNull(cache.get(key));
+    assertEquals(1, cache.getExpirations());
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testCompoundVectorBuilderUsesCache() {
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(new String[] {
+        "-vectortype", "real", "-dimension", "2", "-queryvectorcachesize", "10"});
+    VectorStoreRAM store = new VectorStoreRAM(flagConfig);
+    store.putVector("vector1", new RealVector(new float[] {1, 0}));
+    store.putVector("vector2", new RealVector(new float[] {1, -1}));
+
+    Vector first = CompoundVectorBuilder.getQueryVectorFromString(store, null, flagConfig, "vector1 vector2");
+    long hits = CompoundVectorBuilder.getQueryVectorCache().getHits();
+    Vector second = CompoundVectorBuilder.getQueryVectorFromString(store, null, flagConfig, "vector1  vector2");
+    assertEquals(hits + 1, CompoundVectorBuilder.getQueryVectorCache().getHits());
+    assertNotSame(first, second);
+    assertEquals(1, first.measureOverlap(second), TOL);
+    assertEquals(0.8944272, second.measureOverlap(store.getVector("vector1")), TOL);
+  }
+}
@@ -0,0 +1,249 @@
+/**
+   Copyright (c) 2015, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.io.IOException;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import ch.akuhn.edu.mit.tedlab.DMat;
+import ch.akuhn.edu.mit.tedlab.SMat;
+import ch.akuhn.edu.mit.tedlab.SVDRec;
+import ch.akuhn.edu.mit.tedlab.Svdlib;
+
+public class RandomizedSvdTest extends TestCase {
+
+  /** Returns a random sparse matrix with roughly {@code density} of its entries set. */
+  private static SMat randomSparseMatrix(int rows, int cols, double density, long seed) {
+    Random random = new Random(seed);
+    double[][] dense = new double[rows][cols];
+    for (int row = 0; row < rows; ++row) {
+      for (int col = 0; col < cols; ++col) {
+        if (random.nextDouble() < density) {
+          dense[row][col] = 1 + random.nextInt(5);
+        }
+      }
+    }
+    return sparseMatrix(dense);
+  }
+
+  /**
+   * Returns a sparse matrix like a term-document matrix with {@code numTopics} topics, whose
+   * singular values fall off like those of real corpora: rows and columns are divided between
+   * the topics, entries within a topic are more likely and larger for the earlier topics, and
+   * there are a few entries outside the topics.
+   */
+  private static SMat topicMatrix(int rows, int cols, int numTopics, long seed) {
+    Random random = new Random(seed);
+    double[][] dense = new double[rows][cols];
+    for (int row = 0; row < rows; ++row) {
+      for (int col = 0; col < cols; ++col) {
+        int topic = row % numTopics;
+        if (col % numTopics == topic && random.nextDouble() < 0.5) {
+          dense[row][col] = (numTopics - topic) * (1 + random.nextInt(2));
+        } else if (random.nextDouble() < 0.01) {
+          dense[row][col] = 1;
+        }
+      }
+    }
+    return sparseMatrix(dense);
+  }
+
+  private static SMat sparseMatrix(double[][] dense) {
+    int rows = dense.length;
+    int cols = dense[0].length;
+    int vals = 0;
+    for (double[] row : dense) {
+      for (double value : row) {
+        if (value != 0) {
+          ++vals;
+        }
+      }
+    }
+    SMat matrix = new SMat(rows, cols, vals);
+    int entry = 0;
+    for (int col = 0; col < cols; ++col) {
+      matrix.pointr[col] = entry;
+      for (int row = 0; row < rows; ++row) {
+        if (dense[row][col] != 0) {
+          matrix.rowind[entry] = row;
+          matrix.value[entry] = dense[row][col];
+          ++entry;
+        }
+      }
+    }
+    matrix.pointr[cols] = vals;
+    return matrix;
+  }
+
+  private static double[] column(DMat transposed, int index) {
+    return transposed.value[index];
+  }
+
+  private static double dot(double[] a, double[] b) {
+    double sum = 0;
+    for (int i = 0; i < a.length; ++i) {
+      sum += a[i] * b[i];
+    }
+    return sum;
+  }
+
+  /** Returns the product of {@code matrix} transposed and {@code vector}. */
+  private static double[] multiplyTranspose(SMat matrix, double[] vector) {
+    double[] result = new double[matrix.cols];
+    for (int col = 0; col < matrix.cols; ++col) {
+      for (int i = matrix.pointr[col]; i < matrix.pointr[col + 1]; ++i) {
+        result[col] += matrix.value[i] * vector[matrix.rowind[i]];
+      }
+    }
+    return result;
+  }
+
+  @Test
+  public void testTranspose() {
+    SMat matrix = randomSparseMatrix(7, 11, 0.3, 1);
+    SMat transposed = RandomizedSvd.transpose(matrix);
+    assertEquals(11, transposed.rows);
+    assertEquals(7, transposed.cols);
+    double[][] dense = new double[7][11];
+    for (int col = 0; col < 11; ++col) {
+      for (int i = matrix.pointr[col]; i < matrix.pointr[col + 1]; ++i) {
+        dense[matrix.rowind[i]][col] = matrix.value[i];
+      }
+    }
+    int vals = 0;
+    for (int row = 0; row < 7; ++row) {
+      for (int i = transposed.pointr[row]; i < transposed.pointr[row + 1]; ++i) {
+        assertEquals(dense[row][transposed.rowind[i]], transposed.value[i]);
+        ++vals;
+      }
+    }
+    assertEquals(matrix.vals, vals);
+  }
+
+  @Test
+  public void testMatchesLas2WhenSampleCoversMatrix() throws IOException {
+    // With 30 rows, 5 dimensions and oversampling 25 the random sample spans the whole
+    // column space, so the decomposition is exact.
+    SMat matrix = randomSparseMatrix(30, 50, 0.2, 2);
+    SVDRec las2 = new Svdlib().svdLAS2A(matrix, 5);
+    SVDRec randomized = new RandomizedSvd(2, 25, 0, 3).svd(matrix, 5);
+    assertEquals(5, randomized.d);
+    for (int i = 0; i < 5; ++i) {
+      assertEquals(las2.S[i], randomized.S[i], 1e-8 * las2.S[0]);
+      assertEquals(1, Math.abs(dot(column(las2.Vt, i), column(randomized.Vt, i))), 1e-6);
+      assertEquals(1, Math.abs(dot(column(las2.Ut, i), column(randomized.Ut, i))), 1e-6);
+    }
+  }
+
+  @Test
+  public void testApproximatesLas2() throws IOException {
+    SMat matrix = topicMatrix(300, 400, 10, 4);
+    SVDRec las2 = new Svdlib().svdLAS2A(matrix, 10);
+    SVDRec randomized = new RandomizedSvd(3).svd(matrix, 10);
+    for (int i = 0; i < 10; ++i) {
+      assertEquals(las2.S[i], randomized.S[i], 0.05 * las2.S[i]);
+      if (i > 0) {
+        assertTrue(randomized.S[i] <= randomized.S[i - 1]);
+      }
+    }
+    // The leading singular values stand out from those of the noise, and are accurate.
+    for (int i = 0; i < 5; ++i) {
+      assertEquals(las2.S[i], randomized.S[i], 1e-4 * las2.S[i]);
+      assertEquals(1, Math.abs(dot(column(las2.Vt, i), column(randomized.Vt, i))), 1e-4);
+    }
+  }
+
+  @Test
+  public void testUnderestimatesSingularValuesWithoutStructure() throws IOException {
+    // Random matrices have no dominant directions, which is the hardest case. Singular values
+    // are still in the right range, and never too large.
+    SMat matrix = randomSparseMatrix(300, 400, 0.05, 4);
+    SVDRec las2 = new Svdlib().svdLAS2A(matrix, 10);
+    SVDRec randomized = new RandomizedSvd(3).svd(matrix, 10);
+    for (int i = 0; i < 10; ++i) {
+      assertEquals(las2.S[i], randomized.S[i], 0.1 * las2.S[i]);
+      assertTrue(randomized.S[i] <= las2.S[i] * (1 + 1e-8));
+    }
+  }
+
+  @Test
+  public void testSingularVectorsAreOrthonormalAndConsistent() throws IOException {
+    SMat matrix = randomSparseMatrix(200, 150, 0.05, 5);
+    SVDRec svd = new RandomizedSvd(4).svd(matrix, 8);
+    for (int i = 0; i < 8; ++i) {
+      for (int j = 0; j < 8; ++j) {
+        double expected = (i == j) ? 1 : 0;
+        assertEquals(expected, dot(column(svd.Ut, i), column(svd.Ut, j)), 1e-8);
+        assertEquals(expected, dot(column(svd.Vt, i), column(svd.Vt, j)), 1e-8);
+      }
+      // A^T u = s v holds for the computed vectors, by construction.
+      double[] product = multiplyTranspose(matrix, column(svd.Ut, i));
+      for (int col = 0; col < matrix.cols; ++col) {
+        assertEquals(svd.S[i] * svd.Vt.value[i][col], product[col], 1e-8 * svd.S[0]);
+      }
+    }
+  }
+
+  @Test
+  public void testResultsDoNotDependOnThreads() throws IOException {
+    SMat matrix = randomSparseMatrix(2500, 120, 0.02, 6);
+    SVDRec serial = new RandomizedSvd(1).svd(matrix, 6);
+    SVDRec parallel = new RandomizedSvd(4).svd(matrix, 6);
+    for (int i = 0; i < 6; ++i) {
+      assertEquals(serial.S[i], parallel.S[i], 1e-9 * serial.S[0]);
+      assertEquals(1, Math.abs(dot(column(serial.Vt, i), column(parallel.Vt, i))), 1e-6);
+    }
+  }
+
+  @Test
+  public void testDimensionLargerThanMatrix() throws IOException {
+    SMat matrix = randomSparseMatrix(6, 9, 0.5, 7);
+    SVDRec svd = new RandomizedSvd(1).svd(matrix, 8);
+    assertEquals(8, svd.S.length);
+    assertEquals(8, svd.Ut.rows);
+    assertEquals(9, svd.Vt.cols);
+    for (int i = 0; i < 6; ++i) {
+      assertTrue(svd.S[i] > 0);
+    }
+    assertEquals(0.0, svd.S[6]);
+    assertEquals(0.0, svd.S[7]);
+    assertEquals(0.0, dot(column(svd.Vt, 7), column(svd.Vt, 7)));
+  }
+}
@@ -0,0 +1,162 @@
+/**
+   Copyright (c) 2015, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+package pitt.search.semanticvectors;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.util.Random;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.FSDirectory;
+import org.junit.After;
+import org.junit.Test;
+
+import pitt.search.semanticvectors.vectors.RealVector;
+
+import static org.junit.Assert.*;
+
+public class SearchBatchTest {
+
+  private static final String INDEX_PATH = "searchbatchtest_index";
+  private static final String STORE_NAME = "searchbatchtestvectors";
+  private static final String QUERY_FILE = "searchbatchtestqueries.txt";
+
+  private static final int DIMENSION = 20;
+  private static final int NUM_TERMS = 100;
+  private static final int NUM_QUERIES = 150;
+
+  @After
+  public void tearDown() {
+    File indexDirectory = new File(INDEX_PATH);
+    File[] files = indexDirectory.listFiles();
+    if (files != null) {
+      for (File file : files) file.delete();
+    }
+    indexDirectory.delete();
+    new File(STORE_NAME + ".bin").delete();
+    new File(QUERY_FILE).delete();
+  }
+
+  /**
+   * Writes the vector store, a Lucene index of the same terms for query parsing, and a query
+   * file with more queries than a single task searches, some of which have zero query vectors.
+   * Queries are split into runs of 64 for one thread, and of 38 for four threads.
+   */
+  private static void writeInputs() throws IOException {
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(
+        new String[] {"-vectortype", "real", "-dimension", "" + DIMENSION});
+    Random random = new Random(0);
+    VectorStoreRAM store = new VectorStoreRAM(flagConfig);
+    for (int i = 0; i < NUM_TERMS; ++i) {
+      float[] coordinates = new float[DIMENSION];
+      for (int j = 0; j < DIMENSION; ++j) {
+        coordinates[j] = (float) random.nextGaussian();
+      }
+      store.putVector("term" + i, new RealVector(coordinates));
+    }
+    VectorStoreWriter.writeVectors(STORE_NAME, flagConfig, store);
+
+    FSDirectory directory = FSDirectory.open(FileSystems.getDefault().getPath(INDEX_PATH));
+    IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()));
+    for (int i = 0; i < NUM_TERMS; i += 10) {
+      Document document = new Document();
+      document.add(new StringField("path", "doc" + i, Field.Store.YES));
+      StringBuilder contents = new StringBuilder();
+      for (int j = i; j < i + 10; ++j) {
+        contents.append(" term").append(j);
+      }
+      document.add(new TextField("contents", contents.toString(), Field.Store.NO));
+      writer.addDocument(document);
+    }
+    writer.close();
+    directory.close();
+
+    PrintWriter queries = new PrintWriter(QUERY_FILE, "UTF-8");
+    for (int q = 0; q < NUM_QUERIES; ++q) {
+      if (q % 37 == 0) {
+        // No vector for this term, so the query vector is zero.
+        queries.println("nosuchterm");
+        continue;
+      }
+      int numTerms = 1 + random.nextInt(3);
+      StringBuilder query = new StringBuilder();
+      for (int t = 0; t < numTerms; ++t) {
+        query.append(" term").append(random.nextInt(NUM_TERMS));
+      }
+      queries.println(query.toString().trim());
+    }
+    queries.close();
+  }
+
+  /** Runs the batch search and returns what it printed. */
+  private static String runSearch(String searchType, int numThreads) {
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(new String[] {
+        "-queryvectorfile", STORE_NAME, "-luceneindexpath", INDEX_PATH,
+        "-searchtype", searchType, "-numsearchresults", "5",
+        "-numthreads", "" + numThreads, QUERY_FILE});
+    PrintStream systemOut = System.out;
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    try {
+      System.setOut(new PrintStream(output, true));
+      SearchBatch.runSearch(flagConfig);
+    } finally {
+      System.setOut(systemOut);
+    }
+    return new String(output.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void testParallelResultsMatchSequentialResults() throws IOException {
+    writeInputs();
+    for (String searchType : new String[] {"sum", "maxsim", "minsim"}) {
+      String sequential = runSearch(searchType, 1);
+      String parallel = runSearch(searchType, 4);
+      // Every query with a nonzero vector prints numsearchresults lines.
+      assertTrue(searchType, sequential.split("\n").length >= 5 * (NUM_QUERIES - 5));
+      assertEquals(searchType, sequential, parallel);
+    }
+  }
+}
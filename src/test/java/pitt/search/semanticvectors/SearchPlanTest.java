@@ -0,0 +1,289 @@
+/**
+   Copyright (c) 2015, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import pitt.search.semanticvectors.vectors.RealVector;
+import pitt.search.semanticvectors.vectors.Vector;
+import pitt.search.semanticvectors.vectors.VectorFactory;
+import pitt.search.semanticvectors.vectors.VectorType;
+
+import static org.junit.Assert.*;
+
+public class SearchPlanTest {
+
+  private static RealVector randomVector(int dimension, Random random) {
+    float[] coordinates = new float[dimension];
+    for (int i = 0; i < dimension; ++i) {
+      coordinates[i] = (float) random.nextGaussian();
+    }
+    return new RealVector(coordinates);
+  }
+
+  @Test
+  public void testBlockResultsMatchSingleQueries() throws Exception {
+    int dimension = 50;
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(
+        new String[] {"-vectortype", "real", "-dimension", "" + dimension});
+    Random random = new Random(0);
+    // Not a multiple of the tile size, so the last tile is partly filled.
+    VectorStoreRAM store = new VectorStoreRAM(flagConfig);
+    for (int i = 0; i < 150; ++i) {
+      store.putVector("vector" + i, randomVector(dimension, random));
+    }
+    SearchPlan searchPlan = new SearchPlan(store, null, flagConfig);
+
+    List<Vector> queryVectors = new ArrayList<Vector>();
+    for (int q = 0; q < 10; ++q) {
+      queryVectors.add(randomVector(dimension, random));
+    }
+    queryVectors.add(VectorFactory.createZeroVector(VectorType.REAL, dimension));
+
+    List<LinkedList<SearchResult>> blockResults = searchPlan.getNearestNeighbors(queryVectors, 7);
+    assertEquals(queryVectors.size(), blockResults.size());
+    for (int q = 0; q < 10; ++q) {
+      LinkedList<SearchResult> expected = searchPlan.getNearestNeighbors(queryVectors.get(q), 7);
+      LinkedList<SearchResult> actual = blockResults.get(q);
+      assertEquals(7, actual.size());
+      for (int i = 0; i < expected.size(); ++i) {
+        assertEquals(expected.get(i).getObjectVector().getObject(),
+            actual.get(i).getObjectVector().getObject());
+        assertEquals(expected.get(i).getScore(), actual.get(i).getScore(), 0);
+      }
+    }
+    assertTrue(blockResults.get(10).isEmpty());
+  }
+
+  @Test
+  public void testEarlyAbandonResultsMatchExhaustive() throws Exception {
+    int dimension = 100;
+    String[] args = {"-vectortype", "real", "-dimension", "" + dimension};
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(args);
+    Random random = new Random(1);
+    VectorStoreRAM store = new VectorStoreRAM(flagConfig);
+    for (int i = 0; i < 2000; ++i) {
+      store.putVector("vector" + i, randomVector(dimension, random));
+    }
+    // Equal scores must still be ranked as exhaustive search ranks them.
+    store.putVector("copy", store.getVector("vector5").copy());
+    SearchPlan exhaustivePlan = new SearchPlan(store, null, flagConfig);
+    SearchPlan earlyAbandonPlan = new SearchPlan(store, null, FlagConfig.getFlagConfig(
+        new String[] {"-vectortype", "real", "-dimension", "" + dimension, "-earlyabandonblocksize", "16"}));
+
+    List<Vector> queryVectors = new ArrayList<Vector>();
+    for (int q = 0; q < 10; ++q) {
+      queryVectors.add(randomVector(dimension, random));
+    }
+    queryVectors.add(store.getVector("vector5"));
+    for (Vector queryVector : queryVectors) {
+      for (int numResults : new int[] {1, 10, 3000}) {
+        LinkedList<SearchResult> expected = exhaustivePlan.getNearestNeighbors(queryVector, numResults);
+        LinkedList<SearchResult> actual = earlyAbandonPlan.getNearestNeighbors(queryVector, numResults);
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); ++i) {
+          assertEquals(expected.get(i).getObjectVector().getObject(),
+              actual.get(i).getObjectVector().getObject());
+          assertEquals(expected.get(i).getScore(), actual.get(i).getScore(), 0);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testSingleQueryPlanDoesNotBuildIndexes() throws Exception {
+    int dimension = 50;
+    Random random = new Random(5);
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(new String[] {
+        "-vectortype", "real", "-dimension", "" + dimension, "-earlyabandonblocksize", "16"});
+    VectorStoreRAM store = new VectorStoreRAM(flagConfig);
+    for (int i = 0; i < 500; ++i) {
+      store.putVector("vector" + i, randomVector(dimension, random));
+    }
+    SearchPlan sharedPlan = new SearchPlan(store, null, flagConfig);
+    SearchPlan singleQueryPlan = new SearchPlan(store, null, flagConfig, true);
+
+    Vector queryVector = randomVector(dimension, random);
+    LinkedList<SearchResult> expected = sharedPlan.getNearestNeighbors(queryVector, 10);
+    LinkedList<SearchResult> actual = singleQueryPlan.getNearestNeighbors(queryVector, 10);
+    assertTrue(sharedPlan.hasBlockNormIndex());
+    assertFalse(singleQueryPlan.hasBlockNormIndex());
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); ++i) {
+      assertEquals(expected.get(i).getObjectVector().getObject(),
+          actual.get(i).getObjectVector().getObject());
+      assertEquals(expected.get(i).getScore(), actual.get(i).getScore(), 0);
+    }
+  }
+
+  @Test
+  public void testStoresShareOnePlanAcrossQueries() throws Exception {
+    int dimension = 20;
+    Random random = new Random(6);
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(
+        new String[] {"-vectortype", "real", "-dimension", "" + dimension});
+    VectorStoreRAM store = new VectorStoreRAM(flagConfig);
+    for (int i = 0; i < 100; ++i) {
+      store.putVector("vector" + i, randomVector(dimension, random));
+    }
+    String storeName = "searchplantestvectors";
+    VectorStoreWriter.writeVectors(storeName, flagConfig, store);
+    try {
+      FlagConfig serverConfig = FlagConfig.getFlagConfig(new String[] {
+          "-queryvectorfile", storeName, "-earlyabandonblocksize", "8"});
+      Search.Stores stores = Search.Stores.open(serverConfig, true);
+      SearchPlan searchPlan = stores.getSearchPlan();
+      for (int q = 0; q < 3; ++q) {
+        FlagConfig queryConfig = FlagConfig.getFlagConfig(new String[] {
+            "-queryvectorfile", storeName, "-earlyabandonblocksize", "8",
+            "-vectortype", "real", "-dimension", "" + dimension, "-numsearchresults", "5",
+            "vector" + q});
+        LinkedList<SearchResult> results = Search.runSearch(queryConfig, stores);
+        assertEquals(5, results.size());
+        assertEquals("vector" + q, results.getFirst().getObjectVector().getObject());
+        // The block norm index built by the first query is kept for the others.
+        assertSame(searchPlan, stores.getSearchPlan());
+        assertTrue(searchPlan.hasBlockNormIndex());
+      }
+      stores.close();
+    } finally {
+      new File(storeName + ".bin").delete();
+    }
+  }
+
+  @Test
+  public void testSketchCandidatesAreScoredExactly() throws Exception {
+    int dimension = 100;
+    Random random = new Random(2);
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(
+        new String[] {"-vectortype", "real", "-dimension", "" + dimension});
+    VectorStoreRAM store = new VectorStoreRAM(flagConfig);
+    for (int i = 0; i < 2000; ++i) {
+      store.putVector("vector" + i, randomVector(dimension, random));
+    }
+    SearchPlan exhaustivePlan = new SearchPlan(store, null, flagConfig);
+    SearchPlan allCandidatesPlan = new SearchPlan(store, null, FlagConfig.getFlagConfig(
+        new String[] {"-vectortype", "real", "-dimension", "" + dimension,
+            "-sketchbits", "128", "-sketchcandidates", "2000"}));
+    SearchPlan fewCandidatesPlan = new SearchPlan(store, null, FlagConfig.getFlagConfig(
+        new String[] {"-vectortype", "real", "-dimension", "" + dimension,
+            "-sketchbits", "128", "-sketchcandidates", "100"}));
+
+    for (int q = 0; q < 10; ++q) {
+      Vector queryVector = store.getVector("vector" + (q * 7));
+      LinkedList<SearchResult> expected = exhaustivePlan.getNearestNeighbors(queryVector, 10);
+      LinkedList<SearchResult> actual = allCandidatesPlan.getNearestNeighbors(queryVector, 10);
+      assertEquals(expected.size(), actual.size());
+      for (int i = 0; i < expected.size(); ++i) {
+        assertEquals(expected.get(i).getObjectVector().getObject(),
+            actual.get(i).getObjectVector().getObject());
+        assertEquals(expected.get(i).getScore(), actual.get(i).getScore(), 0);
+      }
+
+      // With fewer candidates, results are still exact scores, best first, and the query
+      // itself is found.
+      LinkedList<SearchResult> prefiltered = fewCandidatesPlan.getNearestNeighbors(queryVector, 10);
+      assertEquals(10, prefiltered.size());
+      assertEquals("vector" + (q * 7), prefiltered.getFirst().getObjectVector().getObject());
+      for (int i = 0; i < prefiltered.size(); ++i) {
+        SearchResult result = prefiltered.get(i);
+        assertEquals(queryVector.copy().measureOverlap(
+            store.getVector(result.getObjectVector().getObject())), result.getScore(), 0);
+        if (i > 0) {
+          assertTrue(prefiltered.get(i - 1).getScore() >= result.getScore());
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testSketchIndexIsBuiltForCosineSearchOnly() throws Exception {
+    int dimension = 50;
+    Random random = new Random(4);
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(
+        new String[] {"-vectortype", "real", "-dimension", "" + dimension});
+    VectorStoreRAM store = new VectorStoreRAM(flagConfig);
+    for (int i = 0; i < 500; ++i) {
+      store.putVector("vector" + i, randomVector(dimension, random));
+    }
+    SearchPlan exhaustivePlan = new SearchPlan(store, null, flagConfig);
+    SearchPlan sketchPlan = new SearchPlan(store, null, FlagConfig.getFlagConfig(
+        new String[] {"-vectortype", "real", "-dimension", "" + dimension,
+            "-sketchbits", "64", "-sketchcandidates", "1"}));
+
+    // Blocks of queries are searched exhaustively, without building the sketch index.
+    List<Vector> queryVectors = new ArrayList<Vector>();
+    for (int q = 0; q < 5; ++q) {
+      queryVectors.add(randomVector(dimension, random));
+    }
+    List<LinkedList<SearchResult>> expected = exhaustivePlan.getNearestNeighbors(queryVectors, 20);
+    List<LinkedList<SearchResult>> actual = sketchPlan.getNearestNeighbors(queryVectors, 20);
+    for (int q = 0; q < queryVectors.size(); ++q) {
+      assertEquals(20, actual.get(q).size());
+      for (int i = 0; i < 20; ++i) {
+        assertEquals(expected.get(q).get(i).getObjectVector().getObject(),
+            actual.get(q).get(i).getObjectVector().getObject());
+      }
+    }
+
+    // The sketch index is built by the first cosine search, so it holds vectors added before then.
+    Vector added = randomVector(dimension, random);
+    store.putVector("added", added);
+    assertEquals("added",
+        sketchPlan.getNearestNeighbors(added, 1).getFirst().getObjectVector().getObject());
+  }
+
+  @Test
+  public void testPlanPreparesStoreForSharing() throws Exception {
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(
+        new String[] {"-vectortype", "real", "-dimension", "20"});
+    VectorStoreRAM store = new VectorStoreRAM(flagConfig);
+    Random random = new Random(3);
+    for (int i = 0; i < 5; ++i) {
+      store.putVector("vector" + i, VectorFactory.generateRandomVector(VectorType.REAL, 20, 4, random));
+    }
+    new SearchPlan(store, null, flagConfig);
+    for (int i = 0; i < 5; ++i) {
+      assertTrue(store.getVector("vector" + i).toString().contains("Dense"));
+    }
+  }
+}
@@ -0,0 +1,165 @@
+/**
+   Copyright (c) 2015, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import pitt.search.semanticvectors.vectors.RealVector;
+
+public class SearchServerTest extends TestCase {
+
+  private static final String STORE_NAME = "searchservertestvectors";
+
+  private SearchServer server;
+
+  @Override
+  protected void setUp() throws IOException {
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(new String[] {"-vectortype", "real", "-dimension", "2"});
+    VectorStoreRAM store = new VectorStoreRAM(flagConfig);
+    store.putVector("isaac", new RealVector(new float[] {1, 0}));
+    store.putVector("abraham", new RealVector(new float[] {0.8f, 0.6f}));
+    store.putVector("jacob", new RealVector(new float[] {0, 1}));
+    VectorStoreWriter.writeVectors(STORE_NAME, flagConfig, store);
+
+    server = new SearchServer(new String[] {
+        "-queryvectorfile", STORE_NAME, "-serverport", "0", "-numthreads", "4"});
+    server.start();
+  }
+
+  @Override
+  protected void tearDown() {
+    server.stop();
+    new File(STORE_NAME + ".bin").delete();
+  }
+
+  /** Returns the response status followed by the response body. */
+  private String get(String pathAndQuery) throws IOException {
+    URL url = new URL("http://localhost:" + server.getPort() + pathAndQuery);
+    HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+    int status = connection.getResponseCode();
+    InputStream body = status == 200 ? connection.getInputStream() : connection.getErrorStream();
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    byte[] buffer = new byte[1024];
+    int read;
+    while ((read = body.read(buffer)) != -1) {
+      bytes.write(buffer, 0, read);
+    }
+    body.close();
+    return status + " " + new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void testSearch() throws IOException {
+    String response = get("/search?query=isaac");
+    assertTrue(response, response.startsWith("200 {\"query\": \"isaac\", \"results\": [{\"object\": \"isaac\""));
+    assertTrue(response.indexOf("\"abraham\"") < response.indexOf("\"jacob\""));
+  }
+
+  @Test
+  public void testQueryFlags() throws IOException {
+    String response = get("/search?query=isaac&numsearchresults=2");
+    assertTrue(response.contains("\"abraham\""));
+    assertFalse(response.contains("\"jacob\""));
+
+    response = get("/search?query=isaac&searchtype=maxsim&searchresultsminscore=0.9");
+    assertTrue(response.contains("\"isaac\""));
+    assertFalse(response.contains("\"abraham\""));
+    // The server's search plan is shared, but the minimum score is still set for each query.
+    response = get("/search?query=isaac&searchresultsminscore=0.9");
+    assertTrue(response.contains("\"isaac\""));
+    assertFalse(response.contains("\"abraham\""));
+    response = get("/search?query=isaac");
+    assertTrue(response.contains("\"abraham\""));
+  }
+
+  @Test
+  public void testQueryTermsAreNotFlags() throws IOException {
+    String response = get("/search?query=-numsearchresults+1+isaac");
+    assertTrue(response, response.startsWith("200 "));
+    assertTrue(response.contains("\"abraham\""));
+    assertTrue(response.contains("\"jacob\""));
+
+    // Terms that are not in the store give no results, and must not hang the server.
+    assertEquals("200 {\"query\": \"-\", \"results\": []}", get("/search?query=-"));
+    assertEquals("200 {\"query\": \"- -\", \"results\": []}", get("/search?query=-+-"));
+  }
+
+  @Test
+  public void testErrors() throws IOException {
+    assertTrue(get("/search").startsWith("400 {\"error\": "));
+    assertTrue(get("/search?query=isaac&searchtype=nosuchtype").startsWith("400 {\"error\": "));
+  }
+
+  @Test
+  public void testConcurrentQueries() throws Exception {
+    final String expected = get("/search?query=jacob");
+    ExecutorService clients = Executors.newFixedThreadPool(8);
+    List<Future<String>> responses = new ArrayList<Future<String>>();
+    for (int i = 0; i < 40; ++i) {
+      responses.add(clients.submit(new Callable<String>() {
+        @Override
+        public String call() throws IOException {
+          return get("/search?query=jacob");
+        }
+      }));
+    }
+    clients.shutdown();
+    for (Future<String> response : responses) {
+      assertEquals(expected, response.get());
+    }
+  }
+
+  @Test
+  public void testJsonString() {
+    assertEquals("\"a \\\"b\\\" \\\\ \\n \\u0001\"", SearchServer.jsonString("a \"b\" \\ \n \u0001"));
+  }
+}
@@ -0,0 +1,200 @@
+/**
+   Copyright (c) 2015, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DocsAndPositionsEnum;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.junit.After;
+import org.junit.Test;
+
+import pitt.search.semanticvectors.TermTermVectorsFromLucene.PositionalMethod;
+import pitt.search.semanticvectors.vectors.PermutationUtils;
+import pitt.search.semanticvectors.vectors.Vector;
+import pitt.search.semanticvectors.vectors.VectorFactory;
+
+import static org.junit.Assert.*;
+
+public class TermTermVectorsFromLuceneTest {
+
+  private static final String INDEX_PATH = "termtermvectorstest_index";
+  private static final String ELEMENTAL_VECTORS = "termtermvectorstest_elemental";
+
+  // Terms that occur only once are filtered out with -minfrequency 2, leaving gaps in positions.
+  private static final String[] DOCUMENTS = {
+    "in the beginning was the word and the word was with god",
+    "the same was in the beginning with god",
+    "all things were made by him and without him was not any thing made that was made",
+    "in him was life and the life was the light of men",
+    "and the light shineth in darkness and the darkness comprehended it not",
+  };
+
+  @After
+  public void tearDown() {
+    File indexDirectory = new File(INDEX_PATH);
+    File[] files = indexDirectory.listFiles();
+    if (files != null) {
+      for (File file : files) file.delete();
+    }
+    indexDirectory.delete();
+    new File(ELEMENTAL_VECTORS + ".bin").delete();
+  }
+
+  private static void writeDocuments() throws IOException {
+    FieldType positionsType = new FieldType();
+    positionsType.setIndexOptions(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS);
+    positionsType.setTokenized(true);
+    positionsType.setStoreTermVectors(true);
+    positionsType.setStoreTermVectorPositions(true);
+    FSDirectory directory = FSDirectory.open(FileSystems.getDefault().getPath(INDEX_PATH));
+    IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()));
+    for (int i = 0; i < DOCUMENTS.length; ++i) {
+      Document document = new Document();
+      document.add(new StringField("path", "doc" + i, Field.Store.YES));
+      document.add(new Field("contents", DOCUMENTS[i], positionsType));
+      writer.addDocument(document);
+    }
+    writer.close();
+    directory.close();
+  }
+
+  /**
+   * Trains term vectors keyed by term, looking up elemental vectors and global weights by term
+   * for every position in the sliding window, as the trainer did before it used ordinals.
+   */
+  private static Map<String, Vector> trainByTerm(FlagConfig flagConfig) throws IOException {
+    LuceneUtils luceneUtils = new LuceneUtils(flagConfig);
+    ElementalVectorStore elementalVectors = new ElementalVectorStore(flagConfig);
+    Map<String, Vector> semanticVectors = new HashMap<String, Vector>();
+    TermsEnum allTerms = luceneUtils.getTermsForField("contents").iterator(null);
+    BytesRef bytes;
+    while ((bytes = allTerms.next()) != null) {
+      Term term = new Term("contents", BytesRef.deepCopyOf(bytes));
+      if (!luceneUtils.termFilter(term)) continue;
+      semanticVectors.put(term.text(),
+          VectorFactory.createZeroVector(flagConfig.vectortype(), flagConfig.dimension()));
+    }
+
+    int radius = flagConfig.windowradius();
+    PositionalMethod method = flagConfig.positionalmethod();
+    for (int dc = 0; dc < luceneUtils.getNumDocs(); ++dc) {
+      Terms terms = luceneUtils.getTermVector(dc, "contents");
+      List<String> localTerms = new ArrayList<String>();
+      Hashtable<Integer, Integer> localTermPositions = new Hashtable<Integer, Integer>();
+      TermsEnum termsEnum = terms.iterator(null);
+      BytesRef text;
+      while ((text = termsEnum.next()) != null) {
+        String theTerm = text.utf8ToString();
+        if (!semanticVectors.containsKey(theTerm)) continue;
+        DocsAndPositionsEnum docsAndPositions = termsEnum.docsAndPositions(null, null);
+        docsAndPositions.nextDoc();
+        for (int x = 0; x < docsAndPositions.freq(); ++x) {
+          localTermPositions.put(docsAndPositions.nextPosition(), localTerms.size());
+        }
+        localTerms.add(theTerm);
+      }
+
+      for (int focusposn = 0; focusposn < localTermPositions.size(); ++focusposn) {
+        if (localTermPositions.get(focusposn) == null) continue;
+        Vector focusVector = semanticVectors.get(localTerms.get(localTermPositions.get(focusposn)));
+        int windowstart = Math.max(0, focusposn - radius);
+        int windowend = Math.min(focusposn + radius, localTermPositions.size() - 1);
+        for (int cursor = windowstart; cursor <= windowend; ++cursor) {
+          if (cursor == focusposn || localTermPositions.get(cursor) == null) continue;
+          String coterm = localTerms.get(localTermPositions.get(cursor));
+          Vector toSuperpose = elementalVectors.getVector(coterm);
+          float globalweight = luceneUtils.getGlobalTermWeight(new Term("contents", coterm));
+          if (method == PositionalMethod.BASIC) {
+            focusVector.superpose(toSuperpose, globalweight, null);
+          } else if (method == PositionalMethod.PERMUTATION) {
+            focusVector.superpose(toSuperpose, globalweight, PermutationUtils.getShiftPermutation(
+                flagConfig.vectortype(), flagConfig.dimension(), cursor - focusposn));
+          } else if (method == PositionalMethod.DIRECTIONAL) {
+            focusVector.superpose(toSuperpose, globalweight, PermutationUtils.getShiftPermutation(
+                flagConfig.vectortype(), flagConfig.dimension(), cursor > focusposn ? 1 : -1));
+          }
+        }
+      }
+    }
+    for (Vector vector : semanticVectors.values()) {
+      vector.normalize();
+    }
+    return semanticVectors;
+  }
+
+  @Test
+  public void testOrdinalTrainingMatchesTrainingByTerm() throws IOException {
+    writeDocuments();
+    for (PositionalMethod method : new PositionalMethod[] {
+        PositionalMethod.BASIC, PositionalMethod.PERMUTATION, PositionalMethod.DIRECTIONAL}) {
+      FlagConfig flagConfig = FlagConfig.getFlagConfig(new String[] {
+          "-luceneindexpath", INDEX_PATH, "-vectortype", "real", "-dimension", "200",
+          "-seedlength", "10", "-elementalmethod", "contenthash", "-termweight", "idf",
+          "-minfrequency", "2", "-windowradius", "2", "-positionalmethod", method.toString(),
+          "-elementalvectorfile", ELEMENTAL_VECTORS});
+      VectorStore trained =
+          new TermTermVectorsFromLucene(flagConfig, null).getSemanticTermVectors();
+      Map<String, Vector> expected = trainByTerm(flagConfig);
+
+      assertEquals(expected.size(), trained.getNumVectors());
+      for (Map.Entry<String, Vector> entry : expected.entrySet()) {
+        assertFalse(entry.getValue().isZeroVector());
+        assertEquals(method + " " + entry.getKey(), entry.getValue().writeToString(),
+            trained.getVector(entry.getKey()).writeToString());
+      }
+    }
+  }
+}
@@ -0,0 +1,173 @@
+/**
+   Copyright (c) 2015, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import pitt.search.semanticvectors.vectors.Vector;
+import pitt.search.semanticvectors.vectors.VectorFactory;
+import pitt.search.semanticvectors.vectors.VectorType;
+
+public class TrainingCheckpointTest extends TestCase {
+
+  private static final String STORE_NAME = "checkpointtestvectors";
+
+  @Override
+  protected void tearDown() {
+    new File(STORE_NAME + TrainingCheckpoint.CHECKPOINT_EXTENSION).delete();
+  }
+
+  private static int seedLength(VectorType vectorType, int dimension) {
+    return vectorType == VectorType.BINARY ? dimension / 2 : 10;
+  }
+
+  /** Returns vectors accumulated from the same random elemental vectors for each call. */
+  private static Vector[] accumulateVectors(VectorType vectorType, int dimension, int numSteps) {
+    Random random = new Random(0);
+    Vector[] vectors = new Vector[] {
+        VectorFactory.createZeroVector(vectorType, dimension),
+        VectorFactory.createZeroVector(vectorType, dimension) };
+    for (int i = 0; i < numSteps; ++i) {
+      Vector elemental = VectorFactory.generateRandomVector(
+          vectorType, dimension, seedLength(vectorType, dimension), random);
+      vectors[i % 2].superpose(elemental, 1 + (i % 3), null);
+    }
+    return vectors;
+  }
+
+  private void checkResumedAccumulationMatches(VectorType vectorType, int dimension)
+      throws IOException {
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(new String[] {
+        "-vectortype", vectorType.toString(), "-dimension", Integer.toString(dimension),
+        "-checkpointinterval", "5"});
+    VectorStoreRAM vectors = new VectorStoreRAM(flagConfig);
+    Vector[] accumulated = accumulateVectors(vectorType, dimension, 5);
+    vectors.putVector("first", accumulated[0]);
+    vectors.putVector("second", accumulated[1]);
+    vectors.putVector("zero", VectorFactory.createZeroVector(vectorType, dimension));
+
+    TrainingCheckpoint checkpoint = new TrainingCheckpoint(flagConfig, STORE_NAME, "-test");
+    assertTrue(checkpoint.isDue(5));
+    assertFalse(checkpoint.isDue(6));
+    checkpoint.write(5, vectors);
+    // Training goes on changing the vectors while the checkpoint is written.
+    accumulated[0].superpose(accumulated[1], 1, null);
+
+    FlagConfig resumeConfig = FlagConfig.getFlagConfig(new String[] {
+        "-vectortype", vectorType.toString(), "-dimension", Integer.toString(dimension),
+        "-resume"});
+    checkpoint.waitForPendingWrite();
+    TrainingCheckpoint resumed = new TrainingCheckpoint(resumeConfig, STORE_NAME, "-test");
+    VectorStoreRAM restored = resumed.restore();
+    assertEquals(5, resumed.getCursor());
+    assertEquals(2, restored.getNumVectors());
+    assertFalse(restored.containsVector("zero"));
+
+    // Continuing to accumulate onto the restored vectors gives the same result as not stopping.
+    Vector[] expected = accumulateVectors(vectorType, dimension, 10);
+    Random random = new Random(0);
+    Vector[] continued = new Vector[] { restored.getVector("first"), restored.getVector("second") };
+    for (int i = 0; i < 10; ++i) {
+      Vector elemental = VectorFactory.generateRandomVector(
+          vectorType, dimension, seedLength(vectorType, dimension), random);
+      if (i >= 5) continued[i % 2].superpose(elemental, 1 + (i % 3), null);
+    }
+    for (int i = 0; i < 2; ++i) {
+      expected[i].normalize();
+      continued[i].normalize();
+      assertEquals(expected[i].writeToString(), continued[i].writeToString());
+    }
+    resumed.finish();
+    assertFalse(new File(STORE_NAME + TrainingCheckpoint.CHECKPOINT_EXTENSION).exists());
+  }
+
+  @Test
+  public void testResumeRealVectors() throws IOException {
+    checkResumedAccumulationMatches(VectorType.REAL, 100);
+  }
+
+  @Test
+  public void testResumeComplexVectors() throws IOException {
+    checkResumedAccumulationMatches(VectorType.COMPLEX, 100);
+  }
+
+  @Test
+  public void testResumeBinaryVectors() throws IOException {
+    checkResumedAccumulationMatches(VectorType.BINARY, 128);
+  }
+
+  @Test
+  public void testRestoreRejectsDifferentSettings() throws IOException {
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(new String[] {
+        "-vectortype", "binary", "-dimension", "64", "-checkpointinterval", "1", "-resume"});
+    VectorStoreRAM vectors = new VectorStoreRAM(flagConfig);
+    vectors.putVector("vector", VectorFactory.generateRandomVector(
+        VectorType.BINARY, 64, 32, new Random(0)));
+    TrainingCheckpoint checkpoint = new TrainingCheckpoint(flagConfig, STORE_NAME, "-numdocs 10");
+    checkpoint.write(1, vectors);
+    checkpoint.waitForPendingWrite();
+
+    TrainingCheckpoint other = new TrainingCheckpoint(flagConfig, STORE_NAME, "-numdocs 11");
+    try {
+      other.restore();
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage().contains("-numdocs 10"));
+    }
+  }
+
+  @Test
+  public void testCheckpointsNeedReproducibleElementalVectors() {
+    TrainingCheckpoint.checkElementalVectorsReproducible(FlagConfig.getFlagConfig(null));
+    TrainingCheckpoint.checkElementalVectorsReproducible(FlagConfig.getFlagConfig(
+        new String[] {"-resume", "-elementalseed", "1"}));
+    TrainingCheckpoint.checkElementalVectorsReproducible(FlagConfig.getFlagConfig(
+        new String[] {"-resume", "-elementalmethod", "contenthash"}));
+    try {
+      TrainingCheckpoint.checkElementalVectorsReproducible(FlagConfig.getFlagConfig(
+          new String[] {"-checkpointinterval", "100"}));
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage().contains("-elementalseed"));
+    }
+  }
+}
@@ -75,4 +75,36 @@ public class VectorStoreDeterministicTest extends TestCase  {
     //assertEquals(-0.03718622401356697d, v1.measureOverlap(v3));
     assertEquals(0.008059127256274223d, v1.measureOverlap(v3));
   }
+
+  @Test
+  public void testVectorStoreDeterministic_NoCache() {
+    VectorStoreDeterministic uncachedStore = new VectorStoreDeterministic(FlagConfig.getFlagConfig(
+        new String[] {"-vectortype", "real", "-dimension", "1024", "-seedlength", "100",
+            "-elementalcachesize", "0"}));
+    Vector v1 = uncachedStore.getVector("testTerm");
+    Vector v2 = uncachedStore.getVector("testTerm");
+    assertNotSame(v1, v2);
+    assertEquals(1d, v1.measureOverlap(v2));
+    assertEquals(1d, v1.measureOverlap(vecStoreReal.getVector("testTerm")));
+    assertEquals(0, uncachedStore.getNumVectors());
+    uncachedStore.enableVectorCache(true);
+    uncachedStore.getVector("testTerm");
+    assertEquals(0, uncachedStore.getNumVectors());
+  }
+
+  @Test
+  public void testVectorStoreDeterministic_BoundedCache() {
+    VectorStoreDeterministic boundedStore = new VectorStoreDeterministic(FlagConfig.getFlagConfig(
+        new String[] {"-vectortype", "real", "-dimension", "1024", "-seedlength", "100",
+            "-elementalcachesize", "2"}));
+    boundedStore.getVector("first");
+    boundedStore.getVector("second");
+    // Using "first" makes "second" the least recently used vector.
+    boundedStore.getVector("first");
+    boundedStore.getVector("third");
+    assertEquals(2, boundedStore.getNumVectors());
+    assertTrue(boundedStore.containsVector("first"));
+    assertFalse(boundedStore.containsVector("second"));
+    assertTrue(boundedStore.containsVector("third"));
+  }
 }
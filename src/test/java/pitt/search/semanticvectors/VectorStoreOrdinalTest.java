@@ -0,0 +1,102 @@
+/**
+   Copyright (c) 2015, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors;
+
+import java.util.Enumeration;
+
+import junit.framework.TestCase;
+
+import org.apache.lucene.util.BytesRef;
+import org.junit.Test;
+
+import pitt.search.semanticvectors.vectors.RealVector;
+import pitt.search.semanticvectors.vectors.Vector;
+
+public class VectorStoreOrdinalTest extends TestCase {
+
+  static final String[] COMMAND_LINE_ARGS = {"-vectortype", "real", "-dimension", "2"};
+  static final FlagConfig FLAG_CONFIG = FlagConfig.getFlagConfig(COMMAND_LINE_ARGS);
+  static double TOL = 0.0001;
+
+  @Test
+  public void testOrdinalsAreDenseAndStable() {
+    VectorStoreOrdinal vectorStore = new VectorStoreOrdinal(FLAG_CONFIG);
+    for (int i = 0; i < 100; ++i) {
+      assertEquals(i, vectorStore.putVector("vector" + i, new RealVector(new float[] {i, 0.0f})));
+    }
+    assertEquals(100, vectorStore.getNumVectors());
+    assertEquals(42, vectorStore.getOrdinal("vector42"));
+    assertEquals(42, vectorStore.getOrdinal(new BytesRef("vector42")));
+    assertEquals(VectorStoreOrdinal.NO_ORDINAL, vectorStore.getOrdinal("vector100"));
+    assertEquals("vector42", vectorStore.getKey(42));
+
+    // Overwriting keeps the ordinal.
+    Vector vector = new RealVector(new float[] {0.0f, 1.0f});
+    assertEquals(42, vectorStore.putVector(new BytesRef("vector42"), vector));
+    assertEquals(100, vectorStore.getNumVectors());
+    assertEquals(1, vectorStore.getVector(42).measureOverlap(vector), TOL);
+  }
+
+  @Test
+  public void testLookupByObjectAndEnumeration() {
+    VectorStoreOrdinal vectorStore = new VectorStoreOrdinal(FLAG_CONFIG);
+    Vector vector = new RealVector(new float[] {1.0f, 0.0f});
+    vectorStore.putVector("my vector", vector);
+    assertTrue(vectorStore.containsVector("my vector"));
+    assertTrue(vectorStore.containsVector(new BytesRef("my vector")));
+    assertFalse(vectorStore.containsVector("other vector"));
+    assertNull(vectorStore.getVector("other vector"));
+    assertEquals(1, vectorStore.getVector("my vector").measureOverlap(vector), TOL);
+
+    Enumeration<ObjectVector> vectors = vectorStore.getAllVectors();
+    assertTrue(vectors.hasMoreElements());
+    assertEquals("my vector", vectors.nextElement().getObject());
+    assertFalse(vectors.hasMoreElements());
+  }
+
+  @Test
+  public void testGetVectorsByKey() {
+    VectorStoreOrdinal vectorStore = new VectorStoreOrdinal(FLAG_CONFIG);
+    vectorStore.putVector("first", new RealVector(new float[] {1.0f, 0.0f}));
+    vectorStore.putVector("second", new RealVector(new float[] {0.0f, 1.0f}));
+    Vector[] otherVectors = {
+        new RealVector(new float[] {0.0f, 1.0f}), new RealVector(new float[] {1.0f, 0.0f})};
+    VectorStoreRAM vectorsByKey = vectorStore.getVectorsByKey(otherVectors, FLAG_CONFIG);
+    assertEquals(2, vectorsByKey.getNumVectors());
+    assertSame(otherVectors[0], vectorsByKey.getVector("first"));
+    assertSame(otherVectors[1], vectorsByKey.getVector("second"));
+  }
+}
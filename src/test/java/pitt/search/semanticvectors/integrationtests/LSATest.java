@@ -58,7 +58,15 @@ public class LSATest {
 
   @Test
   public void testBuildAndSearchLSAIndex() throws IOException {
-    String buildCmd = "-luceneindexpath positional_index";
+    checkBuildAndSearchLSAIndex("-luceneindexpath positional_index");
+  }
+
+  @Test
+  public void testBuildAndSearchRandomizedLSAIndex() throws IOException {
+    checkBuildAndSearchLSAIndex("-luceneindexpath positional_index -svdmethod randomized -numthreads 2");
+  }
+
+  private void checkBuildAndSearchLSAIndex(String buildCmd) throws IOException {
     String[] filesToBuild = new String[] {"termvectors.bin", "docvectors.bin"};
     String[] buildArgs = buildCmd.split("\\s+");
     for (String fn : filesToBuild) {
@@ -43,6 +43,7 @@ import pitt.search.semanticvectors.FlagConfig;
 import pitt.search.semanticvectors.PSI;
 import pitt.search.semanticvectors.Search;
 import pitt.search.semanticvectors.SearchResult;
+import pitt.search.semanticvectors.vectors.RealVector;
 import static org.junit.Assert.*;
 
 /**
@@ -53,6 +54,9 @@ import static org.junit.Assert.*;
 public class PSITest {
   @Before
   public void setUp() {
+    // FlagConfig only ever sets the global real bind method to permutation, so put back
+    // the default in case an earlier test left it changed.
+    RealVector.setBindType(RealVector.RealBindMethod.CONVOLUTION);
     try {
       RunTests.prepareTestData();
     } catch (IOException e) {
@@ -117,6 +121,22 @@ public class PSITest {
     assertTrue(rank < 2);
   }
 
+  @Test
+  public void testBuildAndSearchBinaryPSIIndexInParallel() throws IOException, IllegalArgumentException {
+    String buildCmd = "-dimension 4096 -maxnonalphabetchars 20 -vectortype binary -numthreads 4 -luceneindexpath predication_index";
+    String searchCmd = "-searchtype boundproduct -queryvectorfile semanticvectors.bin -boundvectorfile predicatevectors.bin -searchvectorfile elementalvectors.bin -matchcase mexico HAS_CURRENCY";
+    int rank = psiBuildSearchGetRank(buildCmd, searchCmd, "mexican_peso");
+    assertTrue(rank < 2);
+  }
+
+  @Test
+  public void testBuildAndSearchComplexPSIIndexInParallel() throws IOException, IllegalArgumentException {
+    String buildCmd = "-dimension 1000 -maxnonalphabetchars 20 -vectortype complex -seedlength 1000 -numthreads 4 -luceneindexpath predication_index";
+    String searchCmd = "-searchtype boundproduct -queryvectorfile semanticvectors.bin -boundvectorfile predicatevectors.bin -searchvectorfile elementalvectors.bin -matchcase mexico HAS_CURRENCY";
+    int rank = psiBuildSearchGetRank(buildCmd, searchCmd, "mexican_peso");
+    assertTrue(rank < 2);
+  }
+
   @Test
   public void testBuildAndSearchComplexPSIIndex() throws IOException, IllegalArgumentException {
     String buildCmd = "-dimension 1000 -maxnonalphabetchars 20 -vectortype complex -seedlength 1000 -luceneindexpath predication_index";
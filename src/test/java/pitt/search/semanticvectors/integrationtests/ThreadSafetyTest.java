@@ -39,7 +39,14 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 
 import org.junit.Before;
@@ -50,7 +57,10 @@ import pitt.search.semanticvectors.BuildIndex;
 import pitt.search.semanticvectors.FlagConfig;
 import pitt.search.semanticvectors.ObjectVector;
 import pitt.search.semanticvectors.Search;
+import pitt.search.semanticvectors.SearchPlan;
 import pitt.search.semanticvectors.SearchResult;
+import pitt.search.semanticvectors.VectorSearcher;
+import pitt.search.semanticvectors.VectorStoreRAM;
 
 public class ThreadSafetyTest {
   private static final Logger logger = Logger.getLogger(ThreadSafetyTest.class.getCanonicalName());
@@ -119,6 +129,83 @@ public class ThreadSafetyTest {
     System.gc();
   }
 
+  @Test
+  public void TestSharedSearchPlanThreadSafety() throws Exception {
+    String[] buildArgs = new String[] {"-dimension", "200", "-luceneindexpath", "positional_index"};
+    File termFile = new File("termvectors.bin");
+    if (termFile.isFile()) termFile.delete();
+    File docFile = new File("docvectors.bin");
+    if (docFile.isFile()) docFile.delete();
+    BuildIndex.main(buildArgs);
+    assertTrue(termFile.isFile());
+
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(new String[] {"-numsearchresults", "10"});
+    final VectorStoreRAM termVectors = VectorStoreRAM.readFromFile(flagConfig, "termvectors.bin");
+    final SearchPlan searchPlan = new SearchPlan(termVectors, null, flagConfig);
+    final String queries[] = new String[]{"jesus", "mary", "peter", "light", "word"};
+
+    // Snapshot of the shared store, to check that searching leaves it unchanged.
+    Map<Object, String> storeBefore = new HashMap<Object, String>();
+    Enumeration<ObjectVector> vectors = termVectors.getAllVectors();
+    while (vectors.hasMoreElements()) {
+      ObjectVector objectVector = vectors.nextElement();
+      storeBefore.put(objectVector.getObject(), objectVector.getVector().toString());
+    }
+
+    final List<List<SearchResult>> expectedFromTerms = new ArrayList<List<SearchResult>>();
+    final List<List<SearchResult>> expectedFromVectors = new ArrayList<List<SearchResult>>();
+    for (String query : queries) {
+      expectedFromTerms.add(new VectorSearcher.VectorSearcherCosine(
+          termVectors, searchPlan, new String[] {query}).getNearestNeighbors(10));
+      expectedFromVectors.add(searchPlan.getNearestNeighbors(termVectors.getVector(query), 10));
+    }
+
+    // Many queries at once, half with searchers built from the shared plan, half
+    // with the plan searching for a query vector directly.
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    List<Future<Void>> futures = new ArrayList<Future<Void>>();
+    for (int i = 0; i < 40; ++i) {
+      final int queryIndex = i % queries.length;
+      final boolean fromPlan = i % 2 == 0;
+      futures.add(executor.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          if (fromPlan) {
+            assertSameResults(expectedFromVectors.get(queryIndex), searchPlan.getNearestNeighbors(
+                termVectors.getVector(queries[queryIndex]), 10));
+          } else {
+            assertSameResults(expectedFromTerms.get(queryIndex), new VectorSearcher.VectorSearcherCosine(
+                termVectors, searchPlan, new String[] {queries[queryIndex]}).getNearestNeighbors(10));
+          }
+          return null;
+        }
+      }));
+    }
+    executor.shutdown();
+    for (Future<Void> future : futures) {
+      future.get();
+    }
+
+    vectors = termVectors.getAllVectors();
+    while (vectors.hasMoreElements()) {
+      ObjectVector objectVector = vectors.nextElement();
+      assertEquals(storeBefore.get(objectVector.getObject()), objectVector.getVector().toString());
+    }
+
+    termFile.delete();
+    docFile.delete();
+    System.gc();
+  }
+
+  private static void assertSameResults(List<SearchResult> expected, List<SearchResult> actual) {
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); ++i) {
+      assertEquals(expected.get(i).getObjectVector().getObject(),
+          actual.get(i).getObjectVector().getObject());
+      assertEquals(expected.get(i).getScore(), actual.get(i).getScore(), 0);
+    }
+  }
+
   private static void outputSuggestions(String query) throws Exception  {
     String[] args = new String[] {
         "-queryvectorfile", "termvectors.bin", "-numsearchresults", "10",
@@ -0,0 +1,95 @@
+/**
+   Copyright (c) 2015, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors.utils;
+
+import java.nio.charset.Charset;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import pitt.search.semanticvectors.FlagConfig;
+import pitt.search.semanticvectors.VectorStoreWriter;
+import pitt.search.semanticvectors.utils.ContentHash.HashMethod;
+
+/**
+ * Tests for {@link ContentHash} class.
+ */
+public class ContentHashTest extends TestCase {
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final String FOX = "The quick brown fox jumps over the lazy dog";
+
+  @Test
+  public void testMurmur3ReferenceValues() {
+    long[] empty = ContentHash.murmur3(new byte[0]);
+    assertEquals(0L, empty[0]);
+    assertEquals(0L, empty[1]);
+
+    long[] fox = ContentHash.murmur3(FOX.getBytes(UTF8));
+    assertEquals(0xe34bbc7bbc071b6cL, fox[0]);
+    assertEquals(0x7a433ca9c49a9347L, fox[1]);
+  }
+
+  @Test
+  public void testXxHash64ReferenceValues() {
+    assertEquals(0xEF46DB3751D8E999L, ContentHash.xxHash64(new byte[0]));
+    assertEquals(0x44BC2CF5AD770999L, ContentHash.xxHash64("abc".getBytes(UTF8)));
+  }
+
+  @Test
+  public void testBobcatMethodMatchesBobcat() {
+    assertEquals(Bobcat.asLong(FOX), ContentHash.hash(HashMethod.BOBCAT, FOX));
+  }
+
+  @Test
+  public void testHashMethodRecordedInHeader() {
+    FlagConfig flagConfig = FlagConfig.getFlagConfig(new String[] {
+        "-elementalmethod", "contenthash", "-contenthashmethod", "xxhash", "-dimension", "200"});
+    String header = VectorStoreWriter.generateHeaderString(flagConfig);
+
+    FlagConfig readerConfig = FlagConfig.getFlagConfig(null);
+    assertEquals(HashMethod.BOBCAT, readerConfig.contenthashmethod());
+    FlagConfig.mergeWriteableFlagsFromString(header, readerConfig);
+    assertEquals(HashMethod.XXHASH, readerConfig.contenthashmethod());
+    assertEquals(200, readerConfig.dimension());
+
+    // Stores built from other elemental vectors leave the hash method alone.
+    FlagConfig randomConfig = FlagConfig.getFlagConfig(new String[] {"-dimension", "200"});
+    FlagConfig.mergeWriteableFlagsFromString(
+        VectorStoreWriter.generateHeaderString(randomConfig), readerConfig);
+    assertEquals(HashMethod.XXHASH, readerConfig.contenthashmethod());
+  }
+}
@@ -0,0 +1,129 @@
+/**
+   Copyright (c) 2015, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors.vectors;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BinarySketchIndexTest {
+
+  private static RealVector denseRealVector(int dimension, Random random) {
+    float[] coordinates = new float[dimension];
+    for (int i = 0; i < dimension; ++i) {
+      coordinates[i] = (float) random.nextGaussian();
+    }
+    return new RealVector(coordinates);
+  }
+
+  private static long distance(BinaryVector first, BinaryVector second) {
+    return BinaryVectorUtils.xorCount(first.getCoordinates(), second.getCoordinates());
+  }
+
+  @Test
+  public void testSketchesFollowAngles() {
+    Random random = new Random(0);
+    int dimension = 50;
+    Vector[] vectors = new Vector[20];
+    for (int v = 0; v < vectors.length; ++v) {
+      vectors[v] = denseRealVector(dimension, random);
+    }
+    vectors[5] = VectorFactory.generateRandomVector(VectorType.REAL, dimension, 10, random);
+    String sparseBefore = vectors[5].toString();
+    BinarySketchIndex index = new BinarySketchIndex(vectors, 256);
+    assertEquals(vectors.length, index.size());
+    assertEquals(256, index.getNumBits());
+    assertEquals(sparseBefore, vectors[5].toString());
+
+    float[] scaled = ((RealVector) vectors[0]).getCoordinates().clone();
+    float[] negated = scaled.clone();
+    for (int i = 0; i < dimension; ++i) {
+      scaled[i] *= 3;
+      negated[i] = -negated[i];
+    }
+    BinaryVector sketch = index.sketch(vectors[0]);
+    assertEquals(0, distance(sketch, index.sketch(new RealVector(scaled))));
+    assertEquals(256, distance(sketch, index.sketch(new RealVector(negated))));
+
+    // Random vectors are nearly orthogonal, so about half their sketch bits differ.
+    long differences = distance(sketch, index.sketch(vectors[1]));
+    assertTrue(differences > 64 && differences < 192);
+  }
+
+  @Test
+  public void testCandidatesAreNearestSketchesInOrder() {
+    Random random = new Random(1);
+    int dimension = 32;
+    Vector[] vectors = new Vector[300];
+    for (int v = 0; v < vectors.length; ++v) {
+      vectors[v] = VectorFactory.generateRandomVector(VectorType.COMPLEX, dimension, dimension, random);
+    }
+    // Equal sketches are chosen in order of position.
+    vectors[250] = vectors[7].copy();
+    vectors[260] = vectors[7].copy();
+    BinarySketchIndex index = new BinarySketchIndex(vectors, 128);
+
+    Vector query = vectors[7].copy();
+    int[] candidates = index.getCandidates(query, 2);
+    assertArrayEquals(new int[] {7, 250}, candidates);
+
+    candidates = index.getCandidates(query, 40);
+    assertEquals(40, candidates.length);
+    long worstChosen = 0;
+    boolean[] chosen = new boolean[vectors.length];
+    BinaryVector querySketch = index.sketch(query);
+    for (int i = 0; i < candidates.length; ++i) {
+      if (i > 0) {
+        assertTrue(candidates[i - 1] < candidates[i]);
+      }
+      chosen[candidates[i]] = true;
+      worstChosen = Math.max(worstChosen, distance(querySketch, index.sketch(vectors[candidates[i]])));
+    }
+    for (int v = 0; v < vectors.length; ++v) {
+      if (!chosen[v]) {
+        assertTrue(distance(querySketch, index.sketch(vectors[v])) >= worstChosen);
+      }
+    }
+    assertEquals(vectors.length, index.getCandidates(query, 1000).length);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRejectsBinaryVectors() {
+    new BinarySketchIndex(new Vector[] {VectorFactory.createZeroVector(VectorType.BINARY, 64)}, 64);
+  }
+}
@@ -144,6 +144,35 @@ public class BinaryVectorTest extends TestCase {
     assertTrue(0.45 > vector1.measureOverlap(vector2));
   }
 
+  @Test
+  public void testMergeVotingRecord() {
+    int dim = 256;
+    Random random = new Random(0);
+    Vector[] elementalVectors = new Vector[4];
+    for (int i = 0; i < elementalVectors.length; ++i) {
+      elementalVectors[i] = VectorFactory.generateRandomVector(VectorType.BINARY, dim, dim/2, random);
+    }
+    int[] weights = {3, 5, 2, 1};
+
+    BinaryVector serial = (BinaryVector) VectorFactory.createZeroVector(VectorType.BINARY, dim);
+    BinaryVector firstPartial = (BinaryVector) VectorFactory.createZeroVector(VectorType.BINARY, dim);
+    BinaryVector secondPartial = (BinaryVector) VectorFactory.createZeroVector(VectorType.BINARY, dim);
+    for (int i = 0; i < elementalVectors.length; ++i) {
+      serial.superpose(elementalVectors[i], weights[i], null);
+      if (i % 2 == 0) {
+        firstPartial.superpose(elementalVectors[i], weights[i], null);
+      } else {
+        secondPartial.superpose(elementalVectors[i], weights[i], null);
+      }
+    }
+
+    BinaryVector merged = (BinaryVector) VectorFactory.createZeroVector(VectorType.BINARY, dim);
+    merged.mergeVotingRecord(firstPartial);
+    merged.mergeVotingRecord(secondPartial);
+    assertEquals(serial.totalNumberOfVotes, merged.totalNumberOfVotes);
+    assertEquals(serial.concludeVote(), merged.concludeVote());
+  }
+
   @Test
   public void testCreateZeroVectorAndOverlap() {
     Vector zero = VectorFactory.createZeroVector(VectorType.BINARY, 64);
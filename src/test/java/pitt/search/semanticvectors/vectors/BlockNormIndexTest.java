@@ -0,0 +1,93 @@
+/**
+   Copyright (c) 2015, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors.vectors;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BlockNormIndexTest {
+
+  private static RealVector denseRealVector(int dimension, Random random) {
+    float[] coordinates = new float[dimension];
+    for (int i = 0; i < dimension; ++i) {
+      coordinates[i] = (float) random.nextGaussian();
+    }
+    return new RealVector(coordinates);
+  }
+
+  @Test
+  public void testScoresMatchMeasureOverlapUnlessAbandoned() {
+    Random random = new Random(0);
+    // Not a multiple of the block size, so the last block is short.
+    int dimension = 70;
+    Vector[] vectors = new Vector[100];
+    for (int v = 0; v < vectors.length; ++v) {
+      vectors[v] = denseRealVector(dimension, random);
+    }
+    vectors[3] = VectorFactory.createZeroVector(VectorType.REAL, dimension);
+    vectors[4] = VectorFactory.generateRandomVector(VectorType.REAL, dimension, 10, random);
+    String sparseBefore = vectors[4].toString();
+    BlockNormIndex index = new BlockNormIndex(vectors, 16);
+    assertEquals(vectors.length, index.size());
+    assertEquals(sparseBefore, vectors[4].toString());
+
+    Vector query = denseRealVector(dimension, random);
+    BlockNormIndex.Scorer scorer = index.getScorer(query);
+    int numAbandoned = 0;
+    for (int v = 0; v < vectors.length; ++v) {
+      double expected = query.copy().measureOverlap(vectors[v].copy());
+      assertEquals(expected, scorer.measureOverlap(v, Double.NEGATIVE_INFINITY), 0);
+      for (double cutoff : new double[] {-0.5, 0, 0.1, 0.3, expected, Math.nextUp(expected)}) {
+        double score = scorer.measureOverlap(v, cutoff);
+        if (score == BlockNormIndex.ABANDONED) {
+          assertTrue(expected < cutoff);
+          ++numAbandoned;
+        } else {
+          assertEquals(expected, score, 0);
+        }
+      }
+    }
+    assertTrue(numAbandoned > 0);
+  }
+
+  @Test(expected = IncompatibleVectorsException.class)
+  public void testRejectsNonRealVectors() {
+    new BlockNormIndex(new Vector[] {VectorFactory.createZeroVector(VectorType.BINARY, 64)}, 16);
+  }
+}
@@ -0,0 +1,167 @@
+/**
+   Copyright (c) 2015, the SemanticVectors AUTHORS.
+
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are
+   met:
+
+ * Redistributions of source code must retain the above copyright
+   notice, this list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above
+   copyright notice, this list of conditions and the following
+   disclaimer in the documentation and/or other materials provided
+   with the distribution.
+
+ * Neither the name of the University of Pittsburgh nor the names
+   of its contributors may be used to endorse or promote products
+   derived from this software without specific prior written
+   permission.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+   A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+   CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+   EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+   PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+   PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+   LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+
+package pitt.search.semanticvectors.vectors;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class QueryBlockTest {
+
+  private static RealVector denseRealVector(int dimension, Random random) {
+    float[] coordinates = new float[dimension];
+    for (int i = 0; i < dimension; ++i) {
+      coordinates[i] = (float) random.nextGaussian();
+    }
+    return new RealVector(coordinates);
+  }
+
+  /** Checks that the block gives exactly the scores of measureOverlap for each pair. */
+  private static void checkScores(List<Vector> queries, Vector[] tests) {
+    List<String> testsBefore = new ArrayList<String>();
+    for (Vector test : tests) {
+      testsBefore.add(test.toString());
+    }
+    QueryBlock queryBlock = new QueryBlock(queries);
+    double[][] scores = new double[queries.size()][tests.length];
+    queryBlock.measureOverlaps(tests, tests.length, scores);
+    for (int t = 0; t < tests.length; ++t) {
+      assertEquals(testsBefore.get(t), tests[t].toString());
+    }
+
+    for (int q = 0; q < queries.size(); ++q) {
+      assertEquals(queries.get(q).isZeroVector(), queryBlock.isZeroQuery(q));
+      for (int t = 0; t < tests.length; ++t) {
+        assertEquals(queries.get(q).copy().measureOverlap(tests[t].copy()), scores[q][t], 0);
+      }
+    }
+  }
+
+  @Test
+  public void testRealScoresMatchMeasureOverlap() {
+    Random random = new Random(0);
+    int dimension = 200;
+    List<Vector> queries = new ArrayList<Vector>();
+    for (int q = 0; q < 5; ++q) {
+      queries.add(denseRealVector(dimension, random));
+    }
+    queries.add(VectorFactory.generateRandomVector(VectorType.REAL, dimension, 10, random));
+    queries.add(VectorFactory.createZeroVector(VectorType.REAL, dimension));
+
+    Vector[] tests = new Vector[20];
+    for (int t = 0; t < 18; ++t) {
+      tests[t] = denseRealVector(dimension, random);
+    }
+    tests[18] = VectorFactory.generateRandomVector(VectorType.REAL, dimension, 10, random);
+    tests[19] = new RealVector(new float[dimension]);
+    checkScores(queries, tests);
+  }
+
+  @Test
+  public void testBinaryScoresMatchMeasureOverlap() {
+    Random random = new Random(0);
+    int dimension = 256;
+    Vector[] tests = new Vector[20];
+    for (int t = 0; t < tests.length; ++t) {
+      tests[t] = VectorFactory.generateRandomVector(VectorType.BINARY, dimension, dimension / 2, random);
+    }
+    List<Vector> queries = new ArrayList<Vector>();
+    for (int q = 0; q < 4; ++q) {
+      queries.add(VectorFactory.generateRandomVector(VectorType.BINARY, dimension, dimension / 2, random));
+    }
+    Vector superposition = VectorFactory.createZeroVector(VectorType.BINARY, dimension);
+    for (int t = 0; t < 3; ++t) {
+      superposition.superpose(tests[t], 1, null);
+    }
+    superposition.normalize();
+    queries.add(superposition);
+    checkScores(queries, tests);
+  }
+
+  @Test
+  public void testComplexScoresMatchMeasureOverlap() {
+    Random random = new Random(0);
+    int dimension = 100;
+    Vector[] tests = new Vector[10];
+    for (int t = 0; t < tests.length; ++t) {
+      tests[t] = VectorFactory.generateRandomVector(VectorType.COMPLEX, dimension, 20, random);
+      tests[t].normalize();
+    }
+    List<Vector> queries = new ArrayList<Vector>();
+    for (int q = 0; q < 3; ++q) {
+      Vector query = VectorFactory.createZeroVector(VectorType.COMPLEX, dimension);
+      query.superpose(tests[q], 1, null);
+      query.superpose(tests[q + 1], 1, null);
+      query.normalize();
+      queries.add(query);
+    }
+
+    QueryBlock queryBlock = new QueryBlock(queries);
+    double[][] scores = new double[queries.size()][tests.length];
+    queryBlock.measureOverlaps(tests, tests.length, scores);
+    for (int q = 0; q < queries.size(); ++q) {
+      for (int t = 0; t < tests.length; ++t) {
+        assertEquals(queries.get(q).measureOverlap(tests[t]), scores[q][t], 0);
+      }
+    }
+  }
+
+  @Test
+  public void testIncompatibleVectorsRejected() {
+    List<Vector> queries = new ArrayList<Vector>();
+    queries.add(new RealVector(new float[] {1, 0}));
+    QueryBlock queryBlock = new QueryBlock(queries);
+    try {
+      queryBlock.measureOverlaps(
+          new Vector[] {new RealVector(new float[] {1, 0, 0})}, 1, new double[1][1]);
+      fail();
+    } catch (IncompatibleVectorsException e) {
+      assertTrue(e.getMessage().contains("dimension"));
+    }
+
+    queries.add(new RealVector(new float[] {1, 0, 0}));
+    try {
+      new QueryBlock(queries);
+      fail();
+    } catch (IncompatibleVectorsException e) {
+      assertTrue(e.getMessage().contains("dimension"));
+    }
+  }
+}
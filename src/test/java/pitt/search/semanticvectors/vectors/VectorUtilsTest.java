@@ -67,6 +67,24 @@ public class VectorUtilsTest extends TestCase {
     assertEquals(0, list.get(1).measureOverlap(list.get(2)), TOL);
   }
 
+  @Test
+  public void testPrepareForComparison() {
+    ComplexVector complexVector = new ComplexVector(new float[] {1, 0, 0, 1});
+    assertEquals(ComplexVector.Mode.CARTESIAN, complexVector.getOpMode());
+    ComplexVector copy = complexVector.copy();
+    VectorUtils.prepareForComparison(complexVector);
+    assertEquals(ComplexVector.Mode.POLAR_DENSE, complexVector.getOpMode());
+    // Comparing the vector afterwards does not convert it again.
+    copy.measureOverlap(complexVector);
+    assertEquals(ComplexVector.Mode.POLAR_DENSE, complexVector.getOpMode());
+
+    Vector sparseVector = VectorFactory.generateRandomVector(
+        VectorType.REAL, 20, 4, new java.util.Random(0));
+    assertTrue(sparseVector.toString().contains("Sparse"));
+    VectorUtils.prepareForComparison(sparseVector);
+    assertTrue(sparseVector.toString().contains("Dense"));
+  }
+
   /*
   @Test
   public void testGetNLargestPositions() {